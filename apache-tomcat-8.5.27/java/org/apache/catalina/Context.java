@@ -1848,4 +1848,47 @@ public interface Context extends Container, ContextBind {
      * @return The default response body encoding
      */
     public String getResponseCharacterEncoding();
+
+    /**
+     * Configure whether the class files of the JARs of this web application are
+     * scanned for annotations and {@link javax.servlet.annotation.HandlesTypes}
+     * matches in parallel, using one thread per available processor. The
+     * results are merged in the same order as when scanning sequentially.
+     *
+     * @param parallelAnnotationScanning {@code true} to scan in parallel,
+     *        otherwise {@code false}
+     */
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning);
+
+    /**
+     * Are the class files of the JARs of this web application scanned for
+     * annotations and {@link javax.servlet.annotation.HandlesTypes} matches in
+     * parallel?
+     *
+     * @return {@code true} if the JARs are scanned in parallel, otherwise
+     *         {@code false}
+     */
+    public boolean getParallelAnnotationScanning();
+
+    /**
+     * Configure whether the results of scanning the JARs of this web
+     * application for annotations and
+     * {@link javax.servlet.annotation.HandlesTypes} matches are stored in the
+     * work directory and used, for the JARs that have not changed, the next
+     * time this web application starts.
+     *
+     * @param useAnnotationScanIndex {@code true} to use the index, otherwise
+     *        {@code false}
+     */
+    public void setUseAnnotationScanIndex(boolean useAnnotationScanIndex);
+
+    /**
+     * Are the results of scanning the JARs of this web application for
+     * annotations and {@link javax.servlet.annotation.HandlesTypes} matches
+     * stored in the work directory and used the next time this web application
+     * starts?
+     *
+     * @return {@code true} if the index is used, otherwise {@code false}
+     */
+    public boolean getUseAnnotationScanIndex();
 }
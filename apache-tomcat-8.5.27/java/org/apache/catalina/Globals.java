@@ -182,6 +182,30 @@ public final class Globals {
             org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR;
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass
+     * to the connector several parts of a file that are to be served
+     * by sendfile. The value should be {@code long[]} containing the
+     * start offset and end offset (not including) of each part.
+     *
+     * Duplicated here for neater code in the catalina packages.
+     */
+    public static final String SENDFILE_FILE_RANGES_ATTR =
+            org.apache.coyote.Constants.SENDFILE_FILE_RANGES_ATTR;
+
+
+    /**
+     * The request attribute that can be used by a servlet to pass
+     * to the connector the data to be written before each of the parts
+     * set with {@link #SENDFILE_FILE_RANGES_ATTR} and after the last
+     * part. The value should be {@code byte[][]}.
+     *
+     * Duplicated here for neater code in the catalina packages.
+     */
+    public static final String SENDFILE_RANGE_HEADERS_ATTR =
+            org.apache.coyote.Constants.SENDFILE_RANGE_HEADERS_ATTR;
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
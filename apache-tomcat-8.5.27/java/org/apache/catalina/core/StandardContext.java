@@ -815,6 +815,10 @@ public class StandardContext extends ContainerBase
 
     private String responseEncoding = null;
 
+    private boolean parallelAnnotationScanning = false;
+
+    private boolean useAnnotationScanIndex = false;
+
     // ----------------------------------------------------- Context Properties
 
     @Override
@@ -847,6 +851,40 @@ public class StandardContext extends ContainerBase
     }
 
 
+    @Override
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning) {
+        this.parallelAnnotationScanning = parallelAnnotationScanning;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The default value for this implementation is {@code false}.
+     */
+    @Override
+    public boolean getParallelAnnotationScanning() {
+        return parallelAnnotationScanning;
+    }
+
+
+    @Override
+    public void setUseAnnotationScanIndex(boolean useAnnotationScanIndex) {
+        this.useAnnotationScanIndex = useAnnotationScanIndex;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The default value for this implementation is {@code false}.
+     */
+    @Override
+    public boolean getUseAnnotationScanIndex() {
+        return useAnnotationScanIndex;
+    }
+
+
     /**
      * {@inheritDoc}
      * <p>
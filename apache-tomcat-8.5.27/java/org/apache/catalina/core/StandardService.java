@@ -113,6 +113,46 @@ public class StandardService extends LifecycleMBeanBase implements Service {
     }
 
 
+    /**
+     * @return the maximum number of request mapping results cached by the
+     *         mapper of this Service
+     */
+    public int getMapperCacheSize() {
+        return mapper.getCacheSize();
+    }
+
+
+    /**
+     * Set the maximum number of request mapping results to cache. Zero
+     * disables the cache.
+     *
+     * @param mapperCacheSize The maximum number of cached results
+     */
+    public void setMapperCacheSize(int mapperCacheSize) {
+        mapper.setCacheSize(mapperCacheSize);
+    }
+
+
+    /**
+     * @return the time, in milliseconds, for which a cached request mapping
+     *         result is used
+     */
+    public long getMapperCacheTtl() {
+        return mapper.getCacheTtl();
+    }
+
+
+    /**
+     * Set the time, in milliseconds, for which a cached request mapping result
+     * is used.
+     *
+     * @param mapperCacheTtl The time for which a result is used
+     */
+    public void setMapperCacheTtl(long mapperCacheTtl) {
+        mapper.setCacheTtl(mapperCacheTtl);
+    }
+
+
     @Override
     public Engine getContainer() {
         return engine;
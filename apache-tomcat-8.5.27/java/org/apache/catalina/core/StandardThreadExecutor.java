@@ -91,6 +91,13 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     protected long threadRenewalDelay =
         org.apache.tomcat.util.threads.Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Target time in milliseconds that tasks wait in the queue. If greater
+     * than zero the pool is sized between minSpareThreads and maxThreads to
+     * meet this target.
+     */
+    protected long targetQueueDelay = -1;
+
     private TaskQueue taskqueue = null;
     // ---------------------------------------------- Constructors
     public StandardThreadExecutor() {
@@ -120,6 +127,7 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix,daemon,getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
         executor.setThreadRenewalDelay(threadRenewalDelay);
+        executor.setTargetQueueDelay(targetQueueDelay, TimeUnit.MILLISECONDS);
         if (prestartminSpareThreads) {
             executor.prestartAllCoreThreads();
         }
@@ -275,6 +283,17 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         }
     }
 
+    public long getTargetQueueDelay() {
+        return targetQueueDelay;
+    }
+
+    public void setTargetQueueDelay(long targetQueueDelay) {
+        this.targetQueueDelay = targetQueueDelay;
+        if (executor != null) {
+            executor.setTargetQueueDelay(targetQueueDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+
     // Statistics from the thread pool
     @Override
     public int getActiveCount() {
@@ -302,6 +321,18 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         return (executor != null) ? executor.getQueue().size() : -1;
     }
 
+    public double getQueueDelay() {
+        return (executor != null) ? executor.getQueueDelay() : -1;
+    }
+
+    public double getServiceTime() {
+        return (executor != null) ? executor.getServiceTime() : -1;
+    }
+
+    public double getArrivalRate() {
+        return (executor != null) ? executor.getArrivalRate() : -1;
+    }
+
 
     @Override
     public boolean resizePool(int corePoolSize, int maximumPoolSize) {
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+
+/**
+ * An Executor that runs each task on a new virtual thread. This allows
+ * blocking I/O in applications without requiring a large pool of platform
+ * threads.
+ * <p>
+ * Virtual threads require Java 21 or later. On earlier JREs a warning is logged
+ * and the executor falls back to the behaviour of
+ * {@link StandardThreadExecutor}, using the same pool configuration
+ * attributes.
+ */
+public class StandardVirtualThreadExecutor extends StandardThreadExecutor {
+
+    private static final Log log = LogFactory.getLog(StandardVirtualThreadExecutor.class);
+    private static final StringManager sm =
+        StringManager.getManager(Constants.Package);
+
+    /**
+     * The virtual thread executor in use. <code>null</code> if the executor
+     * has not been started or has fallen back to a platform thread pool.
+     */
+    private VirtualThreadExecutor virtualExecutor = null;
+
+
+    public StandardVirtualThreadExecutor() {
+        namePrefix = "tomcat-virt-";
+    }
+
+
+    /**
+     * @return <code>true</code> if the executor is running tasks on virtual
+     *         threads, <code>false</code> if it is stopped or has fallen back
+     *         to a platform thread pool
+     */
+    public boolean isVirtual() {
+        return virtualExecutor != null;
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        if (VirtualThreadExecutor.isSupported()) {
+            virtualExecutor = new VirtualThreadExecutor(getNamePrefix());
+            setState(LifecycleState.STARTING);
+        } else {
+            log.warn(sm.getString("standardVirtualThreadExecutor.notSupported", getName()));
+            super.startInternal();
+        }
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        if (virtualExecutor != null) {
+            setState(LifecycleState.STOPPING);
+            virtualExecutor.shutdown();
+            virtualExecutor = null;
+        } else {
+            super.stopInternal();
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            // Tasks are never queued so there is nothing to time out
+            virtualExecutor.execute(command);
+        } else {
+            super.execute(command, timeout, unit);
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            try {
+                virtualExecutor.execute(command);
+            } catch (RejectedExecutionException rx) {
+                throw new IllegalStateException("StandardVirtualThreadExecutor not started.", rx);
+            }
+        } else {
+            super.execute(command);
+        }
+    }
+
+
+    @Override
+    public void contextStopping() {
+        // Virtual threads are never re-used so there are no threads to renew
+        if (virtualExecutor == null) {
+            super.contextStopping();
+        }
+    }
+
+
+    // Statistics from the virtual thread executor or the thread pool
+
+    @Override
+    public int getActiveCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getActiveCount();
+        }
+        return super.getActiveCount();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getCompletedTaskCount();
+        }
+        return super.getCompletedTaskCount();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getLargestPoolSize();
+        }
+        return super.getLargestPoolSize();
+    }
+
+    @Override
+    public int getPoolSize() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            return virtualExecutor.getPoolSize();
+        }
+        return super.getPoolSize();
+    }
+
+    @Override
+    public int getMaxThreads() {
+        if (virtualExecutor != null) {
+            return virtualExecutor.getMaxThreads();
+        }
+        return super.getMaxThreads();
+    }
+
+    @Override
+    public int getQueueSize() {
+        if (virtualExecutor != null) {
+            // Tasks are never queued
+            return 0;
+        }
+        return super.getQueueSize();
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (virtualExecutor != null) {
+            return false;
+        }
+        return super.resizePool(corePoolSize, maximumPoolSize);
+    }
+}
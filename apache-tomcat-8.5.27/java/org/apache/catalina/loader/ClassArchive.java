@@ -0,0 +1,353 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceRoot;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A single file containing the class files of the classes a web application
+ * class loader loaded from the web application, in the order they were
+ * loaded. The file is written when the class loader stops and is read in to
+ * memory when the web application next starts so the classes may be defined
+ * without reading them from the web application's resources, usually JARs.
+ * The file is not kept open or mapped so it may be replaced or deleted at any
+ * time.
+ * <p>
+ * Each class file is stored with the file it was read from, either a JAR or
+ * the class file itself, and the archive records the path, size and SHA-256
+ * digest of each of those files. The first time a class from a file is
+ * requested the digest of the file is calculated and, if the file has
+ * changed, none of the class files read from it are used. Last modified times
+ * are not used since the times of JAR entries are often fixed by the build.
+ * Classes from signed JARs, and classes that are not read from a file on the
+ * file system, are not stored.
+ * <p>
+ * Instances are safe for use by concurrent threads.
+ */
+class ClassArchive {
+
+    private static final Log log = LogFactory.getLog(ClassArchive.class);
+    private static final StringManager sm = StringManager.getManager(ClassArchive.class);
+
+    private static final int MAGIC = 0x54434c41;
+    // Increment if the format changes
+    private static final int VERSION = 2;
+
+    private final ByteBuffer buffer;
+    private final List<String> classNames;
+    private final Map<String,Entry> entries;
+
+
+    private ClassArchive(ByteBuffer buffer, List<String> classNames,
+            Map<String,Entry> entries) {
+        this.buffer = buffer;
+        this.classNames = classNames;
+        this.entries = entries;
+    }
+
+
+    /**
+     * @return The names of the classes in the archive in the order they were
+     *         loaded
+     */
+    List<String> getClassNames() {
+        return classNames;
+    }
+
+
+    /**
+     * Obtain the class file for the given class if it is in the archive and
+     * the file it was read from has not changed.
+     *
+     * @param name     The binary name of the class
+     * @param resource The resource for the class file
+     *
+     * @return The class file or <code>null</code> if the archive does not
+     *         contain an up to date copy of the class file
+     */
+    byte[] getContent(String name, WebResource resource) {
+        Entry entry = entries.get(name);
+        if (entry == null || entry.length != resource.getContentLength()) {
+            return null;
+        }
+        File sourceFile = getSourceFile(resource);
+        if (sourceFile == null || !entry.source.path.equals(sourceFile.getAbsolutePath()) ||
+                !entry.source.isValid()) {
+            return null;
+        }
+        byte[] result = new byte[entry.length];
+        ByteBuffer content = buffer.duplicate();
+        content.position(entry.position);
+        content.get(result);
+        return result;
+    }
+
+
+    /**
+     * Open an archive.
+     *
+     * @param file The archive file
+     *
+     * @return The archive or <code>null</code> if the file does not exist or
+     *         is not a valid archive
+     */
+    static ClassArchive open(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() > Integer.MAX_VALUE) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC ||
+                    buffer.getInt() != VERSION) {
+                return null;
+            }
+            List<String> classNames = new ArrayList<>();
+            // Class name -> {source index, position, length}
+            Map<String,int[]> positions = new HashMap<>();
+            String name;
+            // An empty name marks the end of the class files
+            while ((name = readString(buffer)).length() > 0) {
+                int sourceIndex = buffer.getInt();
+                int length = buffer.getInt();
+                int position = buffer.position();
+                buffer.position(position + length);
+                classNames.add(name);
+                positions.put(name, new int[] { sourceIndex, position, length });
+            }
+            // The files the classes were read from follow the class files
+            Source[] sources = new Source[buffer.getInt()];
+            for (int i = 0; i < sources.length; i++) {
+                String path = readString(buffer);
+                long size = buffer.getLong();
+                byte[] digest = new byte[buffer.getInt()];
+                buffer.get(digest);
+                sources[i] = new Source(path, size, digest);
+            }
+            Map<String,Entry> entries = new HashMap<>();
+            for (Map.Entry<String,int[]> position : positions.entrySet()) {
+                int[] value = position.getValue();
+                entries.put(position.getKey(),
+                        new Entry(sources[value[0]], value[1], value[2]));
+            }
+            buffer.rewind();
+            return new ClassArchive(buffer, Collections.unmodifiableList(classNames),
+                    entries);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException |
+                IndexOutOfBoundsException | NegativeArraySizeException e) {
+            log.warn(sm.getString("classArchive.readFail", file), e);
+            return null;
+        }
+    }
+
+
+    /**
+     * Write an archive of the given classes, read from the given resources.
+     * Classes that can no longer be read are skipped.
+     *
+     * @param file       The archive file
+     * @param classNames The binary names of the classes in the order they
+     *                   were loaded
+     * @param resources  The resources to read the classes from
+     */
+    static void write(File file, List<String> classNames, WebResourceRoot resources) {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                List<Source> sources = new ArrayList<>();
+                // Source path -> index
+                Map<String,Integer> sourceIndexes = new HashMap<>();
+                for (String name : classNames) {
+                    WebResource resource = resources.getClassLoaderResource(
+                            "/" + name.replace('.', '/') + ".class");
+                    byte[] content = resource.getContent();
+                    if (content == null || resource.getCertificates() != null) {
+                        continue;
+                    }
+                    File sourceFile = getSourceFile(resource);
+                    if (sourceFile == null) {
+                        continue;
+                    }
+                    String path = sourceFile.getAbsolutePath();
+                    Integer index = sourceIndexes.get(path);
+                    if (index == null) {
+                        byte[] digest = digest(sourceFile);
+                        if (digest == null) {
+                            continue;
+                        }
+                        index = Integer.valueOf(sources.size());
+                        sourceIndexes.put(path, index);
+                        sources.add(new Source(path, sourceFile.length(), digest));
+                    }
+                    writeString(dos, name);
+                    dos.writeInt(index.intValue());
+                    dos.writeInt(content.length);
+                    dos.write(content);
+                }
+                writeString(dos, "");
+                dos.writeInt(sources.size());
+                for (Source source : sources) {
+                    writeString(dos, source.path);
+                    dos.writeLong(source.size);
+                    dos.writeInt(source.digest.length);
+                    dos.write(source.digest);
+                }
+            }
+            if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+                throw new IOException(sm.getString("classArchive.renameFail", tmp, file));
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString("classArchive.writeFail", file), ioe);
+            if (tmp.exists() && !tmp.delete()) {
+                log.warn(sm.getString("classArchive.deleteFail", tmp));
+            }
+        }
+    }
+
+
+    /**
+     * Determine the file on the file system the class file is read from.
+     *
+     * @param resource The resource for the class file
+     *
+     * @return The class file itself, the JAR that contains it or
+     *         <code>null</code> if it is not read from a file on the file
+     *         system
+     */
+    private static File getSourceFile(WebResource resource) {
+        String canonicalPath = resource.getCanonicalPath();
+        if (canonicalPath != null) {
+            return new File(canonicalPath);
+        }
+        // Resources in a JAR use the JAR as their code base
+        URL codeBase = resource.getCodeBase();
+        if (codeBase != null && "file".equals(codeBase.getProtocol())) {
+            try {
+                return new File(codeBase.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                // Not a file
+            }
+        }
+        return null;
+    }
+
+
+    private static byte[] digest(File file) {
+        try (InputStream is = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+            return md.digest();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn(sm.getString("classArchive.digestFail", file), e);
+            return null;
+        }
+    }
+
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+
+    /**
+     * A file that class files were read from.
+     */
+    private static class Source {
+        private final String path;
+        private final long size;
+        private final byte[] digest;
+        private Boolean valid = null;
+
+        private Source(String path, long size, byte[] digest) {
+            this.path = path;
+            this.size = size;
+            this.digest = digest;
+        }
+
+        /**
+         * @return <code>true</code> if the file still has the size and digest
+         *         it had when the archive was written
+         */
+        private synchronized boolean isValid() {
+            if (valid == null) {
+                File file = new File(path);
+                valid = Boolean.valueOf(file.length() == size &&
+                        Arrays.equals(digest, digest(file)));
+            }
+            return valid.booleanValue();
+        }
+    }
+
+
+    private static class Entry {
+        private final Source source;
+        private final int position;
+        private final int length;
+
+        private Entry(Source source, int position, int length) {
+            this.source = source;
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
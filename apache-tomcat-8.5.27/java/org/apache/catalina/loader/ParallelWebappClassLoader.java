@@ -41,6 +41,17 @@ public class ParallelWebappClassLoader extends WebappClassLoaderBase {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation uses one thread per available processor.
+     */
+    @Override
+    protected int getClassPreloadThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+
     /**
      * Returns a copy of this class loader without any class file
      * transformers. This is a tool often used by Java Persistence API
@@ -51,9 +51,13 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.Attributes.Name;
 import java.util.jar.Manifest;
@@ -396,6 +400,41 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     private volatile LifecycleState state = LifecycleState.NEW;
 
 
+    /**
+     * The file used to store the classes loaded by this class loader so they
+     * can be preloaded when it next starts or <code>null</code> if the classes
+     * are not stored.
+     */
+    private File classArchiveFile = null;
+
+
+    /**
+     * The archive of classes being preloaded, if any.
+     */
+    private volatile ClassArchive classArchive = null;
+
+
+    /**
+     * The names of the classes defined by this class loader that the web
+     * application has requested, in the order they were requested. Classes
+     * that are only loaded by the preload threads are not recorded so that
+     * classes the web application no longer uses are dropped from the archive.
+     * Only recorded if a class archive is used.
+     */
+    private final Queue<String> definedClassNames = new ConcurrentLinkedQueue<>();
+
+
+    private final Set<String> recordedClassNames =
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+
+
+    private final Set<Thread> preloadThreads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+
+    private volatile boolean preloadStopped = false;
+
+
     // ------------------------------------------------------------- Properties
 
     /**
@@ -606,6 +645,28 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     }
 
 
+    /**
+     * @return the file used to store the classes loaded by this class loader
+     */
+    public File getClassArchiveFile() {
+        return classArchiveFile;
+    }
+
+
+    /**
+     * Set the file used to store the classes loaded by this class loader when
+     * it stops. Once the web application has started, the classes in the file
+     * that are unchanged are loaded in the background, in the order they were
+     * originally loaded. Must be set before the class loader is started.
+     *
+     * @param classArchiveFile The file or <code>null</code> to not store the
+     *                         loaded classes
+     */
+    public void setClassArchiveFile(File classArchiveFile) {
+        this.classArchiveFile = classArchiveFile;
+    }
+
+
     // ------------------------------------------------------- Reloader Methods
 
     /**
@@ -630,6 +691,9 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             return;
         }
         this.transformers.add(transformer);
+        // Classes must not be loaded ahead of the application once it has a
+        // transformer since the application may depend on the load order
+        preloadStopped = true;
 
         log.info(sm.getString("webappClassLoader.addTransformer", transformer, getContextName()));
     }
@@ -1162,6 +1226,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
             if (clazz != null) {
                 if (log.isDebugEnabled())
                     log.debug("  Returning class from cache");
+                recordClass(clazz);
                 if (resolve)
                     resolveClass(clazz);
                 return (clazz);
@@ -1261,6 +1326,7 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                 if (clazz != null) {
                     if (log.isDebugEnabled())
                         log.debug("  Loading class from local repository");
+                    recordClass(clazz);
                     if (resolve)
                         resolveClass(clazz);
                     return (clazz);
@@ -1476,6 +1542,19 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     @Override
     public void stop() throws LifecycleException {
 
+        if (classArchiveFile != null) {
+            // Before the state changes so preloading does not trigger any
+            // illegal access errors
+            stopPreload();
+            // Don't replace the archive if the class loader failed to start
+            if (state.isAvailable() && resources != null) {
+                ClassArchive.write(classArchiveFile,
+                        new ArrayList<>(definedClassNames), resources);
+            }
+            definedClassNames.clear();
+            recordedClassNames.clear();
+        }
+
         state = LifecycleState.STOPPING_PREP;
 
         // Clearing references should be done before setting started to
@@ -1508,6 +1587,107 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
     }
 
 
+    /**
+     * @return the number of threads used to preload classes from the class
+     *         archive
+     */
+    protected int getClassPreloadThreads() {
+        return 1;
+    }
+
+
+    /**
+     * Start loading, in the background, the classes in the class archive that
+     * have not changed. Called once the web application has started. Classes
+     * are not preloaded if a class file transformer has been added and
+     * preloading stops if one is added later.
+     */
+    void startPreload() {
+        if (classArchiveFile == null || !state.isAvailable() || transformers.size() > 0) {
+            return;
+        }
+        final ClassArchive classArchive = ClassArchive.open(classArchiveFile);
+        if (classArchive == null) {
+            return;
+        }
+        this.classArchive = classArchive;
+
+        final List<String> classNames = classArchive.getClassNames();
+        final AtomicInteger next = new AtomicInteger(0);
+        int threadCount = getClassPreloadThreads();
+        final AtomicInteger running = new AtomicInteger(threadCount);
+        Runnable preloader = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int i;
+                    while (!preloadStopped && (i = next.getAndIncrement()) < classNames.size()) {
+                        String name = classNames.get(i);
+                        try {
+                            loadClass(name);
+                        } catch (ClassNotFoundException | LinkageError e) {
+                            if (log.isDebugEnabled()) {
+                                log.debug(sm.getString("webappClassLoader.preloadFail", name), e);
+                            }
+                        }
+                    }
+                } finally {
+                    if (running.decrementAndGet() == 0) {
+                        // Release the archive once all classes are loaded
+                        WebappClassLoaderBase.this.classArchive = null;
+                    }
+                }
+            }
+        };
+        for (int i = 0; i < threadCount; i++) {
+            Thread t = new Thread(preloader, getContextName() + "-classPreload-" + i);
+            t.setDaemon(true);
+            preloadThreads.add(t);
+            t.start();
+        }
+    }
+
+
+    /**
+     * Record a class defined by this class loader, and the super types it
+     * requires, for the class archive unless the class is being loaded by a
+     * preload thread.
+     *
+     * @param clazz The class
+     */
+    private void recordClass(Class<?> clazz) {
+        if (classArchiveFile == null || clazz == null || clazz.getClassLoader() != this ||
+                recordedClassNames.contains(clazz.getName()) ||
+                preloadThreads.contains(Thread.currentThread())) {
+            return;
+        }
+        if (recordedClassNames.add(clazz.getName())) {
+            // The super types may have been loaded by a preload thread. Record
+            // them first since they are needed to define the class.
+            recordClass(clazz.getSuperclass());
+            for (Class<?> iface : clazz.getInterfaces()) {
+                recordClass(iface);
+            }
+            definedClassNames.add(clazz.getName());
+        }
+    }
+
+
+    private void stopPreload() {
+        preloadStopped = true;
+        for (Thread t : preloadThreads) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        preloadThreads.clear();
+        classArchive = null;
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
     protected ClassLoader getJavaseClassLoader() {
@@ -2210,10 +2390,21 @@ public abstract class WebappClassLoaderBase extends URLClassLoader
                 return null;
             }
 
-            byte[] binaryContent = resource.getContent();
+            ClassArchive classArchive = this.classArchive;
+            byte[] binaryContent = null;
+            if (classArchive != null) {
+                binaryContent = classArchive.getContent(name, resource);
+            }
+            Certificate[] certificates;
+            if (binaryContent == null) {
+                binaryContent = resource.getContent();
+                certificates = resource.getCertificates();
+            } else {
+                // Classes from signed JARs are not archived
+                certificates = null;
+            }
             Manifest manifest = resource.getManifest();
             URL codeBase = resource.getCodeBase();
-            Certificate[] certificates = resource.getCertificates();
 
             if (transformers.size() > 0) {
                 // If the resource is a class just being loaded, decorate it
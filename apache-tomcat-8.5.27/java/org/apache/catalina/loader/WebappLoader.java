@@ -34,7 +34,9 @@ import javax.servlet.ServletContext;
 import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
 import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
 import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.LifecycleState;
 import org.apache.catalina.Loader;
 import org.apache.catalina.util.LifecycleMBeanBase;
@@ -87,6 +89,13 @@ public class WebappLoader extends LifecycleMBeanBase
     }
 
 
+    /**
+     * The name of the file in the work directory used to store the classes
+     * loaded by the class loader.
+     */
+    public static final String CLASS_ARCHIVE_FILE_NAME = "class-archive.dat";
+
+
     // ----------------------------------------------------- Instance Variables
 
     /**
@@ -128,6 +137,28 @@ public class WebappLoader extends LifecycleMBeanBase
     private boolean reloadable = false;
 
 
+    /**
+     * Should the classes loaded by the class loader be stored in the work
+     * directory and preloaded when the class loader is next started?
+     */
+    private boolean classArchive = false;
+
+
+    /**
+     * Starts preloading classes from the class archive once the context has
+     * started, so that any class file transformers have been registered.
+     */
+    private final LifecycleListener classPreloadListener = new LifecycleListener() {
+        @Override
+        public void lifecycleEvent(LifecycleEvent event) {
+            WebappClassLoaderBase classLoader = WebappLoader.this.classLoader;
+            if (Lifecycle.AFTER_START_EVENT.equals(event.getType()) && classLoader != null) {
+                classLoader.startPreload();
+            }
+        }
+    };
+
+
     /**
      * The string manager for this package.
      */
@@ -219,6 +250,31 @@ public class WebappLoader extends LifecycleMBeanBase
     }
 
 
+    /**
+     * @return <code>true</code> if the classes loaded by the class loader are
+     *         stored in the work directory and preloaded when the class loader
+     *         is next started
+     */
+    public boolean getClassArchive() {
+        return classArchive;
+    }
+
+
+    /**
+     * Configure whether the classes loaded by the class loader are stored in
+     * the work directory when the class loader stops and preloaded, if they
+     * have not changed, when the class loader is next started.
+     *
+     * @param classArchive The new flag
+     */
+    public void setClassArchive(boolean classArchive) {
+        boolean oldClassArchive = this.classArchive;
+        this.classArchive = classArchive;
+        support.firePropertyChange("classArchive", Boolean.valueOf(oldClassArchive),
+                Boolean.valueOf(this.classArchive));
+    }
+
+
     /**
      * @return the ClassLoader class name.
      */
@@ -399,6 +455,15 @@ public class WebappLoader extends LifecycleMBeanBase
 
             setPermissions();
 
+            if (classArchive) {
+                File workDir = (File) context.getServletContext().getAttribute(
+                        ServletContext.TEMPDIR);
+                if (workDir != null) {
+                    classLoader.setClassArchiveFile(new File(workDir, CLASS_ARCHIVE_FILE_NAME));
+                    context.addLifecycleListener(classPreloadListener);
+                }
+            }
+
             ((Lifecycle) classLoader).start();
 
             String contextName = context.getName();
@@ -437,6 +502,8 @@ public class WebappLoader extends LifecycleMBeanBase
 
         setState(LifecycleState.STOPPING);
 
+        context.removeLifecycleListener(classPreloadListener);
+
         // Remove context attributes as appropriate
         ServletContext servletContext = context.getServletContext();
         servletContext.removeAttribute(Globals.CLASS_PATH_ATTR);
@@ -76,6 +76,80 @@ public final class Mapper {
             new ConcurrentHashMap<>();
 
 
+    /**
+     * Cache of the results of mapping requests, <code>null</code> if disabled.
+     */
+    volatile MappingCache cache = null;
+    private int cacheSize = 0;
+    private long cacheTtl = 5000;
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return the maximum number of mapping results to cache. Zero means that
+     *         the results are not cached.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+
+    /**
+     * Set the maximum number of results of mapping a host name and URI to
+     * cache. Zero, the default, disables the cache.
+     *
+     * @param cacheSize The maximum number of cached results
+     */
+    public synchronized void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+        createCache();
+    }
+
+
+    /**
+     * @return the time, in milliseconds, for which a cached mapping result is
+     *         used
+     */
+    public long getCacheTtl() {
+        return cacheTtl;
+    }
+
+
+    /**
+     * Set the time, in milliseconds, for which a cached mapping result is used.
+     * Cached results are discarded whenever the mappings change but results
+     * that depend on the resources of a web application, such as welcome
+     * files, are only checked again once this time has passed.
+     *
+     * @param cacheTtl The time for which a result is used
+     */
+    public synchronized void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+        createCache();
+    }
+
+
+    private void createCache() {
+        if (cacheSize > 0) {
+            cache = new MappingCache(cacheSize, cacheTtl);
+        } else {
+            cache = null;
+        }
+    }
+
+
+    /*
+     * Must be called after any change to the mappings.
+     */
+    private void invalidateCache() {
+        MappingCache cache = this.cache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -90,6 +164,7 @@ public final class Mapper {
         } else {
             defaultHost = exactFind(hosts, this.defaultHostName);
         }
+        invalidateCache();
     }
 
 
@@ -139,6 +214,7 @@ public final class Mapper {
             }
         }
         newHost.addAliases(newAliases);
+        invalidateCache();
     }
 
 
@@ -163,6 +239,7 @@ public final class Mapper {
             }
         }
         hosts = Arrays.copyOf(newHosts, j);
+        invalidateCache();
     }
 
     /**
@@ -191,6 +268,7 @@ public final class Mapper {
             if (newAlias.name.equals(defaultHostName)) {
                 defaultHost = newAlias;
             }
+            invalidateCache();
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString("mapper.addHostAlias.success",
                         newAlias.name, newAlias.getRealHostName()));
@@ -229,6 +307,7 @@ public final class Mapper {
         if (removeMap(hosts, newHosts, alias)) {
             hosts = newHosts;
             hostMapping.getRealHost().removeAlias(hostMapping);
+            invalidateCache();
         }
 
     }
@@ -312,6 +391,7 @@ public final class Mapper {
                     }
                 }
             }
+            invalidateCache();
         }
 
     }
@@ -356,6 +436,7 @@ public final class Mapper {
                 } else {
                     context.versions = newContextVersions;
                 }
+                invalidateCache();
             }
         }
     }
@@ -379,6 +460,7 @@ public final class Mapper {
             return;
         }
         contextVersion.markPaused();
+        invalidateCache();
     }
 
 
@@ -473,6 +555,7 @@ public final class Mapper {
                 MappedWrapper[] newWrappers = new MappedWrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.wildcardWrappers = newWrappers;
+                    context.wildcardWrapperIndex = new MapIndex<>(newWrappers);
                     int slashCount = slashCount(newWrapper.name);
                     if (slashCount > context.nesting) {
                         context.nesting = slashCount;
@@ -488,6 +571,7 @@ public final class Mapper {
                     new MappedWrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.extensionWrappers = newWrappers;
+                    context.extensionWrapperIndex = new MapIndex<>(newWrappers);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -510,9 +594,11 @@ public final class Mapper {
                 MappedWrapper[] newWrappers = new MappedWrapper[oldWrappers.length + 1];
                 if (insertMap(oldWrappers, newWrappers, newWrapper)) {
                     context.exactWrappers = newWrappers;
+                    context.exactWrapperIndex = new MapIndex<>(newWrappers);
                 }
             }
         }
+        invalidateCache();
     }
 
 
@@ -561,6 +647,7 @@ public final class Mapper {
                         }
                     }
                     context.wildcardWrappers = newWrappers;
+                    context.wildcardWrapperIndex = new MapIndex<>(newWrappers);
                 }
             } else if (path.startsWith("*.")) {
                 // Extension wrapper
@@ -573,6 +660,7 @@ public final class Mapper {
                     new MappedWrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
                     context.extensionWrappers = newWrappers;
+                    context.extensionWrapperIndex = new MapIndex<>(newWrappers);
                 }
             } else if (path.equals("/")) {
                 // Default wrapper
@@ -595,9 +683,11 @@ public final class Mapper {
                     new MappedWrapper[oldWrappers.length - 1];
                 if (removeMap(oldWrappers, newWrappers, name)) {
                     context.exactWrappers = newWrappers;
+                    context.exactWrapperIndex = new MapIndex<>(newWrappers);
                 }
             }
         }
+        invalidateCache();
     }
 
 
@@ -621,6 +711,7 @@ public final class Mapper {
         System.arraycopy(contextVersion.welcomeResources, 0, newWelcomeResources, 0, len - 1);
         newWelcomeResources[len - 1] = welcomeFile;
         contextVersion.welcomeResources = newWelcomeResources;
+        invalidateCache();
     }
 
 
@@ -655,6 +746,7 @@ public final class Mapper {
                         newWelcomeResources, match, len - match);
             }
             contextVersion.welcomeResources = newWelcomeResources;
+            invalidateCache();
         }
     }
 
@@ -673,6 +765,7 @@ public final class Mapper {
             return;
         }
         contextVersion.welcomeResources = new String[0];
+        invalidateCache();
     }
 
 
@@ -695,8 +788,17 @@ public final class Mapper {
         }
         host.toChars();
         uri.toChars();
-        internalMap(host.getCharChunk(), uri.getCharChunk(), version,
-                mappingData);
+        MappingCache cache = this.cache;
+        if (cache == null) {
+            internalMap(host.getCharChunk(), uri.getCharChunk(), version,
+                    mappingData);
+        } else if (!cache.get(host.getCharChunk(), uri.getCharChunk(), mappingData)) {
+            long generation = cache.getGeneration();
+            internalMap(host.getCharChunk(), uri.getCharChunk(), version,
+                    mappingData);
+            cache.put(host.getCharChunk(), uri.getCharChunk(), generation,
+                    mappingData);
+        }
     }
 
 
@@ -769,47 +871,7 @@ public final class Mapper {
         mappingData.host = mappedHost.object;
 
         // Context mapping
-        ContextList contextList = mappedHost.contextList;
-        MappedContext[] contexts = contextList.contexts;
-        int pos = find(contexts, uri);
-        if (pos == -1) {
-            return;
-        }
-
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
-        MappedContext context = null;
-        while (pos >= 0) {
-            context = contexts[pos];
-            if (uri.startsWith(context.name)) {
-                length = context.name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, contextList.nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
-            }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
-
-        if (!found) {
-            if (contexts[0].name.equals("")) {
-                context = contexts[0];
-            } else {
-                context = null;
-            }
-        }
+        MappedContext context = findLongestPrefix(mappedHost.contextList.index, uri);
         if (context == null) {
             return;
         }
@@ -866,15 +928,14 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        MappedWrapper[] exactWrappers = contextVersion.exactWrappers;
+        MapIndex<MappedWrapper> exactWrappers = contextVersion.exactWrapperIndex;
         internalMapExactWrapper(exactWrappers, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
+        MapIndex<MappedWrapper> wildcardWrappers = contextVersion.wildcardWrapperIndex;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardWrappers, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -909,7 +970,7 @@ public final class Mapper {
         }
 
         // Rule 3 -- Extension Match
-        MappedWrapper[] extensionWrappers = contextVersion.extensionWrappers;
+        MapIndex<MappedWrapper> extensionWrappers = contextVersion.extensionWrapperIndex;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
             internalMapExtensionWrapper(extensionWrappers, path, mappingData,
                     true);
@@ -936,9 +997,7 @@ public final class Mapper {
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
-                        internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
+                        internalMapWildcardWrapper(wildcardWrappers, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -1051,8 +1110,8 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (MappedWrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        MappedWrapper wrapper = exactFind(wrappers, path);
+        (MapIndex<MappedWrapper> wrappers, CharChunk path, MappingData mappingData) {
+        MappedWrapper wrapper = wrappers.find(path);
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1075,50 +1134,23 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (MappedWrapper[] wrappers, int nesting, CharChunk path,
-         MappingData mappingData) {
+        (MapIndex<MappedWrapper> wrappers, CharChunk path, MappingData mappingData) {
 
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
-                mappingData.matchType = MappingMatch.PATH;
+        MappedWrapper wrapper = findLongestPrefix(wrappers, path);
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
+            mappingData.matchType = MappingMatch.PATH;
         }
     }
 
@@ -1131,7 +1163,7 @@ public final class Mapper {
      * @param mappingData       Mapping data for result
      * @param resourceExpected  Is this mapping expecting to find a resource
      */
-    private final void internalMapExtensionWrapper(MappedWrapper[] wrappers,
+    private final void internalMapExtensionWrapper(MapIndex<MappedWrapper> wrappers,
             CharChunk path, MappingData mappingData, boolean resourceExpected) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
@@ -1152,9 +1184,7 @@ public final class Mapper {
                 }
             }
             if (period >= 0) {
-                path.setOffset(period + 1);
-                path.setEnd(pathEnd);
-                MappedWrapper wrapper = exactFind(wrappers, path);
+                MappedWrapper wrapper = wrappers.find(buf, period + 1, pathEnd);
                 if (wrapper != null
                         && (resourceExpected || !wrapper.resourceOnly)) {
                     mappingData.wrapperPath.setChars(buf, servletPath, pathEnd
@@ -1164,69 +1194,38 @@ public final class Mapper {
                     mappingData.wrapper = wrapper.object;
                     mappingData.matchType = MappingMatch.EXTENSION;
                 }
-                path.setOffset(servletPath);
-                path.setEnd(pathEnd);
             }
         }
     }
 
 
     /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
+     * Find the map element with the longest name that is equal to the given
+     * path or to a prefix of it that ends before a '/'. The names of the
+     * elements are compared with the path, then with the path truncated at the
+     * deepest '/' an element name could end before, then with each shorter
+     * truncation down to the empty string.
      */
-    private static final <T> int find(MapElement<T>[] map, CharChunk name) {
-        return find(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int find(MapElement<T>[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-
-        if (compare(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
+    private static final <E extends MapElement<?>> E findLongestPrefix(
+            MapIndex<E> index, CharChunk path) {
+        if (index.isEmpty()) {
+            return null;
         }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = compare(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
+        E result = index.find(path);
+        if (result == null) {
+            int pathEnd = path.getEnd();
+            path.setEnd(nthSlash(path, index.getNesting() + 1));
+            result = index.find(path);
+            while (result == null && path.getEnd() > path.getStart()) {
+                path.setEnd(lastSlash(path));
+                result = index.find(path);
             }
+            path.setEnd(pathEnd);
         }
-
+        return result;
     }
 
+
     /**
      * Find a map element given its name in a sorted array of map elements.
      * This will return the index for the closest inferior or equal item in the
@@ -1348,23 +1347,6 @@ public final class Mapper {
         return null;
     }
 
-    /**
-     * Find a map element given its name in a sorted array of map elements. This
-     * will return the element that you were searching for. Otherwise it will
-     * return <code>null</code>.
-     */
-    private static final <T, E extends MapElement<T>> E exactFind(E[] map,
-            CharChunk name) {
-        int pos = find(map, name);
-        if (pos >= 0) {
-            E result = map[pos];
-            if (name.equals(result.name)) {
-                return result;
-            }
-        }
-        return null;
-    }
-
     /**
      * Find a map element given its name in a sorted array of map elements. This
      * will return the element that you were searching for. Otherwise it will
@@ -1384,36 +1366,6 @@ public final class Mapper {
     }
 
 
-    /**
-     * Compare given char chunk with String.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
-     */
-    private static final int compare(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
-        char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (c[i + start] > compareTo.charAt(i)) {
-                result = 1;
-            } else if (c[i + start] < compareTo.charAt(i)) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
-            }
-        }
-        return result;
-    }
-
-
     /**
      * Compare given char chunk with String ignoring case.
      * Return -1, 0 or +1 if inferior, equal, or superior to the String.
@@ -1648,6 +1600,7 @@ public final class Mapper {
 
         public final MappedContext[] contexts;
         public final int nesting;
+        private final MapIndex<MappedContext> index;
 
         public ContextList() {
             this(new MappedContext[0], 0);
@@ -1656,6 +1609,7 @@ public final class Mapper {
         private ContextList(MappedContext[] contexts, int nesting) {
             this.contexts = contexts;
             this.nesting = nesting;
+            this.index = new MapIndex<>(contexts);
         }
 
         public ContextList addContext(MappedContext mappedContext,
@@ -1704,6 +1658,10 @@ public final class Mapper {
         public MappedWrapper[] wildcardWrappers = new MappedWrapper[0];
         public MappedWrapper[] extensionWrappers = new MappedWrapper[0];
         public int nesting = 0;
+        private MapIndex<MappedWrapper> exactWrapperIndex = new MapIndex<>(exactWrappers);
+        private MapIndex<MappedWrapper> wildcardWrapperIndex = new MapIndex<>(wildcardWrappers);
+        private MapIndex<MappedWrapper> extensionWrapperIndex =
+                new MapIndex<>(extensionWrappers);
         private volatile boolean paused;
 
         public ContextVersion(String version, String path, int slashCount,
@@ -1725,6 +1683,97 @@ public final class Mapper {
         }
     }
 
+    // --------------------------------------------------- MapIndex Inner Class
+
+
+    /**
+     * An open addressing hash table over the names of an array of map
+     * elements. The hash of a name is that of {@link String#hashCode()} so an
+     * element can be found using the characters of a request URI without
+     * creating any objects. An index is immutable and is replaced whenever the
+     * array it indexes is replaced.
+     */
+    private static final class MapIndex<E extends MapElement<?>> {
+
+        private final E[] elements;
+        // Position of the element in elements plus one, zero if empty
+        private final int[] slots;
+        private final int[] hashes;
+        private final int mask;
+        private final int nesting;
+
+        public MapIndex(E[] elements) {
+            this.elements = elements;
+            int size = 2;
+            while (size < elements.length * 2) {
+                size <<= 1;
+            }
+            slots = new int[size];
+            hashes = new int[size];
+            mask = size - 1;
+            int maxSlashCount = 0;
+            for (int i = 0; i < elements.length; i++) {
+                String name = elements[i].name;
+                int hash = name.hashCode();
+                int slot = spread(hash) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = i + 1;
+                hashes[slot] = hash;
+                maxSlashCount = Math.max(maxSlashCount, slashCount(name));
+            }
+            nesting = maxSlashCount;
+        }
+
+        public boolean isEmpty() {
+            return elements.length == 0;
+        }
+
+        /**
+         * @return the largest number of '/' characters in an element name
+         */
+        public int getNesting() {
+            return nesting;
+        }
+
+        public E find(CharChunk name) {
+            return find(name.getBuffer(), name.getStart(), name.getEnd());
+        }
+
+        public E find(char[] buf, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buf[i];
+            }
+            int slot = spread(hash) & mask;
+            int pos;
+            while ((pos = slots[slot]) != 0) {
+                if (hashes[slot] == hash) {
+                    E element = elements[pos - 1];
+                    String name = element.name;
+                    int len = end - start;
+                    if (name.length() == len) {
+                        int i = 0;
+                        while (i < len && name.charAt(i) == buf[start + i]) {
+                            i++;
+                        }
+                        if (i == len) {
+                            return element;
+                        }
+                    }
+                }
+                slot = (slot + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+
     // ---------------------------------------------------- Wrapper Inner Class
 
 
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.servlet4preview.http.MappingMatch;
+import org.apache.tomcat.util.buf.CharChunk;
+import org.apache.tomcat.util.buf.MessageBytes;
+
+/**
+ * A bounded cache of the results of mapping a host name and a decoded URI.
+ * The cache is a fixed size table in which each host name and URI has a single
+ * slot so a new entry replaces whatever entry used the slot before. Entries
+ * are immutable so neither lookups nor updates need to lock.
+ * <p>
+ * Any change to the mappings discards every entry so that the cache does not
+ * retain removed contexts and wrappers, and their class loaders. Because the result of
+ * mapping may also depend on the resources of the web application (welcome
+ * files and directories), entries also expire after a configurable time.
+ * <p>
+ * Only mappings to a servlet of a context with a single version that did not
+ * result in a redirect are cached.
+ */
+final class MappingCache {
+
+    private final Entry[] entries;
+    private final int mask;
+    private final long ttl;
+    private final AtomicLong generation = new AtomicLong(0);
+
+
+    /**
+     * @param size The maximum number of entries. This is rounded up to the
+     *             next power of two.
+     * @param ttl  The time, in milliseconds, for which an entry is valid
+     */
+    MappingCache(int size, long ttl) {
+        int tableSize = 1;
+        while (tableSize < size) {
+            tableSize <<= 1;
+        }
+        entries = new Entry[tableSize];
+        mask = tableSize - 1;
+        this.ttl = ttl;
+    }
+
+
+    /**
+     * @return the current generation of the mappings. This must be read before
+     *         mapping a request and the value passed to
+     *         {@link #put(CharChunk, CharChunk, long, MappingData)} with the
+     *         result.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+
+    /**
+     * Invalidate all entries. Must be called after the mappings have changed.
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        Arrays.fill(entries, null);
+    }
+
+
+    /**
+     * Populate the given mapping data from the cache.
+     *
+     * @param host        The host name
+     * @param uri         The decoded URI
+     * @param mappingData The mapping data to populate
+     *
+     * @return <code>true</code> if the mapping was found in the cache,
+     *         otherwise <code>false</code> in which case the mapping data is
+     *         unchanged
+     */
+    boolean get(CharChunk host, CharChunk uri, MappingData mappingData) {
+        int hash = hash(host, uri);
+        Entry entry = entries[hash & mask];
+        if (entry == null || entry.hash != hash || entry.generation != generation.get() ||
+                !equals(entry.host, host) || !equals(entry.uri, uri) ||
+                entry.expires < System.currentTimeMillis()) {
+            return false;
+        }
+        mappingData.host = entry.mappedHost;
+        mappingData.context = entry.context;
+        mappingData.contextSlashCount = entry.contextSlashCount;
+        mappingData.wrapper = entry.wrapper;
+        mappingData.jspWildCard = entry.jspWildCard;
+        mappingData.matchType = entry.matchType;
+        setString(mappingData.contextPath, entry.contextPath);
+        setString(mappingData.requestPath, entry.requestPath);
+        setString(mappingData.wrapperPath, entry.wrapperPath);
+        setString(mappingData.pathInfo, entry.pathInfo);
+        return true;
+    }
+
+
+    /**
+     * Add the result of a mapping to the cache, if it may be cached.
+     *
+     * @param host        The host name
+     * @param uri         The decoded URI
+     * @param generation  The generation of the mappings read before the
+     *                    mapping was performed
+     * @param mappingData The result of the mapping
+     */
+    void put(CharChunk host, CharChunk uri, long generation, MappingData mappingData) {
+        if (mappingData.context == null || mappingData.wrapper == null ||
+                mappingData.contexts != null || !mappingData.redirectPath.isNull()) {
+            return;
+        }
+        if (generation != this.generation.get()) {
+            return;
+        }
+        int hash = hash(host, uri);
+        int index = hash & mask;
+        entries[index] = new Entry(host, uri, hash, generation,
+                System.currentTimeMillis() + ttl, mappingData);
+        // If the mappings changed while the entry was being added, the entry
+        // may have been added after the table was cleared
+        if (generation != this.generation.get()) {
+            entries[index] = null;
+        }
+    }
+
+
+    /**
+     * @return the number of entries in the table, including any that have
+     *         expired. Used by the unit tests.
+     */
+    int size() {
+        int size = 0;
+        for (Entry entry : entries) {
+            if (entry != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+
+    private static int hash(CharChunk host, CharChunk uri) {
+        return 31 * host.hash() + uri.hash();
+    }
+
+
+    private static boolean equals(char[] chars, CharChunk cc) {
+        int len = cc.getLength();
+        if (chars.length != len) {
+            return false;
+        }
+        char[] buf = cc.getBuffer();
+        int start = cc.getStart();
+        for (int i = 0; i < len; i++) {
+            if (chars[i] != buf[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static void setString(MessageBytes mb, String value) {
+        if (value != null) {
+            mb.setString(value);
+        }
+    }
+
+
+    private static String toString(MessageBytes mb) {
+        if (mb.isNull()) {
+            return null;
+        }
+        return mb.toString();
+    }
+
+
+    private static final class Entry {
+        private final char[] host;
+        private final char[] uri;
+        private final int hash;
+        private final long generation;
+        private final long expires;
+
+        private final Host mappedHost;
+        private final Context context;
+        private final int contextSlashCount;
+        private final Wrapper wrapper;
+        private final boolean jspWildCard;
+        private final MappingMatch matchType;
+        private final String contextPath;
+        private final String requestPath;
+        private final String wrapperPath;
+        private final String pathInfo;
+
+        private Entry(CharChunk host, CharChunk uri, int hash, long generation,
+                long expires, MappingData mappingData) {
+            this.host = toChars(host);
+            this.uri = toChars(uri);
+            this.hash = hash;
+            this.generation = generation;
+            this.expires = expires;
+            mappedHost = mappingData.host;
+            context = mappingData.context;
+            contextSlashCount = mappingData.contextSlashCount;
+            wrapper = mappingData.wrapper;
+            jspWildCard = mappingData.jspWildCard;
+            matchType = mappingData.matchType;
+            contextPath = MappingCache.toString(mappingData.contextPath);
+            requestPath = MappingCache.toString(mappingData.requestPath);
+            wrapperPath = MappingCache.toString(mappingData.wrapperPath);
+            pathInfo = MappingCache.toString(mappingData.pathInfo);
+        }
+
+        private static char[] toChars(CharChunk cc) {
+            char[] result = new char[cc.getLength()];
+            System.arraycopy(cc.getBuffer(), cc.getStart(), result, 0, result.length);
+            return result;
+        }
+    }
+}
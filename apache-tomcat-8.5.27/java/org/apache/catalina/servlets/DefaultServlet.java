@@ -22,9 +22,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
@@ -32,6 +34,7 @@ import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.util.ArrayList;
@@ -68,11 +71,17 @@ import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.connector.CoyoteOutputStream;
 import org.apache.catalina.connector.RequestFacade;
 import org.apache.catalina.connector.ResponseFacade;
+import org.apache.catalina.util.IOTools;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
+import org.apache.catalina.webresources.AbstractArchiveResource;
+import org.apache.catalina.webresources.CachedResource;
+import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.security.ConcurrentMessageDigest;
 import org.apache.tomcat.util.security.Escape;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
@@ -159,6 +168,13 @@ public class DefaultServlet extends HttpServlet {
      */
     protected static final int BUFFER_SIZE = 4096;
 
+    /**
+     * Name of the directory, within the web application's temporary directory,
+     * that holds resources extracted from archives so they can be sent with
+     * sendfile.
+     */
+    private static final String EXTRACTED_DIR = "sendfile";
+
 
     // ----------------------------------------------------- Static Initializer
 
@@ -261,7 +277,17 @@ public class DefaultServlet extends HttpServlet {
      */
     @Override
     public void destroy() {
-        // NOOP
+        // Remove the copies of resources extracted for sendfile
+        File dir = getExtractedDir();
+        if (dir != null) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
     }
 
 
@@ -997,14 +1023,25 @@ public class DefaultServlet extends HttpServlet {
                                 contentLength, null)) {
                             // sendfile not possible so check if resource
                             // content is available directly
-                            byte[] resourceBody = resource.getContent();
-                            if (resourceBody == null) {
-                                // Resource content not available, use
-                                // inputstream
-                                renderResult = resource.getInputStream();
+                            ByteBuffer resourceBuffer = acquireContentBuffer(resource, ostream);
+                            if (resourceBuffer != null) {
+                                // Write the cached content without copying
+                                // it to the heap
+                                try {
+                                    ((CoyoteOutputStream) ostream).write(resourceBuffer);
+                                } finally {
+                                    ((CachedResource) resource).releaseContentBuffer();
+                                }
                             } else {
-                                // Use the resource content directly
-                                ostream.write(resourceBody);
+                                byte[] resourceBody = resource.getContent();
+                                if (resourceBody == null) {
+                                    // Resource content not available, use
+                                    // inputstream
+                                    renderResult = resource.getInputStream();
+                                } else {
+                                    // Use the resource content directly
+                                    ostream.write(resourceBody);
+                                }
                             }
                         }
                     }
@@ -1067,7 +1104,8 @@ public class DefaultServlet extends HttpServlet {
                         // Silent catch
                     }
                     if (ostream != null) {
-                        copy(resource, ostream, ranges.iterator(), contentType);
+                        if (!checkSendfile(request, response, resource, ranges, contentType))
+                            copy(resource, ostream, ranges.iterator(), contentType);
                     } else {
                         // we should not get here
                         throw new IllegalStateException();
@@ -1921,26 +1959,247 @@ public class DefaultServlet extends HttpServlet {
                                   HttpServletResponse response,
                                   WebResource resource,
                                   long length, Range range) {
-        String canonicalPath;
+        String fileName = getSendfileFileName(request, response, resource, length);
+        if (fileName == null) {
+            return false;
+        }
+        long offset = getSendfileOffset(resource);
+        request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, fileName);
+        if (range == null) {
+            request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(offset));
+            request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(offset + length));
+        } else {
+            request.setAttribute(Globals.SENDFILE_FILE_START_ATTR,
+                    Long.valueOf(offset + range.start));
+            request.setAttribute(Globals.SENDFILE_FILE_END_ATTR,
+                    Long.valueOf(offset + range.end + 1));
+        }
+        return true;
+    }
+
+
+    /**
+     * Check if sendfile can be used for a multipart/byteranges response and,
+     * if it can, set the content length of the response and pass the ranges
+     * and the part headers to the connector.
+     * @param request The Servlet request
+     * @param response The Servlet response
+     * @param resource The resource
+     * @param ranges The ranges that will be written
+     * @param contentType The content type of the resource
+     * @return <code>true</code> if sendfile should be used (writing is then
+     *  delegated to the endpoint)
+     */
+    protected boolean checkSendfile(HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  WebResource resource,
+                                  List<Range> ranges, String contentType) {
+        long length = 0;
+        for (Range range : ranges) {
+            length += range.end - range.start + 1;
+        }
+        String fileName = getSendfileFileName(request, response, resource, length);
+        if (fileName == null) {
+            return false;
+        }
+        long offset = getSendfileOffset(resource);
+
+        // Same format as copy(WebResource, ServletOutputStream, Iterator, String)
+        long[] offsets = new long[ranges.size() * 2];
+        byte[][] headers = new byte[ranges.size() + 1][];
+        long contentLength = length;
+        for (int i = 0; i < ranges.size(); i++) {
+            Range range = ranges.get(i);
+            offsets[2 * i] = offset + range.start;
+            offsets[2 * i + 1] = offset + range.end + 1;
+            StringBuilder header = new StringBuilder("\r\n--");
+            header.append(mimeSeparation).append("\r\n");
+            if (contentType != null) {
+                header.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            header.append("Content-Range: bytes ").append(range.start).append('-');
+            header.append(range.end).append('/').append(range.length).append("\r\n\r\n");
+            headers[i] = header.toString().getBytes(StandardCharsets.ISO_8859_1);
+            contentLength += headers[i].length;
+        }
+        headers[ranges.size()] = ("\r\n--" + mimeSeparation + "--").getBytes(
+                StandardCharsets.ISO_8859_1);
+        contentLength += headers[ranges.size()].length;
+
+        response.setContentLengthLong(contentLength);
+        request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, fileName);
+        request.setAttribute(Globals.SENDFILE_FILE_RANGES_ATTR, offsets);
+        request.setAttribute(Globals.SENDFILE_RANGE_HEADERS_ATTR, headers);
+        return true;
+    }
+
+
+    /*
+     * Obtain the name of the file to pass to the connector if sendfile can be
+     * used for the resource, otherwise null.
+     */
+    private String getSendfileFileName(HttpServletRequest request,
+            HttpServletResponse response, WebResource resource, long length) {
         if (sendfileSize > 0
             && length > sendfileSize
             && (Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR)))
             && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
             && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))
             && resource.isFile()
-            && ((canonicalPath = resource.getCanonicalPath()) != null)
             ) {
-            request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, canonicalPath);
-            if (range == null) {
-                request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(0L));
-                request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(length));
-            } else {
-                request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(range.start));
-                request.setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(range.end + 1));
+            String canonicalPath = resource.getCanonicalPath();
+            if (canonicalPath == null) {
+                // The content is not a file on disk (e.g. it is in a packed
+                // WAR or a JAR). If it is stored without compression, send it
+                // directly from the archive. Otherwise, send it from a copy
+                // extracted the first time it is requested.
+                if (getContentOffset(resource) >= 0) {
+                    canonicalPath = getArchivePath(resource);
+                } else {
+                    File extracted = getExtractedFile(resource);
+                    if (extracted != null) {
+                        canonicalPath = extracted.getPath();
+                    }
+                }
             }
-            return true;
+            return canonicalPath;
         }
-        return false;
+        return null;
+    }
+
+
+    /*
+     * The position of the content of the resource within the file returned
+     * by getSendfileFileName().
+     */
+    private static long getSendfileOffset(WebResource resource) {
+        if (resource.getCanonicalPath() != null) {
+            return 0;
+        }
+        return Math.max(0, getContentOffset(resource));
+    }
+
+
+    private static long getContentOffset(WebResource resource) {
+        if (resource instanceof CachedResource) {
+            return ((CachedResource) resource).getContentOffset();
+        } else if (resource instanceof AbstractArchiveResource) {
+            return ((AbstractArchiveResource) resource).getContentOffset();
+        }
+        return -1;
+    }
+
+
+    private static String getArchivePath(WebResource resource) {
+        if (resource instanceof CachedResource) {
+            return ((CachedResource) resource).getArchivePath();
+        } else if (resource instanceof AbstractArchiveResource) {
+            return ((AbstractArchiveResource) resource).getArchivePath();
+        }
+        return null;
+    }
+
+
+    private File getExtractedDir() {
+        File tempDir = (File) getServletContext().getAttribute(ServletContext.TEMPDIR);
+        if (tempDir == null) {
+            return null;
+        }
+        return new File(tempDir, EXTRACTED_DIR);
+    }
+
+
+    /**
+     * Obtain a copy of the content of the resource in the temporary directory
+     * of the web application, creating it if necessary. The name of the copy
+     * is derived from the path, last modified time and length of the resource
+     * so a modified resource will be extracted again. When it is, the copy of
+     * the previous version is deleted.
+     * @param resource The resource
+     * @return the copy or <code>null</code> if it could not be created
+     */
+    private File getExtractedFile(WebResource resource) {
+        File dir = getExtractedDir();
+        if (dir == null) {
+            return null;
+        }
+        long length = resource.getContentLength();
+        String pathKey = HexUtils.toHexString(ConcurrentMessageDigest.digestMD5(
+                resource.getWebappPath().getBytes(StandardCharsets.UTF_8))) + '-';
+        String key = pathKey + resource.getLastModified() + '-' + length;
+        File extracted = new File(dir, key);
+        if (extracted.isFile() && extracted.length() == length) {
+            return extracted;
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            return null;
+        }
+        File tmp = null;
+        try (InputStream is = resource.getInputStream()) {
+            if (is == null) {
+                return null;
+            }
+            tmp = File.createTempFile(key, ".tmp", dir);
+            try (OutputStream os = new FileOutputStream(tmp)) {
+                IOTools.flow(is, os);
+            }
+            if (tmp.length() != length) {
+                return null;
+            }
+            // Another thread may have extracted the resource concurrently
+            if (!tmp.renameTo(extracted) &&
+                    !(extracted.isFile() && extracted.length() == length)) {
+                return null;
+            }
+            deleteSupersededFiles(dir, pathKey, key);
+            return extracted;
+        } catch (IOException ioe) {
+            if (debug > 0) {
+                log("DefaultServlet.getExtractedFile:  Unable to extract [" +
+                        resource.getWebappPath() + "]", ioe);
+            }
+            return null;
+        } finally {
+            if (tmp != null && tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+
+    /*
+     * Delete the copies of previous versions of a resource. Copies that are
+     * still being written by another thread end with ".tmp" and are skipped.
+     */
+    private static void deleteSupersededFiles(File dir, String pathKey, String key) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(pathKey) && !name.equals(key) && !name.endsWith(".tmp")) {
+                new File(dir, name).delete();
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the content of the resource as a buffer if the content is cached
+     * outside of the Java heap and can be written directly to the given
+     * output stream. The buffer must be released once it has been written.
+     * @param resource The resource
+     * @param ostream The output stream the content will be written to
+     * @return the content or <code>null</code> if the content is not available
+     *  as a buffer
+     */
+    private static ByteBuffer acquireContentBuffer(WebResource resource,
+            ServletOutputStream ostream) {
+        if (resource instanceof CachedResource && ostream instanceof CoyoteOutputStream) {
+            return ((CachedResource) resource).acquireContentBuffer();
+        }
+        return null;
     }
 
 
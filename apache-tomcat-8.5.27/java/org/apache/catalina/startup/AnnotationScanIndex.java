@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.bcel.classfile.AnnotationEntry;
+import org.apache.tomcat.util.bcel.classfile.JavaClass;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An index, stored on disk, of the information about each class in a JAR that
+ * is required to scan the JAR for annotations and
+ * {@link javax.servlet.annotation.HandlesTypes} matches. The index is used to
+ * avoid parsing every class file of every JAR each time a web application
+ * starts.
+ * <p>
+ * A JAR is considered to be unchanged if the SHA-256 digest of its content
+ * matches that of a JAR in the index. The digest is always calculated since a
+ * JAR may be replaced without changing its size or last modified time. The
+ * index records the facts about each class rather than the result of the scan
+ * so it remains valid if the
+ * {@link javax.servlet.ServletContainerInitializer}s change. Only the entries
+ * used by the most recent scan are written so JARs that are removed from the
+ * web application are dropped from the index.
+ * <p>
+ * Instances are safe for use by concurrent threads.
+ */
+class AnnotationScanIndex {
+
+    static final String FILE_NAME = "annotation-scan.idx";
+
+    private static final Log log = LogFactory.getLog(AnnotationScanIndex.class);
+    private static final StringManager sm = StringManager.getManager(Constants.Package);
+
+    private static final int MAGIC = 0x54534349;
+    // Increment if the format or the content of the index changes
+    private static final int VERSION = 1;
+
+    private final File file;
+    private final Map<String,JarInfo> jarsByPath = new HashMap<>();
+    private final Map<String,JarInfo> jarsByDigest = new HashMap<>();
+    private final Map<String,JarInfo> usedJars = new ConcurrentHashMap<>();
+    private final Map<String,String> digests = new ConcurrentHashMap<>();
+    private volatile boolean modified = false;
+
+
+    /**
+     * Create an index backed by the given file, reading any index previously
+     * written to that file.
+     *
+     * @param file The file the index is stored in
+     */
+    AnnotationScanIndex(File file) {
+        this.file = file;
+        if (file.isFile()) {
+            try {
+                read();
+            } catch (IOException ioe) {
+                log.warn(sm.getString("annotationScanIndex.readFail", file), ioe);
+                jarsByPath.clear();
+                jarsByDigest.clear();
+            }
+        }
+    }
+
+
+    /**
+     * Obtain the indexed classes of a JAR.
+     *
+     * @param jar The JAR
+     *
+     * @return The classes of the JAR, in the order they appear in the JAR, or
+     *         <code>null</code> if the JAR is not in the index
+     */
+    List<ClassInfo> get(File jar) {
+        String path = jar.getAbsolutePath();
+        String digest = digest(jar);
+        if (digest == null) {
+            return null;
+        }
+        digests.put(path, digest);
+
+        long size = jar.length();
+        long lastModified = jar.lastModified();
+        JarInfo jarInfo = jarsByPath.get(path);
+        if (jarInfo != null && jarInfo.digest.equals(digest) &&
+                jarInfo.size == size && jarInfo.lastModified == lastModified) {
+            usedJars.put(path, jarInfo);
+            return jarInfo.classes;
+        }
+
+        jarInfo = jarsByDigest.get(digest);
+        if (jarInfo == null) {
+            return null;
+        }
+        // Same content, new location, copy or last modified time of the JAR
+        usedJars.put(path, new JarInfo(path, size, lastModified, digest, jarInfo.classes));
+        modified = true;
+        return jarInfo.classes;
+    }
+
+
+    /**
+     * Add the classes of a JAR to the index.
+     *
+     * @param jar     The JAR
+     * @param classes The classes of the JAR in the order they appear in the JAR
+     */
+    void put(File jar, List<ClassInfo> classes) {
+        String path = jar.getAbsolutePath();
+        String digest = digests.remove(path);
+        if (digest == null) {
+            digest = digest(jar);
+            if (digest == null) {
+                return;
+            }
+        }
+        usedJars.put(path, new JarInfo(path, jar.length(), jar.lastModified(), digest,
+                Collections.unmodifiableList(classes)));
+        modified = true;
+    }
+
+
+    /**
+     * Write the index if it has changed.
+     */
+    void save() {
+        if (!modified && usedJars.size() == jarsByPath.size()) {
+            return;
+        }
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                write(dos);
+            }
+            if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+                throw new IOException(sm.getString("annotationScanIndex.renameFail", tmp, file));
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString("annotationScanIndex.writeFail", file), ioe);
+            if (tmp.exists() && !tmp.delete()) {
+                log.warn(sm.getString("annotationScanIndex.deleteFail", tmp));
+            }
+        }
+    }
+
+
+    private void read() throws IOException {
+        try (DataInputStream dis = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                // Unknown format. It will be replaced.
+                return;
+            }
+            int jarCount = dis.readInt();
+            for (int i = 0; i < jarCount; i++) {
+                String path = dis.readUTF();
+                long size = dis.readLong();
+                long lastModified = dis.readLong();
+                String digest = dis.readUTF();
+                int classCount = dis.readInt();
+                List<ClassInfo> classes = new ArrayList<>(classCount);
+                for (int j = 0; j < classCount; j++) {
+                    String entryName = dis.readUTF();
+                    String className = dis.readUTF();
+                    int accessFlags = dis.readInt();
+                    String superclassName = dis.readUTF();
+                    String[] interfaceNames = readStrings(dis);
+                    String[] annotationTypes = readStrings(dis);
+                    classes.add(new ClassInfo(entryName, className, accessFlags,
+                            superclassName, interfaceNames, annotationTypes));
+                }
+                JarInfo jarInfo = new JarInfo(path, size, lastModified, digest,
+                        Collections.unmodifiableList(classes));
+                jarsByPath.put(path, jarInfo);
+                jarsByDigest.put(digest, jarInfo);
+            }
+        }
+    }
+
+
+    private void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        List<JarInfo> jars = new ArrayList<>(usedJars.values());
+        dos.writeInt(jars.size());
+        for (JarInfo jarInfo : jars) {
+            dos.writeUTF(jarInfo.path);
+            dos.writeLong(jarInfo.size);
+            dos.writeLong(jarInfo.lastModified);
+            dos.writeUTF(jarInfo.digest);
+            dos.writeInt(jarInfo.classes.size());
+            for (ClassInfo classInfo : jarInfo.classes) {
+                dos.writeUTF(classInfo.getEntryName());
+                dos.writeUTF(classInfo.getClassName());
+                dos.writeInt(classInfo.getAccessFlags());
+                dos.writeUTF(classInfo.getSuperclassName());
+                writeStrings(dos, classInfo.getInterfaceNames());
+                writeStrings(dos, classInfo.getAnnotationTypes());
+            }
+        }
+    }
+
+
+    private static String[] readStrings(DataInputStream dis) throws IOException {
+        String[] result = new String[dis.readInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = dis.readUTF();
+        }
+        return result;
+    }
+
+
+    private static void writeStrings(DataOutputStream dos, String[] strings)
+            throws IOException {
+        dos.writeInt(strings.length);
+        for (String s : strings) {
+            dos.writeUTF(s);
+        }
+    }
+
+
+    private static String digest(File jar) {
+        try (InputStream is = new FileInputStream(jar)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                md.update(buf, 0, n);
+            }
+            return HexUtils.toHexString(md.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            log.warn(sm.getString("annotationScanIndex.digestFail", jar), e);
+            return null;
+        }
+    }
+
+
+    private static class JarInfo {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String digest;
+        private final List<ClassInfo> classes;
+
+        private JarInfo(String path, long size, long lastModified, String digest,
+                List<ClassInfo> classes) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.classes = classes;
+        }
+    }
+
+
+    /**
+     * The information about a class that is used when scanning for annotations
+     * and {@link javax.servlet.annotation.HandlesTypes} matches.
+     */
+    static class ClassInfo {
+        private final String entryName;
+        private final String className;
+        private final int accessFlags;
+        private final String superclassName;
+        private final String[] interfaceNames;
+        private final String[] annotationTypes;
+
+        ClassInfo(String entryName, JavaClass javaClass) {
+            this.entryName = entryName;
+            className = javaClass.getClassName();
+            accessFlags = javaClass.getAccessFlags();
+            superclassName = javaClass.getSuperclassName();
+            interfaceNames = javaClass.getInterfaceNames();
+            AnnotationEntry[] annotationEntries = javaClass.getAnnotationEntries();
+            if (annotationEntries == null) {
+                annotationTypes = new String[0];
+            } else {
+                annotationTypes = new String[annotationEntries.length];
+                for (int i = 0; i < annotationEntries.length; i++) {
+                    annotationTypes[i] = annotationEntries[i].getAnnotationType();
+                }
+            }
+        }
+
+        ClassInfo(String entryName, String className, int accessFlags,
+                String superclassName, String[] interfaceNames, String[] annotationTypes) {
+            this.entryName = entryName;
+            this.className = className;
+            this.accessFlags = accessFlags;
+            this.superclassName = superclassName;
+            this.interfaceNames = interfaceNames;
+            this.annotationTypes = annotationTypes;
+        }
+
+        String getEntryName() {
+            return entryName;
+        }
+
+        String getClassName() {
+            return className;
+        }
+
+        int getAccessFlags() {
+            return accessFlags;
+        }
+
+        String getSuperclassName() {
+            return superclassName;
+        }
+
+        String[] getInterfaceNames() {
+            return interfaceNames;
+        }
+
+        /**
+         * @return The types, in internal form, of the annotations of the class
+         */
+        String[] getAnnotationTypes() {
+            return annotationTypes;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -37,7 +38,11 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.MultipartConfigElement;
 import javax.servlet.ServletContainerInitializer;
@@ -216,6 +221,19 @@ public class ContextConfig implements LifecycleListener {
     protected final Map<ServletContainerInitializer, Set<Class<?>>> initializerClassMap =
             new LinkedHashMap<>();
 
+    /**
+     * The index of previous annotation scan results, if used, for the scan in
+     * progress.
+     */
+    private AnnotationScanIndex scanIndex = null;
+
+    /**
+     * The number of JARs processed using the annotation scan index rather than
+     * by parsing their classes during the most recent scan. Used by the unit
+     * tests.
+     */
+    private final AtomicInteger indexedJarCount = new AtomicInteger(0);
+
     /**
      * Map of Types to ServletContainerInitializer that are interested in those
      * types.
@@ -1138,7 +1156,14 @@ public class ContextConfig implements LifecycleListener {
         if  (!webXml.isMetadataComplete() || typeInitializerMap.size() > 0) {
             // Step 4. Process /WEB-INF/classes for annotations and
             // @HandlesTypes matches
-            Map<String,JavaClassCacheEntry> javaClassCache = new HashMap<>();
+            Map<String,JavaClassCacheEntry> javaClassCache;
+            if (context.getParallelAnnotationScanning()) {
+                javaClassCache = new ConcurrentHashMap<>();
+            } else {
+                javaClassCache = new HashMap<>();
+            }
+            scanIndex = createScanIndex();
+            indexedJarCount.set(0);
 
             if (ok) {
                 WebResource[] webResources =
@@ -1166,6 +1191,13 @@ public class ContextConfig implements LifecycleListener {
 
             // Cache, if used, is no longer required so clear it
             javaClassCache.clear();
+
+            if (scanIndex != null) {
+                if (ok) {
+                    scanIndex.save();
+                }
+                scanIndex = null;
+            }
         }
 
         if (!webXml.isMetadataComplete()) {
@@ -1906,28 +1938,79 @@ public class ContextConfig implements LifecycleListener {
 
     protected void processAnnotations(Set<WebXml> fragments,
             boolean handlesTypesOnly, Map<String,JavaClassCacheEntry> javaClassCache) {
+        if (context.getParallelAnnotationScanning() && fragments.size() > 1) {
+            processAnnotationsInParallel(fragments, handlesTypesOnly, javaClassCache);
+            return;
+        }
         for(WebXml fragment : fragments) {
-            // Only need to scan for @HandlesTypes matches if any of the
-            // following are true:
-            // - it has already been determined only @HandlesTypes is required
-            //   (e.g. main web.xml has metadata-complete="true"
-            // - this fragment is for a container JAR (Servlet 3.1 section 8.1)
-            // - this fragment has metadata-complete="true"
-            boolean htOnly = handlesTypesOnly || !fragment.getWebappJar() ||
-                    fragment.isMetadataComplete();
-
-            WebXml annotations = new WebXml();
-            // no impact on distributable
-            annotations.setDistributable(true);
-            URL url = fragment.getURL();
-            processAnnotationsUrl(url, annotations, htOnly, javaClassCache);
-            Set<WebXml> set = new HashSet<>();
-            set.add(annotations);
-            // Merge annotations into fragment - fragment takes priority
-            fragment.merge(set);
+            WebXml annotations =
+                    scanAnnotations(fragment, handlesTypesOnly, javaClassCache);
+            mergeAnnotations(fragment, annotations);
         }
     }
 
+
+    /**
+     * Scan the JARs of the given fragments for annotations with one thread per
+     * available processor. The results are merged into the fragments in the
+     * iteration order of the fragments, as when scanning sequentially.
+     *
+     * @param fragments The fragments to scan
+     * @param handlesTypesOnly Only scan for {@link HandlesTypes} matches
+     * @param javaClassCache The class cache, which must be thread-safe
+     */
+    protected void processAnnotationsInParallel(Set<WebXml> fragments,
+            final boolean handlesTypesOnly,
+            final Map<String,JavaClassCacheEntry> javaClassCache) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                new SafeForkJoinWorkerThreadFactory(), null, false);
+        try {
+            List<ForkJoinTask<WebXml>> tasks = new ArrayList<>(fragments.size());
+            for (final WebXml fragment : fragments) {
+                tasks.add(pool.submit(new Callable<WebXml>() {
+                    @Override
+                    public WebXml call() {
+                        return scanAnnotations(fragment, handlesTypesOnly, javaClassCache);
+                    }
+                }));
+            }
+            Iterator<WebXml> iter = fragments.iterator();
+            for (ForkJoinTask<WebXml> task : tasks) {
+                mergeAnnotations(iter.next(), task.join());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    private WebXml scanAnnotations(WebXml fragment, boolean handlesTypesOnly,
+            Map<String,JavaClassCacheEntry> javaClassCache) {
+        // Only need to scan for @HandlesTypes matches if any of the
+        // following are true:
+        // - it has already been determined only @HandlesTypes is required
+        //   (e.g. main web.xml has metadata-complete="true"
+        // - this fragment is for a container JAR (Servlet 3.1 section 8.1)
+        // - this fragment has metadata-complete="true"
+        boolean htOnly = handlesTypesOnly || !fragment.getWebappJar() ||
+                fragment.isMetadataComplete();
+
+        WebXml annotations = new WebXml();
+        // no impact on distributable
+        annotations.setDistributable(true);
+        URL url = fragment.getURL();
+        processAnnotationsUrl(url, annotations, htOnly, javaClassCache);
+        return annotations;
+    }
+
+
+    private static void mergeAnnotations(WebXml fragment, WebXml annotations) {
+        Set<WebXml> set = new HashSet<>();
+        set.add(annotations);
+        // Merge annotations into fragment - fragment takes priority
+        fragment.merge(set);
+    }
+
     protected void processAnnotationsWebResource(WebResource webResource,
             WebXml fragment, boolean handlesTypesOnly,
             Map<String,JavaClassCacheEntry> javaClassCache) {
@@ -1986,6 +2069,23 @@ public class ContextConfig implements LifecycleListener {
     protected void processAnnotationsJar(URL url, WebXml fragment,
             boolean handlesTypesOnly, Map<String,JavaClassCacheEntry> javaClassCache) {
 
+        AnnotationScanIndex scanIndex = this.scanIndex;
+        File file = null;
+        List<AnnotationScanIndex.ClassInfo> classes = null;
+        if (scanIndex != null) {
+            file = getIndexableJar(url);
+            if (file != null) {
+                classes = scanIndex.get(file);
+                if (classes != null) {
+                    processAnnotationsIndex(url, classes, fragment, handlesTypesOnly,
+                            javaClassCache);
+                    indexedJarCount.incrementAndGet();
+                    return;
+                }
+                classes = new ArrayList<>();
+            }
+        }
+
         try (Jar jar = JarFactory.newInstance(url)) {
             if (log.isDebugEnabled()) {
                 log.debug(sm.getString(
@@ -1997,13 +2097,23 @@ public class ContextConfig implements LifecycleListener {
             while (entryName != null) {
                 if (entryName.endsWith(".class")) {
                     try (InputStream is = jar.getEntryInputStream()) {
-                        processAnnotationsStream(is, fragment, handlesTypesOnly, javaClassCache);
+                        if (classes == null) {
+                            processAnnotationsStream(is, fragment, handlesTypesOnly,
+                                    javaClassCache);
+                        } else {
+                            JavaClass clazz = new ClassParser(is).parse();
+                            classes.add(new AnnotationScanIndex.ClassInfo(entryName, clazz));
+                            processClass(clazz, fragment, handlesTypesOnly, javaClassCache);
+                        }
                     } catch (IOException e) {
                         log.error(sm.getString("contextConfig.inputStreamJar",
                                 entryName, url),e);
+                        // Don't index a JAR that could not be fully scanned
+                        classes = null;
                     } catch (ClassFormatException e) {
                         log.error(sm.getString("contextConfig.inputStreamJar",
                                 entryName, url),e);
+                        classes = null;
                     }
                 }
                 jar.nextEntry();
@@ -2011,7 +2121,115 @@ public class ContextConfig implements LifecycleListener {
             }
         } catch (IOException e) {
             log.error(sm.getString("contextConfig.jarFile", url), e);
+            classes = null;
+        }
+
+        if (classes != null) {
+            scanIndex.put(file, classes);
+        }
+    }
+
+
+    /**
+     * Process the classes of a JAR using the information recorded in the
+     * annotation scan index. The annotations that define Servlets, Filters and
+     * listeners are not indexed so the classes that have them are read from the
+     * JAR.
+     *
+     * @param url The URL of the JAR
+     * @param classes The indexed classes of the JAR
+     * @param fragment The fragment to add any annotation configuration to
+     * @param handlesTypesOnly Only scan for {@link HandlesTypes} matches
+     * @param javaClassCache The class cache
+     */
+    private void processAnnotationsIndex(URL url, List<AnnotationScanIndex.ClassInfo> classes,
+            WebXml fragment, boolean handlesTypesOnly,
+            Map<String,JavaClassCacheEntry> javaClassCache) {
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("contextConfig.processAnnotationsIndex.debug", url));
+        }
+
+        Jar jar = null;
+        try {
+            for (AnnotationScanIndex.ClassInfo classInfo : classes) {
+                checkHandlesTypes(classInfo, javaClassCache);
+                if (handlesTypesOnly || !hasWebAnnotation(classInfo)) {
+                    continue;
+                }
+                String entryName = classInfo.getEntryName();
+                if (jar == null) {
+                    jar = JarFactory.newInstance(url);
+                }
+                try (InputStream is = jar.getInputStream(entryName)) {
+                    if (is == null) {
+                        throw new IOException(sm.getString(
+                                "contextConfig.processAnnotationsIndex.missing", entryName));
+                    }
+                    processClassAnnotations(new ClassParser(is).parse(), fragment);
+                } catch (IOException e) {
+                    log.error(sm.getString("contextConfig.inputStreamJar",
+                            entryName, url),e);
+                } catch (ClassFormatException e) {
+                    log.error(sm.getString("contextConfig.inputStreamJar",
+                            entryName, url),e);
+                }
+            }
+        } catch (IOException e) {
+            log.error(sm.getString("contextConfig.jarFile", url), e);
+        } finally {
+            if (jar != null) {
+                jar.close();
+            }
+        }
+    }
+
+
+    int getIndexedJarCount() {
+        return indexedJarCount.get();
+    }
+
+
+    private AnnotationScanIndex createScanIndex() {
+        if (!context.getUseAnnotationScanIndex()) {
+            return null;
         }
+        File workDir = (File) context.getServletContext().getAttribute(ServletContext.TEMPDIR);
+        if (workDir == null) {
+            return null;
+        }
+        return new AnnotationScanIndex(new File(workDir, AnnotationScanIndex.FILE_NAME));
+    }
+
+
+    /*
+     * Only JARs that are files on the local file system are indexed.
+     */
+    private static File getIndexableJar(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            File file = new File(url.toURI());
+            if (file.isFile()) {
+                return file;
+            }
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            // Not a file. Ignore.
+        }
+        return null;
+    }
+
+
+    private static boolean hasWebAnnotation(AnnotationScanIndex.ClassInfo classInfo) {
+        for (String type : classInfo.getAnnotationTypes()) {
+            if ("Ljavax/servlet/annotation/WebServlet;".equals(type) ||
+                    "Ljavax/servlet/annotation/WebFilter;".equals(type) ||
+                    "Ljavax/servlet/annotation/WebListener;".equals(type)) {
+                return true;
+            }
+        }
+        return false;
     }
 
 
@@ -2051,12 +2269,24 @@ public class ContextConfig implements LifecycleListener {
 
         ClassParser parser = new ClassParser(is);
         JavaClass clazz = parser.parse();
+        processClass(clazz, fragment, handlesTypesOnly, javaClassCache);
+    }
+
+
+    private void processClass(JavaClass clazz, WebXml fragment,
+            boolean handlesTypesOnly, Map<String,JavaClassCacheEntry> javaClassCache) {
+
         checkHandlesTypes(clazz, javaClassCache);
 
         if (handlesTypesOnly) {
             return;
         }
 
+        processClassAnnotations(clazz, fragment);
+    }
+
+
+    private void processClassAnnotations(JavaClass clazz, WebXml fragment) {
         AnnotationEntry[] annotationsEntries = clazz.getAnnotationEntries();
         if (annotationsEntries != null) {
             String className = clazz.getClassName();
@@ -2090,6 +2320,18 @@ public class ContextConfig implements LifecycleListener {
             return;
         }
 
+        checkHandlesTypes(new AnnotationScanIndex.ClassInfo(null, javaClass), javaClassCache);
+    }
+
+
+    private void checkHandlesTypes(AnnotationScanIndex.ClassInfo javaClass,
+            Map<String,JavaClassCacheEntry> javaClassCache) {
+
+        // Skip this if we can
+        if (typeInitializerMap.size() == 0) {
+            return;
+        }
+
         if ((javaClass.getAccessFlags() &
                 org.apache.tomcat.util.bcel.Const.ACC_ANNOTATION) != 0) {
             // Skip annotations.
@@ -2101,7 +2343,8 @@ public class ContextConfig implements LifecycleListener {
         Class<?> clazz = null;
         if (handlesTypesNonAnnotations) {
             // This *might* be match for a HandlesType.
-            populateJavaClassCache(className, javaClass, javaClassCache);
+            populateJavaClassCache(className, javaClass.getSuperclassName(),
+                    javaClass.getInterfaceNames(), javaClassCache);
             JavaClassCacheEntry entry = javaClassCache.get(className);
             if (entry.getSciSet() == null) {
                 try {
@@ -2121,27 +2364,28 @@ public class ContextConfig implements LifecycleListener {
                     return;
                 }
 
-                for (ServletContainerInitializer sci : entry.getSciSet()) {
-                    Set<Class<?>> classes = initializerClassMap.get(sci);
-                    if (classes == null) {
-                        classes = new HashSet<>();
-                        initializerClassMap.put(sci, classes);
+                synchronized (initializerClassMap) {
+                    for (ServletContainerInitializer sci : entry.getSciSet()) {
+                        Set<Class<?>> classes = initializerClassMap.get(sci);
+                        if (classes == null) {
+                            classes = new HashSet<>();
+                            initializerClassMap.put(sci, classes);
+                        }
+                        classes.add(clazz);
                     }
-                    classes.add(clazz);
                 }
             }
         }
 
         if (handlesTypesAnnotations) {
-            AnnotationEntry[] annotationEntries = javaClass.getAnnotationEntries();
-            if (annotationEntries != null) {
+            String[] annotationTypes = javaClass.getAnnotationTypes();
+            if (annotationTypes.length > 0) {
                 for (Map.Entry<Class<?>, Set<ServletContainerInitializer>> entry :
                         typeInitializerMap.entrySet()) {
                     if (entry.getKey().isAnnotation()) {
                         String entryClassName = entry.getKey().getName();
-                        for (AnnotationEntry annotationEntry : annotationEntries) {
-                            if (entryClassName.equals(
-                                    getClassName(annotationEntry.getAnnotationType()))) {
+                        for (String annotationType : annotationTypes) {
+                            if (entryClassName.equals(getClassName(annotationType))) {
                                 if (clazz == null) {
                                     clazz = Introspection.loadClass(
                                             context, className);
@@ -2151,8 +2395,10 @@ public class ContextConfig implements LifecycleListener {
                                         return;
                                     }
                                 }
-                                for (ServletContainerInitializer sci : entry.getValue()) {
-                                    initializerClassMap.get(sci).add(clazz);
+                                synchronized (initializerClassMap) {
+                                    for (ServletContainerInitializer sci : entry.getValue()) {
+                                        initializerClassMap.get(sci).add(clazz);
+                                    }
                                 }
                                 break;
                             }
@@ -2188,18 +2434,18 @@ public class ContextConfig implements LifecycleListener {
         return msg.toString();
     }
 
-    private void populateJavaClassCache(String className, JavaClass javaClass,
-            Map<String,JavaClassCacheEntry> javaClassCache) {
+    private void populateJavaClassCache(String className, String superclassName,
+            String[] interfaceNames, Map<String,JavaClassCacheEntry> javaClassCache) {
         if (javaClassCache.containsKey(className)) {
             return;
         }
 
         // Add this class to the cache
-        javaClassCache.put(className, new JavaClassCacheEntry(javaClass));
+        javaClassCache.put(className, new JavaClassCacheEntry(superclassName, interfaceNames));
 
-        populateJavaClassCache(javaClass.getSuperclassName(), javaClassCache);
+        populateJavaClassCache(superclassName, javaClassCache);
 
-        for (String interfaceName : javaClass.getInterfaceNames()) {
+        for (String interfaceName : interfaceNames) {
             populateJavaClassCache(interfaceName, javaClassCache);
         }
     }
@@ -2214,7 +2460,8 @@ public class ContextConfig implements LifecycleListener {
                 }
                 ClassParser parser = new ClassParser(is);
                 JavaClass clazz = parser.parse();
-                populateJavaClassCache(clazz.getClassName(), clazz, javaClassCache);
+                populateJavaClassCache(clazz.getClassName(), clazz.getSuperclassName(),
+                        clazz.getInterfaceNames(), javaClassCache);
             } catch (ClassFormatException e) {
                 log.debug(sm.getString("contextConfig.invalidSciHandlesTypes",
                         className), e);
@@ -2616,11 +2863,12 @@ public class ContextConfig implements LifecycleListener {
 
         public final String[] interfaceNames;
 
-        private Set<ServletContainerInitializer> sciSet = null;
+        // May be set concurrently when annotations are scanned in parallel
+        private volatile Set<ServletContainerInitializer> sciSet = null;
 
-        public JavaClassCacheEntry(JavaClass javaClass) {
-            superclassName = javaClass.getSuperclassName();
-            interfaceNames = javaClass.getInterfaceNames();
+        public JavaClassCacheEntry(String superclassName, String[] interfaceNames) {
+            this.superclassName = superclassName;
+            this.interfaceNames = interfaceNames;
         }
 
         public String getSuperclassName() {
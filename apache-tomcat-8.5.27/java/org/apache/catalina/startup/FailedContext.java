@@ -806,4 +806,14 @@ public class FailedContext extends LifecycleMBeanBase implements Context {
     public void setResponseCharacterEncoding(String encoding) { /* NO-OP */ }
     @Override
     public String getResponseCharacterEncoding() { return null; }
-}
\ No newline at end of file
+
+    @Override
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning) { /* NO-OP */ }
+    @Override
+    public boolean getParallelAnnotationScanning() { return false; }
+
+    @Override
+    public void setUseAnnotationScanIndex(boolean useAnnotationScanIndex) { /* NO-OP */ }
+    @Override
+    public boolean getUseAnnotationScanIndex() { return false; }
+}
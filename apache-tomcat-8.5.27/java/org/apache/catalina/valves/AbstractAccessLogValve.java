@@ -50,6 +50,7 @@ import org.apache.coyote.RequestInfo;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 
 
@@ -461,7 +462,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
      * generation.
      */
     private SynchronizedStack<CharArrayWriter> charArrayWriters =
-            new SynchronizedStack<>();
+            new StripedStack<>();
 
     /**
      * Log message buffers are usually recycled and re-used. To prevent
@@ -1207,9 +1208,26 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
             if (length <= 0) {
                 // Protect against nulls and unexpected types as these values
                 // may be set by untrusted applications
+                Object ranges = request.getAttribute(
+                        Globals.SENDFILE_FILE_RANGES_ATTR);
                 Object start = request.getAttribute(
                         Globals.SENDFILE_FILE_START_ATTR);
-                if (start instanceof Long) {
+                if (ranges instanceof long[]) {
+                    long[] offsets = (long[]) ranges;
+                    length = 0;
+                    for (int i = 0; i + 1 < offsets.length; i += 2) {
+                        length += offsets[i + 1] - offsets[i];
+                    }
+                    Object headers = request.getAttribute(
+                            Globals.SENDFILE_RANGE_HEADERS_ATTR);
+                    if (headers instanceof byte[][]) {
+                        for (byte[] header : (byte[][]) headers) {
+                            if (header != null) {
+                                length += header.length;
+                            }
+                        }
+                    }
+                } else if (start instanceof Long) {
                     Object end = request.getAttribute(
                             Globals.SENDFILE_FILE_END_ATTR);
                     if (end instanceof Long) {
@@ -125,6 +125,33 @@ public abstract class AbstractArchiveResource extends AbstractResource {
         return null;
     }
 
+    /**
+     * Obtain the path of the archive file that contains the content of this
+     * resource if the content may be read directly from that file.
+     *
+     * @return The path of the archive file or <code>null</code> if the content
+     *         is not stored without compression in an archive on the file
+     *         system
+     *
+     * @see #getContentOffset()
+     */
+    public String getArchivePath() {
+        return null;
+    }
+
+    /**
+     * Obtain the position of the content of this resource in the archive file
+     * returned by {@link #getArchivePath()}. This allows the content to be
+     * sent with sendfile.
+     *
+     * @return The position of the first byte of the content or -1 if the
+     *         content is not stored without compression in an archive on the
+     *         file system
+     */
+    public long getContentOffset() {
+        return -1;
+    }
+
     @Override
     public boolean canRead() {
         return true;
@@ -29,6 +29,25 @@ public abstract class AbstractSingleArchiveResource extends AbstractArchiveResou
     }
 
 
+    @Override
+    public String getArchivePath() {
+        if (getContentOffset() == -1) {
+            return null;
+        }
+        return getBase();
+    }
+
+
+    @Override
+    public long getContentOffset() {
+        if (isDirectory()) {
+            return -1;
+        }
+        return ((AbstractSingleArchiveResourceSet) getArchiveResourceSet()).getStoredContentOffset(
+                getResource());
+    }
+
+
     @Override
     protected JarInputStreamWrapper getJarInputStreamWrapper() {
         JarFile jarFile = null;
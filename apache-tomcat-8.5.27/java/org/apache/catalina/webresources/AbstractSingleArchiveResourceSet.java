@@ -23,9 +23,12 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.UriUtil;
 import org.apache.tomcat.util.compat.JreCompat;
 
@@ -35,7 +38,10 @@ import org.apache.tomcat.util.compat.JreCompat;
  */
 public abstract class AbstractSingleArchiveResourceSet extends AbstractArchiveResourceSet {
 
+    private static final Log log = LogFactory.getLog(AbstractSingleArchiveResourceSet.class);
+
     private volatile Boolean multiRelease;
+    private volatile StoredEntryIndex storedEntryIndex;
 
     /**
      * A no argument constructor is required for this to work with the digester.
@@ -132,6 +138,41 @@ public abstract class AbstractSingleArchiveResourceSet extends AbstractArchiveRe
     }
 
 
+    /**
+     * Obtain the position of the content of an entry within the archive file.
+     *
+     * @param jarEntry The entry
+     *
+     * @return The position of the content or -1 if the entry is not stored
+     *         without compression or the position can not be determined
+     */
+    long getStoredContentOffset(JarEntry jarEntry) {
+        // Versioned entries are mapped to the names of the base entries
+        if (jarEntry.getMethod() != ZipEntry.STORED || isMultiRelease()) {
+            return -1;
+        }
+        StoredEntryIndex storedEntryIndex = this.storedEntryIndex;
+        if (storedEntryIndex == null) {
+            synchronized (archiveLock) {
+                storedEntryIndex = this.storedEntryIndex;
+                if (storedEntryIndex == null) {
+                    try {
+                        storedEntryIndex = new StoredEntryIndex(new File(getBase()));
+                    } catch (IOException ioe) {
+                        if (log.isDebugEnabled()) {
+                            log.debug(sm.getString("abstractSingleArchiveResourceSet.indexFail",
+                                    getBase()), ioe);
+                        }
+                        return -1;
+                    }
+                    this.storedEntryIndex = storedEntryIndex;
+                }
+            }
+        }
+        return storedEntryIndex.getContentOffset(jarEntry.getName(), jarEntry.getSize());
+    }
+
+
     //-------------------------------------------------------- Lifecycle methods
     @Override
     protected void initInternal() throws LifecycleException {
@@ -16,9 +16,7 @@
  */
 package org.apache.catalina.webresources;
 
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
@@ -28,6 +26,22 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
 
+/**
+ * Provides caching of resource metadata and content for a
+ * {@link StandardRoot}.
+ * <p>
+ * When the cache is full, resources are admitted and evicted using the TinyLFU
+ * policy. The number of recent requests for each path is estimated by a
+ * {@link FrequencySketch} and a new resource is only added to the cache if
+ * enough space can be freed by evicting expired resources that are requested
+ * less often than the new resource. The background process frees space by
+ * evicting the least frequently requested expired resources without having to
+ * sort all of the cached resources.
+ * <p>
+ * Resource content may optionally be held outside of the Java heap in direct
+ * buffers obtained from an {@link OffHeapPool}. The buffer of an evicted
+ * resource is returned to the pool once it is no longer being written.
+ */
 public class Cache {
 
     private static final Log log = LogFactory.getLog(Cache.class);
@@ -39,12 +53,17 @@ public class Cache {
     // objectMaxSize must be < maxSize/20
     private static final int OBJECT_MAX_SIZE_FACTOR = 20;
 
+    // Used to size the frequency sketch
+    private static final long ESTIMATED_ENTRY_SIZE = 4096;
+
     private final StandardRoot root;
     private final AtomicLong size = new AtomicLong(0);
 
     private long ttl = 5000;
     private long maxSize = 10 * 1024 * 1024;
     private int objectMaxSize = (int) maxSize/OBJECT_MAX_SIZE_FACTOR;
+    private volatile OffHeapPool offHeapPool = null;
+    private volatile FrequencySketch sketch = new FrequencySketch(maxSize / ESTIMATED_ENTRY_SIZE);
 
     private AtomicLong lookupCount = new AtomicLong(0);
     private AtomicLong hitCount = new AtomicLong(0);
@@ -63,6 +82,8 @@ public class Cache {
         }
 
         lookupCount.incrementAndGet();
+        FrequencySketch sketch = this.sketch;
+        sketch.increment(path);
 
         CachedResource cacheEntry = resourceCache.get(path);
 
@@ -93,18 +114,7 @@ public class Cache {
                 size.addAndGet(delta);
 
                 if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
-                    }
+                    makeSpace(path, sketch);
                 }
             } else {
                 // Another thread added the entry to the cache
@@ -120,6 +130,8 @@ public class Cache {
 
     protected WebResource[] getResources(String path, boolean useClassLoaderResources) {
         lookupCount.incrementAndGet();
+        FrequencySketch sketch = this.sketch;
+        sketch.increment(path);
 
         // Don't call noCache(path) since the class loader only caches
         // individual resources. Therefore, always cache collections here
@@ -151,18 +163,7 @@ public class Cache {
                 size.addAndGet(delta);
 
                 if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path));
-                    }
+                    makeSpace(path, sketch);
                 }
             } else {
                 // Another thread added the entry to the cache
@@ -177,18 +178,32 @@ public class Cache {
     }
 
     protected void backgroundProcess() {
-        // Create an ordered set of all cached resources with the least recently
-        // used first. This is a background process so we can afford to take the
-        // time to order the elements first
-        TreeSet<CachedResource> orderedResources =
-                new TreeSet<>(new EvictionOrder());
-        orderedResources.addAll(resourceCache.values());
-
-        Iterator<CachedResource> iter = orderedResources.iterator();
-
         long targetSize =
                 maxSize * (100 - TARGET_FREE_PERCENT_BACKGROUND) / 100;
-        long newSize = evict(targetSize, iter);
+        long newSize = size.get();
+
+        if (newSize > targetSize) {
+            // Rather than sort all the cached resources, group the sizes of
+            // the resources that may be evicted by frequency and then evict
+            // the least frequently used resources until the target is reached.
+            FrequencySketch sketch = this.sketch;
+            long now = System.currentTimeMillis();
+            long[] sizeByFrequency = new long[FrequencySketch.MAX_FREQUENCY + 1];
+            for (CachedResource resource : resourceCache.values()) {
+                if (resource.getNextCheck() <= now) {
+                    sizeByFrequency[sketch.frequency(resource.getWebappPath())] +=
+                            resource.getSize();
+                }
+            }
+            long excess = newSize - targetSize;
+            int maxFrequency = 0;
+            long evictable = sizeByFrequency[0];
+            while (evictable < excess && maxFrequency < FrequencySketch.MAX_FREQUENCY) {
+                maxFrequency++;
+                evictable += sizeByFrequency[maxFrequency];
+            }
+            newSize = evict(targetSize, resourceCache.values().iterator(), sketch, maxFrequency);
+        }
 
         if (newSize > targetSize) {
             log.info(sm.getString("cache.backgroundEvictFail",
@@ -198,6 +213,35 @@ public class Cache {
         }
     }
 
+    /*
+     * Called when adding the resource at the given path has made the cache
+     * larger than the maximum size. Resources are processed unordered for speed
+     * since this is on the critical path for request processing but only
+     * resources that are used less frequently than the new resource are
+     * evicted. If insufficient space can be freed, the new resource is removed
+     * from the cache.
+     */
+    private void makeSpace(String path, FrequencySketch sketch) {
+        int frequency = sketch.frequency(path);
+        long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
+        long newSize = evict(targetSize, resourceCache.values().iterator(), sketch, frequency - 1);
+        if (newSize > maxSize) {
+            // Unable to create sufficient space for this resource
+            // Remove it from the cache
+            removeCacheEntry(path);
+            if (frequency < FrequencySketch.MAX_FREQUENCY) {
+                // This is normal when the cache is full of resources that are
+                // used more often than this one
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("cache.notAdmitted", path,
+                            root.getContext().getName()));
+                }
+            } else {
+                log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
+            }
+        }
+    }
+
     private boolean noCache(String path) {
         // Don't cache classes. The class loader handles this.
         // Don't cache JARs. The ResourceSet handles this.
@@ -210,7 +254,8 @@ public class Cache {
         return false;
     }
 
-    private long evict(long targetSize, Iterator<CachedResource> iter) {
+    private long evict(long targetSize, Iterator<CachedResource> iter,
+            FrequencySketch sketch, int maxFrequency) {
 
         long now = System.currentTimeMillis();
 
@@ -224,6 +269,11 @@ public class Cache {
                 continue;
             }
 
+            // Don't evict anything that is used more often than permitted
+            if (sketch.frequency(resource.getWebappPath()) > maxFrequency) {
+                continue;
+            }
+
             // Remove the entry from the cache
             removeCacheEntry(resource.getWebappPath());
 
@@ -240,6 +290,7 @@ public class Cache {
         if (cachedResource != null) {
             long delta = cachedResource.getSize();
             size.addAndGet(-delta);
+            cachedResource.evict();
         }
     }
 
@@ -259,6 +310,41 @@ public class Cache {
     public void setMaxSize(long maxSize) {
         // Internally bytes, externally kilobytes
         this.maxSize = maxSize * 1024;
+        this.sketch = new FrequencySketch(this.maxSize / ESTIMATED_ENTRY_SIZE);
+        if (offHeapPool != null) {
+            offHeapPool = new OffHeapPool(this.maxSize);
+        }
+    }
+
+    public boolean isOffHeap() {
+        return offHeapPool != null;
+    }
+
+    /**
+     * Configure where the content of cached resources is held. Resources that
+     * are already cached are not affected. The direct memory used is limited
+     * to the maximum size of the cache.
+     *
+     * @param offHeap <code>true</code> if the content of cached resources
+     *                should be held in direct buffers outside of the Java
+     *                heap, <code>false</code> if it should be held in byte
+     *                arrays on the heap
+     */
+    public void setOffHeap(boolean offHeap) {
+        if (!offHeap) {
+            offHeapPool = null;
+        } else if (offHeapPool == null) {
+            offHeapPool = new OffHeapPool(maxSize);
+        }
+    }
+
+    /**
+     * @return the pool of direct buffers used to hold the content of newly
+     *         cached resources or <code>null</code> if content is held on the
+     *         heap
+     */
+    OffHeapPool getOffHeapPool() {
+        return offHeapPool;
     }
 
     public long getLookupCount() {
@@ -300,30 +386,18 @@ public class Cache {
     }
 
     public void clear() {
+        for (CachedResource cachedResource : resourceCache.values()) {
+            cachedResource.evict();
+        }
         resourceCache.clear();
         size.set(0);
+        // Let the direct memory of the old pool be freed
+        if (offHeapPool != null) {
+            offHeapPool = new OffHeapPool(maxSize);
+        }
     }
 
     public long getSize() {
         return size.get() / 1024;
     }
-
-    private static class EvictionOrder implements Comparator<CachedResource> {
-
-        @Override
-        public int compare(CachedResource cr1, CachedResource cr2) {
-            long nc1 = cr1.getNextCheck();
-            long nc2 = cr2.getNextCheck();
-
-            // Oldest resource should be first (so iterator goes from oldest to
-            // youngest.
-            if (nc1 == nc2) {
-                return 0;
-            } else if (nc1 > nc2) {
-                return -1;
-            } else {
-                return 1;
-            }
-        }
-    }
 }
@@ -19,6 +19,7 @@ package org.apache.catalina.webresources;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.security.cert.Certificate;
 import java.util.jar.Manifest;
 
@@ -41,6 +42,7 @@ public class CachedResource implements WebResource {
     private final String webAppPath;
     private final long ttl;
     private final int objectMaxSizeBytes;
+    private final OffHeapPool offHeapPool;
 
     private volatile WebResource webResource;
     private volatile WebResource[] webResources;
@@ -49,6 +51,9 @@ public class CachedResource implements WebResource {
     private volatile Long cachedLastModified = null;
     private volatile String cachedLastModifiedHttp = null;
     private volatile byte[] cachedContent = null;
+    private ByteBuffer cachedContentBuffer = null;
+    private int contentBufferUsers = 0;
+    private boolean evicted = false;
     private volatile Boolean cachedIsFile = null;
     private volatile Boolean cachedIsDirectory = null;
     private volatile Boolean cachedExists = null;
@@ -63,6 +68,7 @@ public class CachedResource implements WebResource {
         this.webAppPath = path;
         this.ttl = ttl;
         this.objectMaxSizeBytes = objectMaxSizeBytes;
+        this.offHeapPool = cache.getOffHeapPool();
     }
 
     protected boolean validateResource(boolean useClassLoaderResources) {
@@ -273,6 +279,11 @@ public class CachedResource implements WebResource {
 
     @Override
     public InputStream getInputStream() {
+        if (offHeapPool != null) {
+            // The buffer may be reused once the resource is evicted so it can't
+            // be exposed to code that may not tell the cache when it is done
+            return webResource.getInputStream();
+        }
         byte[] content = getContent();
         if (content == null) {
             // Can't cache InputStreams
@@ -281,8 +292,18 @@ public class CachedResource implements WebResource {
         return new ByteArrayInputStream(content);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the content is cached outside of the Java heap it is not available as
+     * a byte array and <code>null</code> is returned. Use
+     * {@link #acquireContentBuffer()} instead.
+     */
     @Override
     public byte[] getContent() {
+        if (offHeapPool != null) {
+            return null;
+        }
         byte[] cachedContent = this.cachedContent;
         if (cachedContent == null) {
             if (getContentLength() > objectMaxSizeBytes) {
@@ -294,6 +315,74 @@ public class CachedResource implements WebResource {
         return cachedContent;
     }
 
+    /**
+     * Obtain the content of the resource if the content is cached outside of
+     * the Java heap. The content may be written from the returned buffer
+     * without first copying it into a byte array. The buffer belongs to a pool
+     * and is not reused while it is acquired so every successful call must be
+     * followed by a call to {@link #releaseContentBuffer()} once the content
+     * has been written.
+     *
+     * @return A read-only view of the cached content or <code>null</code> if
+     *         the content is not cached outside of the Java heap
+     */
+    public ByteBuffer acquireContentBuffer() {
+        if (offHeapPool == null) {
+            return null;
+        }
+        synchronized (this) {
+            if (evicted) {
+                return null;
+            }
+            if (cachedContentBuffer == null) {
+                if (getContentLength() > objectMaxSizeBytes) {
+                    return null;
+                }
+                byte[] content = webResource.getContent();
+                if (content == null) {
+                    return null;
+                }
+                ByteBuffer buffer = offHeapPool.allocate(content.length);
+                if (buffer == null) {
+                    return null;
+                }
+                buffer.put(content);
+                buffer.flip();
+                cachedContentBuffer = buffer;
+            }
+            contentBufferUsers++;
+            return cachedContentBuffer.asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Release a buffer obtained from {@link #acquireContentBuffer()}.
+     */
+    public synchronized void releaseContentBuffer() {
+        contentBufferUsers--;
+        if (evicted && contentBufferUsers == 0) {
+            freeContentBuffer();
+        }
+    }
+
+    /*
+     * Called once the resource has been removed from the cache. Any buffer is
+     * returned to the pool once it is no longer in use.
+     */
+    synchronized void evict() {
+        evicted = true;
+        if (contentBufferUsers == 0) {
+            freeContentBuffer();
+        }
+    }
+
+    private void freeContentBuffer() {
+        if (cachedContentBuffer != null) {
+            offHeapPool.release(cachedContentBuffer);
+            cachedContentBuffer = null;
+        }
+    }
+
     @Override
     public long getCreation() {
         return webResource.getCreation();
@@ -324,6 +413,33 @@ public class CachedResource implements WebResource {
         return webResource.getWebResourceRoot();
     }
 
+    /**
+     * @return The path of the archive file that contains the content of the
+     *         resource if the content may be read directly from that file,
+     *         otherwise <code>null</code>
+     *
+     * @see AbstractArchiveResource#getArchivePath()
+     */
+    public String getArchivePath() {
+        if (webResource instanceof AbstractArchiveResource) {
+            return ((AbstractArchiveResource) webResource).getArchivePath();
+        }
+        return null;
+    }
+
+    /**
+     * @return The position of the content of the resource in the archive file
+     *         or -1 if the content may not be read directly from the file
+     *
+     * @see AbstractArchiveResource#getContentOffset()
+     */
+    public long getContentOffset() {
+        if (webResource instanceof AbstractArchiveResource) {
+            return ((AbstractArchiveResource) webResource).getContentOffset();
+        }
+        return -1;
+    }
+
     WebResource getWebResource() {
         return webResource;
     }
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch of 4-bit counters that estimates how often each resource
+ * path has been requested, as used by the TinyLFU cache admission policy. Once
+ * the number of recorded requests reaches ten times the number of counters per
+ * row, all counters are halved so that the estimates favour recent requests.
+ * <p>
+ * Each row of the sketch selects one counter from a 64-bit word of the table
+ * so a path only ever touches four words. Updates use compare-and-set so
+ * concurrent updates of the same word are not lost.
+ */
+class FrequencySketch {
+
+    static final int MAX_FREQUENCY = 15;
+
+    private static final int MIN_TABLE_SIZE = 64;
+    private static final int MAX_TABLE_SIZE = 1 << 20;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = new long[] {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private final AtomicLongArray table;
+    private final int tableMask;
+    private final int sampleSize;
+    private final AtomicInteger additions = new AtomicInteger(0);
+
+
+    /**
+     * @param expectedEntries The expected maximum number of entries in the
+     *                        cache
+     */
+    FrequencySketch(long expectedEntries) {
+        int size = MIN_TABLE_SIZE;
+        while (size < expectedEntries && size < MAX_TABLE_SIZE) {
+            size <<= 1;
+        }
+        table = new AtomicLongArray(size);
+        tableMask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+
+    /**
+     * @param path The resource path
+     *
+     * @return The estimated number of recent requests for the given path, from
+     *         zero to {@link #MAX_FREQUENCY}
+     */
+    int frequency(String path) {
+        int hash = spread(path.hashCode());
+        int start = (hash & 3) << 2;
+        int result = MAX_FREQUENCY;
+        for (int i = 0; i < 4; i++) {
+            long word = table.get(indexOf(hash, i));
+            int count = (int) ((word >>> ((start + i) << 2)) & 0xfL);
+            result = Math.min(result, count);
+        }
+        return result;
+    }
+
+
+    /**
+     * Record a request for the given path.
+     *
+     * @param path The resource path
+     */
+    void increment(String path) {
+        int hash = spread(path.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        while (true) {
+            long word = table.get(index);
+            if ((word & mask) == mask) {
+                // Saturated
+                return false;
+            }
+            if (table.compareAndSet(index, word, word + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+
+    /*
+     * Halve every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            while (true) {
+                long word = table.get(i);
+                if (table.compareAndSet(i, word, (word >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+        additions.set(sampleSize / 2);
+    }
+
+
+    private int indexOf(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+
+    private static int spread(int hash) {
+        int h = hash;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
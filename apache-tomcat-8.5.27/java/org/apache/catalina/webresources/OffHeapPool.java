@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides the direct buffers that hold the content of cached resources outside
+ * of the Java heap. Buffers are sliced from larger slabs and grouped into size
+ * classes that are powers of two. When a resource is evicted its buffer is
+ * returned to the pool and reused for the next resource of the same size class
+ * so direct memory is neither allocated nor left for the garbage collector to
+ * free while the cache is in use. The total size of the slabs is limited to the
+ * maximum size of the cache.
+ */
+final class OffHeapPool {
+
+    private static final int MIN_BUFFER_SIZE = 1024;
+    private static final int SLAB_SIZE = 64 * 1024;
+    // The largest buffer is 1GB
+    private static final int SIZE_CLASSES = 21;
+
+    private final long maxSize;
+    private final AtomicLong allocatedSize = new AtomicLong(0);
+    private final List<Queue<ByteBuffer>> freeBuffers = new ArrayList<>(SIZE_CLASSES);
+
+
+    /**
+     * @param maxSize The maximum number of bytes of direct memory to allocate
+     */
+    OffHeapPool(long maxSize) {
+        this.maxSize = maxSize;
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+    }
+
+
+    /**
+     * Obtain a buffer from the pool.
+     *
+     * @param size The number of bytes required
+     *
+     * @return A buffer with a position of zero and a limit of the requested
+     *         size or <code>null</code> if the pool is unable to allocate any
+     *         more direct memory for buffers of the requested size
+     */
+    ByteBuffer allocate(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass >= SIZE_CLASSES) {
+            return null;
+        }
+        Queue<ByteBuffer> free = freeBuffers.get(sizeClass);
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = allocateSlab(sizeClass, free);
+            if (buffer == null) {
+                return null;
+            }
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+
+    /**
+     * Return a buffer to the pool. The buffer must have been obtained from
+     * {@link #allocate(int)} and must not be used after it has been released.
+     *
+     * @param buffer The buffer to return
+     */
+    void release(ByteBuffer buffer) {
+        freeBuffers.get(sizeClass(buffer.capacity())).offer(buffer);
+    }
+
+
+    /**
+     * @return The number of bytes of direct memory allocated for slabs
+     */
+    long getAllocatedSize() {
+        return allocatedSize.get();
+    }
+
+
+    private ByteBuffer allocateSlab(int sizeClass, Queue<ByteBuffer> free) {
+        int bufferSize = MIN_BUFFER_SIZE << sizeClass;
+        int slabSize = Math.max(bufferSize, SLAB_SIZE);
+
+        long allocated;
+        do {
+            allocated = allocatedSize.get();
+            if (allocated + slabSize > maxSize) {
+                return null;
+            }
+        } while (!allocatedSize.compareAndSet(allocated, allocated + slabSize));
+
+        ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+        ByteBuffer result = null;
+        for (int pos = 0; pos < slabSize; pos += bufferSize) {
+            slab.limit(pos + bufferSize);
+            slab.position(pos);
+            ByteBuffer buffer = slab.slice();
+            if (result == null) {
+                result = buffer;
+            } else {
+                free.offer(buffer);
+            }
+        }
+        return result;
+    }
+
+
+    private static int sizeClass(int size) {
+        int sizeClass = 0;
+        while (((long) MIN_BUFFER_SIZE << sizeClass) < size) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+}
@@ -518,6 +518,14 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         cache.setMaxSize(cacheMaxSize);
     }
 
+    public boolean getCacheOffHeap() {
+        return cache.isOffHeap();
+    }
+
+    public void setCacheOffHeap(boolean cacheOffHeap) {
+        cache.setOffHeap(cacheOffHeap);
+    }
+
     @Override
     public void setCacheObjectMaxSize(int cacheObjectMaxSize) {
         cache.setObjectMaxSize(cacheObjectMaxSize);
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locates the content of the entries of a ZIP archive (JAR or WAR) that are
+ * stored without compression so that the content may be read, or sent with
+ * sendfile, directly from the archive file. The central directory is read once
+ * when the index is created. The position of the content of an entry is
+ * determined from the entry's local header the first time it is requested.
+ * <p>
+ * ZIP64 archives are not supported and result in an empty index.
+ */
+class StoredEntryIndex {
+
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int CEN_SIGNATURE = 0x02014b50;
+    private static final int CEN_SIZE = 46;
+    private static final int LOC_SIGNATURE = 0x04034b50;
+    private static final int LOC_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+
+    private final File archive;
+    // Entry name -> {local header offset, size}
+    private final Map<String,long[]> storedEntries;
+    private final Map<String,Long> contentOffsets = new ConcurrentHashMap<>();
+
+
+    StoredEntryIndex(File archive) throws IOException {
+        this.archive = archive;
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r")) {
+            storedEntries = readCentralDirectory(raf);
+        }
+    }
+
+
+    File getArchive() {
+        return archive;
+    }
+
+
+    /**
+     * Obtain the position of the content of an entry within the archive.
+     *
+     * @param name The name of the entry
+     * @param size The uncompressed size of the entry
+     *
+     * @return The position of the first byte of the content or -1 if the entry
+     *         is not stored without compression or could not be located
+     */
+    long getContentOffset(String name, long size) {
+        long[] entry = storedEntries.get(name);
+        if (entry == null || entry[1] != size) {
+            return -1;
+        }
+        Long result = contentOffsets.get(name);
+        if (result == null) {
+            try (RandomAccessFile raf = new RandomAccessFile(archive, "r")) {
+                byte[] header = new byte[LOC_SIZE];
+                raf.seek(entry[0]);
+                raf.readFully(header);
+                if (getInt(header, 0) != LOC_SIGNATURE) {
+                    return -1;
+                }
+                result = Long.valueOf(entry[0] + LOC_SIZE + getShort(header, 26) +
+                        getShort(header, 28));
+            } catch (IOException ioe) {
+                return -1;
+            }
+            contentOffsets.put(name, result);
+        }
+        return result.longValue();
+    }
+
+
+    private static Map<String,long[]> readCentralDirectory(RandomAccessFile raf)
+            throws IOException {
+        Map<String,long[]> result = new HashMap<>();
+
+        // Find the end of central directory record
+        long length = raf.length();
+        int tailSize = (int) Math.min(length, EOCD_SIZE + MAX_COMMENT_SIZE);
+        byte[] tail = new byte[tailSize];
+        raf.seek(length - tailSize);
+        raf.readFully(tail);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (getInt(tail, i) == EOCD_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            return result;
+        }
+        long cenSize = getInt(tail, eocd + 12) & ZIP64_MAGIC;
+        long cenOffset = getInt(tail, eocd + 16) & ZIP64_MAGIC;
+        if (cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC ||
+                cenOffset + cenSize > length || cenSize > Integer.MAX_VALUE) {
+            return result;
+        }
+
+        byte[] cen = new byte[(int) cenSize];
+        raf.seek(cenOffset);
+        raf.readFully(cen);
+        int pos = 0;
+        while (pos + CEN_SIZE <= cen.length && getInt(cen, pos) == CEN_SIGNATURE) {
+            int method = getShort(cen, pos + 10);
+            long compressedSize = getInt(cen, pos + 20) & ZIP64_MAGIC;
+            long size = getInt(cen, pos + 24) & ZIP64_MAGIC;
+            int nameLength = getShort(cen, pos + 28);
+            int extraLength = getShort(cen, pos + 30);
+            int commentLength = getShort(cen, pos + 32);
+            long localHeaderOffset = getInt(cen, pos + 42) & ZIP64_MAGIC;
+            if (pos + CEN_SIZE + nameLength > cen.length) {
+                break;
+            }
+            if (method == STORED && compressedSize == size && size != ZIP64_MAGIC &&
+                    localHeaderOffset != ZIP64_MAGIC) {
+                String name = new String(cen, pos + CEN_SIZE, nameLength, StandardCharsets.UTF_8);
+                result.put(name, new long[] { localHeaderOffset, size });
+            }
+            pos += CEN_SIZE + nameLength + extraLength + commentLength;
+        }
+        return result;
+    }
+
+
+    /*
+     * ZIP uses little-endian byte order.
+     */
+    private static int getShort(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off + 1] & 0xFF) << 8);
+    }
+
+
+    private static int getInt(byte[] b, int off) {
+        return getShort(b, off) | (getShort(b, off + 2) << 16);
+    }
+}
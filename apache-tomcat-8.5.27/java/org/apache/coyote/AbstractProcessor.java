@@ -379,6 +379,7 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
 
         // Servlet 3.0 asynchronous support
         case ASYNC_START: {
+            asyncStart();
             asyncStateMachine.asyncStart((AsyncContextCallback) param);
             break;
         }
@@ -572,6 +573,17 @@ public abstract class AbstractProcessor extends AbstractProcessorLight implement
     protected abstract void disableSwallowRequest();
 
 
+    /**
+     * Called on the container thread when the request enters asynchronous
+     * mode, before the application is able to use the request or response
+     * from another thread. Processors that hold back output should write it
+     * here.
+     */
+    protected void asyncStart() {
+        // NO-OP
+    }
+
+
     /**
      * Processors that populate request attributes directly (e.g. AJP) should
      * over-ride this method and return {@code false}.
@@ -38,7 +38,7 @@ import javax.servlet.http.WebConnection;
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.InstanceManager;
 import org.apache.tomcat.util.ExceptionUtils;
-import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler;
@@ -255,6 +255,12 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     }
 
 
+    public long getTargetQueueDelay() { return endpoint.getTargetQueueDelay(); }
+    public void setTargetQueueDelay(long targetQueueDelay) {
+        endpoint.setTargetQueueDelay(targetQueueDelay);
+    }
+
+
     public int getThreadPriority() { return endpoint.getThreadPriority(); }
     public void setThreadPriority(int threadPriority) {
         endpoint.setThreadPriority(threadPriority);
@@ -1064,7 +1070,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
         }
     }
 
-    protected static class RecycledProcessors extends SynchronizedStack<Processor> {
+    protected static class RecycledProcessors extends StripedStack<Processor> {
 
         private final transient ConnectionHandler<?> handler;
         protected final AtomicInteger size = new AtomicInteger(0);
@@ -1073,7 +1079,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
             this.handler = handler;
         }
 
-        @SuppressWarnings("sync-override") // Size may exceed cache size a bit
+        // Size may exceed cache size a bit
         @Override
         public boolean push(Processor processor) {
             int cacheSize = handler.getProtocol().getProcessorCache();
@@ -1090,7 +1096,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
             return result;
         }
 
-        @SuppressWarnings("sync-override") // OK if size is too big briefly
+        // OK if size is too big briefly
         @Override
         public Processor pop() {
             Processor result = super.pop();
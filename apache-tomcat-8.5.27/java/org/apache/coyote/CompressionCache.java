@@ -0,0 +1,168 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.security.ConcurrentMessageDigest;
+
+/**
+ * A cache of compressed response bodies. Entries are addressed by a SHA-256
+ * digest of the uncompressed body combined with the content encoding and the
+ * compression level so identical bodies are only compressed once regardless of
+ * the resource that generated them. When the total size of the cached bodies
+ * exceeds the configured maximum, the oldest entries are removed.
+ */
+public class CompressionCache {
+
+    private static final String SHA_256 = "SHA-256";
+
+    static {
+        try {
+            ConcurrentMessageDigest.init(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+
+    private final ConcurrentMap<String,byte[]> entries = new ConcurrentHashMap<>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong size = new AtomicLong(0);
+    private final AtomicLong lookupCount = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final long maxSize;
+    private final int objectMaxSize;
+
+
+    /**
+     * @param maxSize       The maximum total size, in bytes, of the cached
+     *                      compressed bodies
+     * @param objectMaxSize The maximum size, in bytes, of an uncompressed body
+     *                      that may be cached
+     */
+    public CompressionCache(long maxSize, int objectMaxSize) {
+        this.maxSize = maxSize;
+        this.objectMaxSize = objectMaxSize;
+    }
+
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+
+    public int getObjectMaxSize() {
+        return objectMaxSize;
+    }
+
+
+    public long getSize() {
+        return size.get();
+    }
+
+
+    public long getLookupCount() {
+        return lookupCount.get();
+    }
+
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * Generate the key for an uncompressed body.
+     *
+     * @param body     The buffer containing the uncompressed body
+     * @param off      The offset of the body in the buffer
+     * @param len      The length of the body
+     * @param encoding The content encoding that will be applied
+     * @param level    The compression level that will be used
+     *
+     * @return The key to use with {@link #get(String)} and
+     *         {@link #put(String, byte[])}
+     */
+    public static String getKey(byte[] body, int off, int len, String encoding, int level) {
+        byte[] input;
+        if (off == 0 && len == body.length) {
+            input = body;
+        } else {
+            input = new byte[len];
+            System.arraycopy(body, off, input, 0, len);
+        }
+        byte[] digest = ConcurrentMessageDigest.digest(SHA_256, input,
+                (encoding + "/" + level).getBytes(StandardCharsets.ISO_8859_1));
+        return HexUtils.toHexString(digest);
+    }
+
+
+    /**
+     * Look up a compressed body.
+     *
+     * @param key The key generated for the uncompressed body
+     *
+     * @return The compressed body or <code>null</code> if it is not cached. The
+     *         returned array must not be modified.
+     */
+    public byte[] get(String key) {
+        lookupCount.incrementAndGet();
+        byte[] result = entries.get(key);
+        if (result != null) {
+            hitCount.incrementAndGet();
+        }
+        return result;
+    }
+
+
+    /**
+     * Add a compressed body to the cache. Bodies larger than the cache are
+     * ignored.
+     *
+     * @param key        The key generated for the uncompressed body
+     * @param compressed The compressed body. The array must not be modified
+     *                   once it has been added to the cache.
+     */
+    public void put(String key, byte[] compressed) {
+        if (compressed.length > maxSize) {
+            return;
+        }
+        if (entries.putIfAbsent(key, compressed) != null) {
+            return;
+        }
+        insertionOrder.add(key);
+        size.addAndGet(compressed.length);
+        while (size.get() > maxSize) {
+            String oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            byte[] removed = entries.remove(oldest);
+            if (removed != null) {
+                size.addAndGet(-removed.length);
+            }
+        }
+    }
+}
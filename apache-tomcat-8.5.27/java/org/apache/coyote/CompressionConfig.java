@@ -20,18 +20,33 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.tomcat.util.buf.MessageBytes;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.res.StringManager;
 
 public class CompressionConfig {
 
+    private static final StringManager sm = StringManager.getManager(CompressionConfig.class);
+
+    private static final ContentEncoder[] NO_CONTENT_ENCODERS = new ContentEncoder[0];
+
     private int compressionLevel = 0;
     private Pattern noCompressionUserAgents = null;
     private String compressibleMimeType = "text/html,text/xml,text/plain,text/css," +
             "text/javascript,application/javascript,application/json,application/xml";
     private String[] compressibleMimeTypes = null;
     private int compressionMinSize = 2048;
+    private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
+    private int compressionCacheSize = 0;
+    private volatile CompressionCache compressionCache = null;
+    private int deflaterPoolSize = 32;
+    private volatile SynchronizedStack<Deflater> deflaterPool =
+            new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, deflaterPoolSize);
+    private String compressionEncoders = null;
+    private volatile ContentEncoder[] contentEncoders = NO_CONTENT_ENCODERS;
 
 
     /**
@@ -168,28 +183,208 @@ public class CompressionConfig {
     }
 
 
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+
+
     /**
-     * Determines if compression should be enabled for the given response and if
-     * it is, sets any necessary headers to mark it as such.
+     * Set the level used to compress responses with gzip.
+     *
+     * @param gzipLevel The compression level, from 0 (no compression) to 9
+     *                  (best compression) or -1 for the default level
+     */
+    public void setGzipLevel(int gzipLevel) {
+        if (gzipLevel < -1 || gzipLevel > 9) {
+            throw new IllegalArgumentException(Integer.toString(gzipLevel));
+        }
+        this.gzipLevel = gzipLevel;
+    }
+
+
+    public int getCompressionCacheSize() {
+        return compressionCacheSize;
+    }
+
+
+    /**
+     * Set the size of the cache of compressed response bodies. Only bodies of
+     * responses that have an ETag are cached and no single body larger than
+     * 1/20th of the cache will be cached.
+     *
+     * @param compressionCacheSize The maximum size of the cache in kilobytes.
+     *                             Zero or less disables the cache.
+     */
+    public void setCompressionCacheSize(int compressionCacheSize) {
+        this.compressionCacheSize = compressionCacheSize;
+        if (compressionCacheSize > 0) {
+            long maxSize = compressionCacheSize * 1024L;
+            compressionCache = new CompressionCache(maxSize, (int) Math.min(maxSize / 20, Integer.MAX_VALUE));
+        } else {
+            compressionCache = null;
+        }
+    }
+
+
+    /**
+     * @return The cache of compressed response bodies or <code>null</code> if
+     *         caching is disabled
+     */
+    public CompressionCache getCompressionCache() {
+        return compressionCache;
+    }
+
+
+    public int getDeflaterPoolSize() {
+        return deflaterPoolSize;
+    }
+
+
+    /**
+     * Set the maximum number of idle {@link Deflater}s kept for reuse by gzip
+     * compression. Each one holds native memory so any that do not fit in the
+     * pool are ended.
+     *
+     * @param deflaterPoolSize The maximum number of idle Deflaters. Zero or
+     *                         less disables pooling.
+     */
+    public void setDeflaterPoolSize(int deflaterPoolSize) {
+        SynchronizedStack<Deflater> oldPool = deflaterPool;
+        this.deflaterPoolSize = deflaterPoolSize;
+        if (deflaterPoolSize > 0) {
+            deflaterPool = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, deflaterPoolSize);
+        } else {
+            deflaterPool = null;
+        }
+        if (oldPool != null) {
+            Deflater deflater;
+            while ((deflater = oldPool.pop()) != null) {
+                deflater.end();
+            }
+        }
+    }
+
+
+    /**
+     * @return The pool of idle Deflaters or <code>null</code> if pooling is
+     *         disabled
+     */
+    public SynchronizedStack<Deflater> getDeflaterPool() {
+        return deflaterPool;
+    }
+
+
+    public String getCompressionEncoders() {
+        return compressionEncoders;
+    }
+
+
+    /**
+     * Set the content encoders that may be used as well as gzip. If the client
+     * accepts them, they are preferred to gzip in the order given.
+     *
+     * @param compressionEncoders A comma separated list of the names of
+     *                            classes that implement
+     *                            {@link ContentEncoder}
+     */
+    public void setCompressionEncoders(String compressionEncoders) {
+        List<ContentEncoder> encoders = new ArrayList<>();
+        if (compressionEncoders != null) {
+            StringTokenizer tokens = new StringTokenizer(compressionEncoders, ",");
+            while (tokens.hasMoreTokens()) {
+                String className = tokens.nextToken().trim();
+                if (className.length() == 0) {
+                    continue;
+                }
+                try {
+                    Class<?> clazz = Class.forName(className);
+                    encoders.add((ContentEncoder) clazz.getConstructor().newInstance());
+                } catch (ReflectiveOperationException | ClassCastException e) {
+                    throw new IllegalArgumentException(
+                            sm.getString("compressionConfig.invalidEncoder", className), e);
+                }
+            }
+        }
+        this.compressionEncoders = compressionEncoders;
+        this.contentEncoders = encoders.toArray(new ContentEncoder[encoders.size()]);
+    }
+
+
+    /**
+     * Obtain the configured encoder for a content coding.
+     *
+     * @param encoding The name of the content coding
+     *
+     * @return The encoder or <code>null</code> if there is no configured
+     *         encoder for the content coding. There is never an encoder for
+     *         gzip.
+     */
+    public ContentEncoder getContentEncoder(String encoding) {
+        for (ContentEncoder encoder : contentEncoders) {
+            if (encoder.getEncoding().equalsIgnoreCase(encoding)) {
+                return encoder;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Determines if gzip compression should be enabled for the given response
+     * and if it is, sets any necessary headers to mark it as such. The
+     * configured content encoders are not used.
      *
      * @param request  The request that triggered the response
      * @param response The response to consider compressing
      *
      * @return {@code true} if compression was enabled for the given response,
      *         otherwise {@code false}
+     *
+     * @deprecated Use {@link #getCompressionEncoding(Request, Response)}. This
+     *             will be removed in Tomcat 9.
      */
+    @Deprecated
     public boolean useCompression(Request request, Response response) {
+        return getCompressionEncoding(request, response, NO_CONTENT_ENCODERS) != null;
+    }
+
+
+    /**
+     * Determines if compression should be enabled for the given response and if
+     * it is, selects the content coding and sets any necessary headers to mark
+     * it as such. The configured content encoders are preferred to gzip.
+     *
+     * @param request  The request that triggered the response
+     * @param response The response to consider compressing
+     *
+     * @return The content coding to use for the given response or
+     *         <code>null</code> if the response should not be compressed
+     */
+    public String getCompressionEncoding(Request request, Response response) {
+        return getCompressionEncoding(request, response, contentEncoders);
+    }
+
+
+    private String getCompressionEncoding(Request request, Response response,
+            ContentEncoder[] contentEncoders) {
         // Check if compression is enabled
         if (compressionLevel == 0) {
-            return false;
+            return null;
         }
 
         MimeHeaders responseHeaders = response.getMimeHeaders();
 
-        // Check if content is not already gzipped
+        // Check if content is not already compressed
         MessageBytes contentEncodingMB = responseHeaders.getValue("Content-Encoding");
-        if ((contentEncodingMB != null) && (contentEncodingMB.indexOf("gzip") != -1)) {
-            return false;
+        if (contentEncodingMB != null) {
+            if (contentEncodingMB.indexOf("gzip") != -1) {
+                return null;
+            }
+            for (ContentEncoder encoder : contentEncoders) {
+                if (contentEncodingMB.indexOf(encoder.getEncoding()) != -1) {
+                    return null;
+                }
+            }
         }
 
         // If force mode, the length and MIME type checks are skipped
@@ -197,14 +392,12 @@ public class CompressionConfig {
             // Check if the response is of sufficient length to trigger the compression
             long contentLength = response.getContentLengthLong();
             if (contentLength != -1 && contentLength < compressionMinSize) {
-                return false;
+                return null;
             }
 
             // Check for compatible MIME-TYPE
-            String[] compressibleMimeTypes = this.compressibleMimeTypes;
-            if (compressibleMimeTypes != null &&
-                    !startsWithStringArray(compressibleMimeTypes, response.getContentType())) {
-                return false;
+            if (!startsWithStringArray(getCompressibleMimeTypes(), response.getContentType())) {
+                return null;
             }
         }
 
@@ -222,10 +415,26 @@ public class CompressionConfig {
         }
 
 
-        // Check if browser support gzip encoding
+        // Check which encodings the browser supports
         MessageBytes acceptEncodingMB = request.getMimeHeaders().getValue("accept-encoding");
-        if ((acceptEncodingMB == null) || (acceptEncodingMB.indexOf("gzip") == -1)) {
-            return false;
+        if (acceptEncodingMB == null) {
+            return null;
+        }
+        String encoding = null;
+        if (contentEncoders.length > 0) {
+            String acceptEncoding = acceptEncodingMB.toString();
+            for (ContentEncoder encoder : contentEncoders) {
+                if (isAccepted(acceptEncoding, encoder.getEncoding())) {
+                    encoding = encoder.getEncoding();
+                    break;
+                }
+            }
+        }
+        if (encoding == null) {
+            if (acceptEncodingMB.indexOf("gzip") == -1) {
+                return null;
+            }
+            encoding = "gzip";
         }
 
         // If force mode, the browser checks are skipped
@@ -237,7 +446,7 @@ public class CompressionConfig {
                 if(userAgentValueMB != null) {
                     String userAgentValue = userAgentValueMB.toString();
                     if (noCompressionUserAgents.matcher(userAgentValue).matches()) {
-                        return false;
+                        return null;
                     }
                 }
             }
@@ -248,9 +457,40 @@ public class CompressionConfig {
         // Compressed content length is unknown so mark it as such.
         response.setContentLength(-1);
         // Configure the content encoding for compressed content
-        responseHeaders.setValue("Content-Encoding").setString("gzip");
+        responseHeaders.setValue("Content-Encoding").setString(encoding);
+
+        return encoding;
+    }
+
 
-        return true;
+    /*
+     * Checks the Accept-Encoding header for a content coding. Unlike the
+     * long-standing check for gzip, the coding has to be a complete token and
+     * is not accepted if its quality is zero.
+     */
+    private static boolean isAccepted(String acceptEncoding, String encoding) {
+        StringTokenizer tokens = new StringTokenizer(acceptEncoding, ",");
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            int semicolon = token.indexOf(';');
+            String name = semicolon == -1 ? token : token.substring(0, semicolon);
+            if (!name.trim().equalsIgnoreCase(encoding)) {
+                continue;
+            }
+            if (semicolon == -1) {
+                return true;
+            }
+            String params = token.substring(semicolon + 1).trim();
+            if (params.startsWith("q=") || params.startsWith("Q=")) {
+                try {
+                    return Double.parseDouble(params.substring(2).trim()) > 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
     }
 
 
@@ -48,6 +48,13 @@ public final class Constants {
     public static final int STAGE_KEEPALIVE = 6;
     public static final int STAGE_ENDED = 7;
 
+    // Request processing phases for which latency histograms are recorded
+    public static final int PHASE_QUEUE_WAIT = 0;
+    public static final int PHASE_HEADER_PARSE = 1;
+    public static final int PHASE_SERVICE = 2;
+    public static final int PHASE_WRITE = 3;
+    public static final int PHASE_COUNT = 4;
+
     // Default protocol settings
     public static final int DEFAULT_CONNECTION_LINGER = -1;
     public static final boolean DEFAULT_TCP_NO_DELAY = true;
@@ -103,6 +110,29 @@ public final class Constants {
     public static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass
+     * to the connector several parts of a file that are to be served
+     * by sendfile, e.g. for a multipart/byteranges response. The value
+     * should be {@code long[]} containing the start offset and end
+     * offset (not including) of each part. If set, it is used instead
+     * of {@link #SENDFILE_FILE_START_ATTR} and
+     * {@link #SENDFILE_FILE_END_ATTR}.
+     */
+    public static final String SENDFILE_FILE_RANGES_ATTR = "org.apache.tomcat.sendfile.ranges";
+
+
+    /**
+     * The request attribute that can be used by a servlet to pass
+     * to the connector the data to be written before each of the parts
+     * set with {@link #SENDFILE_FILE_RANGES_ATTR} and after the last
+     * part. The value should be {@code byte[][]} with one more element
+     * than the number of parts. Elements may be {@code null}.
+     */
+    public static final String SENDFILE_RANGE_HEADERS_ATTR =
+            "org.apache.tomcat.sendfile.rangeHeaders";
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
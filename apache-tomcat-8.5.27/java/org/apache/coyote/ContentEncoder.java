@@ -0,0 +1,47 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote;
+
+import org.apache.coyote.http11.OutputFilter;
+
+/**
+ * Provides a content coding, such as Brotli, that may be used to compress
+ * responses as an alternative to the built-in gzip support. Encoders are
+ * configured by class name via the <code>compressionEncoders</code> attribute
+ * of a connector or HTTP/2 upgrade protocol so implementations must have a
+ * public no-argument constructor. A single instance is shared by all the
+ * requests of the connector so implementations must be thread-safe.
+ */
+public interface ContentEncoder {
+
+    /**
+     * @return The name of the content coding as used in the
+     *         <code>Accept-Encoding</code> and <code>Content-Encoding</code>
+     *         headers, e.g. <code>br</code>
+     */
+    String getEncoding();
+
+
+    /**
+     * Create a filter that encodes response bodies with this content coding.
+     * An HTTP/1.1 connection reuses the filter, after calling
+     * {@link OutputFilter#recycle()}, for later responses on that connection.
+     *
+     * @return A new output filter
+     */
+    OutputFilter createOutputFilter();
+}
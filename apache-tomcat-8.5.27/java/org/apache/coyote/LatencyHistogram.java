@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote;
+
+/**
+ * A fixed size histogram of durations, recorded in microseconds, from which
+ * percentiles can be obtained.
+ * <p>
+ * Values below 32&micro;s are recorded exactly. Larger values are placed in one
+ * of 16 buckets per power of two so the value reported for a percentile is
+ * never more than 1/16th (6.25%) above the recorded value. Values of 2^32&micro;s
+ * (about 71 minutes) or more are recorded in the last bucket.
+ * <p>
+ * Like the other statistics in {@link RequestInfo}, instances are not thread
+ * safe. Each instance is updated by a single thread at a time and concurrent
+ * readers may see slightly stale values.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Values below this are recorded exactly
+    private static final int LINEAR_COUNT = SUB_BUCKET_COUNT * 2;
+    private static final int MAX_EXPONENT = 32;
+    private static final int BUCKET_COUNT = LINEAR_COUNT +
+            (MAX_EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+
+    /**
+     * Record a duration.
+     *
+     * @param micros The duration in microseconds. Negative values are ignored.
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            return;
+        }
+        if (micros > maxValue) {
+            maxValue = micros;
+        }
+        counts[bucketIndex(Math.min(micros, MAX_VALUE))]++;
+        totalCount++;
+    }
+
+
+    public long getCount() {
+        return totalCount;
+    }
+
+
+    /**
+     * @return The largest duration recorded in microseconds
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+
+    /**
+     * Obtain the duration, in microseconds, at or below which the given
+     * percentage of the recorded durations fall.
+     *
+     * @param percentile The percentile, between 0 and 100
+     *
+     * @return The upper bound of the bucket containing the percentile, limited
+     *         to the largest duration recorded, or zero if nothing has been
+     *         recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount;
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(Math.min(100, percentile) / 100 * total);
+        if (target < 1) {
+            target = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+
+    /**
+     * Add the durations recorded by another histogram to this histogram.
+     *
+     * @param other The histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        if (other.maxValue > maxValue) {
+            maxValue = other.maxValue;
+        }
+    }
+
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        maxValue = 0;
+    }
+
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        // The leading bit plus the next SUB_BUCKET_BITS bits
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return LINEAR_COUNT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_COUNT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+        int subBucket = (index - LINEAR_COUNT) % SUB_BUCKET_COUNT;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
@@ -30,6 +30,13 @@ public class RequestGroupInfo {
     private int deadErrorCount = 0;
     private long deadBytesReceived = 0;
     private long deadBytesSent = 0;
+    private final LatencyHistogram[] deadPhaseHistograms;
+    {
+        deadPhaseHistograms = new LatencyHistogram[Constants.PHASE_COUNT];
+        for (int i = 0; i < deadPhaseHistograms.length; i++) {
+            deadPhaseHistograms[i] = new LatencyHistogram();
+        }
+    }
 
     public synchronized void addRequestProcessor( RequestInfo rp ) {
         processors.add( rp );
@@ -44,6 +51,9 @@ public class RequestGroupInfo {
             deadErrorCount += rp.getErrorCount();
             deadBytesReceived += rp.getBytesReceived();
             deadBytesSent += rp.getBytesSent();
+            for (int i = 0; i < deadPhaseHistograms.length; i++) {
+                deadPhaseHistograms[i].add(rp.getPhaseHistogram(i));
+            }
 
             processors.remove( rp );
         }
@@ -142,6 +152,89 @@ public class RequestGroupInfo {
         }
     }
 
+    /**
+     * Obtain the combined histogram for a request processing phase across all
+     * request processors.
+     *
+     * @param phase The phase, one of the <code>Constants.PHASE_*</code>
+     *              constants
+     *
+     * @return A new histogram containing all the times recorded for the phase
+     */
+    public synchronized LatencyHistogram getPhaseHistogram(int phase) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.add(deadPhaseHistograms[phase]);
+        for (RequestInfo rp : processors) {
+            histogram.add(rp.getPhaseHistogram(phase));
+        }
+        return histogram;
+    }
+
+    public synchronized void resetPhaseHistograms() {
+        for (LatencyHistogram histogram : deadPhaseHistograms) {
+            histogram.reset();
+        }
+        for (RequestInfo rp : processors) {
+            for (int i = 0; i < Constants.PHASE_COUNT; i++) {
+                rp.getPhaseHistogram(i).reset();
+            }
+        }
+    }
+
+    // Percentiles, in milliseconds, of the time taken by each phase
+
+    public double getQueueWaitTimeP50() {
+        return getPercentile(Constants.PHASE_QUEUE_WAIT, 50);
+    }
+
+    public double getQueueWaitTimeP99() {
+        return getPercentile(Constants.PHASE_QUEUE_WAIT, 99);
+    }
+
+    public double getQueueWaitTimeP999() {
+        return getPercentile(Constants.PHASE_QUEUE_WAIT, 99.9);
+    }
+
+    public double getHeaderParseTimeP50() {
+        return getPercentile(Constants.PHASE_HEADER_PARSE, 50);
+    }
+
+    public double getHeaderParseTimeP99() {
+        return getPercentile(Constants.PHASE_HEADER_PARSE, 99);
+    }
+
+    public double getHeaderParseTimeP999() {
+        return getPercentile(Constants.PHASE_HEADER_PARSE, 99.9);
+    }
+
+    public double getServiceTimeP50() {
+        return getPercentile(Constants.PHASE_SERVICE, 50);
+    }
+
+    public double getServiceTimeP99() {
+        return getPercentile(Constants.PHASE_SERVICE, 99);
+    }
+
+    public double getServiceTimeP999() {
+        return getPercentile(Constants.PHASE_SERVICE, 99.9);
+    }
+
+    public double getWriteTimeP50() {
+        return getPercentile(Constants.PHASE_WRITE, 50);
+    }
+
+    public double getWriteTimeP99() {
+        return getPercentile(Constants.PHASE_WRITE, 99);
+    }
+
+    public double getWriteTimeP999() {
+        return getPercentile(Constants.PHASE_WRITE, 99.9);
+    }
+
+    private double getPercentile(int phase, double percentile) {
+        return getPhaseHistogram(phase).getValueAtPercentile(percentile) / 1000.0;
+    }
+
     public void resetCounters() {
         this.setBytesReceived(0);
         this.setBytesSent(0);
@@ -149,5 +242,6 @@ public class RequestGroupInfo {
         this.setProcessingTime(0);
         this.setMaxTime(0);
         this.setErrorCount(0);
+        this.resetPhaseHistograms();
     }
 }
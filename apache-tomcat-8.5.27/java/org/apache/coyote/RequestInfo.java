@@ -152,6 +152,38 @@ public class RequestInfo  {
     //the time of the last request
     private long lastRequestProcessingTime = 0;
 
+    // Latency of each processing phase, indexed by Constants.PHASE_*
+    private final LatencyHistogram[] phaseHistograms;
+    {
+        phaseHistograms = new LatencyHistogram[Constants.PHASE_COUNT];
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            phaseHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /**
+     * Record the time taken by a request processing phase.
+     *
+     * @param phase The phase, one of the <code>Constants.PHASE_*</code>
+     *              constants
+     * @param nanos The time taken in nanoseconds
+     */
+    public void recordPhaseTime(int phase, long nanos) {
+        phaseHistograms[phase].record(nanos / 1000);
+    }
+
+
+    /**
+     * @param phase The phase, one of the <code>Constants.PHASE_*</code>
+     *              constants
+     *
+     * @return The histogram of the time taken by the given phase
+     */
+    public LatencyHistogram getPhaseHistogram(int phase) {
+        return phaseHistograms[phase];
+    }
+
 
     /** Called by the processor before recycling the request. It'll collect
      * statistic information.
@@ -172,6 +204,10 @@ public class RequestInfo  {
             maxTime=time;
             maxRequestUri=req.requestURI().toString();
         }
+        long writeTime = req.getResponse().getWriteTime();
+        if (writeTime > 0) {
+            recordPhaseTime(Constants.PHASE_WRITE, writeTime);
+        }
     }
 
     public int getStage() {
@@ -119,6 +119,8 @@ public final class Response {
     // General informations
     private long contentWritten = 0;
     private long commitTime = -1;
+    // Time in ns spent writing to the network
+    private long writeTime = 0;
 
     /**
      * Holds request error exception.
@@ -565,6 +567,24 @@ public final class Response {
 
         // update counters
         contentWritten=0;
+        writeTime = 0;
+    }
+
+    /**
+     * Record time spent writing or flushing response data to the network.
+     *
+     * @param nanos The time taken, in nanoseconds
+     */
+    public void addWriteTime(long nanos) {
+        writeTime += nanos;
+    }
+
+    /**
+     * @return The total time, in nanoseconds, spent writing and flushing data
+     *         for this response to the network
+     */
+    public long getWriteTime() {
+        return writeTime;
     }
 
     /**
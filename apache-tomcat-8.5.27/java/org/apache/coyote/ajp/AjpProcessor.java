@@ -404,6 +404,9 @@ public class AjpProcessor extends AbstractProcessor {
         boolean cping = false;
 
         boolean keptAlive = false;
+        // Only the first request processed after a dispatch waited in the queue
+        long queueWaitTime = socketWrapper.getQueueWaitTime();
+        socketWrapper.setQueueWaitTime(-1);
 
         while (!getErrorState().isError() && !endpoint.isPaused()) {
             // Parsing the request header
@@ -444,6 +447,11 @@ public class AjpProcessor extends AbstractProcessor {
                 }
                 keptAlive = true;
                 request.setStartTime(System.currentTimeMillis());
+                if (queueWaitTime >= 0) {
+                    rp.recordPhaseTime(org.apache.coyote.Constants.PHASE_QUEUE_WAIT,
+                            queueWaitTime);
+                    queueWaitTime = -1;
+                }
             } catch (IOException e) {
                 setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
                 break;
@@ -481,6 +489,7 @@ public class AjpProcessor extends AbstractProcessor {
 
             // Process the request in the adapter
             if (!getErrorState().isError()) {
+                long serviceStart = System.nanoTime();
                 try {
                     rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
                     getAdapter().service(request, response);
@@ -494,6 +503,8 @@ public class AjpProcessor extends AbstractProcessor {
                     setErrorState(ErrorState.CLOSE_CLEAN, t);
                     getAdapter().log(request, response, 0);
                 }
+                rp.recordPhaseTime(org.apache.coyote.Constants.PHASE_SERVICE,
+                        System.nanoTime() - serviceStart);
             }
 
             if (isAsync() && !getErrorState().isError()) {
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.management.ObjectName;
 import javax.servlet.http.HttpUpgradeHandler;
 
 import org.apache.coyote.AbstractProtocol;
@@ -37,6 +38,7 @@ import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorExternal;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SSLHostConfig;
 import org.apache.tomcat.util.net.SocketWrapperBase;
@@ -66,6 +68,31 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         }
 
         super.init();
+
+        // Expose the configuration and statistics of the upgrade protocols
+        if (getDomain() != null) {
+            for (UpgradeProtocol upgradeProtocol : upgradeProtocols) {
+                ObjectName upgradeProtocolOname = new ObjectName(getDomain() +
+                        ":type=UpgradeProtocol,name=" + getName() + ",upgradeProtocol=" +
+                        getUpgradeProtocolName(upgradeProtocol));
+                Registry.getRegistry(null, null).registerComponent(
+                        upgradeProtocol, upgradeProtocolOname, null);
+                upgradeProtocolOnames.add(upgradeProtocolOname);
+            }
+        }
+    }
+
+
+    @Override
+    public void destroy() throws Exception {
+        try {
+            super.destroy();
+        } finally {
+            for (ObjectName upgradeProtocolOname : upgradeProtocolOnames) {
+                Registry.getRegistry(null, null).unregisterComponent(upgradeProtocolOname);
+            }
+            upgradeProtocolOnames.clear();
+        }
     }
 
 
@@ -236,6 +263,38 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    public int getGzipLevel() {
+        return compressionConfig.getGzipLevel();
+    }
+    public void setGzipLevel(int valueI) {
+        compressionConfig.setGzipLevel(valueI);
+    }
+
+
+    public int getCompressionCacheSize() {
+        return compressionConfig.getCompressionCacheSize();
+    }
+    public void setCompressionCacheSize(int valueI) {
+        compressionConfig.setCompressionCacheSize(valueI);
+    }
+
+
+    public int getDeflaterPoolSize() {
+        return compressionConfig.getDeflaterPoolSize();
+    }
+    public void setDeflaterPoolSize(int valueI) {
+        compressionConfig.setDeflaterPoolSize(valueI);
+    }
+
+
+    public String getCompressionEncoders() {
+        return compressionConfig.getCompressionEncoders();
+    }
+    public void setCompressionEncoders(String valueS) {
+        compressionConfig.setCompressionEncoders(valueS);
+    }
+
+
     /**
      * Regular expression that defines the User agents which should be
      * restricted to HTTP/1.0 support.
@@ -264,6 +323,17 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    /**
+     * Should the responses to pipelined requests that have already been
+     * received be written to the network together?
+     */
+    private boolean coalescePipelinedResponses = true;
+    public boolean getCoalescePipelinedResponses() { return coalescePipelinedResponses; }
+    public void setCoalescePipelinedResponses(boolean coalescePipelinedResponses) {
+        this.coalescePipelinedResponses = coalescePipelinedResponses;
+    }
+
+
     /**
      * Maximum size of trailing headers in bytes
      */
@@ -353,6 +423,7 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
      * The upgrade protocol instances configured.
      */
     private final List<UpgradeProtocol> upgradeProtocols = new ArrayList<>();
+    private final List<ObjectName> upgradeProtocolOnames = new ArrayList<>();
     @Override
     public void addUpgradeProtocol(UpgradeProtocol upgradeProtocol) {
         upgradeProtocols.add(upgradeProtocol);
@@ -404,6 +475,16 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
             }
         }
     }
+    private String getUpgradeProtocolName(UpgradeProtocol upgradeProtocol) {
+        String result = upgradeProtocol.getHttpUpgradeName(getEndpoint().isSSLEnabled());
+        if (result == null || result.length() == 0) {
+            result = upgradeProtocol.getAlpnName();
+        }
+        if (result == null || result.length() == 0) {
+            result = upgradeProtocol.getClass().getSimpleName();
+        }
+        return result;
+    }
     @Override
     public UpgradeProtocol getNegotiatedProtocol(String negotiatedName) {
         return negotiatedProtocols.get(negotiatedName);
@@ -851,14 +932,12 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         processor.setMaxKeepAliveRequests(getMaxKeepAliveRequests());
         processor.setConnectionUploadTimeout(getConnectionUploadTimeout());
         processor.setDisableUploadTimeout(getDisableUploadTimeout());
-        processor.setCompressionMinSize(getCompressionMinSize());
-        processor.setCompression(getCompression());
-        processor.setNoCompressionUserAgents(getNoCompressionUserAgents());
-        processor.setCompressibleMimeTypes(getCompressibleMimeTypes());
+        processor.setCompressionConfig(compressionConfig);
         processor.setRestrictedUserAgents(getRestrictedUserAgents());
         processor.setMaxSavePostSize(getMaxSavePostSize());
         processor.setServer(getServer());
         processor.setServerRemoveAppProvidedValues(getServerRemoveAppProvidedValues());
+        processor.setCoalescePipelinedResponses(getCoalescePipelinedResponses());
         return processor;
     }
 
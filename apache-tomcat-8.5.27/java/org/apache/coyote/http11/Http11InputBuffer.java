@@ -26,6 +26,7 @@ import org.apache.coyote.Request;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.ByteScanner;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.http.parser.HttpParser;
@@ -97,6 +98,13 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     private SocketWrapperBase<?> wrapper;
 
 
+    /**
+     * Output buffer for the same connection. Any response data it has held
+     * back is written before reading from the socket.
+     */
+    private Http11OutputBuffer outputBuffer;
+
+
     /**
      * Underlying input buffer.
      */
@@ -372,14 +380,18 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                     // Switch to the socket timeout.
                     wrapper.setReadTimeout(wrapper.getEndpoint().getConnectionTimeout());
                 }
-                if (!keptAlive && byteBuffer.position() == 0 && byteBuffer.limit() >= CLIENT_PREFACE_START.length - 1) {
-                    boolean prefaceMatch = true;
-                    for (int i = 0; i < CLIENT_PREFACE_START.length && prefaceMatch; i++) {
-                        if (CLIENT_PREFACE_START[i] != byteBuffer.get(i)) {
-                            prefaceMatch = false;
+                if (!keptAlive && byteBuffer.position() == 0) {
+                    int prefaceMatch = matchClientPreface();
+                    while (prefaceMatch > 0 && prefaceMatch < CLIENT_PREFACE_START.length) {
+                        // The data received so far could be the start of the
+                        // HTTP/2 preface. Need more data to be sure.
+                        if (!fill(false)) {
+                            parsingRequestLinePhase = 1;
+                            return false;
                         }
+                        prefaceMatch = matchClientPreface();
                     }
-                    if (prefaceMatch) {
+                    if (prefaceMatch == CLIENT_PREFACE_START.length) {
                         // HTTP/2 preface matched
                         parsingRequestLinePhase = -1;
                         return false;
@@ -389,6 +401,7 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                 // just skipping blank lines)
                 if (request.getStartTime() < 0) {
                     request.setStartTime(System.currentTimeMillis());
+                    request.setStartTimeNanos(System.nanoTime());
                 }
                 chr = byteBuffer.get();
             } while ((chr == Constants.CR) || (chr == Constants.LF));
@@ -585,6 +598,33 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    /*
+     * Compares the data in the buffer with the HTTP/2 client connection
+     * preface. Returns the number of bytes that match if all the bytes
+     * available (up to the length of the preface) match, otherwise -1.
+     */
+    private int matchClientPreface() {
+        int len = Math.min(byteBuffer.limit(), CLIENT_PREFACE_START.length);
+        for (int i = 0; i < len; i++) {
+            if (CLIENT_PREFACE_START[i] != byteBuffer.get(i)) {
+                return -1;
+            }
+        }
+        return len;
+    }
+
+
+    /*
+     * Has data been received that may be the start of the HTTP/2 client
+     * preface? The data is retained so the processor must remain associated
+     * with the connection.
+     */
+    boolean isClientPrefacePending() {
+        return parsingRequestLinePhase == 1 && byteBuffer.position() == 0 &&
+                byteBuffer.limit() > 0;
+    }
+
+
     int getParsingRequestLinePhase() {
         return parsingRequestLinePhase;
     }
@@ -604,6 +644,19 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    /**
+     * Has the start of a pipelined request been received? That is only known
+     * once all of the body of the current request has been read since until
+     * then the data in the buffer may be the rest of that body.
+     */
+    boolean hasPipelinedData() {
+        if (lastActiveFilter == -1 || !activeFilters[lastActiveFilter].isFinished()) {
+            return false;
+        }
+        return byteBuffer.remaining() > 0;
+    }
+
+
     /**
      * Available bytes in the buffers (note that due to encoding, this may not
      * correspond).
@@ -676,6 +729,11 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
     }
 
 
+    void setOutputBuffer(Http11OutputBuffer outputBuffer) {
+        this.outputBuffer = outputBuffer;
+    }
+
+
     void init(SocketWrapperBase<?> socketWrapper) {
 
         wrapper = socketWrapper;
@@ -701,6 +759,11 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
      */
     private boolean fill(boolean block) throws IOException {
 
+        if (outputBuffer != null) {
+            // Never wait for input while responses are being held back
+            outputBuffer.flushDeferred();
+        }
+
         if (parsingHeader) {
             if (byteBuffer.limit() >= headerBufferSize) {
                 throw new IllegalArgumentException(sm.getString("iib.requestheadertoolarge.error"));
@@ -837,7 +900,16 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                     chr = byteBuffer.get();
                     if (!(chr == Constants.SP || chr == Constants.HT)) {
                         headerParsePos = HeaderParsePosition.HEADER_VALUE;
-                        byteBuffer.position(byteBuffer.position() - 1);
+                        int pos = byteBuffer.position() - 1;
+                        byteBuffer.position(pos);
+                        if (headerData.realPos == headerData.start) {
+                            // Nothing has been copied into the value yet so
+                            // the leading white space can be dropped by moving
+                            // the start of the value rather than by copying
+                            headerData.start = pos;
+                            headerData.realPos = pos;
+                            headerData.lastSignificantChar = pos;
+                        }
                         break;
                     }
                 }
@@ -856,6 +928,29 @@ public class Http11InputBuffer implements InputBuffer, ApplicationBufferHandler
                         }
                     }
 
+                    int pos = byteBuffer.position();
+                    if (headerData.realPos == pos) {
+                        // Nothing has been removed from the value so far so
+                        // the bytes before the next CR or LF are already in
+                        // the right place and can be skipped in one go
+                        int eolPos = ByteScanner.indexOfCrOrLf(byteBuffer, pos, byteBuffer.limit());
+                        if (eolPos == -1) {
+                            eolPos = byteBuffer.limit();
+                        }
+                        if (eolPos > pos) {
+                            for (int i = eolPos - 1; i >= pos; i--) {
+                                chr = byteBuffer.get(i);
+                                if (chr != Constants.SP && chr != Constants.HT) {
+                                    headerData.lastSignificantChar = i + 1;
+                                    break;
+                                }
+                            }
+                            headerData.realPos = eolPos;
+                            byteBuffer.position(eolPos);
+                            continue;
+                        }
+                    }
+
                     chr = byteBuffer.get();
                     if (chr == Constants.CR) {
                         // Skip
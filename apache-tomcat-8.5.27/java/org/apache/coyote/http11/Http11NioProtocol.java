@@ -54,6 +54,14 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)getEndpoint()).getPollerThreadCount();
     }
 
+    public void setReusePort(boolean reusePort) {
+        ((NioEndpoint)getEndpoint()).setReusePort(reusePort);
+    }
+
+    public boolean getReusePort() {
+        return ((NioEndpoint)getEndpoint()).getReusePort();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ((NioEndpoint)getEndpoint()).setSelectorTimeout(timeout);
     }
@@ -57,6 +57,21 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     protected boolean responseFinished;
 
 
+    /**
+     * Should the flush at the end of the current response be skipped? Set when
+     * the next request has already been received so that the responses to
+     * pipelined requests are written to the network together.
+     */
+    private boolean deferFlush = false;
+
+
+    /**
+     * Has a flush been skipped leaving response data in the socket write
+     * buffer?
+     */
+    private boolean flushDeferred = false;
+
+
     /**
      * The buffer used for header composition.
      */
@@ -128,8 +143,8 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     // ------------------------------------------------------------- Properties
 
     /**
-     * Add an output filter to the filter library. Note that calling this method
-     * resets the currently active filters to none.
+     * Add an output filter to the filter library. The currently active filters
+     * are retained.
      *
      * @param filter The filter to add
      */
@@ -142,7 +157,10 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         newFilterLibrary[filterLibrary.length] = filter;
         filterLibrary = newFilterLibrary;
 
-        activeFilters = new OutputFilter[filterLibrary.length];
+        // Content encoder filters are added while preparing a response
+        OutputFilter[] newActiveFilters = new OutputFilter[filterLibrary.length];
+        System.arraycopy(activeFilters, 0, newActiveFilters, 0, activeFilters.length);
+        activeFilters = newActiveFilters;
     }
 
 
@@ -287,6 +305,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      */
     public void recycle() {
         nextRequest();
+        flushDeferred = false;
         socketWrapper = null;
     }
 
@@ -308,6 +327,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         headerBuffer.position(0).limit(headerBuffer.capacity());
         lastActiveFilter = -1;
         responseFinished = false;
+        deferFlush = false;
         byteCount = 0;
     }
 
@@ -317,6 +337,30 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     }
 
 
+    /**
+     * Skip the flush when the current response ends. The response remains in
+     * the socket write buffer until the buffer fills, the next response is
+     * flushed or {@link #flushDeferred()} is called.
+     *
+     * @param deferFlush <code>true</code> to skip the flush
+     */
+    void setDeferFlush(boolean deferFlush) {
+        this.deferFlush = deferFlush;
+    }
+
+
+    /**
+     * Write any response data held back by a deferred flush.
+     *
+     * @throws IOException an underlying I/O error occurred
+     */
+    void flushDeferred() throws IOException {
+        if (flushDeferred) {
+            flushBuffer(true);
+        }
+    }
+
+
     @SuppressWarnings("deprecation")
     public void sendAck() throws IOException {
         if (!response.isCommitted()) {
@@ -343,9 +387,11 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
         if (headerBuffer.position() > 0) {
             // Sending the response header buffer
             headerBuffer.flip();
+            long start = System.nanoTime();
             try {
                 socketWrapper.write(isBlocking(), headerBuffer);
             } finally {
+                response.addWriteTime(System.nanoTime() - start);
                 headerBuffer.position(0).limit(headerBuffer.capacity());
             }
         }
@@ -557,7 +603,13 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
      * @throws IOException Error writing data
      */
     protected boolean flushBuffer(boolean block) throws IOException  {
-        return socketWrapper.flush(block);
+        flushDeferred = false;
+        long start = System.nanoTime();
+        try {
+            return socketWrapper.flush(block);
+        } finally {
+            response.addWriteTime(System.nanoTime() - start);
+        }
     }
 
 
@@ -608,7 +660,12 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
             int len = chunk.getLength();
             int start = chunk.getStart();
             byte[] b = chunk.getBuffer();
-            socketWrapper.write(isBlocking(), b, start, len);
+            long startTime = System.nanoTime();
+            try {
+                socketWrapper.write(isBlocking(), b, start, len);
+            } finally {
+                response.addWriteTime(System.nanoTime() - startTime);
+            }
             byteCount += len;
             return len;
         }
@@ -618,6 +675,7 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
          */
         @Override
         public int doWrite(ByteBuffer chunk) throws IOException {
+            long start = System.nanoTime();
             try {
                 int len = chunk.remaining();
                 socketWrapper.write(isBlocking(), chunk);
@@ -628,6 +686,8 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
                 response.action(ActionCode.CLOSE_NOW, ioe);
                 // Re-throw
                 throw ioe;
+            } finally {
+                response.addWriteTime(System.nanoTime() - start);
             }
         }
 
@@ -638,12 +698,16 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
 
         @Override
         public void end() throws IOException {
-            socketWrapper.flush(true);
+            if (deferFlush) {
+                flushDeferred = true;
+            } else {
+                flushBuffer(true);
+            }
         }
 
         @Override
         public void flush() throws IOException {
-            socketWrapper.flush(isBlocking());
+            flushBuffer(isBlocking());
         }
     }
 }
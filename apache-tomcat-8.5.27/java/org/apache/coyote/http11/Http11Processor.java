@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -29,6 +30,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.coyote.AbstractProcessor;
 import org.apache.coyote.ActionCode;
+import org.apache.coyote.CompressionConfig;
+import org.apache.coyote.ContentEncoder;
 import org.apache.coyote.ErrorState;
 import org.apache.coyote.Request;
 import org.apache.coyote.RequestInfo;
@@ -157,13 +160,23 @@ public class Http11Processor extends AbstractProcessor {
 
     /**
      * Allowed compression level.
+     *
+     * @deprecated Compression is controlled by the {@link CompressionConfig}
+     *             of the protocol and changes to this field have no effect.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     protected int compressionLevel = 0;
 
 
     /**
      * Minimum content size to make compression.
+     *
+     * @deprecated Compression is controlled by the {@link CompressionConfig}
+     *             of the protocol and changes to this field have no effect.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     protected int compressionMinSize = 2048;
 
 
@@ -175,7 +188,12 @@ public class Http11Processor extends AbstractProcessor {
 
     /**
      * Regular expression that defines the user agents to not use gzip with
+     *
+     * @deprecated Compression is controlled by the {@link CompressionConfig}
+     *             of the protocol and changes to this field have no effect.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     protected Pattern noCompressionUserAgents = null;
 
 
@@ -183,10 +201,28 @@ public class Http11Processor extends AbstractProcessor {
      * List of MIMES for which compression may be enabled.
      * Note: This is not spelled correctly but can't be changed without breaking
      *       compatibility
+     *
+     * @deprecated Compression is controlled by the {@link CompressionConfig}
+     *             of the protocol and changes to this field have no effect.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     protected String[] compressableMimeTypes;
 
 
+    /**
+     * Compression configuration of the protocol. It is read for each response
+     * so changes apply to existing processors.
+     */
+    private CompressionConfig compressionConfig = new CompressionConfig();
+
+
+    /**
+     * Filters for the configured content encoders, created when first used.
+     */
+    private final Map<String,OutputFilter> encoderFilters = new HashMap<>();
+
+
     /**
      * Host name (used to avoid useless B2C conversion on the host name).
      */
@@ -206,6 +242,13 @@ public class Http11Processor extends AbstractProcessor {
      */
     private boolean serverRemoveAppProvidedValues = false;
 
+
+    /**
+     * Should responses to pipelined requests be written to the network
+     * together rather than being flushed individually?
+     */
+    private boolean coalescePipelinedResponses = true;
+
     /**
      * Instance of the new protocol to use after the HTTP connection has been
      * upgraded.
@@ -240,6 +283,7 @@ public class Http11Processor extends AbstractProcessor {
 
         outputBuffer = new Http11OutputBuffer(response, maxHttpHeaderSize, sendReasonPhrase);
         response.setOutputBuffer(outputBuffer);
+        inputBuffer.setOutputBuffer(outputBuffer);
 
         // Create and add the identity filters.
         inputBuffer.addFilter(new IdentityInputFilter(maxSwallowSize));
@@ -268,30 +312,37 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
+    /**
+     * Set the compression configuration to use.
+     *
+     * @param compressionConfig The compression configuration of the protocol
+     */
+    @SuppressWarnings("deprecation")
+    public void setCompressionConfig(CompressionConfig compressionConfig) {
+        this.compressionConfig = compressionConfig;
+        // Keep the deprecated fields up to date for sub-classes
+        compressionLevel = compressionConfig.getCompressionLevel();
+        compressionMinSize = compressionConfig.getCompressionMinSize();
+        noCompressionUserAgents = compressionConfig.getNoCompressionUserAgentsPattern();
+        compressableMimeTypes = compressionConfig.getCompressibleMimeTypes();
+    }
+
+
     /**
      * Set compression level.
      *
      * @param compression One of <code>on</code>, <code>force</code>,
      *                    <code>off</code> or the minimum compression size in
      *                    bytes which implies <code>on</code>
+     *
+     * @deprecated Use {@link CompressionConfig#setCompression(String)}. This
+     *             will be removed in Tomcat 9.
      */
+    @Deprecated
     public void setCompression(String compression) {
-        if (compression.equals("on")) {
-            this.compressionLevel = 1;
-        } else if (compression.equals("force")) {
-            this.compressionLevel = 2;
-        } else if (compression.equals("off")) {
-            this.compressionLevel = 0;
-        } else {
-            try {
-                // Try to parse compression as an int, which would give the
-                // minimum compression size
-                compressionMinSize = Integer.parseInt(compression);
-                this.compressionLevel = 1;
-            } catch (Exception e) {
-                this.compressionLevel = 0;
-            }
-        }
+        compressionConfig.setCompression(compression);
+        this.compressionLevel = compressionConfig.getCompressionLevel();
+        this.compressionMinSize = compressionConfig.getCompressionMinSize();
     }
 
     /**
@@ -299,8 +350,13 @@ public class Http11Processor extends AbstractProcessor {
      *
      * @param compressionMinSize The minimum content length required for
      *                           compression in bytes
+     *
+     * @deprecated Use {@link CompressionConfig#setCompressionMinSize(int)}.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     public void setCompressionMinSize(int compressionMinSize) {
+        compressionConfig.setCompressionMinSize(compressionMinSize);
         this.compressionMinSize = compressionMinSize;
     }
 
@@ -312,14 +368,15 @@ public class Http11Processor extends AbstractProcessor {
      * @param noCompressionUserAgents The regular expression for user agent
      *                                strings for which compression should not
      *                                be applied
+     *
+     * @deprecated Use
+     *             {@link CompressionConfig#setNoCompressionUserAgents(String)}.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     public void setNoCompressionUserAgents(String noCompressionUserAgents) {
-        if (noCompressionUserAgents == null || noCompressionUserAgents.length() == 0) {
-            this.noCompressionUserAgents = null;
-        } else {
-            this.noCompressionUserAgents =
-                Pattern.compile(noCompressionUserAgents);
-        }
+        compressionConfig.setNoCompressionUserAgents(noCompressionUserAgents);
+        this.noCompressionUserAgents = compressionConfig.getNoCompressionUserAgentsPattern();
     }
 
 
@@ -327,7 +384,7 @@ public class Http11Processor extends AbstractProcessor {
      * @param compressibleMimeTypes See
      *        {@link Http11Processor#setCompressibleMimeTypes(String[])}
      * @deprecated Use
-     *             {@link Http11Processor#setCompressibleMimeTypes(String[])}
+     *             {@link CompressionConfig#setCompressibleMimeType(String)}
      */
     @Deprecated
     public void setCompressableMimeTypes(String[] compressibleMimeTypes) {
@@ -342,8 +399,21 @@ public class Http11Processor extends AbstractProcessor {
      *
      * @param compressibleMimeTypes MIME types for which compression should be
      *                              enabled
+     *
+     * @deprecated Use
+     *             {@link CompressionConfig#setCompressibleMimeType(String)}.
+     *             This will be removed in Tomcat 9.
      */
+    @Deprecated
     public void setCompressibleMimeTypes(String[] compressibleMimeTypes) {
+        StringBuilder mimeTypes = new StringBuilder();
+        for (String mimeType : compressibleMimeTypes) {
+            if (mimeTypes.length() > 0) {
+                mimeTypes.append(',');
+            }
+            mimeTypes.append(mimeType);
+        }
+        compressionConfig.setCompressibleMimeType(mimeTypes.toString());
         this.compressableMimeTypes = compressibleMimeTypes;
     }
 
@@ -352,36 +422,13 @@ public class Http11Processor extends AbstractProcessor {
      * Return compression level.
      *
      * @return The current compression level in string form (off/on/force)
-     */
-    public String getCompression() {
-        switch (compressionLevel) {
-        case 0:
-            return "off";
-        case 1:
-            return "on";
-        case 2:
-            return "force";
-        }
-        return "off";
-    }
-
-
-    /**
-     * Checks if any entry in the string array starts with the specified value
      *
-     * @param sArray the StringArray
-     * @param value string
+     * @deprecated Use {@link CompressionConfig#getCompression()}. This will be
+     *             removed in Tomcat 9.
      */
-    private static boolean startsWithStringArray(String sArray[], String value) {
-        if (value == null) {
-            return false;
-        }
-        for (int i = 0; i < sArray.length; i++) {
-            if (value.startsWith(sArray[i])) {
-                return true;
-            }
-        }
-        return false;
+    @Deprecated
+    public String getCompression() {
+        return compressionConfig.getCompression();
     }
 
 
@@ -507,73 +554,8 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
-    /**
-     * Check if the resource could be compressed, if the client supports it.
-     */
-    private boolean isCompressible() {
-
-        // Check if content is not already gzipped
-        MessageBytes contentEncodingMB =
-            response.getMimeHeaders().getValue("Content-Encoding");
-
-        if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1)) {
-            return false;
-        }
-
-        // If force mode, always compress (test purposes only)
-        if (compressionLevel == 2) {
-            return true;
-        }
-
-        // Check if sufficient length to trigger the compression
-        long contentLength = response.getContentLengthLong();
-        if ((contentLength == -1)
-            || (contentLength > compressionMinSize)) {
-            // Check for compatible MIME-TYPE
-            if (compressableMimeTypes != null) {
-                return (startsWithStringArray(compressableMimeTypes, response.getContentType()));
-            }
-        }
-
-        return false;
-    }
-
-
-    /**
-     * Check if compression should be used for this resource. Already checked
-     * that the resource could be compressed if the client supports it.
-     */
-    private boolean useCompression() {
-
-        // Check if browser support gzip encoding
-        MessageBytes acceptEncodingMB =
-            request.getMimeHeaders().getValue("accept-encoding");
-
-        if ((acceptEncodingMB == null)
-            || (acceptEncodingMB.indexOf("gzip") == -1)) {
-            return false;
-        }
-
-        // If force mode, always compress (test purposes only)
-        if (compressionLevel == 2) {
-            return true;
-        }
-
-        // Check for incompatible Browser
-        if (noCompressionUserAgents != null) {
-            MessageBytes userAgentValueMB =
-                request.getMimeHeaders().getValue("user-agent");
-            if(userAgentValueMB != null) {
-                String userAgentValue = userAgentValueMB.toString();
-
-                if (noCompressionUserAgents.matcher(userAgentValue).matches()) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+    public void setCoalescePipelinedResponses(boolean coalescePipelinedResponses) {
+        this.coalescePipelinedResponses = coalescePipelinedResponses;
     }
 
 
@@ -678,6 +660,9 @@ public class Http11Processor extends AbstractProcessor {
         readComplete = true;
         boolean keptAlive = false;
         SendfileState sendfileState = SendfileState.DONE;
+        // Only the first request processed after a dispatch waited in the queue
+        long queueWaitTime = socketWrapper.getQueueWaitTime();
+        socketWrapper.setQueueWaitTime(-1);
 
         while (!getErrorState().isError() && keepAlive && !isAsync() && upgradeToken == null &&
                 sendfileState == SendfileState.DONE && !endpoint.isPaused()) {
@@ -686,6 +671,7 @@ public class Http11Processor extends AbstractProcessor {
             try {
                 if (!inputBuffer.parseRequestLine(keptAlive)) {
                     if (inputBuffer.getParsingRequestLinePhase() == -1) {
+                        outputBuffer.flushDeferred();
                         return SocketState.UPGRADING;
                     } else if (handleIncompleteRequestLineRead()) {
                         break;
@@ -710,6 +696,15 @@ public class Http11Processor extends AbstractProcessor {
                     if (!disableUploadTimeout) {
                         socketWrapper.setReadTimeout(connectionUploadTimeout);
                     }
+                    if (request.getStartTimeNanos() >= 0) {
+                        rp.recordPhaseTime(org.apache.coyote.Constants.PHASE_HEADER_PARSE,
+                                System.nanoTime() - request.getStartTimeNanos());
+                    }
+                    if (queueWaitTime >= 0) {
+                        rp.recordPhaseTime(org.apache.coyote.Constants.PHASE_QUEUE_WAIT,
+                                queueWaitTime);
+                        queueWaitTime = -1;
+                    }
                 }
             } catch (IOException e) {
                 if (log.isDebugEnabled()) {
@@ -798,6 +793,8 @@ public class Http11Processor extends AbstractProcessor {
 
             // Process the request in the adapter
             if (!getErrorState().isError()) {
+                long serviceStart = System.nanoTime();
+                long writeTimeStart = response.getWriteTime();
                 try {
                     rp.setStage(org.apache.coyote.Constants.STAGE_SERVICE);
                     getAdapter().service(request, response);
@@ -832,6 +829,10 @@ public class Http11Processor extends AbstractProcessor {
                     setErrorState(ErrorState.CLOSE_CLEAN, t);
                     getAdapter().log(request, response, 0);
                 }
+                // Exclude time spent writing to the network
+                rp.recordPhaseTime(org.apache.coyote.Constants.PHASE_SERVICE,
+                        System.nanoTime() - serviceStart -
+                        (response.getWriteTime() - writeTimeStart));
             }
 
             // Finish the handling of the request
@@ -872,6 +873,18 @@ public class Http11Processor extends AbstractProcessor {
             sendfileState = processSendfile(socketWrapper);
         }
 
+        // Write any responses held back while pipelined requests were
+        // processed before the socket is released. If the request is async,
+        // they were written when it entered async mode since the application
+        // may now be writing from another thread.
+        if (getErrorState().isIoAllowed() && !isAsync()) {
+            try {
+                outputBuffer.flushDeferred();
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
+            }
+        }
+
         rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
 
         if (getErrorState().isError() || endpoint.isPaused()) {
@@ -917,7 +930,8 @@ public class Http11Processor extends AbstractProcessor {
         // open
         openSocket = true;
         // Check to see if we have read any of the request line yet
-        if (inputBuffer.getParsingRequestLinePhase() > 1) {
+        if (inputBuffer.getParsingRequestLinePhase() > 1 ||
+                inputBuffer.isClientPrefacePending()) {
             // Started to read request line.
             if (endpoint.isPaused()) {
                 // Partially processed the request so need to respond
@@ -1220,18 +1234,12 @@ public class Http11Processor extends AbstractProcessor {
             prepareSendfile(outputFilters);
         }
 
-        // Check for compression
-        boolean isCompressible = false;
-        boolean useCompression = false;
-        if (entityBody && (compressionLevel > 0) && sendfileData == null) {
-            isCompressible = isCompressible();
-            if (isCompressible) {
-                useCompression = useCompression();
-            }
-            // Change content-length to -1 to force chunking
-            if (useCompression) {
-                response.setContentLength(-1);
-            }
+        // Check for compression. This sets the Content-Encoding and Vary
+        // headers and, if compressing, changes content-length to -1 to force
+        // chunking.
+        String compressionEncoding = null;
+        if (entityBody && sendfileData == null) {
+            compressionEncoding = compressionConfig.getCompressionEncoding(request, response);
         }
 
         MimeHeaders headers = response.getMimeHeaders();
@@ -1270,24 +1278,8 @@ public class Http11Processor extends AbstractProcessor {
             }
         }
 
-        if (useCompression) {
-            outputBuffer.addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
-            headers.setValue("Content-Encoding").setString("gzip");
-        }
-        // If it might be compressed, set the Vary header
-        if (isCompressible) {
-            // Make Proxies happy via Vary (from mod_deflate)
-            MessageBytes vary = headers.getValue("Vary");
-            if (vary == null) {
-                // Add a new Vary header
-                headers.setValue("Vary").setString("Accept-Encoding");
-            } else if (vary.equals("*")) {
-                // No action required
-            } else {
-                // Merge into current header
-                headers.setValue("Vary").setString(
-                        vary.getString() + ",Accept-Encoding");
-            }
+        if (compressionEncoding != null) {
+            outputBuffer.addActiveFilter(getCompressionFilter(compressionEncoding));
         }
 
         // Add date header unless application has already set one (e.g. in a
@@ -1362,6 +1354,32 @@ public class Http11Processor extends AbstractProcessor {
         return connection.equals(Constants.CLOSE);
     }
 
+
+    /*
+     * Obtain the filter for a content coding selected by the compression
+     * configuration. The gzip filter is configured for each response so
+     * changes to the configuration apply to existing processors.
+     */
+    private OutputFilter getCompressionFilter(String encoding) {
+        if ("gzip".equals(encoding)) {
+            GzipOutputFilter gzipOutputFilter =
+                    (GzipOutputFilter) outputBuffer.getFilters()[Constants.GZIP_FILTER];
+            gzipOutputFilter.setLevel(compressionConfig.getGzipLevel());
+            gzipOutputFilter.setCache(compressionConfig.getCompressionCache());
+            gzipOutputFilter.setDeflaterPool(compressionConfig.getDeflaterPool());
+            return gzipOutputFilter;
+        }
+        OutputFilter filter = encoderFilters.get(encoding);
+        if (filter == null) {
+            ContentEncoder encoder = compressionConfig.getContentEncoder(encoding);
+            filter = encoder.createOutputFilter();
+            outputBuffer.addFilter(filter);
+            encoderFilters.put(encoding, filter);
+        }
+        return filter;
+    }
+
+
     private void prepareSendfile(OutputFilter[] outputFilters) {
         String fileName = (String) request.getAttribute(
                 org.apache.coyote.Constants.SENDFILE_FILENAME_ATTR);
@@ -1371,6 +1389,13 @@ public class Http11Processor extends AbstractProcessor {
             // No entity body sent here
             outputBuffer.addActiveFilter(outputFilters[Constants.VOID_FILTER]);
             contentDelimitation = true;
+            Object ranges = request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_FILE_RANGES_ATTR);
+            if (ranges instanceof long[] && ((long[]) ranges).length >= 2) {
+                prepareSendfileRanges(fileName, (long[]) ranges, request.getAttribute(
+                        org.apache.coyote.Constants.SENDFILE_RANGE_HEADERS_ATTR));
+                return;
+            }
             long pos = ((Long) request.getAttribute(
                     org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
             long end = ((Long) request.getAttribute(
@@ -1379,6 +1404,31 @@ public class Http11Processor extends AbstractProcessor {
         }
     }
 
+    private void prepareSendfileRanges(String fileName, long[] ranges, Object headersAttr) {
+        byte[][] headers = null;
+        if (headersAttr instanceof byte[][]) {
+            headers = (byte[][]) headersAttr;
+        }
+        int count = ranges.length / 2;
+        for (int i = 0; i < count; i++) {
+            long pos = ranges[2 * i];
+            long length = ranges[2 * i + 1] - pos;
+            byte[] header = (headers != null && i < headers.length) ? headers[i] : null;
+            if (i == 0) {
+                sendfileData = socketWrapper.createSendfileData(fileName, pos, length);
+                if (header != null) {
+                    sendfileData.header = ByteBuffer.wrap(header);
+                }
+            } else {
+                sendfileData.addSegment(header, pos, length);
+            }
+        }
+        if (headers != null && count < headers.length && headers[count] != null) {
+            // Data written after the last range
+            sendfileData.addSegment(headers[count], 0, 0);
+        }
+    }
+
     /**
      * Parse host.
      */
@@ -1533,8 +1583,31 @@ public class Http11Processor extends AbstractProcessor {
     }
 
 
+    @Override
+    protected final void asyncStart() {
+        // The response to this request may be written from another thread and
+        // could take a long time so don't hold back the responses to the
+        // requests before it
+        if (getErrorState().isIoAllowed()) {
+            try {
+                outputBuffer.flushDeferred();
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_CONNECTION_NOW, e);
+            }
+        }
+    }
+
+
     @Override
     protected final void finishResponse() throws IOException {
+        // If the next request has already been received, hold this response
+        // in the socket write buffer so it is written with the responses that
+        // follow. Responses to async requests may be completed on another
+        // thread and responses using sendfile are written directly to the
+        // socket so they are always flushed.
+        outputBuffer.setDeferFlush(coalescePipelinedResponses && keepAlive &&
+                !isAsync() && !getErrorState().isError() && sendfileData == null &&
+                inputBuffer.hasPipelinedData());
         outputBuffer.end();
     }
 
@@ -17,19 +17,30 @@
 package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.util.zip.GZIPOutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
+import org.apache.coyote.CompressionCache;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
 import org.apache.coyote.http11.OutputFilter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 
 /**
  * Gzip output filter.
+ * <p>
+ * The native resources of a {@link Deflater} are expensive to create so, if a
+ * pool has been configured, they are taken from the pool and returned to it
+ * once the response is complete. A Deflater that does not fit in the pool is
+ * ended. If a {@link CompressionCache} has
+ * been configured, the body of a response with an ETag is buffered (up to the
+ * maximum size permitted by the cache) so that the compressed form of a body
+ * that has been compressed before can be written without compressing it again.
  *
  * @author Remy Maucherat
  */
@@ -37,6 +48,15 @@ public class GzipOutputFilter implements OutputFilter {
 
     protected static final Log log = LogFactory.getLog(GzipOutputFilter.class);
 
+    private static final String ENCODING = "gzip";
+
+    /*
+     * Header as written by java.util.zip.GZIPOutputStream
+     */
+    private static final byte[] HEADER = new byte[] {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final int TRAILER_SIZE = 8;
 
     // ----------------------------------------------------- Instance Variables
 
@@ -47,15 +67,80 @@ public class GzipOutputFilter implements OutputFilter {
 
 
     /**
-     * Compression output stream.
+     * Compression level.
+     */
+    private int level = Deflater.DEFAULT_COMPRESSION;
+
+
+    /**
+     * Cache of compressed bodies, if any.
+     */
+    private CompressionCache cache = null;
+
+
+    /**
+     * Pool of idle Deflaters, if any.
+     */
+    private SynchronizedStack<Deflater> deflaterPool = null;
+
+
+    private Response response = null;
+
+    private Deflater deflater = null;
+    private final CRC32 crc = new CRC32();
+    private final byte[] deflateBuffer = new byte[8192];
+
+    /*
+     * Uncompressed body of a cacheable response buffered until the response is
+     * complete. null if the response is not being buffered.
+     */
+    private ByteChunk cacheBody = null;
+    private boolean cacheChecked = false;
+
+    /*
+     * Collects the compressed form of a buffered body so it can be added to the
+     * cache.
+     */
+    private ByteChunk compressedBody = null;
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * Set the compression level.
+     *
+     * @param level The compression level, from 0 (no compression) to 9 (best
+     *              compression) or -1 for the default level
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+
+    public int getLevel() {
+        return level;
+    }
+
+
+    /**
+     * Set the cache of compressed bodies.
+     *
+     * @param cache The cache or <code>null</code> to disable caching
      */
-    protected GZIPOutputStream compressionStream = null;
+    public void setCache(CompressionCache cache) {
+        this.cache = cache;
+    }
 
 
     /**
-     * Fake internal output stream.
+     * Set the pool to take Deflaters from and return them to.
+     *
+     * @param deflaterPool The pool or <code>null</code> to create a Deflater
+     *                     for each response
      */
-    protected final OutputStream fakeOutputStream = new FakeOutputStream();
+    public void setDeflaterPool(SynchronizedStack<Deflater> deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
 
 
     // --------------------------------------------------- OutputBuffer Methods
@@ -67,27 +152,21 @@ public class GzipOutputFilter implements OutputFilter {
     @Deprecated
     @Override
     public int doWrite(ByteChunk chunk) throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
-        }
-        compressionStream.write(chunk.getBytes(), chunk.getStart(),
-                                chunk.getLength());
-        return chunk.getLength();
+        int len = chunk.getLength();
+        write(chunk.getBytes(), chunk.getStart(), len);
+        return len;
     }
 
 
     @Override
     public int doWrite(ByteBuffer chunk) throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
-        }
         int len = chunk.remaining();
         if (chunk.hasArray()) {
-            compressionStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), len);
+            write(chunk.array(), chunk.arrayOffset() + chunk.position(), len);
         } else {
             byte[] bytes = new byte[len];
-            chunk.put(bytes);
-            compressionStream.write(bytes, 0, len);
+            chunk.get(bytes);
+            write(bytes, 0, len);
         }
         return len;
     }
@@ -106,12 +185,21 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public void flush() throws IOException {
-        if (compressionStream != null) {
+        // A flushed response is streamed so it won't be cached
+        stopCaching();
+        if (deflater != null) {
             try {
                 if (log.isDebugEnabled()) {
                     log.debug("Flushing the compression stream!");
                 }
-                compressionStream.flush();
+                if (!deflater.finished()) {
+                    int len;
+                    do {
+                        len = deflater.deflate(deflateBuffer, 0, deflateBuffer.length,
+                                Deflater.SYNC_FLUSH);
+                        output(deflateBuffer, 0, len);
+                    } while (len == deflateBuffer.length);
+                }
             } catch (IOException e) {
                 if (log.isDebugEnabled()) {
                     log.debug("Ignored exception while flushing gzip filter", e);
@@ -124,7 +212,7 @@ public class GzipOutputFilter implements OutputFilter {
 
     @Override
     public void setResponse(Response response) {
-        // NOOP: No need for parameters from response in this filter
+        this.response = response;
     }
 
 
@@ -136,11 +224,25 @@ public class GzipOutputFilter implements OutputFilter {
 
     @Override
     public void end() throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+        checkCache();
+        if (cacheBody != null) {
+            String key = CompressionCache.getKey(cacheBody.getBuffer(), cacheBody.getStart(),
+                    cacheBody.getLength(), ENCODING, level);
+            byte[] compressed = cache.get(key);
+            if (compressed == null) {
+                compressedBody = new ByteChunk(cacheBody.getLength() / 2 + HEADER.length + TRAILER_SIZE);
+                compress(cacheBody.getBuffer(), cacheBody.getStart(), cacheBody.getLength());
+                finish();
+                compressed = Arrays.copyOfRange(compressedBody.getBuffer(),
+                        compressedBody.getStart(), compressedBody.getEnd());
+                compressedBody = null;
+                cache.put(key, compressed);
+            }
+            cacheBody = null;
+            buffer.doWrite(ByteBuffer.wrap(compressed));
+        } else {
+            finish();
         }
-        compressionStream.finish();
-        compressionStream.close();
         buffer.end();
     }
 
@@ -150,35 +252,138 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public void recycle() {
-        // Set compression stream to null
-        compressionStream = null;
+        releaseDeflater();
+        response = null;
+        cacheBody = null;
+        cacheChecked = false;
+        compressedBody = null;
     }
 
 
-    // ------------------------------------------- FakeOutputStream Inner Class
+    // -------------------------------------------------------- Private Methods
 
+    private void write(byte[] b, int off, int len) throws IOException {
+        checkCache();
+        if (cacheBody != null) {
+            if (cacheBody.getLength() + len <= cache.getObjectMaxSize()) {
+                cacheBody.append(b, off, len);
+                return;
+            }
+            stopCaching();
+        }
+        compress(b, off, len);
+    }
+
+
+    /*
+     * On the first write (or at the end of an empty response) determine if the
+     * response body should be buffered so it can be cached.
+     */
+    private void checkCache() {
+        if (cacheChecked) {
+            return;
+        }
+        cacheChecked = true;
+        if (cache != null && response != null &&
+                response.getMimeHeaders().getValue("ETag") != null) {
+            cacheBody = new ByteChunk(Math.min(8192, cache.getObjectMaxSize()));
+        }
+    }
+
+
+    private void stopCaching() throws IOException {
+        cacheChecked = true;
+        if (cacheBody != null) {
+            ByteChunk body = cacheBody;
+            cacheBody = null;
+            compress(body.getBuffer(), body.getStart(), body.getLength());
+        }
+    }
+
+
+    private void compress(byte[] b, int off, int len) throws IOException {
+        if (deflater == null) {
+            start();
+        }
+        if (len == 0) {
+            return;
+        }
+        crc.update(b, off, len);
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            int n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+            output(deflateBuffer, 0, n);
+        }
+    }
 
-    protected class FakeOutputStream
-        extends OutputStream {
-        protected final ByteBuffer outputChunk = ByteBuffer.allocate(1);
-        @Override
-        public void write(int b)
-            throws IOException {
-            // Shouldn't get used for good performance, but is needed for
-            // compatibility with Sun JDK 1.4.0
-            outputChunk.put(0, (byte) (b & 0xff));
-            buffer.doWrite(outputChunk);
+
+    private void start() throws IOException {
+        SynchronizedStack<Deflater> deflaterPool = this.deflaterPool;
+        if (deflaterPool != null) {
+            deflater = deflaterPool.pop();
         }
-        @Override
-        public void write(byte[] b, int off, int len)
-            throws IOException {
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            deflater.setLevel(level);
+        }
+        crc.reset();
+        output(HEADER, 0, HEADER.length);
+    }
+
+
+    private void finish() throws IOException {
+        if (deflater == null) {
+            start();
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuffer, 0, deflateBuffer.length);
+            output(deflateBuffer, 0, n);
+        }
+        byte[] trailer = new byte[TRAILER_SIZE];
+        writeInt((int) crc.getValue(), trailer, 0);
+        writeInt((int) deflater.getBytesRead(), trailer, 4);
+        releaseDeflater();
+        output(trailer, 0, TRAILER_SIZE);
+    }
+
+
+    private void releaseDeflater() {
+        if (deflater != null) {
+            SynchronizedStack<Deflater> deflaterPool = this.deflaterPool;
+            if (deflaterPool != null) {
+                deflater.reset();
+                if (!deflaterPool.push(deflater)) {
+                    deflater.end();
+                }
+            } else {
+                deflater.end();
+            }
+            deflater = null;
+        }
+    }
+
+
+    private void output(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return;
+        }
+        if (compressedBody != null) {
+            compressedBody.append(b, off, len);
+        } else {
             buffer.doWrite(ByteBuffer.wrap(b, off, len));
         }
-        @Override
-        public void flush() throws IOException {/*NOOP*/}
-        @Override
-        public void close() throws IOException {/*NOOP*/}
     }
 
 
+    /*
+     * Little-endian as required by RFC 1952.
+     */
+    private static void writeInt(int value, byte[] b, int offset) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
 }
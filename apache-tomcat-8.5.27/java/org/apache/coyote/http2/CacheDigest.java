@@ -0,0 +1,243 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.tomcat.util.codec.binary.Base64;
+import org.apache.tomcat.util.security.ConcurrentMessageDigest;
+
+/**
+ * The responses a client holds in its cache as described by a
+ * <code>cache-digest</code> request header. The format of the digest is based
+ * on the
+ * <a href="https://tools.ietf.org/html/draft-ietf-httpbis-cache-digest-01">
+ * Cache Digests for HTTP/2</a> draft. Each digest is a Golomb-coded set of
+ * truncated SHA-256 hashes of the URLs (optionally combined with the ETags) of
+ * the cached responses. The header value is a comma separated list of base64url
+ * encoded digests, each optionally followed by the <code>validators</code>
+ * and/or <code>stale</code> flags separated by semi-colons.
+ * <p>
+ * Digests may report false positives with a probability chosen by the client
+ * but there are no false negatives.
+ */
+class CacheDigest {
+
+    private static final String SHA_256 = "SHA-256";
+
+    static {
+        try {
+            ConcurrentMessageDigest.init(SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+
+    private final List<DigestSet> digestSets;
+
+
+    private CacheDigest(List<DigestSet> digestSets) {
+        this.digestSets = digestSets;
+    }
+
+
+    /**
+     * Parse the value of a <code>cache-digest</code> header.
+     *
+     * @param value The header value
+     *
+     * @return The cache digest or <code>null</code> if the header did not
+     *         contain any digests of fresh responses that could be decoded
+     */
+    static CacheDigest parse(String value) {
+        if (value == null) {
+            return null;
+        }
+        List<DigestSet> digestSets = new ArrayList<>();
+        for (String digest : value.split(",")) {
+            String[] parts = digest.split(";");
+            boolean validators = false;
+            boolean stale = false;
+            for (int i = 1; i < parts.length; i++) {
+                String flag = parts[i].trim().toLowerCase(Locale.ENGLISH);
+                if ("validators".equals(flag)) {
+                    validators = true;
+                } else if ("stale".equals(flag)) {
+                    stale = true;
+                }
+            }
+            // Stale responses will be revalidated so it is still worth
+            // pushing them
+            if (stale) {
+                continue;
+            }
+            DigestSet digestSet = DigestSet.decode(Base64.decodeBase64(parts[0].trim()), validators);
+            if (digestSet != null) {
+                digestSets.add(digestSet);
+            }
+        }
+        if (digestSets.isEmpty()) {
+            return null;
+        }
+        return new CacheDigest(digestSets);
+    }
+
+
+    /**
+     * Is the given response in the client's cache?
+     *
+     * @param url  The absolute URL of the response
+     * @param etag The ETag of the response or <code>null</code> if not known
+     *
+     * @return <code>true</code> if the response is probably in the client's
+     *         cache, otherwise <code>false</code>
+     */
+    boolean contains(String url, String etag) {
+        for (DigestSet digestSet : digestSets) {
+            if (digestSet.contains(url, etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static long hash(String url, String etag, int bits) {
+        byte[] digest;
+        if (etag == null) {
+            digest = ConcurrentMessageDigest.digest(SHA_256, url.getBytes(StandardCharsets.UTF_8));
+        } else {
+            digest = ConcurrentMessageDigest.digest(SHA_256, url.getBytes(StandardCharsets.UTF_8),
+                    etag.getBytes(StandardCharsets.UTF_8));
+        }
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (digest[i] & 0xFF);
+        }
+        // Truncate to the most significant bits
+        return result >>> (64 - bits);
+    }
+
+
+    private static class DigestSet {
+
+        private final int bits;
+        private final boolean validators;
+        private final long[] values;
+
+        private DigestSet(int bits, boolean validators, long[] values) {
+            this.bits = bits;
+            this.validators = validators;
+            this.values = values;
+        }
+
+
+        static DigestSet decode(byte[] digest, boolean validators) {
+            BitReader reader = new BitReader(digest);
+            int log2N = reader.read(5);
+            int log2P = reader.read(5);
+            int bits = log2N + log2P;
+            if (log2N < 0 || log2P < 0 || bits == 0 || bits > 62) {
+                return null;
+            }
+            long[] values = new long[16];
+            int count = 0;
+            long current = -1;
+            while (true) {
+                long quotient = reader.readUnary();
+                if (quotient < 0) {
+                    break;
+                }
+                long remainder = reader.read(log2P);
+                if (remainder < 0) {
+                    break;
+                }
+                current += ((quotient << log2P) | remainder) + 1;
+                if (count == values.length) {
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                values[count++] = current;
+            }
+            return new DigestSet(bits, validators, Arrays.copyOf(values, count));
+        }
+
+
+        boolean contains(String url, String etag) {
+            if (validators && etag == null) {
+                // Can't tell without the ETag
+                return false;
+            }
+            long value = hash(url, validators ? etag : null, bits);
+            return Arrays.binarySearch(values, value) >= 0;
+        }
+    }
+
+
+    private static class BitReader {
+
+        private final byte[] data;
+        private long position = 0;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+
+        /*
+         * Returns -1 if there are insufficient bits.
+         */
+        int read(int count) {
+            if (position + count > data.length * 8L) {
+                return -1;
+            }
+            int result = 0;
+            for (int i = 0; i < count; i++) {
+                result = (result << 1) | nextBit();
+            }
+            return result;
+        }
+
+
+        /*
+         * Returns the number of zero bits before the next one bit or -1 if the
+         * data ends first (the remaining bits are padding).
+         */
+        long readUnary() {
+            long result = 0;
+            while (position < data.length * 8L) {
+                if (nextBit() == 1) {
+                    return result;
+                }
+                result++;
+            }
+            return -1;
+        }
+
+
+        private int nextBit() {
+            int bit = (data[(int) (position >> 3)] >> (7 - (int) (position & 7))) & 1;
+            position++;
+            return bit;
+        }
+    }
+}
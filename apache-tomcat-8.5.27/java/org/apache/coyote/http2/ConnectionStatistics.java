@@ -0,0 +1,172 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage statistics for HTTP/2 connections. Each connection maintains an
+ * instance and {@link Http2Protocol} maintains an instance for all of its
+ * connections. Updates to a connection's statistics are also applied to the
+ * statistics of the parent (the protocol).
+ */
+class ConnectionStatistics {
+
+    private final ConnectionStatistics parent;
+
+    private final AtomicInteger connectionCount = new AtomicInteger(0);
+    private final AtomicLong totalConnectionCount = new AtomicLong(0);
+    private final AtomicLong streamCount = new AtomicLong(0);
+    private final AtomicInteger peakConcurrentStreams = new AtomicInteger(0);
+    private final AtomicLong bytesReceived = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private final AtomicLong flowControlStallNanos = new AtomicLong(0);
+    private final AtomicLong pushCount = new AtomicLong(0);
+    private final AtomicLong pushSkippedCount = new AtomicLong(0);
+
+
+    ConnectionStatistics(ConnectionStatistics parent) {
+        this.parent = parent;
+    }
+
+
+    void connectionOpened() {
+        connectionCount.incrementAndGet();
+        totalConnectionCount.incrementAndGet();
+        if (parent != null) {
+            parent.connectionOpened();
+        }
+    }
+
+
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+        if (parent != null) {
+            parent.connectionClosed();
+        }
+    }
+
+
+    /**
+     * Record the start of a stream initiated by the client.
+     *
+     * @param concurrentStreams The number of active client initiated streams on
+     *                          the connection, including the new stream
+     */
+    void streamStarted(int concurrentStreams) {
+        streamCount.incrementAndGet();
+        int peak = peakConcurrentStreams.get();
+        while (concurrentStreams > peak &&
+                !peakConcurrentStreams.compareAndSet(peak, concurrentStreams)) {
+            peak = peakConcurrentStreams.get();
+        }
+        if (parent != null) {
+            parent.streamStarted(concurrentStreams);
+        }
+    }
+
+
+    void dataReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+        if (parent != null) {
+            parent.dataReceived(bytes);
+        }
+    }
+
+
+    void dataSent(int bytes) {
+        bytesSent.addAndGet(bytes);
+        if (parent != null) {
+            parent.dataSent(bytes);
+        }
+    }
+
+
+    void flowControlStalled(long nanos) {
+        flowControlStallNanos.addAndGet(nanos);
+        if (parent != null) {
+            parent.flowControlStalled(nanos);
+        }
+    }
+
+
+    void pushed() {
+        pushCount.incrementAndGet();
+        if (parent != null) {
+            parent.pushed();
+        }
+    }
+
+
+    /**
+     * Record a push request that was not sent because the client already has
+     * the resource.
+     */
+    void pushSkipped() {
+        pushSkippedCount.incrementAndGet();
+        if (parent != null) {
+            parent.pushSkipped();
+        }
+    }
+
+
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+
+    long getTotalConnectionCount() {
+        return totalConnectionCount.get();
+    }
+
+
+    long getStreamCount() {
+        return streamCount.get();
+    }
+
+
+    int getPeakConcurrentStreams() {
+        return peakConcurrentStreams.get();
+    }
+
+
+    long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+
+    long getBytesSent() {
+        return bytesSent.get();
+    }
+
+
+    long getFlowControlStallTime() {
+        return TimeUnit.NANOSECONDS.toMillis(flowControlStallNanos.get());
+    }
+
+
+    long getPushCount() {
+        return pushCount.get();
+    }
+
+
+    long getPushSkippedCount() {
+        return pushSkippedCount.get();
+    }
+}
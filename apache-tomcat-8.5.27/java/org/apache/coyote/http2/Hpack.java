@@ -38,6 +38,28 @@ final class Hpack {
     static final HeaderField[] STATIC_TABLE;
     static final int STATIC_TABLE_LENGTH;
 
+    /**
+     * Header names, in addition to those in the static table, that are
+     * common enough to be worth sharing a single String instance between all
+     * the header blocks that use them.
+     */
+    private static final String[] COMMON_HEADER_NAMES = new String[] {
+            "access-control-allow-credentials", "access-control-allow-headers",
+            "access-control-allow-methods", "access-control-expose-headers",
+            "access-control-max-age", "access-control-request-headers",
+            "access-control-request-method", "connection", "content-security-policy",
+            "dnt", "keep-alive", "origin", "pragma", "te", "upgrade-insecure-requests",
+            "x-content-type-options", "x-forwarded-for", "x-forwarded-host",
+            "x-forwarded-proto", "x-frame-options", "x-powered-by", "x-requested-with",
+            "x-xss-protection" };
+
+    /**
+     * Open addressing hash table, using linear probing, of the shared header
+     * name instances.
+     */
+    private static final String[] HEADER_NAMES;
+    private static final int MAX_HEADER_NAME_LENGTH;
+
     static {
         PREFIX_TABLE = new int[32];
         for (int i = 0; i < 32; ++i) {
@@ -114,6 +136,84 @@ final class Hpack {
         fields[61] = new HeaderField("www-authenticate", null);
         STATIC_TABLE = fields;
         STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+
+        HEADER_NAMES = new String[256];
+        int maxLength = 0;
+        for (int i = 1; i < STATIC_TABLE.length; i++) {
+            maxLength = Math.max(maxLength, addHeaderName(STATIC_TABLE[i].name));
+        }
+        for (String name : COMMON_HEADER_NAMES) {
+            maxLength = Math.max(maxLength, addHeaderName(name));
+        }
+        MAX_HEADER_NAME_LENGTH = maxLength;
+    }
+
+
+    private static int addHeaderName(String name) {
+        int mask = HEADER_NAMES.length - 1;
+        int i = name.hashCode() & mask;
+        while (HEADER_NAMES[i] != null) {
+            if (HEADER_NAMES[i].equals(name)) {
+                return name.length();
+            }
+            i = (i + 1) & mask;
+        }
+        HEADER_NAMES[i] = name;
+        return name.length();
+    }
+
+
+    /**
+     * Obtain the shared instance of a common header name so that header blocks
+     * do not need to create a new String for it.
+     *
+     * @param name       The header name to look up
+     * @param ignoreCase Should the look up ignore the case of the provided
+     *                   name? Shared names are always lower case.
+     *
+     * @return The shared, lower case, instance of the header name or
+     *         <code>null</code> if the name is not a common header name
+     */
+    static String getCommonHeaderName(CharSequence name, boolean ignoreCase) {
+        int len = name.length();
+        if (len == 0 || len > MAX_HEADER_NAME_LENGTH) {
+            return null;
+        }
+        // Same as String.hashCode() for the lower case name
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (ignoreCase) {
+                c = toLower(c);
+            }
+            hash = 31 * hash + c;
+        }
+        int mask = HEADER_NAMES.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            String candidate = HEADER_NAMES[i];
+            if (candidate == null) {
+                return null;
+            }
+            if (candidate.length() == len && candidate.hashCode() == hash &&
+                    matches(candidate, name, ignoreCase)) {
+                return candidate;
+            }
+        }
+    }
+
+
+    private static boolean matches(String lowerCase, CharSequence name, boolean ignoreCase) {
+        int len = lowerCase.length();
+        for (int i = 0; i < len; i++) {
+            char c = name.charAt(i);
+            if (ignoreCase) {
+                c = toLower(c);
+            }
+            if (lowerCase.charAt(i) != c) {
+                return false;
+            }
+        }
+        return true;
     }
 
     static class HeaderField {
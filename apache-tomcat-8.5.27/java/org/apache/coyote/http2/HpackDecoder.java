@@ -35,9 +35,11 @@ public class HpackDecoder {
     private HeaderEmitter headerEmitter;
 
     /**
-     * The header table
+     * The header table. Names and values are held in separate arrays so no
+     * objects are created when entries are added.
      */
-    private Hpack.HeaderField[] headerTable;
+    private String[] headerNames;
+    private String[] headerValues;
 
     /**
      * The current HEAD position of the header table. We use a ring buffer type
@@ -77,7 +79,8 @@ public class HpackDecoder {
     public HpackDecoder(int maxMemorySize) {
         this.maxMemorySizeHard = maxMemorySize;
         this.maxMemorySizeSoft = maxMemorySize;
-        headerTable = new Hpack.HeaderField[DEFAULT_RING_BUFFER_SIZE];
+        headerNames = new String[DEFAULT_RING_BUFFER_SIZE];
+        headerValues = new String[DEFAULT_RING_BUFFER_SIZE];
     }
 
     public HpackDecoder() {
@@ -122,7 +125,7 @@ public class HpackDecoder {
                     return;
                 }
                 emitHeader(headerName, headerValue);
-                addEntryToHeaderTable(new Hpack.HeaderField(headerName, headerValue));
+                addEntryToHeaderTable(headerName, headerValue);
             } else if ((b & 0b11110000) == 0) {
                 //Literal Header Field without Indexing
                 String headerName = readHeaderName(buffer, 4);
@@ -175,22 +178,7 @@ public class HpackDecoder {
         }
         maxMemorySizeSoft = size;
         if (currentMemorySize > maxMemorySizeSoft) {
-            int newTableSlots = filledTableSlots;
-            int tableLength = headerTable.length;
-            int newSize = currentMemorySize;
-            while (newSize > maxMemorySizeSoft) {
-                int clearIndex = firstSlotPosition;
-                firstSlotPosition++;
-                if (firstSlotPosition == tableLength) {
-                    firstSlotPosition = 0;
-                }
-                Hpack.HeaderField oldData = headerTable[clearIndex];
-                headerTable[clearIndex] = null;
-                newSize -= oldData.size;
-                newTableSlots--;
-            }
-            this.filledTableSlots = newTableSlots;
-            currentMemorySize = newSize;
+            evict(currentMemorySize, filledTableSlots);
         }
         return true;
     }
@@ -203,11 +191,15 @@ public class HpackDecoder {
         } else if (index != 0) {
             return handleIndexedHeaderName(index);
         } else {
-            return readHpackString(buffer);
+            return readHpackString(buffer, true);
         }
     }
 
     private String readHpackString(ByteBuffer buffer) throws HpackException {
+        return readHpackString(buffer, false);
+    }
+
+    private String readHpackString(ByteBuffer buffer, boolean headerName) throws HpackException {
         if (!buffer.hasRemaining()) {
             return null;
         }
@@ -219,19 +211,19 @@ public class HpackDecoder {
         }
         boolean huffman = (data & 0b10000000) != 0;
         if (huffman) {
-            return readHuffmanString(length, buffer);
+            HPackHuffman.decode(buffer, length, stringBuilder);
+        } else {
+            for (int i = 0; i < length; ++i) {
+                stringBuilder.append((char) buffer.get());
+            }
         }
-        for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
+        String ret = null;
+        if (headerName) {
+            ret = Hpack.getCommonHeaderName(stringBuilder, false);
+        }
+        if (ret == null) {
+            ret = stringBuilder.toString();
         }
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
-    }
-
-    private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        String ret = stringBuilder.toString();
         stringBuilder.setLength(0);
         return ret;
     }
@@ -240,18 +232,7 @@ public class HpackDecoder {
         if (index <= Hpack.STATIC_TABLE_LENGTH) {
             return Hpack.STATIC_TABLE[index].name;
         } else {
-            // index is 1 based
-            if (index > Hpack.STATIC_TABLE_LENGTH + filledTableSlots) {
-                throw new HpackException(sm.getString("hpackdecoder.headerTableIndexInvalid",
-                        Integer.valueOf(index), Integer.valueOf(Hpack.STATIC_TABLE_LENGTH),
-                        Integer.valueOf(filledTableSlots)));
-            }
-            int adjustedIndex = getRealIndex(index - Hpack.STATIC_TABLE_LENGTH);
-            Hpack.HeaderField res = headerTable[adjustedIndex];
-            if (res == null) {
-                throw new HpackException();
-            }
-            return res.name;
+            return headerNames[getDynamicTableIndex(index)];
         }
     }
 
@@ -265,12 +246,22 @@ public class HpackDecoder {
         if (index <= Hpack.STATIC_TABLE_LENGTH) {
             addStaticTableEntry(index);
         } else {
-            int adjustedIndex = getRealIndex(index - Hpack.STATIC_TABLE_LENGTH);
-            Hpack.HeaderField headerField = headerTable[adjustedIndex];
-            emitHeader(headerField.name, headerField.value);
+            int adjustedIndex = getDynamicTableIndex(index);
+            emitHeader(headerNames[adjustedIndex], headerValues[adjustedIndex]);
         }
     }
 
+
+    private int getDynamicTableIndex(int index) throws HpackException {
+        // index is 1 based
+        if (index > Hpack.STATIC_TABLE_LENGTH + filledTableSlots) {
+            throw new HpackException(sm.getString("hpackdecoder.headerTableIndexInvalid",
+                    Integer.valueOf(index), Integer.valueOf(Hpack.STATIC_TABLE_LENGTH),
+                    Integer.valueOf(filledTableSlots)));
+        }
+        return getRealIndex(index - Hpack.STATIC_TABLE_LENGTH);
+    }
+
     /**
      * because we use a ring buffer type construct, and don't actually shuffle
      * items in the array, we need to figure out the real index to use.
@@ -284,7 +275,7 @@ public class HpackDecoder {
         //the index is one based, but our table is zero based, hence -1
         //also because of our ring buffer setup the indexes are reversed
         //index = 1 is at position firstSlotPosition + filledSlots
-        return (firstSlotPosition + (filledTableSlots - index)) % headerTable.length;
+        return (firstSlotPosition + (filledTableSlots - index)) % headerNames.length;
     }
 
     private void addStaticTableEntry(int index) throws HpackException {
@@ -297,13 +288,15 @@ public class HpackDecoder {
         emitHeader(entry.name, entry.value);
     }
 
-    private void addEntryToHeaderTable(Hpack.HeaderField entry) {
-        if (entry.size > maxMemorySizeSoft) {
+    private void addEntryToHeaderTable(String name, String value) {
+        int size = entrySize(name, value);
+        if (size > maxMemorySizeSoft) {
             //it is to big to fit, so we just completely clear the table.
             while (filledTableSlots > 0) {
-                headerTable[firstSlotPosition] = null;
+                headerNames[firstSlotPosition] = null;
+                headerValues[firstSlotPosition] = null;
                 firstSlotPosition++;
-                if (firstSlotPosition == headerTable.length) {
+                if (firstSlotPosition == headerNames.length) {
                     firstSlotPosition = 0;
                 }
                 filledTableSlots--;
@@ -312,34 +305,50 @@ public class HpackDecoder {
             return;
         }
         resizeIfRequired();
-        int newTableSlots = filledTableSlots + 1;
-        int tableLength = headerTable.length;
-        int index = (firstSlotPosition + filledTableSlots) % tableLength;
-        headerTable[index] = entry;
-        int newSize = currentMemorySize + entry.size;
+        int index = (firstSlotPosition + filledTableSlots) % headerNames.length;
+        headerNames[index] = name;
+        headerValues[index] = value;
+        evict(currentMemorySize + size, filledTableSlots + 1);
+    }
+
+    /*
+     * Removes the oldest entries until the table fits within the current
+     * maximum size.
+     */
+    private void evict(int newSize, int newTableSlots) {
+        int tableLength = headerNames.length;
         while (newSize > maxMemorySizeSoft) {
             int clearIndex = firstSlotPosition;
             firstSlotPosition++;
             if (firstSlotPosition == tableLength) {
                 firstSlotPosition = 0;
             }
-            Hpack.HeaderField oldData = headerTable[clearIndex];
-            headerTable[clearIndex] = null;
-            newSize -= oldData.size;
+            newSize -= entrySize(headerNames[clearIndex], headerValues[clearIndex]);
+            headerNames[clearIndex] = null;
+            headerValues[clearIndex] = null;
             newTableSlots--;
         }
         this.filledTableSlots = newTableSlots;
         currentMemorySize = newSize;
     }
 
+    private static int entrySize(String name, String value) {
+        return 32 + name.length() + value.length();
+    }
+
     private void resizeIfRequired() {
-        if(filledTableSlots == headerTable.length) {
-            Hpack.HeaderField[] newArray = new Hpack.HeaderField[headerTable.length + 10]; //we only grow slowly
-            for(int i = 0; i < headerTable.length; ++i) {
-                newArray[i] = headerTable[(firstSlotPosition + i) % headerTable.length];
+        if(filledTableSlots == headerNames.length) {
+            int newLength = headerNames.length * 2;
+            String[] newNames = new String[newLength];
+            String[] newValues = new String[newLength];
+            for(int i = 0; i < headerNames.length; ++i) {
+                int j = (firstSlotPosition + i) % headerNames.length;
+                newNames[i] = headerNames[j];
+                newValues[i] = headerValues[j];
             }
             firstSlotPosition = 0;
-            headerTable = newArray;
+            headerNames = newNames;
+            headerValues = newValues;
         }
     }
 
@@ -461,8 +470,12 @@ public class HpackDecoder {
         return firstSlotPosition;
     }
 
-    Hpack.HeaderField[] getHeaderTable() {
-        return headerTable;
+    String[] getHeaderNames() {
+        return headerNames;
+    }
+
+    String[] getHeaderValues() {
+        return headerValues;
     }
 
     int getFilledTableSlots() {
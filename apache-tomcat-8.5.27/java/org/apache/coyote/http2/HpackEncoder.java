@@ -17,12 +17,8 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
@@ -39,6 +35,9 @@ public class HpackEncoder {
     private static final Log log = LogFactory.getLog(HpackEncoder.class);
     private static final StringManager sm = StringManager.getManager(HpackEncoder.class);
 
+    // Size added to each dynamic table entry as per RFC 7541, section 4.1
+    private static final int ENTRY_OVERHEAD = 32;
+
     public static final HpackHeaderFunction DEFAULT_HEADER_FUNCTION = new HpackHeaderFunction() {
         @Override
         public boolean shouldUseIndexing(String headerName, String value) {
@@ -65,16 +64,11 @@ public class HpackEncoder {
 
     private MimeHeaders currentHeaders;
 
-    private int entryPositionCounter;
-
     private int newMaxHeaderSize = -1; //if the max header size has been changed
     private int minNewMaxHeaderSize = -1; //records the smallest value of newMaxHeaderSize, as per section 4.1
 
     private static final Map<String, TableEntry[]> ENCODING_STATIC_TABLE;
 
-    private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
-    private final Map<String, List<TableEntry>> dynamicTable = new HashMap<>(); //TODO: use a custom data structure to reduce allocations
-
     static {
         Map<String, TableEntry[]> map = new HashMap<>();
         for (int i = 1; i < Hpack.STATIC_TABLE.length; ++i) {
@@ -92,6 +86,28 @@ public class HpackEncoder {
         ENCODING_STATIC_TABLE = Collections.unmodifiableMap(map);
     }
 
+    /*
+     * The dynamic table. Entries are held in a ring buffer in the order they
+     * were added so no objects are created when entries are added or evicted.
+     * The oldest entry is at firstEntry and the newest entry has the lowest
+     * HPACK index.
+     */
+    private String[] entryNames;
+    private String[] entryValues;
+    private int[] entryNameHashes;
+    private int[] entryFieldHashes;
+    private int firstEntry = 0;
+    private int entryCount = 0;
+
+    /*
+     * Open addressing hash tables, using linear probing, that map the hash of
+     * the header name (nameIndex) and of the header name and value
+     * (fieldIndex) to the ring buffer slot of an entry plus one. Zero marks an
+     * empty bucket.
+     */
+    private int[] nameIndex;
+    private int[] fieldIndex;
+
     /**
      * The maximum table size
      */
@@ -106,6 +122,7 @@ public class HpackEncoder {
 
     HpackEncoder() {
         this.hpackHeaderFunction = DEFAULT_HEADER_FUNCTION;
+        allocateTable(Hpack.DEFAULT_TABLE_SIZE / ENTRY_OVERHEAD);
     }
 
     /**
@@ -130,7 +147,13 @@ public class HpackEncoder {
         }
         while (it < currentHeaders.size()) {
             // FIXME: Review lowercase policy
-            String headerName = headers.getName(it).toString().toLowerCase(Locale.US);
+            String headerName = headers.getName(it).toString();
+            String commonName = Hpack.getCommonHeaderName(headerName, true);
+            if (commonName == null) {
+                headerName = headerName.toLowerCase(Locale.US);
+            } else {
+                headerName = commonName;
+            }
             boolean skip = false;
             if (firstPass) {
                 if (headerName.charAt(0) != ':') {
@@ -147,7 +170,7 @@ public class HpackEncoder {
                     if (log.isDebugEnabled()) {
                         log.debug(sm.getString("hpackEncoder.encodeHeader", headerName, val));
                     }
-                    TableEntry tableEntry = findInTable(headerName, val);
+                    int tableIndex = findInTable(headerName, val);
 
                     // We use 11 to make sure we have enough room for the
                     // variable length integers
@@ -159,37 +182,35 @@ public class HpackEncoder {
                     }
                     // Only index if it will fit
                     boolean canIndex = hpackHeaderFunction.shouldUseIndexing(headerName, val) &&
-                            (headerName.length() + val.length() + 32) < maxTableSize;
-                    if (tableEntry == null && canIndex) {
+                            (headerName.length() + val.length() + ENTRY_OVERHEAD) < maxTableSize;
+                    if (tableIndex == 0 && canIndex) {
                         //add the entry to the dynamic table
                         target.put((byte) (1 << 6));
                         writeHuffmanEncodableName(target, headerName);
                         writeHuffmanEncodableValue(target, headerName, val);
                         addToDynamicTable(headerName, val);
-                    } else if (tableEntry == null) {
+                    } else if (tableIndex == 0) {
                         //literal never indexed
                         target.put((byte) (1 << 4));
                         writeHuffmanEncodableName(target, headerName);
                         writeHuffmanEncodableValue(target, headerName, val);
+                    } else if (tableIndex > 0) {
+                        //the whole thing is in the table
+                        target.put((byte) (1 << 7));
+                        Hpack.encodeInteger(target, tableIndex, 7);
                     } else {
-                        //so we know something is already in the table
-                        if (val.equals(tableEntry.value)) {
-                            //the whole thing is in the table
-                            target.put((byte) (1 << 7));
-                            Hpack.encodeInteger(target, tableEntry.getPosition(), 7);
+                        //only the name is in the table
+                        if (canIndex) {
+                            //add the entry to the dynamic table
+                            target.put((byte) (1 << 6));
+                            Hpack.encodeInteger(target, -tableIndex, 6);
+                            writeHuffmanEncodableValue(target, headerName, val);
+                            addToDynamicTable(headerName, val);
+
                         } else {
-                            if (canIndex) {
-                                //add the entry to the dynamic table
-                                target.put((byte) (1 << 6));
-                                Hpack.encodeInteger(target, tableEntry.getPosition(), 6);
-                                writeHuffmanEncodableValue(target, headerName, val);
-                                addToDynamicTable(headerName, val);
-
-                            } else {
-                                target.put((byte) (1 << 4));
-                                Hpack.encodeInteger(target, tableEntry.getPosition(), 4);
-                                writeHuffmanEncodableValue(target, headerName, val);
-                            }
+                            target.put((byte) (1 << 4));
+                            Hpack.encodeInteger(target, -tableIndex, 4);
+                            writeHuffmanEncodableValue(target, headerName, val);
                         }
                     }
 
@@ -237,72 +258,172 @@ public class HpackEncoder {
     }
 
     private void addToDynamicTable(String headerName, String val) {
-        int pos = entryPositionCounter++;
-        DynamicTableEntry d = new DynamicTableEntry(headerName, val, -pos);
-        List<TableEntry> existing = dynamicTable.get(headerName);
-        if (existing == null) {
-            dynamicTable.put(headerName, existing = new ArrayList<>(1));
+        if (entryCount == entryNames.length) {
+            resizeTable(entryNames.length * 2);
         }
-        existing.add(d);
-        evictionQueue.add(d);
-        currentTableSize += d.size;
+        int slot = (firstEntry + entryCount) % entryNames.length;
+        int nameHash = spread(headerName.hashCode());
+        int fieldHash = fieldHash(nameHash, val);
+        entryNames[slot] = headerName;
+        entryValues[slot] = val;
+        entryNameHashes[slot] = nameHash;
+        entryFieldHashes[slot] = fieldHash;
+        insert(nameIndex, nameHash, slot);
+        insert(fieldIndex, fieldHash, slot);
+        entryCount++;
+        currentTableSize += entrySize(slot);
         runEvictionIfRequired();
-        if (entryPositionCounter == Integer.MAX_VALUE) {
-            //prevent rollover
-            preventPositionRollover();
-        }
-
-    }
-
-
-    private void preventPositionRollover() {
-        //if the position counter is about to roll over we iterate all the table entries
-        //and set their position to their actual position
-        for (Map.Entry<String, List<TableEntry>> entry : dynamicTable.entrySet()) {
-            for (TableEntry t : entry.getValue()) {
-                t.position = t.getPosition();
-            }
-        }
-        entryPositionCounter = 0;
     }
 
     private void runEvictionIfRequired() {
 
-        while (currentTableSize > maxTableSize) {
-            TableEntry next = evictionQueue.poll();
-            if (next == null) {
-                return;
-            }
-            currentTableSize -= next.size;
-            List<TableEntry> list = dynamicTable.get(next.name);
-            list.remove(next);
-            if (list.isEmpty()) {
-                dynamicTable.remove(next.name);
-            }
+        while (currentTableSize > maxTableSize && entryCount > 0) {
+            int slot = firstEntry;
+            currentTableSize -= entrySize(slot);
+            remove(nameIndex, entryNameHashes, slot);
+            remove(fieldIndex, entryFieldHashes, slot);
+            entryNames[slot] = null;
+            entryValues[slot] = null;
+            firstEntry = (firstEntry + 1) % entryNames.length;
+            entryCount--;
         }
     }
 
-    private TableEntry findInTable(String headerName, String value) {
+    /**
+     * Look up a header in the static and dynamic tables.
+     *
+     * @return The HPACK index of an entry with the same name and value, the
+     *         negated HPACK index of an entry with the same name if there is
+     *         no entry with the same name and value or zero if the name is not
+     *         in either table
+     */
+    private int findInTable(String headerName, String value) {
         TableEntry[] staticTable = ENCODING_STATIC_TABLE.get(headerName);
         if (staticTable != null) {
             for (TableEntry st : staticTable) {
-                if (st.value != null && st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+                if (st.value != null && st.value.equals(value)) {
+                    return st.getPosition();
                 }
             }
         }
-        List<TableEntry> dynamic = dynamicTable.get(headerName);
-        if (dynamic != null) {
-            for (TableEntry st : dynamic) {
-                if (st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
+        if (entryCount > 0) {
+            int nameHash = spread(headerName.hashCode());
+            int fieldHash = fieldHash(nameHash, value);
+            int mask = fieldIndex.length - 1;
+            for (int i = fieldHash & mask; fieldIndex[i] != 0; i = (i + 1) & mask) {
+                int slot = fieldIndex[i] - 1;
+                if (entryFieldHashes[slot] == fieldHash && entryValues[slot].equals(value) &&
+                        entryNames[slot].equals(headerName)) {
+                    return getPosition(slot);
+                }
+            }
+            if (staticTable != null) {
+                return -staticTable[0].getPosition();
+            }
+            for (int i = nameHash & mask; nameIndex[i] != 0; i = (i + 1) & mask) {
+                int slot = nameIndex[i] - 1;
+                if (entryNameHashes[slot] == nameHash && entryNames[slot].equals(headerName)) {
+                    return -getPosition(slot);
                 }
             }
         }
         if (staticTable != null) {
-            return staticTable[0];
+            return -staticTable[0].getPosition();
         }
-        return null;
+        return 0;
+    }
+
+    /*
+     * The newest entry is at index STATIC_TABLE_LENGTH + 1.
+     */
+    private int getPosition(int slot) {
+        int age = (firstEntry + entryCount - 1 - slot + entryNames.length) % entryNames.length;
+        return Hpack.STATIC_TABLE_LENGTH + 1 + age;
+    }
+
+    private int entrySize(int slot) {
+        return ENTRY_OVERHEAD + entryNames[slot].length() + entryValues[slot].length();
+    }
+
+    private static int fieldHash(int nameHash, String value) {
+        return spread(nameHash * 31 + value.hashCode());
+    }
+
+    // Mix in the high bits as only the low bits select the bucket
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static void insert(int[] index, int hash, int slot) {
+        int mask = index.length - 1;
+        int i = hash & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    /*
+     * Removes the entry for the given slot and then moves any following
+     * entries that would no longer be found back into the gap so that no
+     * deleted markers are required.
+     */
+    private static void remove(int[] index, int[] hashes, int slot) {
+        int mask = index.length - 1;
+        int gap = hashes[slot] & mask;
+        while (index[gap] != slot + 1) {
+            gap = (gap + 1) & mask;
+        }
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            int entry = index[i];
+            if (entry == 0) {
+                break;
+            }
+            int home = hashes[entry - 1] & mask;
+            // Move the entry unless its home bucket lies cyclically in (gap, i]
+            boolean inRange;
+            if (gap <= i) {
+                inRange = gap < home && home <= i;
+            } else {
+                inRange = gap < home || home <= i;
+            }
+            if (!inRange) {
+                index[gap] = entry;
+                gap = i;
+            }
+        }
+        index[gap] = 0;
+    }
+
+    private void allocateTable(int capacity) {
+        entryNames = new String[capacity];
+        entryValues = new String[capacity];
+        entryNameHashes = new int[capacity];
+        entryFieldHashes = new int[capacity];
+        // Keep the load factor of the hash tables at or below 0.5
+        int indexSize = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        nameIndex = new int[indexSize];
+        fieldIndex = new int[indexSize];
+    }
+
+    private void resizeTable(int capacity) {
+        String[] oldNames = entryNames;
+        String[] oldValues = entryValues;
+        int[] oldNameHashes = entryNameHashes;
+        int[] oldFieldHashes = entryFieldHashes;
+        allocateTable(capacity);
+        for (int i = 0; i < entryCount; i++) {
+            int oldSlot = (firstEntry + i) % oldNames.length;
+            entryNames[i] = oldNames[oldSlot];
+            entryValues[i] = oldValues[oldSlot];
+            entryNameHashes[i] = oldNameHashes[oldSlot];
+            entryFieldHashes[i] = oldFieldHashes[oldSlot];
+            insert(nameIndex, entryNameHashes[i], i);
+            insert(fieldIndex, entryFieldHashes[i], i);
+        }
+        firstEntry = 0;
     }
 
     public void setMaxTableSize(int newSize) {
@@ -340,7 +461,7 @@ public class HpackEncoder {
         final String name;
         final String value;
         final int size;
-        int position;
+        final int position;
 
         TableEntry(String name, String value, int position) {
             this.name = name;
@@ -358,18 +479,6 @@ public class HpackEncoder {
         }
     }
 
-    class DynamicTableEntry extends TableEntry {
-
-        DynamicTableEntry(String name, String value, int position) {
-            super(name, value, position);
-        }
-
-        @Override
-        public int getPosition() {
-            return super.getPosition() + entryPositionCounter + Hpack.STATIC_TABLE_LENGTH;
-        }
-    }
-
     public interface HpackHeaderFunction {
         boolean shouldUseIndexing(String header, String value);
 
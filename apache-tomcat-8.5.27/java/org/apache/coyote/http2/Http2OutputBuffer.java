@@ -28,6 +28,7 @@ import org.apache.tomcat.util.buf.ByteChunk;
 public class Http2OutputBuffer implements HttpOutputBuffer {
 
     private final Response coyoteResponse;
+    private final StreamOutputBuffer streamOutputBuffer;
     private HttpOutputBuffer next;
 
 
@@ -48,6 +49,7 @@ public class Http2OutputBuffer implements HttpOutputBuffer {
 
     public Http2OutputBuffer(Response coyoteResponse, StreamOutputBuffer streamOutputBuffer) {
         this.coyoteResponse = coyoteResponse;
+        this.streamOutputBuffer = streamOutputBuffer;
         this.next = streamOutputBuffer;
     }
 
@@ -55,7 +57,12 @@ public class Http2OutputBuffer implements HttpOutputBuffer {
     @Override
     public int doWrite(ByteBuffer chunk) throws IOException {
         if (!coyoteResponse.isCommitted()) {
-            coyoteResponse.sendHeaders();
+            // The HEADERS frame can be flushed with the first DATA frame
+            streamOutputBuffer.sendHeaders(chunk.hasRemaining());
+            int written = next.doWrite(chunk);
+            // The data may have been buffered rather than written
+            streamOutputBuffer.flushDeferredHeaders();
+            return written;
         }
         return next.doWrite(chunk);
     }
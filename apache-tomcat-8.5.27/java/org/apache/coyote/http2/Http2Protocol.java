@@ -26,9 +26,12 @@ import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import org.apache.coyote.Adapter;
+import org.apache.coyote.CompressionCache;
 import org.apache.coyote.CompressionConfig;
+import org.apache.coyote.ContentEncoder;
 import org.apache.coyote.Processor;
 import org.apache.coyote.Request;
 import org.apache.coyote.Response;
@@ -37,6 +40,7 @@ import org.apache.coyote.UpgradeToken;
 import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 
 public class Http2Protocol implements UpgradeProtocol {
@@ -51,6 +55,10 @@ public class Http2Protocol implements UpgradeProtocol {
     static final int DEFAULT_MAX_CONCURRENT_STREAM_EXECUTION = 20;
     // This default is defined by the HTTP/2 specification
     static final int DEFAULT_INITIAL_WINDOW_SIZE = (1 << 16) - 1;
+    static final boolean DEFAULT_COALESCE_FRAMES = true;
+    // Zero sends a WINDOW_UPDATE as soon as any data is consumed
+    static final int DEFAULT_WINDOW_UPDATE_THRESHOLD = 0;
+    static final int DEFAULT_MAX_WRITE_BATCH_SIZE = 64 * 1024;
 
     private static final String HTTP_UPGRADE_NAME = "h2c";
     private static final String ALPN_NAME = "h2";
@@ -73,8 +81,14 @@ public class Http2Protocol implements UpgradeProtocol {
     private int maxTrailerCount = Constants.DEFAULT_MAX_TRAILER_COUNT;
     private int maxTrailerSize = Constants.DEFAULT_MAX_TRAILER_SIZE;
     private boolean initiatePingDisabled = false;
+    // Output batching
+    private boolean coalesceFrames = DEFAULT_COALESCE_FRAMES;
+    private int windowUpdateThreshold = DEFAULT_WINDOW_UPDATE_THRESHOLD;
+    private int maxWriteBatchSize = DEFAULT_MAX_WRITE_BATCH_SIZE;
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
+    // Statistics for all connections
+    private final ConnectionStatistics connectionStatistics = new ConnectionStatistics(null);
 
     @Override
     public String getHttpUpgradeName(boolean isSSLEnabled) {
@@ -106,7 +120,7 @@ public class Http2Protocol implements UpgradeProtocol {
     @Override
     public InternalHttpUpgradeHandler getInternalUpgradeHandler(Adapter adapter,
             Request coyoteRequest) {
-        Http2UpgradeHandler result = new Http2UpgradeHandler(adapter, coyoteRequest);
+        Http2UpgradeHandler result = new Http2UpgradeHandler(this, adapter, coyoteRequest);
 
         result.setReadTimeout(getReadTimeout());
         result.setKeepAliveTimeout(getKeepAliveTimeout());
@@ -120,6 +134,9 @@ public class Http2Protocol implements UpgradeProtocol {
         result.setMaxTrailerCount(getMaxTrailerCount());
         result.setMaxTrailerSize(getMaxTrailerSize());
         result.setInitiatePingDisabled(initiatePingDisabled);
+        result.setCoalesceFrames(getCoalesceFrames());
+        result.setWindowUpdateThreshold(getWindowUpdateThreshold());
+        result.setMaxWriteBatchSize(getMaxWriteBatchSize());
         return result;
     }
 
@@ -280,6 +297,36 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public void setCoalesceFrames(boolean coalesceFrames) {
+        this.coalesceFrames = coalesceFrames;
+    }
+
+
+    public boolean getCoalesceFrames() {
+        return coalesceFrames;
+    }
+
+
+    public void setWindowUpdateThreshold(int windowUpdateThreshold) {
+        this.windowUpdateThreshold = windowUpdateThreshold;
+    }
+
+
+    public int getWindowUpdateThreshold() {
+        return windowUpdateThreshold;
+    }
+
+
+    public void setMaxWriteBatchSize(int maxWriteBatchSize) {
+        this.maxWriteBatchSize = maxWriteBatchSize;
+    }
+
+
+    public int getMaxWriteBatchSize() {
+        return maxWriteBatchSize;
+    }
+
+
     public void setCompression(String compression) {
         compressionConfig.setCompression(compression);
     }
@@ -321,7 +368,148 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public int getGzipLevel() {
+        return compressionConfig.getGzipLevel();
+    }
+    public void setGzipLevel(int gzipLevel) {
+        compressionConfig.setGzipLevel(gzipLevel);
+    }
+
+
+    public int getCompressionCacheSize() {
+        return compressionConfig.getCompressionCacheSize();
+    }
+    public void setCompressionCacheSize(int compressionCacheSize) {
+        compressionConfig.setCompressionCacheSize(compressionCacheSize);
+    }
+    protected CompressionCache getCompressionCache() {
+        return compressionConfig.getCompressionCache();
+    }
+
+
+    public int getDeflaterPoolSize() {
+        return compressionConfig.getDeflaterPoolSize();
+    }
+    public void setDeflaterPoolSize(int deflaterPoolSize) {
+        compressionConfig.setDeflaterPoolSize(deflaterPoolSize);
+    }
+    protected SynchronizedStack<Deflater> getDeflaterPool() {
+        return compressionConfig.getDeflaterPool();
+    }
+
+
+    public String getCompressionEncoders() {
+        return compressionConfig.getCompressionEncoders();
+    }
+    public void setCompressionEncoders(String compressionEncoders) {
+        compressionConfig.setCompressionEncoders(compressionEncoders);
+    }
+    protected ContentEncoder getContentEncoder(String encoding) {
+        return compressionConfig.getContentEncoder(encoding);
+    }
+
+
+    /**
+     * @param request  The request that triggered the response
+     * @param response The response to consider compressing
+     *
+     * @return {@code true} if gzip compression was enabled for the given
+     *         response, otherwise {@code false}
+     *
+     * @deprecated Use {@link #getCompressionEncoding(Request, Response)}. This
+     *             will be removed in Tomcat 9.
+     */
+    @Deprecated
     public boolean useCompression(Request request, Response response) {
         return compressionConfig.useCompression(request, response);
     }
+
+
+    public String getCompressionEncoding(Request request, Response response) {
+        return compressionConfig.getCompressionEncoding(request, response);
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+    ConnectionStatistics getConnectionStatistics() {
+        return connectionStatistics;
+    }
+
+
+    /**
+     * @return The number of HTTP/2 connections currently open
+     */
+    public int getConnectionCount() {
+        return connectionStatistics.getConnectionCount();
+    }
+
+
+    /**
+     * @return The number of HTTP/2 connections opened since the protocol was
+     *         created
+     */
+    public long getTotalConnectionCount() {
+        return connectionStatistics.getTotalConnectionCount();
+    }
+
+
+    /**
+     * @return The number of streams initiated by clients
+     */
+    public long getStreamCount() {
+        return connectionStatistics.getStreamCount();
+    }
+
+
+    /**
+     * @return The largest number of client initiated streams that have been
+     *         active at the same time on a single connection
+     */
+    public int getPeakConcurrentStreams() {
+        return connectionStatistics.getPeakConcurrentStreams();
+    }
+
+
+    /**
+     * @return The number of bytes of DATA frame payload received
+     */
+    public long getBytesReceived() {
+        return connectionStatistics.getBytesReceived();
+    }
+
+
+    /**
+     * @return The number of bytes of DATA frame payload sent
+     */
+    public long getBytesSent() {
+        return connectionStatistics.getBytesSent();
+    }
+
+
+    /**
+     * @return The total time, in milliseconds, that streams have spent waiting
+     *         for flow control window to write response data
+     */
+    public long getFlowControlStallTime() {
+        return connectionStatistics.getFlowControlStallTime();
+    }
+
+
+    /**
+     * @return The number of server push requests sent to clients
+     */
+    public long getPushCount() {
+        return connectionStatistics.getPushCount();
+    }
+
+
+    /**
+     * @return The number of server push requests that were not sent because
+     *         the resource had already been pushed on the connection or the
+     *         client's cache digest showed that the client already had it
+     */
+    public long getPushSkippedCount() {
+        return connectionStatistics.getPushSkippedCount();
+    }
 }
@@ -21,8 +21,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -30,7 +30,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -94,6 +94,10 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     private static final HeaderSink HEADER_SINK = new HeaderSink();
 
+    // Limits the memory used to track pushed resources. Once reached, further
+    // resources are pushed without being recorded.
+    private static final int MAX_PUSHED_RESOURCES = 1024;
+
     private final String connectionId;
 
     private final Http2Protocol protocol;
@@ -135,9 +139,27 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private final AtomicInteger nextLocalStreamId = new AtomicInteger(2);
     private final PingManager pingManager = new PingManager();
     private volatile int newStreamsSinceLastPrune = 0;
-    // Tracking for when the connection is blocked (windowSize < 1)
-    private final ConcurrentMap<AbstractStream,int[]> backLogStreams = new ConcurrentHashMap<>();
-    private long backLogSize = 0;
+    // Shares the connection window when it is blocked (windowSize < 1) and
+    // batches DATA frames
+    private final WriteScheduler writeScheduler = new WriteScheduler(this);
+
+    // Output batching
+    private boolean coalesceFrames = Http2Protocol.DEFAULT_COALESCE_FRAMES;
+    private int windowUpdateThreshold = Http2Protocol.DEFAULT_WINDOW_UPDATE_THRESHOLD;
+    // The thread, if any, that is currently reading frames from the client
+    private volatile Thread readThread = null;
+    // Set when frames have been written to the socket without being flushed
+    private volatile boolean flushDeferred = false;
+    // Bytes consumed for which no connection WINDOW_UPDATE has been sent.
+    // Guarded by the lock on the socket wrapper.
+    private int pendingWindowUpdate = 0;
+
+    private final ConnectionStatistics statistics;
+    // Methods and absolute URLs of the resources pushed on this connection
+    private final Set<String> pushedResources =
+            Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private volatile CacheDigest cacheDigest = null;
+    private final AtomicBoolean statisticsOpen = new AtomicBoolean(false);
 
     // Stream concurrency control
     private int maxConcurrentStreamExecution = Http2Protocol.DEFAULT_MAX_CONCURRENT_STREAM_EXECUTION;
@@ -165,6 +187,9 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         remoteSettings = new ConnectionSettingsRemote(connectionId);
         localSettings = new ConnectionSettingsLocal(connectionId);
 
+        statistics = new ConnectionStatistics(
+                protocol == null ? null : protocol.getConnectionStatistics());
+
         // Initial HTTP request becomes stream 1.
         if (coyoteRequest != null) {
             if (log.isDebugEnabled()) {
@@ -176,6 +201,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             maxActiveRemoteStreamId = 1;
             activeRemoteStreamCount.set(1);
             maxProcessedStreamId = 1;
+            statistics.streamStarted(1);
         }
     }
 
@@ -190,6 +216,9 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             return;
         }
 
+        statisticsOpen.set(true);
+        statistics.connectionOpened();
+
         // Init concurrency control if needed
         if (maxConcurrentStreamExecution < localSettings.getMaxConcurrentStreams()) {
             streamConcurrency = new AtomicInteger(0);
@@ -293,6 +322,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     @Override
     public void setSocketWrapper(SocketWrapperBase<?> wrapper) {
         this.socketWrapper = wrapper;
+        writeScheduler.setSocketWrapper(wrapper);
     }
 
 
@@ -326,22 +356,31 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     // There is data to read so use the read timeout while
                     // reading frames.
                    socketWrapper.setReadTimeout(getReadTimeout());
-                    while (true) {
-                        try {
-                            if (!parser.readFrame(false)) {
-                                break;
-                            }
-                        } catch (StreamException se) {
-                            // Stream errors are not fatal to the connection so
-                            // continue reading frames
-                            Stream stream = getStream(se.getStreamId(), false);
-                            if (stream == null) {
-                                sendStreamReset(se);
-                            } else {
-                                stream.close(se);
+                    // Frames written in response to the frames read (SETTINGS
+                    // and PING acknowledgements, WINDOW_UPDATEs, RSTs) are
+                    // flushed once all the available frames have been read
+                    readThread = Thread.currentThread();
+                    try {
+                        while (true) {
+                            try {
+                                if (!parser.readFrame(false)) {
+                                    break;
+                                }
+                            } catch (StreamException se) {
+                                // Stream errors are not fatal to the connection
+                                // so continue reading frames
+                                Stream stream = getStream(se.getStreamId(), false);
+                                if (stream == null) {
+                                    sendStreamReset(se);
+                                } else {
+                                    stream.close(se);
+                                }
                             }
                         }
+                    } finally {
+                        readThread = null;
                     }
+                    flushDeferredWrites();
                     // No more frames to read so switch to the keep-alive
                     // timeout.
                     socketWrapper.setReadTimeout(getKeepAliveTimeout());
@@ -423,7 +462,29 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     @Override
     public void destroy() {
-        // NO-OP
+        closeStatistics();
+    }
+
+
+    private void closeStatistics() {
+        if (statisticsOpen.compareAndSet(true, false)) {
+            statistics.connectionClosed();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.statistics", connectionId,
+                        Long.valueOf(statistics.getStreamCount()),
+                        Integer.valueOf(statistics.getPeakConcurrentStreams()),
+                        Long.valueOf(statistics.getBytesReceived()),
+                        Long.valueOf(statistics.getBytesSent()),
+                        Long.valueOf(statistics.getFlowControlStallTime()),
+                        Long.valueOf(statistics.getPushCount()),
+                        Long.valueOf(statistics.getPushSkippedCount())));
+            }
+        }
+    }
+
+
+    ConnectionStatistics getStatistics() {
+        return statistics;
     }
 
 
@@ -485,7 +546,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
         synchronized (socketWrapper) {
             socketWrapper.write(true, rstFrame, 0, rstFrame.length);
-            socketWrapper.flush(true);
+            flush(isReadThread());
         }
     }
 
@@ -525,8 +586,15 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         }
     }
 
-    void writeHeaders(Stream stream, int pushedStreamId, MimeHeaders mimeHeaders,
-            boolean endOfStream, int payloadSize) throws IOException {
+    /*
+     * If deferFlush is true, the caller may write a DATA frame for the stream
+     * before returning so the HEADERS frame is left to be flushed with it. The
+     * caller must call flushDeferredWrites() if it does not write one.
+     * Returns false if the headers were not written because the stream can no
+     * longer be written to.
+     */
+    boolean writeHeaders(Stream stream, int pushedStreamId, MimeHeaders mimeHeaders,
+            boolean endOfStream, int payloadSize, boolean deferFlush) throws IOException {
 
         if (log.isDebugEnabled()) {
             log.debug(sm.getString("upgradeHandler.writeHeaders", connectionId,
@@ -535,7 +603,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         }
 
         if (!stream.canWrite()) {
-            return;
+            return false;
         }
 
         byte[] header = new byte[9];
@@ -583,7 +651,9 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     try {
                         socketWrapper.write(true, header, 0, header.length);
                         socketWrapper.write(true, payload);
-                        socketWrapper.flush(true);
+                        if (state == State.COMPLETE) {
+                            flush(deferFlush && !endOfStream);
+                        }
                     } catch (IOException ioe) {
                         handleAppInitiatedIOException(ioe);
                     }
@@ -593,6 +663,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                 }
             }
         }
+        return true;
     }
 
 
@@ -624,18 +695,16 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             }
         }
         if (writeable) {
+            statistics.dataSent(len);
             ByteUtil.set31Bits(header, 5, stream.getIdentifier().intValue());
-            synchronized (socketWrapper) {
-                try {
-                    socketWrapper.write(true, header, 0, header.length);
-                    int orgLimit = data.limit();
-                    data.limit(data.position() + len);
-                    socketWrapper.write(true, data);
-                    data.limit(orgLimit);
-                    socketWrapper.flush(true);
-                } catch (IOException ioe) {
-                    handleAppInitiatedIOException(ioe);
-                }
+            int orgLimit = data.limit();
+            data.limit(data.position() + len);
+            try {
+                writeScheduler.writeData(header, data);
+            } catch (IOException ioe) {
+                handleAppInitiatedIOException(ioe);
+            } finally {
+                data.limit(orgLimit);
             }
         }
     }
@@ -667,17 +736,42 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             return;
         }
         synchronized (socketWrapper) {
+            int connectionIncrement = increment;
+            int streamIncrement = increment;
+            if (windowUpdateThreshold > 0) {
+                // Only acknowledge once a reasonable amount of data has been
+                // consumed. Never wait for more than half the window so the
+                // client is always able to keep sending.
+                pendingWindowUpdate += increment;
+                if (pendingWindowUpdate >= Math.min(windowUpdateThreshold,
+                        ConnectionSettingsBase.DEFAULT_INITIAL_WINDOW_SIZE / 2)) {
+                    connectionIncrement = pendingWindowUpdate;
+                    pendingWindowUpdate = 0;
+                } else {
+                    connectionIncrement = 0;
+                }
+                streamIncrement = stream.addPendingWindowUpdate(increment, Math.min(
+                        windowUpdateThreshold, localSettings.getInitialWindowSize() / 2));
+            }
+            if (connectionIncrement == 0 && streamIncrement == 0) {
+                return;
+            }
             // Build window update frame for stream 0
             byte[] frame = new byte[13];
             ByteUtil.setThreeBytes(frame, 0,  4);
             frame[3] = FrameType.WINDOW_UPDATE.getIdByte();
-            ByteUtil.set31Bits(frame, 9, increment);
-            socketWrapper.write(true, frame, 0, frame.length);
-            // Change stream Id and re-use
-            ByteUtil.set31Bits(frame, 5, stream.getIdentifier().intValue());
             try {
-                socketWrapper.write(true, frame, 0, frame.length);
-                socketWrapper.flush(true);
+                if (connectionIncrement > 0) {
+                    ByteUtil.set31Bits(frame, 9, connectionIncrement);
+                    socketWrapper.write(true, frame, 0, frame.length);
+                }
+                if (streamIncrement > 0) {
+                    // Change stream Id and increment and re-use
+                    ByteUtil.set31Bits(frame, 5, stream.getIdentifier().intValue());
+                    ByteUtil.set31Bits(frame, 9, streamIncrement);
+                    socketWrapper.write(true, frame, 0, frame.length);
+                }
+                flush(isReadThread());
             } catch (IOException ioe) {
                 if (applicationInitiated) {
                     handleAppInitiatedIOException(ioe);
@@ -689,6 +783,44 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    /*
+     * Must be called while holding the lock on the socket wrapper. Flushing is
+     * only deferred if the caller guarantees that flushDeferredWrites() will
+     * be called before anything waits for the deferred frames to be received.
+     */
+    private void flush(boolean defer) throws IOException {
+        if (defer && coalesceFrames) {
+            flushDeferred = true;
+        } else {
+            flushDeferred = false;
+            socketWrapper.flush(true);
+        }
+    }
+
+
+    /**
+     * Flush any frames that were written but not flushed in the expectation
+     * that further frames would follow shortly. Called before a thread blocks
+     * or returns control to the application.
+     *
+     * @throws IOException If an I/O error occurs while flushing
+     */
+    void flushDeferredWrites() throws IOException {
+        if (flushDeferred) {
+            synchronized (socketWrapper) {
+                if (flushDeferred) {
+                    flush(false);
+                }
+            }
+        }
+    }
+
+
+    private boolean isReadThread() {
+        return readThread == Thread.currentThread();
+    }
+
+
     private void processWrites() throws IOException {
         synchronized (socketWrapper) {
             if (socketWrapper.flush(false)) {
@@ -699,48 +831,42 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-    int reserveWindowSize(Stream stream, int reservation) throws IOException {
+    /**
+     * Reserve space in the connection flow control window for a DATA frame.
+     *
+     * @param stream      The stream that wishes to write
+     * @param reservation The number of bytes the stream wishes to write
+     * @param block       Should this method block until some window is
+     *                    available? If not, a stream that receives no
+     *                    allocation will be dispatched for write once it
+     *                    does.
+     *
+     * @return The number of bytes that may be written which will only be zero
+     *         for a non-blocking reservation
+     *
+     * @throws IOException If the stream can no longer be written to or the
+     *                     thread is interrupted while waiting
+     */
+    int reserveWindowSize(Stream stream, int reservation, boolean block) throws IOException {
         // Need to be holding the stream lock so releaseBacklog() can't notify
-        // this thread until after this thread enters wait()
+        // this thread until after this thread enters wait(). This also ensures
+        // a non-blocking stream is registered for dispatch before the backlog
+        // is released.
         int allocation = 0;
         synchronized (stream) {
             do {
                 synchronized (this) {
                     if (!stream.canWrite()) {
+                        writeScheduler.cancel(stream);
                         throw new CloseNowException(
                                 sm.getString("upgradeHandler.stream.notWritable",
                                         stream.getConnectionId(), stream.getIdentifier()));
                     }
                     long windowSize = getWindowSize();
-                    if (windowSize < 1 || backLogSize > 0) {
-                        // Has this stream been granted an allocation
-                        int[] value = backLogStreams.get(stream);
-                        if (value == null) {
-                            value = new int[] { reservation, 0 };
-                            backLogStreams.put(stream, value);
-                            backLogSize += reservation;
-                            // Add the parents as well
-                            AbstractStream parent = stream.getParentStream();
-                            while (parent != null && backLogStreams.putIfAbsent(parent, new int[2]) == null) {
-                                parent = parent.getParentStream();
-                            }
-                        } else {
-                            if (value[1] > 0) {
-                                allocation = value[1];
-                                decrementWindowSize(allocation);
-                                if (value[0] == 0) {
-                                    // The reservation has been fully allocated
-                                    // so this stream can be removed from the
-                                    // backlog.
-                                    backLogStreams.remove(stream);
-                                } else {
-                                    // This allocation has been used. Reset the
-                                    // allocation to zero. Leave the stream on
-                                    // the backlog as it still has more bytes to
-                                    // write.
-                                    value[1] = 0;
-                                }
-                            }
+                    if (windowSize < 1 || writeScheduler.getBacklogSize() > 0) {
+                        allocation = writeScheduler.claim(stream, reservation);
+                        if (allocation > 0) {
+                            decrementWindowSize(allocation);
                         }
                     } else if (windowSize < reservation) {
                         allocation = (int) windowSize;
@@ -751,9 +877,18 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     }
                 }
                 if (allocation == 0) {
+                    if (!block) {
+                        stream.registerWriteDispatch();
+                        return 0;
+                    }
+                    long start = System.nanoTime();
                     try {
                         stream.wait();
+                        statistics.flowControlStalled(System.nanoTime() - start);
                     } catch (InterruptedException e) {
+                        synchronized (this) {
+                            writeScheduler.cancel(stream);
+                        }
                         throw new IOException(sm.getString(
                                 "upgradeHandler.windowSizeReservationInterrupted", connectionId,
                                 stream.getIdentifier(), Integer.toString(reservation)), e);
@@ -770,47 +905,27 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                                        // to avoid deadlock
     @Override
     protected void incrementWindowSize(int increment) throws Http2Exception {
-        Set<AbstractStream> streamsToNotify = null;
+        List<AbstractStream> streamsToNotify = null;
 
         synchronized (this) {
             long windowSize = getWindowSize();
             if (windowSize < 1 && windowSize + increment > 0) {
-                streamsToNotify = releaseBackLog((int) (windowSize +increment));
+                streamsToNotify = writeScheduler.release((int) (windowSize +increment));
             }
             super.incrementWindowSize(increment);
         }
 
         if (streamsToNotify != null) {
             for (AbstractStream stream : streamsToNotify) {
-                synchronized (stream) {
-                    stream.notifyAll();
-                }
-            }
-        }
-    }
-
-
-    private synchronized Set<AbstractStream> releaseBackLog(int increment) {
-        Set<AbstractStream> result = new HashSet<>();
-        if (backLogSize < increment) {
-            // Can clear the whole backlog
-            result.addAll(backLogStreams.keySet());
-            backLogStreams.clear();
-            backLogSize = 0;
-        } else {
-            int leftToAllocate = increment;
-            while (leftToAllocate > 0) {
-                leftToAllocate = allocate(this, leftToAllocate);
-            }
-            for (Entry<AbstractStream,int[]> entry : backLogStreams.entrySet()) {
-                int allocation = entry.getValue()[1];
-                if (allocation > 0) {
-                    backLogSize -= allocation;
-                    result.add(entry.getKey());
+                if (stream instanceof Stream) {
+                    ((Stream) stream).notifyWritable();
+                } else {
+                    synchronized (stream) {
+                        stream.notifyAll();
+                    }
                 }
             }
         }
-        return result;
     }
 
 
@@ -822,82 +937,6 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-    private int allocate(AbstractStream stream, int allocation) {
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
-                    stream.getIdentifier(), Integer.toString(allocation)));
-        }
-        // Allocate to the specified stream
-        int[] value = backLogStreams.get(stream);
-        if (value[0] >= allocation) {
-            value[0] -= allocation;
-            value[1] += allocation;
-            return 0;
-        }
-
-        // There was some left over so allocate that to the children of the
-        // stream.
-        int leftToAllocate = allocation;
-        value[1] = value[0];
-        value[0] = 0;
-        leftToAllocate -= value[1];
-
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.left",
-                    getConnectionId(), stream.getIdentifier(), Integer.toString(leftToAllocate)));
-        }
-
-        // Recipients are children of the current stream that are in the
-        // backlog.
-        Set<AbstractStream> recipients = new HashSet<>();
-        recipients.addAll(stream.getChildStreams());
-        recipients.retainAll(backLogStreams.keySet());
-
-        // Loop until we run out of allocation or recipients
-        while (leftToAllocate > 0) {
-            if (recipients.size() == 0) {
-                backLogStreams.remove(stream);
-                return leftToAllocate;
-            }
-
-            int totalWeight = 0;
-            for (AbstractStream recipient : recipients) {
-                if (log.isDebugEnabled()) {
-                    log.debug(sm.getString("upgradeHandler.allocate.recipient",
-                            getConnectionId(), stream.getIdentifier(), recipient.getIdentifier(),
-                            Integer.toString(recipient.getWeight())));
-                }
-                totalWeight += recipient.getWeight();
-            }
-
-            // Use an Iterator so fully allocated children/recipients can be
-            // removed.
-            Iterator<AbstractStream> iter = recipients.iterator();
-            int allocated = 0;
-            while (iter.hasNext()) {
-                AbstractStream recipient = iter.next();
-                int share = leftToAllocate * recipient.getWeight() / totalWeight;
-                if (share == 0) {
-                    // This is to avoid rounding issues triggering an infinite
-                    // loop. It will cause a very slight over allocation but
-                    // HTTP/2 should cope with that.
-                    share = 1;
-                }
-                int remainder = allocate(recipient, share);
-                // Remove recipients that receive their full allocation so that
-                // they are excluded from the next allocation round.
-                if (remainder > 0) {
-                    iter.remove();
-                }
-                allocated += (share - remainder);
-            }
-            leftToAllocate -= allocated;
-        }
-
-        return 0;
-    }
-
-
     private Stream getStream(int streamId, boolean unknownIsError) throws ConnectionException {
         Integer key = Integer.valueOf(streamId);
         Stream result = streams.get(key);
@@ -939,6 +978,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
 
     private void close() {
         connectionState.set(ConnectionState.CLOSED);
+        closeStatistics();
         for (Stream stream : streams.values()) {
             // The connection is closing. Close the associated streams as no
             // longer required.
@@ -1100,14 +1140,59 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-    void push(Request request, Stream associatedStream) throws IOException {
+    /**
+     * Determine if a resource needs to be pushed to the client. A resource is
+     * not pushed if it has already been pushed on this connection with the
+     * same method or if the most recent cache digest sent by the client
+     * includes it. A resource is recorded as pushed once its PUSH_PROMISE has
+     * been written. The ETag of a resource is not known until the pushed
+     * response has been generated so digests that include validators are not
+     * used.
+     *
+     * @param pushKey The method and absolute URL of the resource
+     * @param url     The absolute URL of the resource
+     *
+     * @return <code>true</code> if the resource should be pushed
+     */
+    boolean isPushRequired(String pushKey, String url) {
+        boolean skip;
+        CacheDigest digest = cacheDigest;
+        if (digest != null && digest.contains(url, null)) {
+            skip = true;
+        } else {
+            skip = pushedResources.contains(pushKey);
+        }
+        if (skip) {
+            statistics.pushSkipped();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.pushSkipped", connectionId, url));
+            }
+        }
+        return !skip;
+    }
+
+
+    /*
+     * Records a resource for which a PUSH_PROMISE has been written.
+     */
+    void registerPush(String pushKey) {
+        if (pushedResources.size() < MAX_PUSHED_RESOURCES) {
+            pushedResources.add(pushKey);
+        }
+    }
+
+
+    void push(Request request, Stream associatedStream, String pushKey) throws IOException {
         Stream pushStream  = createLocalStream(request);
 
         // TODO: Is 1k the optimal value?
-        writeHeaders(associatedStream, pushStream.getIdentifier().intValue(),
-                request.getMimeHeaders(), false, 1024);
+        if (writeHeaders(associatedStream, pushStream.getIdentifier().intValue(),
+                request.getMimeHeaders(), false, 1024, false)) {
+            registerPush(pushKey);
+            statistics.pushed();
+        }
 
-        pushStream.sentPushPromise();
+        pushStream.sentPushPromise(pushKey);
 
         processStreamOnContainerThread(pushStream);
     }
@@ -1227,6 +1312,36 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    public void setCoalesceFrames(boolean coalesceFrames) {
+        this.coalesceFrames = coalesceFrames;
+    }
+
+
+    public boolean getCoalesceFrames() {
+        return coalesceFrames;
+    }
+
+
+    public void setWindowUpdateThreshold(int windowUpdateThreshold) {
+        this.windowUpdateThreshold = windowUpdateThreshold;
+    }
+
+
+    public int getWindowUpdateThreshold() {
+        return windowUpdateThreshold;
+    }
+
+
+    public void setMaxWriteBatchSize(int maxWriteBatchSize) {
+        writeScheduler.setMaxBatchSize(maxWriteBatchSize);
+    }
+
+
+    public int getMaxWriteBatchSize() {
+        return writeScheduler.getMaxBatchSize();
+    }
+
+
     // ----------------------------------------------- Http2Parser.Input methods
 
     @Override
@@ -1298,6 +1413,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         Stream stream = getStream(streamId, true);
         stream.checkState(FrameType.DATA);
         stream.receivedData(payloadSize);
+        statistics.dataReceived(payloadSize);
         return stream.getInputByteBuffer();
     }
 
@@ -1346,12 +1462,14 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             stream.checkState(FrameType.HEADERS);
             stream.receivedStartOfHeaders(headersEndStream);
             closeIdleStreams(streamId);
-            if (localSettings.getMaxConcurrentStreams() < activeRemoteStreamCount.incrementAndGet()) {
+            int concurrentStreams = activeRemoteStreamCount.incrementAndGet();
+            if (localSettings.getMaxConcurrentStreams() < concurrentStreams) {
                 activeRemoteStreamCount.decrementAndGet();
                 throw new StreamException(sm.getString("upgradeHandler.tooManyRemoteStreams",
                         Long.toString(localSettings.getMaxConcurrentStreams())),
                         Http2Error.REFUSED_STREAM, streamId);
             }
+            statistics.streamStarted(concurrentStreams);
             return stream;
         } else {
             if (log.isDebugEnabled()) {
@@ -1401,6 +1519,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         Stream stream = getStream(streamId, connectionState.get().isNewStreamAllowed());
         if (stream != null && stream.isActive()) {
             if (stream.receivedEndOfHeaders()) {
+                String digest = stream.getCoyoteRequest().getHeader("cache-digest");
+                if (digest != null) {
+                    // The most recent digest describes the client's cache
+                    cacheDigest = CacheDigest.parse(digest);
+                }
                 processStreamOnContainerThread(stream);
             }
         }
@@ -1418,6 +1541,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     public void reset(int streamId, long errorCode) throws Http2Exception  {
         Stream stream = getStream(streamId, true);
         stream.checkState(FrameType.RST);
+        String pushKey = stream.getPushKey();
+        if (pushKey != null && errorCode == Http2Error.REFUSED_STREAM.getCode()) {
+            // The client did not accept the push so it may be pushed again
+            pushedResources.remove(pushKey);
+        }
         stream.receiveReset(errorCode);
     }
 
@@ -1457,7 +1585,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
         } else {
             synchronized (socketWrapper) {
                 socketWrapper.write(true, SETTINGS_ACK, 0, SETTINGS_ACK.length);
-                socketWrapper.flush(true);
+                flush(isReadThread());
             }
         }
     }
@@ -1567,7 +1695,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                 synchronized (socketWrapper) {
                     socketWrapper.write(true, PING_ACK, 0, PING_ACK.length);
                     socketWrapper.write(true, payload, 0, payload.length);
-                    socketWrapper.flush(true);
+                    flush(isReadThread());
                 }
             }
         }
@@ -22,6 +22,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.Locale;
 
@@ -75,6 +76,14 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     private final StreamOutputBuffer streamOutputBuffer = new StreamOutputBuffer();
     private final Http2OutputBuffer http2OutputBuffer =
             new Http2OutputBuffer(coyoteResponse, streamOutputBuffer);
+    // Bytes consumed for which no WINDOW_UPDATE has been sent. Guarded by the
+    // lock on the connection's socket wrapper.
+    private int pendingWindowUpdate = 0;
+    // Set when a non-blocking write could not reserve any flow control window.
+    // Guarded by the lock on this stream.
+    private boolean writeDispatchPending = false;
+    // Identifies the pushed resource if this stream was created for a push
+    private volatile String pushKey = null;
 
 
     public Stream(Integer identifier, Http2UpgradeHandler handler) {
@@ -171,10 +180,9 @@ public class Stream extends AbstractStream implements HeaderEmitter {
         if (inputBuffer != null) {
             inputBuffer.receiveReset();
         }
-        // Writes wait on Stream so we can notify directly
-        synchronized (this) {
-            this.notifyAll();
-        }
+        // Writes wait on Stream so we can notify directly. Non-blocking writes
+        // are dispatched so the application sees the reset.
+        notifyWritable();
     }
 
 
@@ -183,17 +191,66 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    @SuppressWarnings("sync-override") // Dispatch needs to be outside sync
+                                       // to avoid deadlock
     @Override
-    protected synchronized void incrementWindowSize(int windowSizeIncrement) throws Http2Exception {
+    protected void incrementWindowSize(int windowSizeIncrement) throws Http2Exception {
         // If this is zero then any thread that has been trying to write for
-        // this stream will be waiting. Notify that thread it can continue. Use
-        // notify all even though only one thread is waiting to be on the safe
-        // side.
-        boolean notify = getWindowSize() < 1;
-        super.incrementWindowSize(windowSizeIncrement);
-        if (notify && getWindowSize() > 0) {
+        // this stream will be waiting. Notify that thread it can continue.
+        boolean notify;
+        synchronized (this) {
+            notify = getWindowSize() < 1;
+            super.incrementWindowSize(windowSizeIncrement);
+            notify = notify && getWindowSize() > 0;
+        }
+        if (notify) {
+            notifyWritable();
+        }
+    }
+
+
+    /*
+     * Called when the stream or the connection flow control window has been
+     * increased, or the stream has been reset, while this stream may be unable
+     * to write. A blocking write waits on this stream so it is notified
+     * (notify all is used even though only one thread is waiting to be on the
+     * safe side). A non-blocking write returned without waiting so the stream
+     * is dispatched to a container thread to complete the write. The dispatch
+     * is made without holding the stream lock as it may need to wait for the
+     * StreamProcessor.
+     */
+    final void notifyWritable() {
+        synchronized (this) {
             notifyAll();
+            if (!writeDispatchPending) {
+                return;
+            }
+            writeDispatchPending = false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("stream.writeDispatch", getConnectionId(), getIdentifier()));
         }
+        coyoteResponse.action(ActionCode.DISPATCH_WRITE, null);
+        // This thread is processing the connection so the dispatch has to be
+        // executed explicitly
+        coyoteResponse.action(ActionCode.DISPATCH_EXECUTE, null);
+    }
+
+
+    /*
+     * Must be called while holding the lock on this stream.
+     */
+    void registerWriteDispatch() {
+        writeDispatchPending = true;
+    }
+
+
+    /*
+     * Returns window that was reserved but could not be used because the
+     * connection flow control window was exhausted.
+     */
+    private synchronized void returnWindowSize(int unused) {
+        setWindowSize(getWindowSize() + unused);
     }
 
 
@@ -206,8 +263,11 @@ public class Stream extends AbstractStream implements HeaderEmitter {
             }
             try {
                 if (block) {
+                    long start = System.nanoTime();
                     wait();
+                    handler.getStatistics().flowControlStalled(System.nanoTime() - start);
                 } else {
+                    registerWriteDispatch();
                     return 0;
                 }
             } catch (InterruptedException e) {
@@ -408,7 +468,8 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     void writeHeaders() throws IOException {
         boolean endOfStream = streamOutputBuffer.hasNoBody();
         // TODO: Is 1k the optimal value?
-        handler.writeHeaders(this, 0, coyoteResponse.getMimeHeaders(), endOfStream, 1024);
+        handler.writeHeaders(this, 0, coyoteResponse.getMimeHeaders(), endOfStream, 1024,
+                streamOutputBuffer.dataFollowsHeaders);
     }
 
 
@@ -419,7 +480,7 @@ public class Stream extends AbstractStream implements HeaderEmitter {
 
     void writeAck() throws IOException {
         // TODO: Is 64 too big? Just the status header with compression
-        handler.writeHeaders(this, 0, ACK_HEADERS, false, 64);
+        handler.writeHeaders(this, 0, ACK_HEADERS, false, 64, false);
     }
 
 
@@ -523,11 +584,17 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
-    void sentPushPromise() {
+    void sentPushPromise(String pushKey) {
+        this.pushKey = pushKey;
         state.sentPushPromise();
     }
 
 
+    String getPushKey() {
+        return pushKey;
+    }
+
+
     boolean isActive() {
         return state.isActive();
     }
@@ -553,6 +620,26 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    /*
+     * Must be called while holding the lock on the connection's socket
+     * wrapper. Returns the increment to send to the client, if any.
+     */
+    int addPendingWindowUpdate(int increment, int threshold) {
+        if (isInputFinished()) {
+            // The client won't send any more data on this stream
+            pendingWindowUpdate = 0;
+            return 0;
+        }
+        pendingWindowUpdate += increment;
+        if (pendingWindowUpdate < threshold) {
+            return 0;
+        }
+        int result = pendingWindowUpdate;
+        pendingWindowUpdate = 0;
+        return result;
+    }
+
+
     void close(Http2Exception http2Exception) {
         if (http2Exception instanceof StreamException) {
             try {
@@ -596,23 +683,32 @@ public class Stream extends AbstractStream implements HeaderEmitter {
 
         // Authority needs to include the port only if a non-standard port is
         // being used.
+        String authority;
         if (!(request.scheme().equals("http") && request.getServerPort() == 80) &&
                 !(request.scheme().equals("https") && request.getServerPort() == 443)) {
-            request.getMimeHeaders().addValue(":authority").setString(
-                    request.serverName().getString() + ":" + request.getServerPort());
+            authority = request.serverName().getString() + ":" + request.getServerPort();
         } else {
-            request.getMimeHeaders().addValue(":authority").duplicate(request.serverName());
+            authority = request.serverName().getString();
         }
+        request.getMimeHeaders().addValue(":authority").setString(authority);
 
-        push(handler, request, this);
+        String url = request.scheme().toString() + "://" + authority + path.toString();
+        // HEAD and GET of the same URL are different pushes
+        String pushKey = request.method().toString() + " " + url;
+        if (!handler.isPushRequired(pushKey, url)) {
+            return;
+        }
+
+        push(handler, request, this, pushKey);
     }
 
 
     private static void push(final Http2UpgradeHandler handler, final Request request,
-            final Stream stream) throws IOException {
+            final Stream stream, final String pushKey) throws IOException {
         if (org.apache.coyote.Constants.IS_SECURITY_ENABLED) {
             try {
-                AccessController.doPrivileged(new PrivilegedPush(handler, request, stream));
+                AccessController.doPrivileged(
+                        new PrivilegedPush(handler, request, stream, pushKey));
             } catch (PrivilegedActionException ex) {
                 Exception e = ex.getException();
                 if (e instanceof IOException) {
@@ -623,7 +719,7 @@ public class Stream extends AbstractStream implements HeaderEmitter {
             }
 
         } else {
-            handler.push(request, stream);
+            handler.push(request, stream, pushKey);
         }
     }
 
@@ -633,17 +729,19 @@ public class Stream extends AbstractStream implements HeaderEmitter {
         private final Http2UpgradeHandler handler;
         private final Request request;
         private final Stream stream;
+        private final String pushKey;
 
         public PrivilegedPush(Http2UpgradeHandler handler, Request request,
-                Stream stream) {
+                Stream stream, String pushKey) {
             this.handler = handler;
             this.request = request;
             this.stream = stream;
+            this.pushKey = pushKey;
         }
 
         @Override
         public Void run() throws IOException {
-            handler.push(request, stream);
+            handler.push(request, stream, pushKey);
             return null;
         }
     }
@@ -655,7 +753,14 @@ public class Stream extends AbstractStream implements HeaderEmitter {
         private volatile long written = 0;
         private volatile boolean closed = false;
         private volatile boolean endOfStreamSent = false;
-        private volatile boolean writeInterest = false;
+        // Data from non-blocking writes that did not fit in the buffer because
+        // the flow control window was exhausted. Written, in order, once the
+        // window is increased.
+        private final ArrayDeque<ByteBuffer> bufferedWrites = new ArrayDeque<>();
+        // Set when a non-blocking flush was unable to write all the data
+        private volatile boolean dataLeft = false;
+        // Only accessed by the thread committing the response
+        private boolean dataFollowsHeaders = false;
 
         /* The write methods are synchronized to ensure that only one thread at
          * a time is able to access the buffer. Without this protection, a
@@ -698,6 +803,13 @@ public class Stream extends AbstractStream implements HeaderEmitter {
                 throw new IllegalStateException(
                         sm.getString("stream.closed", getConnectionId(), getIdentifier()));
             }
+            if (!bufferedWrites.isEmpty()) {
+                // Preserve the order of the data
+                int len = chunk.remaining();
+                addToBufferedWrites(chunk);
+                written += len;
+                return len;
+            }
             if (!coyoteResponse.isCommitted()) {
                 coyoteResponse.sendHeaders();
             }
@@ -713,6 +825,11 @@ public class Stream extends AbstractStream implements HeaderEmitter {
                     // Only flush if we have more data to write and the buffer
                     // is full
                     if (flush(true, coyoteResponse.getWriteListener() == null)) {
+                        // Non-blocking and the flow control window is
+                        // exhausted. Hold on to the remaining data rather than
+                        // waiting for the client.
+                        offset += chunk.remaining();
+                        addToBufferedWrites(chunk);
                         break;
                     }
                 }
@@ -721,6 +838,36 @@ public class Stream extends AbstractStream implements HeaderEmitter {
             return offset;
         }
 
+        /*
+         * Commits the response ahead of a write of body data. If there is data
+         * the HEADERS frame is not flushed on its own as it may be flushed
+         * with the first DATA frame. Callers must call flushDeferredHeaders()
+         * once the data has been written.
+         */
+        void sendHeaders(boolean dataFollows) {
+            dataFollowsHeaders = dataFollows;
+            try {
+                coyoteResponse.sendHeaders();
+            } finally {
+                dataFollowsHeaders = false;
+            }
+        }
+
+        /*
+         * Flushes the HEADERS frame if sendHeaders() held it back and no DATA
+         * frame has been written since. A NO-OP otherwise.
+         */
+        void flushDeferredHeaders() throws IOException {
+            handler.flushDeferredWrites();
+        }
+
+        private void addToBufferedWrites(ByteBuffer chunk) {
+            ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+            copy.put(chunk);
+            copy.flip();
+            bufferedWrites.add(copy);
+        }
+
         public synchronized boolean flush(boolean block) throws IOException {
             return flush(false, block);
         }
@@ -732,30 +879,96 @@ public class Stream extends AbstractStream implements HeaderEmitter {
                         getIdentifier(), Integer.toString(buffer.position()),
                         Boolean.toString(writeInProgress), Boolean.toString(closed)));
             }
-            if (buffer.position() == 0) {
+            if (buffer.position() == 0 && bufferedWrites.isEmpty()) {
                 if (closed && !endOfStreamSent) {
                     // Handling this special case here is simpler than trying
                     // to modify the following code to handle it.
                     handler.writeBody(Stream.this, buffer, 0, true);
+                } else {
+                    // Buffer is empty but a HEADERS frame may be waiting
+                    handler.flushDeferredWrites();
                 }
-                // Buffer is empty. Nothing to do.
                 return false;
             }
+            do {
+                transferBufferedWrites();
+                if (writeBuffer(writeInProgress, block)) {
+                    dataLeft = true;
+                    return true;
+                }
+            } while (!bufferedWrites.isEmpty());
+            dataLeft = false;
+            return false;
+        }
+
+        /*
+         * Moves as much of the held back data as will fit into the buffer.
+         */
+        private void transferBufferedWrites() {
+            ByteBuffer next;
+            while (buffer.hasRemaining() && (next = bufferedWrites.peek()) != null) {
+                int limit = next.limit();
+                if (next.remaining() > buffer.remaining()) {
+                    next.limit(next.position() + buffer.remaining());
+                }
+                buffer.put(next);
+                next.limit(limit);
+                if (!next.hasRemaining()) {
+                    bufferedWrites.poll();
+                }
+            }
+        }
+
+        /*
+         * Returns true if a non-blocking write was unable to write all of the
+         * buffer.
+         */
+        private boolean writeBuffer(boolean writeInProgress, boolean block) throws IOException {
             buffer.flip();
             int left = buffer.remaining();
             while (left > 0) {
-                int streamReservation  = reserveWindowSize(left, block);
-                if (streamReservation == 0) {
-                    // Must be non-blocking
-                    buffer.compact();
-                    return true;
+                int streamReservation;
+                if (block) {
+                    if (getWindowSize() < 1) {
+                        // Any frames held back for this stream have to be
+                        // sent before waiting for the client. This has to
+                        // happen without holding the stream lock.
+                        handler.flushDeferredWrites();
+                    }
+                    streamReservation = reserveWindowSize(left, true);
+                } else {
+                    streamReservation = reserveWindowSize(left, false);
+                    if (streamReservation == 0) {
+                        // The stream has been registered for dispatch. Any
+                        // frames held back for this stream have to be sent
+                        // so the client is able to increase the window.
+                        handler.flushDeferredWrites();
+                        buffer.compact();
+                        return true;
+                    }
                 }
                 while (streamReservation > 0) {
-                    int connectionReservation =
-                                handler.reserveWindowSize(Stream.this, streamReservation);
+                    if (handler.getWindowSize() < 1) {
+                        // Likely to wait for the connection window. If
+                        // another stream takes the remaining window between
+                        // here and the reservation, that stream's DATA frame
+                        // will flush any frames held back.
+                        handler.flushDeferredWrites();
+                    }
+                    int connectionReservation = handler.reserveWindowSize(
+                            Stream.this, streamReservation, block);
+                    if (connectionReservation == 0) {
+                        // Non-blocking. The stream has joined the backlog for
+                        // the connection window and will be dispatched when it
+                        // receives an allocation.
+                        returnWindowSize(streamReservation);
+                        buffer.compact();
+                        return true;
+                    }
                     // Do the write
                     handler.writeBody(Stream.this, buffer, connectionReservation,
-                            !writeInProgress && closed && left == connectionReservation);
+                            !writeInProgress && closed && bufferedWrites.isEmpty() &&
+                            left == connectionReservation);
                     streamReservation -= connectionReservation;
                     left -= connectionReservation;
                 }
@@ -764,22 +977,15 @@ public class Stream extends AbstractStream implements HeaderEmitter {
             return false;
         }
 
-        synchronized boolean isReady() {
-            if (getWindowSize() > 0 && handler.getWindowSize() > 0) {
-                return true;
-            } else {
-                writeInterest = true;
-                return false;
-            }
-        }
-
-        synchronized boolean isRegisteredForWrite() {
-            if (writeInterest) {
-                writeInterest = false;
-                return true;
-            } else {
-                return false;
-            }
+        /*
+         * Only returns false if a non-blocking write has been unable to write
+         * all of its data. In that case the stream will be dispatched for write
+         * once the flow control window has been increased. Returning false
+         * just because the flow control window is currently exhausted would
+         * leave nothing to trigger that dispatch.
+         */
+        boolean isReady() {
+            return !dataLeft;
         }
 
         @Override
@@ -807,7 +1013,7 @@ public class Stream extends AbstractStream implements HeaderEmitter {
 
         @Override
         public void flush() throws IOException {
-            flush(true);
+            flush(coyoteResponse.getWriteListener() == null);
         }
     }
 
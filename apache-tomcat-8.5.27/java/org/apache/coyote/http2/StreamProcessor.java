@@ -26,6 +26,7 @@ import org.apache.coyote.ContainerThreadMarker;
 import org.apache.coyote.ErrorState;
 import org.apache.coyote.Request;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.OutputFilter;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
@@ -134,10 +135,24 @@ class StreamProcessor extends AbstractProcessor {
             headers.addValue("date").setString(FastHttpDateFormat.getCurrentDate());
         }
 
-        if (protocol != null && protocol.useCompression(coyoteRequest, coyoteResponse)) {
+        String compressionEncoding = null;
+        if (protocol != null) {
+            compressionEncoding = protocol.getCompressionEncoding(coyoteRequest, coyoteResponse);
+        }
+        if ("gzip".equals(compressionEncoding)) {
             // Enable compression. Headers will have been set. Need to configure
             // output filter at this point.
-            stream.addOutputFilter(new GzipOutputFilter());
+            GzipOutputFilter gzipOutputFilter = new GzipOutputFilter();
+            gzipOutputFilter.setLevel(protocol.getGzipLevel());
+            gzipOutputFilter.setCache(protocol.getCompressionCache());
+            gzipOutputFilter.setDeflaterPool(protocol.getDeflaterPool());
+            gzipOutputFilter.setResponse(coyoteResponse);
+            stream.addOutputFilter(gzipOutputFilter);
+        } else if (compressionEncoding != null) {
+            OutputFilter encoderFilter =
+                    protocol.getContentEncoder(compressionEncoding).createOutputFilter();
+            encoderFilter.setResponse(coyoteResponse);
+            stream.addOutputFilter(encoderFilter);
         }
     }
 
@@ -228,15 +243,18 @@ class StreamProcessor extends AbstractProcessor {
     @Override
     protected final void executeDispatches() {
         Iterator<DispatchType> dispatches = getIteratorAndClearDispatches();
-        synchronized (this) {
-            /*
-             * TODO Check if this sync is necessary.
-             *      Compare with superrclass that uses SocketWrapper
-             */
-            while (dispatches != null && dispatches.hasNext()) {
-                DispatchType dispatchType = dispatches.next();
-                processSocketEvent(dispatchType.getSocketStatus(), false);
-            }
+        /*
+         * Dispatch to a container thread rather than processing on this
+         * thread. This is usually the thread processing the connection which
+         * holds the lock on the socket wrapper. Processing the stream here
+         * would block the connection and lock the StreamProcessor after the
+         * socket wrapper, the opposite order to container threads. It also
+         * allows the streams released by a single window update to progress
+         * concurrently.
+         */
+        while (dispatches != null && dispatches.hasNext()) {
+            DispatchType dispatchType = dispatches.next();
+            processSocketEvent(dispatchType.getSocketStatus(), true);
         }
     }
 
@@ -0,0 +1,421 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.net.SocketWrapperBase;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Schedules the writing of DATA frames for a single HTTP/2 connection.
+ * <p>
+ * When the connection flow control window is exhausted, streams that want to
+ * write join a backlog. As the client opens the window, it is shared between
+ * the streams in the backlog using weighted fair queuing over the priority
+ * tree. A stream receives window until its reservation is met, then any
+ * remainder is shared between its children in proportion to their weights.
+ * Allocations too small to be shared proportionally are given to the child
+ * with the lowest virtual time so that the weights are respected over a series
+ * of small window updates. The methods that manage the backlog must be called
+ * while holding the lock on the connection ({@link Http2UpgradeHandler}) which
+ * also guards the connection flow control window.
+ * <p>
+ * DATA frames are queued and written by whichever thread obtains the socket
+ * lock. That thread writes every queued frame, up to a configurable number of
+ * bytes, and flushes once. Any control frames written without a flush since
+ * the last flush are sent with the batch. Threads whose frames were written by
+ * another thread return as soon as they obtain the lock, so concurrent streams
+ * share socket writes rather than each performing its own write and flush.
+ */
+final class WriteScheduler {
+
+    private static final Log log = LogFactory.getLog(WriteScheduler.class);
+    private static final StringManager sm = StringManager.getManager(WriteScheduler.class);
+
+    // Virtual time is advanced by (bytes * WEIGHT_SCALE / weight)
+    private static final int WEIGHT_SCALE = 256;
+
+    private final AbstractStream connection;
+
+    // Guarded by the lock on the connection
+    private final Map<AbstractStream,BacklogEntry> backlog = new HashMap<>();
+    private long backlogSize = 0;
+
+    private volatile SocketWrapperBase<?> socketWrapper;
+    private final Queue<DataFrame> pendingFrames = new ConcurrentLinkedQueue<>();
+    // Guarded by the lock on the socket wrapper
+    private final ArrayDeque<DataFrame> batch = new ArrayDeque<>();
+    // Bytes written per batch. Limits how long one thread writes for others.
+    private volatile int maxBatchSize = Http2Protocol.DEFAULT_MAX_WRITE_BATCH_SIZE;
+
+
+    WriteScheduler(AbstractStream connection) {
+        this.connection = connection;
+    }
+
+
+    void setSocketWrapper(SocketWrapperBase<?> socketWrapper) {
+        this.socketWrapper = socketWrapper;
+    }
+
+
+    void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+
+    // ---------------------------------------------------------- Flow control
+
+    /**
+     * @return The number of bytes that streams in the backlog are waiting to
+     *         be allocated
+     */
+    long getBacklogSize() {
+        return backlogSize;
+    }
+
+
+    /**
+     * Request an allocation from the connection flow control window for a
+     * stream that is blocked. The first call adds the stream to the backlog.
+     * Subsequent calls return any window that has been allocated to the
+     * stream since the last call.
+     *
+     * @param stream      The stream requesting an allocation
+     * @param reservation The number of bytes the stream wishes to write
+     *
+     * @return The allocation which will be zero if the stream must wait for
+     *         the client to increase the connection window
+     */
+    int claim(AbstractStream stream, int reservation) {
+        BacklogEntry entry = backlog.get(stream);
+        if (entry == null) {
+            entry = new BacklogEntry();
+            entry.pending = reservation;
+            backlogSize += reservation;
+            addEntry(stream, entry);
+            return 0;
+        }
+        // The stream may have been moved in the priority tree while waiting
+        addParents(stream);
+        int allocation = entry.allocated;
+        if (allocation > 0) {
+            entry.allocated = 0;
+            if (entry.pending == 0) {
+                // The reservation has been fully allocated so this stream can
+                // be removed from the backlog.
+                backlog.remove(stream);
+            }
+        }
+        return allocation;
+    }
+
+
+    /**
+     * Remove a stream that will no longer write from the backlog.
+     *
+     * @param stream The stream to remove
+     */
+    void cancel(AbstractStream stream) {
+        BacklogEntry entry = backlog.remove(stream);
+        if (entry != null) {
+            backlogSize -= entry.pending;
+        }
+    }
+
+
+    /**
+     * Share an increase in the connection flow control window between the
+     * streams in the backlog.
+     *
+     * @param increment The size of the connection window available for
+     *                  allocation
+     *
+     * @return The streams that have received an allocation and need to be
+     *         notified
+     */
+    List<AbstractStream> release(int increment) {
+        List<AbstractStream> result = new ArrayList<>();
+        if (backlogSize < increment) {
+            // Can clear the whole backlog
+            result.addAll(backlog.keySet());
+            backlog.clear();
+            backlogSize = 0;
+        } else {
+            int leftToAllocate = increment;
+            while (leftToAllocate > 0) {
+                int left = allocate(connection, leftToAllocate);
+                if (left == leftToAllocate) {
+                    // Nothing in the backlog can be reached from the root of
+                    // the priority tree
+                    break;
+                }
+                leftToAllocate = left;
+            }
+            for (Map.Entry<AbstractStream,BacklogEntry> entry : backlog.entrySet()) {
+                if (entry.getValue().allocated > 0) {
+                    result.add(entry.getKey());
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /*
+     * Allocates to the given stream and then, if there is any allocation left,
+     * to the children of the stream that are in the backlog.
+     *
+     * Returns the allocation that could not be used.
+     */
+    private int allocate(AbstractStream stream, int allocation) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("writeScheduler.allocate.debug", connection.getConnectionId(),
+                    stream.getIdentifier(), Integer.toString(allocation)));
+        }
+        BacklogEntry entry = backlog.get(stream);
+        if (entry == null) {
+            return allocation;
+        }
+
+        int own = Math.min(entry.pending, allocation);
+        entry.pending -= own;
+        entry.allocated += own;
+        backlogSize -= own;
+        int leftToAllocate = allocation - own;
+        if (leftToAllocate == 0) {
+            return 0;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("writeScheduler.allocate.left", connection.getConnectionId(),
+                    stream.getIdentifier(), Integer.toString(leftToAllocate)));
+        }
+
+        // Recipients are children of the current stream that are in the
+        // backlog.
+        List<AbstractStream> recipients = new ArrayList<>();
+        for (AbstractStream child : stream.getChildStreams()) {
+            if (backlog.containsKey(child)) {
+                recipients.add(child);
+            }
+        }
+
+        // Loop until we run out of allocation or recipients
+        while (leftToAllocate > 0 && recipients.size() > 0) {
+            int totalWeight = 0;
+            for (AbstractStream recipient : recipients) {
+                totalWeight += recipient.getWeight();
+            }
+
+            if (leftToAllocate < totalWeight) {
+                // Too little to share proportionally. Give it to the
+                // recipient that is furthest behind.
+                AbstractStream recipient = recipients.get(0);
+                long minTime = backlog.get(recipient).virtualTime;
+                for (int i = 1; i < recipients.size(); i++) {
+                    AbstractStream candidate = recipients.get(i);
+                    long time = backlog.get(candidate).virtualTime;
+                    if (time < minTime) {
+                        recipient = candidate;
+                        minTime = time;
+                    }
+                }
+                int share = Math.max(1, leftToAllocate * recipient.getWeight() / totalWeight);
+                leftToAllocate -= allocateToChild(recipient, share, recipients);
+            } else {
+                int allocated = 0;
+                // Iterate over a copy so fully allocated recipients can be
+                // removed and are excluded from the next allocation round.
+                for (AbstractStream recipient : recipients.toArray(
+                        new AbstractStream[recipients.size()])) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("writeScheduler.allocate.recipient",
+                                connection.getConnectionId(), stream.getIdentifier(),
+                                recipient.getIdentifier(),
+                                Integer.toString(recipient.getWeight())));
+                    }
+                    int share = (int) ((long) leftToAllocate * recipient.getWeight() / totalWeight);
+                    allocated += allocateToChild(recipient, share, recipients);
+                }
+                leftToAllocate -= allocated;
+            }
+        }
+
+        if (recipients.size() == 0 && entry.pending == 0 && entry.allocated == 0) {
+            // Nothing left to allocate to in this part of the tree
+            backlog.remove(stream);
+        }
+        return leftToAllocate;
+    }
+
+
+    /*
+     * Returns the allocation that was used. Recipients that can not use their
+     * full share are removed from the list of recipients.
+     */
+    private int allocateToChild(AbstractStream recipient, int share,
+            List<AbstractStream> recipients) {
+        BacklogEntry entry = backlog.get(recipient);
+        int remainder = allocate(recipient, share);
+        int used = share - remainder;
+        entry.virtualTime += (long) used * WEIGHT_SCALE / recipient.getWeight();
+        if (remainder > 0) {
+            recipients.remove(recipient);
+        }
+        return used;
+    }
+
+
+    private void addEntry(AbstractStream stream, BacklogEntry entry) {
+        AbstractStream parent = stream.getParentStream();
+        if (parent != null) {
+            // Start level with the siblings that are already waiting so
+            // this stream does not receive more than its share
+            entry.virtualTime = getMinVirtualTime(parent);
+        }
+        backlog.put(stream, entry);
+        addParents(stream);
+    }
+
+
+    private void addParents(AbstractStream stream) {
+        AbstractStream parent = stream.getParentStream();
+        while (parent != null && !backlog.containsKey(parent)) {
+            BacklogEntry entry = new BacklogEntry();
+            AbstractStream grandParent = parent.getParentStream();
+            if (grandParent != null) {
+                entry.virtualTime = getMinVirtualTime(grandParent);
+            }
+            backlog.put(parent, entry);
+            parent = grandParent;
+        }
+    }
+
+
+    private long getMinVirtualTime(AbstractStream parent) {
+        long result = Long.MAX_VALUE;
+        for (AbstractStream child : parent.getChildStreams()) {
+            BacklogEntry entry = backlog.get(child);
+            if (entry != null && entry.virtualTime < result) {
+                result = entry.virtualTime;
+            }
+        }
+        return result == Long.MAX_VALUE ? 0 : result;
+    }
+
+
+    // ---------------------------------------------------------------- Writes
+
+    /**
+     * Write a DATA frame. The frame may be written by another thread along
+     * with its own frames but, either way, it will have been written and
+     * flushed when this method returns.
+     *
+     * @param header  The frame header
+     * @param payload The frame payload. The position will be advanced to the
+     *                limit.
+     *
+     * @throws IOException If an I/O error occurred writing the frame
+     */
+    void writeData(byte[] header, ByteBuffer payload) throws IOException {
+        DataFrame frame = new DataFrame(header, payload);
+        pendingFrames.offer(frame);
+        synchronized (socketWrapper) {
+            while (!frame.written) {
+                writePendingFrames();
+            }
+        }
+        if (frame.error != null) {
+            throw new IOException(frame.error.getMessage(), frame.error);
+        }
+    }
+
+
+    /*
+     * Must be called while holding the lock on the socket wrapper.
+     */
+    private void writePendingFrames() {
+        IOException error = null;
+        DataFrame frame;
+        int batchSize = 0;
+        while ((batchSize < maxBatchSize || batch.isEmpty()) &&
+                (frame = pendingFrames.poll()) != null) {
+            batch.add(frame);
+            batchSize += frame.header.length + frame.payload.remaining();
+            if (error == null) {
+                try {
+                    socketWrapper.write(true, frame.header, 0, frame.header.length);
+                    socketWrapper.write(true, frame.payload);
+                } catch (IOException ioe) {
+                    error = ioe;
+                }
+            }
+        }
+        if (error == null) {
+            try {
+                socketWrapper.flush(true);
+            } catch (IOException ioe) {
+                error = ioe;
+            }
+        }
+        while ((frame = batch.poll()) != null) {
+            frame.error = error;
+            frame.written = true;
+        }
+    }
+
+
+    private static class BacklogEntry {
+        // Bytes requested that have not yet been allocated
+        int pending;
+        // Bytes allocated that the stream has yet to claim
+        int allocated;
+        // Service received, relative to siblings, adjusted for weight
+        long virtualTime;
+    }
+
+
+    private static class DataFrame {
+        private final byte[] header;
+        private final ByteBuffer payload;
+        // Guarded by the lock on the socket wrapper
+        private boolean written = false;
+        private IOException error;
+
+        DataFrame(byte[] header, ByteBuffer payload) {
+            this.header = header;
+            this.payload = payload;
+        }
+    }
+}
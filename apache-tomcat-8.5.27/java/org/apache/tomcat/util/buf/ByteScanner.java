@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * Searches byte buffers for the end of a line eight bytes at a time. Each
+ * group of eight bytes is read as a long and all eight bytes are compared at
+ * once using SIMD within a register (SWAR) arithmetic.
+ * <p>
+ * Reading a long from a heap {@link ByteBuffer} is only a single load from
+ * Java 9 onwards. On earlier JREs the bytes are assembled one at a time which
+ * removes any benefit so the bytes are compared individually instead.
+ */
+public final class ByteScanner {
+
+    private static final boolean USE_SWAR = JreCompat.isJre9Available();
+
+    private static final byte CR = (byte) '\r';
+    private static final byte LF = (byte) '\n';
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long CR_BYTES = 0x0D0D0D0D0D0D0D0DL;
+    private static final long LF_BYTES = 0x0A0A0A0A0A0A0A0AL;
+
+    private ByteScanner() {
+        // Utility class. Hide default constructor
+    }
+
+
+    /**
+     * Find the first CR or LF.
+     *
+     * @param buffer The buffer to search
+     * @param start  The index of the first byte to check
+     * @param end    The index after the last byte to check
+     *
+     * @return The index of the first CR or LF or -1 if there is neither
+     */
+    public static int indexOfCrOrLf(ByteBuffer buffer, int start, int end) {
+        return indexOfCrOrLf(buffer, start, end, USE_SWAR);
+    }
+
+
+    static int indexOfCrOrLf(ByteBuffer buffer, int start, int end, boolean swar) {
+        int i = start;
+        if (swar) {
+            boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for (; i + 8 <= end; i += 8) {
+                long word = buffer.getLong(i);
+                long match = zeroBytes(word ^ CR_BYTES) | zeroBytes(word ^ LF_BYTES);
+                if (match != 0) {
+                    if (bigEndian) {
+                        return i + (Long.numberOfLeadingZeros(match) >>> 3);
+                    } else {
+                        return i + (Long.numberOfTrailingZeros(match) >>> 3);
+                    }
+                }
+            }
+        }
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == CR || b == LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /*
+     * Sets the high bit of every byte of the result for which the byte of the
+     * input is zero and clears all other bits. Unlike the shorter
+     * (x - 0x01..01) & ~x & 0x80..80 this never reports false positives
+     * so the position of the first match may be taken from either end.
+     */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+}
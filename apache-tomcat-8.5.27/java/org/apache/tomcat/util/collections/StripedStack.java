@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A drop-in replacement for {@link SynchronizedStack} for pools of re-usable
+ * objects that are accessed by many threads concurrently. Objects are held in a
+ * number of small stripes, selected by the calling thread, that are guarded by
+ * a non-blocking try-lock. If the stripe for the current thread is busy, full
+ * (push) or empty (pop) the inherited, bounded, synchronized stack is used as
+ * an overflow pool. A pop that misses both the thread's stripe and the overflow
+ * pool will check the other stripes before giving up since objects are often
+ * returned to the pool by a different thread to the one that borrowed them.
+ * <p>
+ * Unlike {@link SynchronizedStack}, the order in which objects are returned is
+ * not strictly LIFO. ThreadLocals are deliberately not used so that pooled
+ * objects are never retained by threads after the pool has been cleared.
+ *
+ * @param <T> The type of object managed by this stack
+ */
+public class StripedStack<T> extends SynchronizedStack<T> {
+
+    public static final int DEFAULT_STRIPE_SIZE = 16;
+
+    private static final int DEFAULT_STRIPE_COUNT;
+
+    static {
+        int stripeCount = 1;
+        while (stripeCount < Runtime.getRuntime().availableProcessors()) {
+            stripeCount <<= 1;
+        }
+        DEFAULT_STRIPE_COUNT = stripeCount;
+    }
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+
+    public StripedStack() {
+        this(DEFAULT_SIZE, -1);
+    }
+
+    /**
+     * Create a striped stack with the default number of stripes (the number of
+     * available processors rounded up to the next power of two).
+     *
+     * @param size  The initial size of the overflow pool
+     * @param limit The maximum number of objects held by the stack, including
+     *              those held in the stripes, or -1 for no limit
+     */
+    public StripedStack(int size, int limit) {
+        this(size, limit, DEFAULT_STRIPE_COUNT);
+    }
+
+    /**
+     * Create a striped stack.
+     *
+     * @param size          The initial size of the overflow pool
+     * @param limit         The maximum number of objects held by the stack,
+     *                      including those held in the stripes, or -1 for no
+     *                      limit
+     * @param stripeCount   The number of stripes which will be rounded up to
+     *                      the next power of two
+     */
+    public StripedStack(int size, int limit, int stripeCount) {
+        super(size, overflowLimit(limit, roundUp(stripeCount)));
+        int count = roundUp(stripeCount);
+        int stripeSize = stripeSize(limit, count);
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+        mask = count - 1;
+    }
+
+
+    @Override
+    public boolean push(T obj) {
+        if (stripes[stripeIndex()].push(obj)) {
+            return true;
+        }
+        return super.push(obj);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T pop() {
+        int index = stripeIndex();
+        Object result = stripes[index].pop();
+        if (result != null) {
+            return (T) result;
+        }
+        result = super.pop();
+        if (result != null) {
+            return (T) result;
+        }
+        for (int i = 1; i < stripes.length; i++) {
+            result = stripes[(index + i) & mask].pop();
+            if (result != null) {
+                return (T) result;
+            }
+        }
+        return null;
+    }
+
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+        super.clear();
+    }
+
+
+    /**
+     * @return the number of stripes used by this stack
+     */
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+
+    private int stripeIndex() {
+        // Thread IDs are allocated sequentially so the low bits are sufficient
+        // to spread threads across the stripes
+        return (int) Thread.currentThread().getId() & mask;
+    }
+
+
+    private static int roundUp(int stripeCount) {
+        int result = 1;
+        while (result < stripeCount) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+
+    private static int stripeSize(int limit, int stripeCount) {
+        if (limit == -1) {
+            return DEFAULT_STRIPE_SIZE;
+        }
+        // Keep at least half of the limit available to the overflow pool so
+        // objects returned by one thread remain visible to all threads
+        return Math.min(DEFAULT_STRIPE_SIZE, limit / (2 * stripeCount));
+    }
+
+
+    private static int overflowLimit(int limit, int stripeCount) {
+        if (limit == -1) {
+            return -1;
+        }
+        return limit - stripeCount * stripeSize(limit, stripeCount);
+    }
+
+
+    private static final class Stripe {
+
+        private final AtomicBoolean busy = new AtomicBoolean(false);
+        private final Object[] elements;
+        // Only accessed while busy is held
+        private int index = -1;
+
+        Stripe(int size) {
+            elements = new Object[size];
+        }
+
+        boolean push(Object obj) {
+            if (elements.length == 0 || !busy.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                if (index + 1 == elements.length) {
+                    return false;
+                }
+                elements[++index] = obj;
+                return true;
+            } finally {
+                busy.set(false);
+            }
+        }
+
+        Object pop() {
+            if (elements.length == 0 || !busy.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                if (index == -1) {
+                    return null;
+                }
+                Object result = elements[index];
+                elements[index--] = null;
+                return result;
+            } finally {
+                busy.set(false);
+            }
+        }
+
+        void clear() {
+            // Wait for any in progress push or pop to complete
+            while (!busy.compareAndSet(false, true)) {
+                Thread.yield();
+            }
+            try {
+                while (index > -1) {
+                    elements[index--] = null;
+                }
+            } finally {
+                busy.set(false);
+            }
+        }
+    }
+}
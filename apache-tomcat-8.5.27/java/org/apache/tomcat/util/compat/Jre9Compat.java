@@ -24,7 +24,10 @@ import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.util.Deque;
 import java.util.Set;
 import java.util.jar.JarFile;
@@ -55,6 +58,7 @@ class Jre9Compat extends Jre8Compat {
     private static final Method getMethod;
     private static final Constructor<JarFile> jarFileConstructor;
     private static final Method isMultiReleaseMethod;
+    private static final SocketOption<Boolean> reusePortOption;
 
     private static final Object RUNTIME_VERSION;
     private static final int RUNTIME_MAJOR_VERSION;
@@ -75,6 +79,7 @@ class Jre9Compat extends Jre8Compat {
         Method m13 = null;
         Object o14 = null;
         Object o15 = null;
+        SocketOption<Boolean> o16 = null;
 
         try {
             Class<?> moduleLayerClazz = Class.forName("java.lang.ModuleLayer");
@@ -101,6 +106,10 @@ class Jre9Compat extends Jre8Compat {
             m13 = JarFile.class.getMethod("isMultiRelease");
             o14 = runtimeVersionMethod.invoke(null);
             o15 = majorMethod.invoke(o14);
+            @SuppressWarnings("unchecked")
+            SocketOption<Boolean> reusePort = (SocketOption<Boolean>)
+                    StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            o16 = reusePort;
 
         } catch (ClassNotFoundException e) {
             // Must be Java 8
@@ -121,6 +130,7 @@ class Jre9Compat extends Jre8Compat {
         getMethod = m11;
         jarFileConstructor = c12;
         isMultiReleaseMethod = m13;
+        reusePortOption = o16;
 
         RUNTIME_VERSION = o14;
         if (o15 != null) {
@@ -228,4 +238,19 @@ class Jre9Compat extends Jre8Compat {
     public int jarFileRuntimeMajorVersion() {
         return RUNTIME_MAJOR_VERSION;
     }
+
+
+    @Override
+    public boolean isReusePortSupported(NetworkChannel channel) {
+        return reusePortOption != null && channel.supportedOptions().contains(reusePortOption);
+    }
+
+
+    @Override
+    public void setReusePort(NetworkChannel channel, boolean value) throws IOException {
+        if (!isReusePortSupported(channel)) {
+            super.setReusePort(channel, value);
+        }
+        channel.setOption(reusePortOption, Boolean.valueOf(value));
+    }
 }
@@ -20,7 +20,9 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.util.Deque;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarFile;
 
 import javax.net.ssl.SSLEngine;
@@ -40,25 +42,34 @@ public class JreCompat {
     private static final JreCompat instance;
     private static StringManager sm =
             StringManager.getManager(JreCompat.class.getPackage().getName());
+    private static final boolean jre21Available;
     private static final boolean jre9Available;
     private static final boolean jre8Available;
 
 
     static {
         // This is Tomcat 8 with a minimum Java version of Java 7. The latest
-        // Java version the optional features require is Java 9.
+        // Java version the optional features require is Java 21.
         // Look for the highest supported JVM first
-        if (Jre9Compat.isSupported()) {
+        if (Jre21Compat.isSupported()) {
+            instance = new Jre21Compat();
+            jre21Available = true;
+            jre9Available = true;
+            jre8Available = true;
+        } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
+            jre21Available = false;
             jre9Available = true;
             jre8Available = true;
         }
         else if (Jre8Compat.isSupported()) {
             instance = new Jre8Compat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = true;
         } else {
             instance = new JreCompat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = false;
         }
@@ -206,4 +217,54 @@ public class JreCompat {
     public int jarFileRuntimeMajorVersion() {
         return RUNTIME_MAJOR_VERSION;
     }
+
+
+    /**
+     * Does the provided channel support the SO_REUSEPORT socket option?
+     *
+     * @param channel   The channel to test
+     *
+     * @return {@code true} if SO_REUSEPORT may be set on the channel, otherwise
+     *         {@code false}
+     */
+    public boolean isReusePortSupported(NetworkChannel channel) {
+        // SO_REUSEPORT is not exposed prior to Java 9
+        return false;
+    }
+
+
+    /**
+     * Set the SO_REUSEPORT socket option on the provided channel. This must be
+     * called before the channel is bound.
+     *
+     * @param channel   The channel to configure
+     * @param value     The new value for the option
+     *
+     * @throws IOException If an I/O error occurs setting the option
+     */
+    @SuppressWarnings("unused")
+    public void setReusePort(NetworkChannel channel, boolean value) throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noReusePort"));
+    }
+
+
+    // Java 7 implementation of Java 21 methods
+
+    public static boolean isJre21Available() {
+        return jre21Available;
+    }
+
+
+    /**
+     * Create a thread factory that creates virtual threads.
+     *
+     * @param namePrefix    The prefix for the names of the created threads.
+     *                      A sequence number, starting at zero, is appended
+     *                      to form the full thread name.
+     *
+     * @return A factory for virtual threads
+     */
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
 }
@@ -19,8 +19,11 @@ package org.apache.tomcat.util.http;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Enumeration;
 
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager;
 
@@ -55,9 +58,13 @@ import org.apache.tomcat.util.res.StringManager;
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
+   Once there are more than INDEX_THRESHOLD headers, the header names are
+   hashed the first time a header is requested by name and lookups use the
+   resulting index. Headers added afterwards are added to the index on the
+   next lookup. The index is discarded when a header is removed and its
+   arrays are retained when the headers are recycled.
+
    Future enhancements:
-   - hash the headers the first time a header is requested ( i.e. if the
-   servlet needs direct access to headers).
    - scan "common" values ( length, cookies, etc ) during the parse
    ( addHeader hook )
 
@@ -94,9 +101,18 @@ public class MimeHeaders {
      */
     public static final int DEFAULT_HEADER_SIZE=8;
 
+    /**
+     * Above this number of header fields, lookups by name use a hash index of
+     * the header names rather than a linear search.
+     */
+    static final int INDEX_THRESHOLD = 16;
+
     private static final StringManager sm =
             StringManager.getManager("org.apache.tomcat.util.http");
 
+    // Hash used for names that can't be indexed
+    private static final int NOT_INDEXABLE = -1;
+
     /**
      * The header fields.
      */
@@ -113,6 +129,24 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * Open addressing hash index of the header names with linear probing. Each
+     * slot holds the index of a header field plus one. Zero marks an empty
+     * slot.
+     */
+    private int[] indexSlots = null;
+
+    /**
+     * The hash of the name of each indexed header field.
+     */
+    private int[] nameHashes = null;
+
+    /**
+     * The number of header fields, from the start, that have been added to
+     * the index or -1 if a header name could not be indexed.
+     */
+    private int indexedCount = 0;
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -150,6 +184,7 @@ public class MimeHeaders {
             headers[i].recycle();
         }
         count = 0;
+        resetIndex();
     }
 
     /**
@@ -217,13 +252,25 @@ public class MimeHeaders {
      * @return the header index
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
+        // The number of headers is usually small and a linear search is
+        // faster than constructing an index. Only large sets of headers are
+        // indexed.
+        if (updateIndex()) {
+            int hash = hash(name);
+            if (hash != NOT_INDEXABLE) {
+                return findIndexedHeader(name, hash, starting);
+            }
+        }
+        return findHeaderLinear(name, starting);
+    }
 
-        // A custom search tree may be better
+    /**
+     * Find the index of a header with the given name without using the index.
+     * @param name The header name
+     * @param starting Index on which to start looking
+     * @return the header index
+     */
+    int findHeaderLinear(String name, int starting) {
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -338,12 +385,8 @@ public class MimeHeaders {
      * @return the value
      */
     public MessageBytes getValue(String name) {
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                return headers[i].getValue();
-            }
-        }
-        return null;
+        int i = findHeader(name, 0);
+        return i < 0 ? null : headers[i].getValue();
     }
 
     /**
@@ -355,17 +398,14 @@ public class MimeHeaders {
      * @throws IllegalArgumentException if the header has multiple values
      */
     public MessageBytes getUniqueValue(String name) {
-        MessageBytes result = null;
-        for (int i = 0; i < count; i++) {
-            if (headers[i].getName().equalsIgnoreCase(name)) {
-                if (result == null) {
-                    result = headers[i].getValue();
-                } else {
-                    throw new IllegalArgumentException();
-                }
-            }
+        int i = findHeader(name, 0);
+        if (i < 0) {
+            return null;
         }
-        return result;
+        if (findHeader(name, i + 1) >= 0) {
+            throw new IllegalArgumentException();
+        }
+        return headers[i].getValue();
     }
 
     // bad shortcut - it'll convert to string ( too early probably,
@@ -403,8 +443,133 @@ public class MimeHeaders {
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+        // Indexes have changed
+        resetIndex();
     }
 
+    // -------------------- Index --------------------
+
+    /**
+     * Brings the index up to date with any header fields added since the last
+     * lookup, building it if necessary.
+     *
+     * @return <code>true</code> if lookups should use the index
+     */
+    private boolean updateIndex() {
+        if (count <= INDEX_THRESHOLD || indexedCount < 0) {
+            return false;
+        }
+        if (indexSlots == null || indexSlots.length < count * 2) {
+            // Keep the load factor at or below 0.5. Rebuild from scratch.
+            int size = Integer.highestOneBit(count * 4 - 1);
+            indexSlots = new int[size];
+            nameHashes = new int[headers.length];
+            indexedCount = 0;
+        } else if (nameHashes.length < count) {
+            nameHashes = Arrays.copyOf(nameHashes, headers.length);
+        }
+        int mask = indexSlots.length - 1;
+        for (int i = indexedCount; i < count; i++) {
+            int hash = hash(headers[i].getName());
+            if (hash == NOT_INDEXABLE) {
+                Arrays.fill(indexSlots, 0);
+                indexedCount = -1;
+                return false;
+            }
+            nameHashes[i] = hash;
+            int slot = hash & mask;
+            while (indexSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            indexSlots[slot] = i + 1;
+        }
+        indexedCount = count;
+        return true;
+    }
+
+    private int findIndexedHeader(String name, int hash, int starting) {
+        int mask = indexSlots.length - 1;
+        int slot = hash & mask;
+        int entry;
+        // Fields are added in order and never removed from the index so the
+        // fields with any given name are found in order along the probe
+        // sequence
+        while ((entry = indexSlots[slot]) != 0) {
+            int i = entry - 1;
+            if (i >= starting && nameHashes[i] == hash &&
+                    headers[i].getName().equalsIgnoreCase(name)) {
+                return i;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void resetIndex() {
+        if (indexedCount != 0) {
+            Arrays.fill(indexSlots, 0);
+            indexedCount = 0;
+        }
+    }
+
+    /*
+     * Case insensitive hash of a header name. Setting bit 5 of every character
+     * is cheaper than converting to lower case and still gives upper and lower
+     * case letters the same hash. Only ASCII names are hashed as the case
+     * insensitive comparisons used by MessageBytes treat other characters
+     * inconsistently.
+     */
+    private static int hash(String name) {
+        if (name == null) {
+            return NOT_INDEXABLE;
+        }
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c > 127) {
+                return NOT_INDEXABLE;
+            }
+            h = 31 * h + (c | 0x20);
+        }
+        return spread(h);
+    }
+
+    private static int hash(MessageBytes name) {
+        switch (name.getType()) {
+        case MessageBytes.T_BYTES: {
+            // Bytes are compared after masking with 0xff so the hash of
+            // every byte is consistent with the hash of an ASCII name
+            ByteChunk bc = name.getByteChunk();
+            byte[] b = bc.getBuffer();
+            int h = 0;
+            for (int i = bc.getStart(); i < bc.getEnd(); i++) {
+                h = 31 * h + (b[i] & 0xff | 0x20);
+            }
+            return spread(h);
+        }
+        case MessageBytes.T_CHARS: {
+            CharChunk cc = name.getCharChunk();
+            char[] c = cc.getBuffer();
+            int h = 0;
+            for (int i = cc.getStart(); i < cc.getEnd(); i++) {
+                if (c[i] > 127) {
+                    return NOT_INDEXABLE;
+                }
+                h = 31 * h + (c[i] | 0x20);
+            }
+            return spread(h);
+        }
+        case MessageBytes.T_STR:
+            return hash(name.getString());
+        default:
+            return NOT_INDEXABLE;
+        }
+    }
+
+    private static int spread(int h) {
+        // Never NOT_INDEXABLE
+        return (h ^ (h >>> 16)) & 0x7fffffff;
+    }
 }
 
 /** Enumerate the distinct header names.
@@ -481,12 +646,11 @@ class ValuesEnumerator implements Enumeration<String> {
 
     private void findNext() {
         next=null;
-        for(; pos< size; pos++ ) {
-            MessageBytes n1=headers.getName( pos );
-            if( n1.equalsIgnoreCase( name )) {
-                next=headers.getValue( pos );
-                break;
-            }
+        pos = headers.findHeader(name, pos);
+        if (pos < 0 || pos >= size) {
+            pos = size;
+        } else {
+            next=headers.getValue( pos );
         }
         pos++;
     }
@@ -655,6 +655,29 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    /**
+     * Target time in ms that tasks wait in the queue of the internal executor.
+     * If greater than zero the number of worker threads is adapted between
+     * minSpareThreads and maxThreads to meet the target.
+     */
+    private long targetQueueDelay = -1;
+    public void setTargetQueueDelay(long targetQueueDelay) {
+        this.targetQueueDelay = targetQueueDelay;
+        Executor executor = this.executor;
+        if (internalExecutor && executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).setTargetQueueDelay(
+                    targetQueueDelay, TimeUnit.MILLISECONDS);
+        }
+    }
+    public long getTargetQueueDelay() {
+        if (internalExecutor) {
+            return targetQueueDelay;
+        } else {
+            return -1;
+        }
+    }
+
+
     /**
      * Priority of the worker threads.
      */
@@ -828,6 +851,19 @@ public abstract class AbstractEndpoint<S> {
         }
     }
 
+    /**
+     * Return the average time tasks wait in the queue of the executor.
+     *
+     * @return the average queue delay in ms or -1 if it is not measured
+     */
+    public double getQueueDelay() {
+        Executor executor = this.executor;
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueueDelay();
+        }
+        return -1;
+    }
+
     /**
      * Return the amount of threads that are in use
      *
@@ -861,8 +897,10 @@ public abstract class AbstractEndpoint<S> {
         internalExecutor = true;
         TaskQueue taskqueue = new TaskQueue();
         TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
-        executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
-        taskqueue.setParent( (ThreadPoolExecutor) executor);
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
+        tpe.setTargetQueueDelay(targetQueueDelay, TimeUnit.MILLISECONDS);
+        executor = tpe;
+        taskqueue.setParent(tpe);
     }
 
     public void shutdownExecutor() {
@@ -921,36 +959,7 @@ public abstract class AbstractEndpoint<S> {
             unlockAddress = getUnlockAddress(localAddress);
 
             for (int i = 0; i < unlocksRequired; i++) {
-                try (java.net.Socket s = new java.net.Socket()) {
-                    int stmo = 2 * 1000;
-                    int utmo = 2 * 1000;
-                    if (getSocketProperties().getSoTimeout() > stmo)
-                        stmo = getSocketProperties().getSoTimeout();
-                    if (getSocketProperties().getUnlockTimeout() > utmo)
-                        utmo = getSocketProperties().getUnlockTimeout();
-                    s.setSoTimeout(stmo);
-                    s.setSoLinger(getSocketProperties().getSoLingerOn(),getSocketProperties().getSoLingerTime());
-                    if (getLog().isDebugEnabled()) {
-                        getLog().debug("About to unlock socket for:" + unlockAddress);
-                    }
-                    s.connect(unlockAddress,utmo);
-                    if (getDeferAccept()) {
-                        /*
-                         * In the case of a deferred accept / accept filters we need to
-                         * send data to wake up the accept. Send OPTIONS * to bypass
-                         * even BSD accept filters. The Acceptor will discard it.
-                         */
-                        OutputStreamWriter sw;
-
-                        sw = new OutputStreamWriter(s.getOutputStream(), "ISO-8859-1");
-                        sw.write("OPTIONS * HTTP/1.0\r\n" +
-                                 "User-Agent: Tomcat wakeup connection\r\n\r\n");
-                        sw.flush();
-                    }
-                    if (getLog().isDebugEnabled()) {
-                        getLog().debug("Socket unlock completed for:" + unlockAddress);
-                    }
-                }
+                connectToUnlock(unlockAddress);
             }
             // Wait for upto 1000ms acceptor threads to unlock
             long waitLeft = 1000;
@@ -970,7 +979,49 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
-    private static InetSocketAddress getUnlockAddress(InetSocketAddress localAddress) throws SocketException {
+    /**
+     * Make a connection to the given address, and send some data if accept is
+     * deferred, so that an acceptor blocked in accept returns.
+     *
+     * @param unlockAddress The address to connect to
+     *
+     * @throws IOException If the connection fails
+     */
+    protected void connectToUnlock(InetSocketAddress unlockAddress) throws IOException {
+        try (java.net.Socket s = new java.net.Socket()) {
+            int stmo = 2 * 1000;
+            int utmo = 2 * 1000;
+            if (getSocketProperties().getSoTimeout() > stmo)
+                stmo = getSocketProperties().getSoTimeout();
+            if (getSocketProperties().getUnlockTimeout() > utmo)
+                utmo = getSocketProperties().getUnlockTimeout();
+            s.setSoTimeout(stmo);
+            s.setSoLinger(getSocketProperties().getSoLingerOn(),getSocketProperties().getSoLingerTime());
+            if (getLog().isDebugEnabled()) {
+                getLog().debug("About to unlock socket for:" + unlockAddress);
+            }
+            s.connect(unlockAddress,utmo);
+            if (getDeferAccept()) {
+                /*
+                 * In the case of a deferred accept / accept filters we need to
+                 * send data to wake up the accept. Send OPTIONS * to bypass
+                 * even BSD accept filters. The Acceptor will discard it.
+                 */
+                OutputStreamWriter sw;
+
+                sw = new OutputStreamWriter(s.getOutputStream(), "ISO-8859-1");
+                sw.write("OPTIONS * HTTP/1.0\r\n" +
+                         "User-Agent: Tomcat wakeup connection\r\n\r\n");
+                sw.flush();
+            }
+            if (getLog().isDebugEnabled()) {
+                getLog().debug("Socket unlock completed for:" + unlockAddress);
+            }
+        }
+    }
+
+
+    protected static InetSocketAddress getUnlockAddress(InetSocketAddress localAddress) throws SocketException {
         if (localAddress.getAddress().isAnyLocalAddress()) {
             // Need a local address of the same type (IPv4 or IPV6) as the
             // configured bind address since the connector may be configured
@@ -1045,6 +1096,7 @@ public abstract class AbstractEndpoint<S> {
             }
             Executor executor = getExecutor();
             if (dispatch && executor != null) {
+                sc.setQueued();
                 executor.execute(sc);
             } else {
                 sc.run();
@@ -52,6 +52,7 @@ import org.apache.tomcat.jni.Socket;
 import org.apache.tomcat.jni.Status;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.ByteBufferUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
@@ -673,7 +674,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+            processorCache = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getProcessorCache());
 
             // Create worker collection
@@ -2083,8 +2084,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                 // Set the socket to nonblocking mode
                 Socket.timeoutSet(data.socket, 0);
                 while (sendfileRunning) {
-                    long nw = Socket.sendfilen(data.socket, data.fd,
-                                               data.pos, data.length, 0);
+                    long nw = write(data);
                     if (nw < 0) {
                         if (!(-nw == Status.EAGAIN)) {
                             Pool.destroy(data.fdpool);
@@ -2095,9 +2095,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                             break;
                         }
                     } else {
-                        data.pos += nw;
-                        data.length -= nw;
-                        if (data.length == 0) {
+                        if (!data.hasRemaining()) {
                             // Entire file has been sent
                             Pool.destroy(data.fdpool);
                             // Set back socket to blocking mode
@@ -2119,6 +2117,34 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
             return SendfileState.PENDING;
         }
 
+        /**
+         * Write the next part of the data without blocking: either the header
+         * that precedes the current range of the file or the range itself.
+         *
+         * @param data the sendfile data to write
+         * @return the number of bytes written or a negative APR status code
+         */
+        private long write(SendfileData data) {
+            ByteBuffer header = data.header;
+            if (header != null && header.hasRemaining()) {
+                int nw = Socket.send(data.socket, header.array(),
+                        header.arrayOffset() + header.position(), header.remaining());
+                if (nw > 0) {
+                    header.position(header.position() + nw);
+                }
+                return nw;
+            }
+            if (data.length > 0) {
+                long nw = Socket.sendfilen(data.socket, data.fd, data.pos, data.length, 0);
+                if (nw > 0) {
+                    data.pos += nw;
+                    data.length -= nw;
+                }
+                return nw;
+            }
+            return 0;
+        }
+
         /**
          * Remove socket from the poller.
          *
@@ -2211,9 +2237,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                                 continue;
                             }
                             // Write some data using sendfile
-                            long nw = Socket.sendfilen(state.socket, state.fd,
-                                                       state.pos,
-                                                       state.length, 0);
+                            long nw = write(state);
                             if (nw < 0) {
                                 // Close socket and clear pool
                                 remove(state);
@@ -2223,9 +2247,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                                 continue;
                             }
 
-                            state.pos += nw;
-                            state.length -= nw;
-                            if (state.length == 0) {
+                            if (!state.hasRemaining()) {
                                 remove(state);
                                 switch (state.keepAliveState) {
                                 case NONE: {
@@ -2667,6 +2689,38 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
         }
 
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Socket.sendb() requires a direct buffer so the contents of any heap
+         * buffer are copied through the socket write buffer. For a
+         * non-blocking write, data copied into the socket write buffer counts
+         * as written.
+         */
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] srcs) throws IOException {
+            for (ByteBuffer src : srcs) {
+                if (src.isDirect()) {
+                    doWrite(block, src);
+                    if (src.hasRemaining()) {
+                        return;
+                    }
+                } else {
+                    ByteBuffer writeBuffer = socketBufferHandler.getWriteBuffer();
+                    while (src.hasRemaining()) {
+                        socketBufferHandler.configureWriteBufferForWrite();
+                        transfer(src, writeBuffer);
+                        doWrite(block);
+                        if (!socketBufferHandler.isWriteBufferEmpty()) {
+                            // Only possible for a non-blocking write
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+
         @Override
         protected void doWrite(boolean block, ByteBuffer from) throws IOException {
             if (closed) {
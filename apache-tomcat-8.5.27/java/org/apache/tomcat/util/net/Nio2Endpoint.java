@@ -50,6 +50,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.buf.ByteBufferHolder;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
@@ -175,9 +176,9 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+            processorCache = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getProcessorCache());
-            nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+            nioChannels = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getBufferPool());
 
             // Create worker collection
@@ -529,10 +530,9 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                     failed(new EOFException(), attachment);
                     return;
                 }
-                attachment.pos += nWrite.intValue();
                 ByteBuffer buffer = getSocket().getBufHandler().getWriteBuffer();
                 if (!buffer.hasRemaining()) {
-                    if (attachment.length <= 0) {
+                    if (!attachment.hasRemaining()) {
                         // All data has now been written
                         setSendfileData(null);
                         try {
@@ -563,23 +563,13 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                         return;
                     } else {
                         getSocket().getBufHandler().configureWriteBufferForWrite();
-                        int nRead = -1;
                         try {
-                            nRead = attachment.fchannel.read(buffer);
+                            fillSendfileBuffer(attachment, buffer);
                         } catch (IOException e) {
                             failed(e, attachment);
                             return;
                         }
-                        if (nRead > 0) {
-                            getSocket().getBufHandler().configureWriteBufferForRead();
-                            if (attachment.length < buffer.remaining()) {
-                                buffer.limit(buffer.limit() - buffer.remaining() + (int) attachment.length);
-                            }
-                            attachment.length -= nRead;
-                        } else {
-                            failed(new EOFException(), attachment);
-                            return;
-                        }
+                        getSocket().getBufHandler().configureWriteBufferForRead();
                     }
                 }
                 getSocket().write(buffer, getNio2WriteTimeout(), TimeUnit.MILLISECONDS, attachment, this);
@@ -1442,38 +1432,65 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                 java.nio.file.Path path = new File(sendfileData.fileName).toPath();
                 try {
                     data.fchannel = java.nio.channels.FileChannel
-                            .open(path, StandardOpenOption.READ).position(sendfileData.pos);
+                            .open(path, StandardOpenOption.READ);
                 } catch (IOException e) {
                     return SendfileState.ERROR;
                 }
             }
             getSocket().getBufHandler().configureWriteBufferForWrite();
             ByteBuffer buffer = getSocket().getBufHandler().getWriteBuffer();
-            int nRead = -1;
             try {
-                nRead = data.fchannel.read(buffer);
-            } catch (IOException e1) {
+                fillSendfileBuffer(data, buffer);
+            } catch (IOException e) {
                 return SendfileState.ERROR;
             }
 
-            if (nRead >= 0) {
-                data.length -= nRead;
-                getSocket().getBufHandler().configureWriteBufferForRead();
-                Nio2Endpoint.startInline();
-                getSocket().write(buffer, getNio2WriteTimeout(), TimeUnit.MILLISECONDS,
-                        data, sendfileHandler);
-                Nio2Endpoint.endInline();
-                if (data.doneInline) {
-                    if (data.error) {
-                        return SendfileState.ERROR;
-                    } else {
-                        return SendfileState.DONE;
-                    }
+            getSocket().getBufHandler().configureWriteBufferForRead();
+            Nio2Endpoint.startInline();
+            getSocket().write(buffer, getNio2WriteTimeout(), TimeUnit.MILLISECONDS,
+                    data, sendfileHandler);
+            Nio2Endpoint.endInline();
+            if (data.doneInline) {
+                if (data.error) {
+                    return SendfileState.ERROR;
                 } else {
-                    return SendfileState.PENDING;
+                    return SendfileState.DONE;
                 }
             } else {
-                return SendfileState.ERROR;
+                return SendfileState.PENDING;
+            }
+        }
+
+
+        /*
+         * Fill the write buffer with the next part of the data to send. Part
+         * headers are copied into the buffer and ranges of the file are read
+         * into it using the position of the range so the same channel may be
+         * used for any number of ranges. The buffer must be configured for
+         * writing.
+         */
+        private void fillSendfileBuffer(SendfileData data, ByteBuffer buffer)
+                throws IOException {
+            while (buffer.hasRemaining() && data.hasRemaining()) {
+                if (data.header != null && data.header.hasRemaining()) {
+                    int n = Math.min(buffer.remaining(), data.header.remaining());
+                    ByteBuffer header = data.header.duplicate();
+                    header.limit(header.position() + n);
+                    buffer.put(header);
+                    data.header.position(header.position());
+                } else {
+                    int limit = buffer.limit();
+                    if (data.length < buffer.remaining()) {
+                        buffer.limit(buffer.position() + (int) data.length);
+                    }
+                    int nRead = data.fchannel.read(buffer, data.pos);
+                    buffer.limit(limit);
+                    if (nRead <= 0) {
+                        throw new EOFException();
+                    }
+                    data.pos += nRead;
+                    data.length -= nRead;
+                }
             }
         }
 
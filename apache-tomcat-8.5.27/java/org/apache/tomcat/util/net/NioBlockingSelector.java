@@ -33,6 +33,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedQueue;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.net.NioEndpoint.NioSocketWrapper;
@@ -44,7 +45,7 @@ public class NioBlockingSelector {
     private static int threadCounter = 0;
 
     private final SynchronizedStack<KeyReference> keyReferenceStack =
-            new SynchronizedStack<>();
+            new StripedStack<>();
 
     protected Selector sharedSelector;
 
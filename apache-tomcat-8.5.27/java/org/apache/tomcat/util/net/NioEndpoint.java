@@ -47,8 +47,10 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.StripedStack;
 import org.apache.tomcat.util.collections.SynchronizedQueue;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
 
@@ -86,6 +88,19 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private ServerSocketChannel serverSock = null;
 
+    /**
+     * Server sockets, one per Poller, when SO_REUSEPORT is in use. The first
+     * element is always {@link #serverSock}. <code>null</code> when a single
+     * server socket is shared by all the acceptors.
+     */
+    private ServerSocketChannel[] reusePortServerSocks = null;
+
+    /**
+     * Index of the next Acceptor to be created, used to pair each Acceptor with
+     * its own server socket and Poller when SO_REUSEPORT is in use.
+     */
+    private int nextAcceptorIndex = 0;
+
     /**
      *
      */
@@ -101,6 +116,14 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private SynchronizedStack<NioChannel> nioChannels;
 
+    /**
+     * Shared pools of network buffers. <code>null</code> unless enabled via
+     * {@link SocketProperties#getBufferArena()}. A single arena is used for
+     * both reads and writes if the buffers are the same size.
+     */
+    private volatile SocketBufferArena readBufferArena;
+    private volatile SocketBufferArena writeBufferArena;
+
 
     // ------------------------------------------------------------- Properties
 
@@ -139,6 +162,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Use SO_REUSEPORT to give each Poller its own server socket and Acceptor.
+     * Connections accepted on a given server socket are always registered with
+     * the Poller that owns it rather than being distributed round robin.
+     */
+    private boolean reusePort = false;
+    public void setReusePort(boolean reusePort) { this.reusePort = reusePort; }
+    public boolean getReusePort() { return reusePort; }
+
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -196,6 +228,57 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * @return The total size, in bytes, of the direct memory allocated for the
+     *         network buffer arenas or -1 if the arenas are not enabled
+     */
+    public long getBufferArenaCapacity() {
+        SocketBufferArena read = readBufferArena;
+        SocketBufferArena write = writeBufferArena;
+        if (read == null) {
+            return -1;
+        } else if (read == write) {
+            return read.getCapacity();
+        } else {
+            return read.getCapacity() + write.getCapacity();
+        }
+    }
+
+
+    /**
+     * @return The number of network buffers currently borrowed from the arenas
+     *         or -1 if the arenas are not enabled
+     */
+    public int getBufferArenaBuffersInUse() {
+        SocketBufferArena read = readBufferArena;
+        SocketBufferArena write = writeBufferArena;
+        if (read == null) {
+            return -1;
+        } else if (read == write) {
+            return read.getBuffersInUse();
+        } else {
+            return read.getBuffersInUse() + write.getBuffersInUse();
+        }
+    }
+
+
+    /**
+     * @return The number of times a network buffer has been borrowed from the
+     *         arenas or -1 if the arenas are not enabled
+     */
+    public long getBufferArenaBorrowCount() {
+        SocketBufferArena read = readBufferArena;
+        SocketBufferArena write = writeBufferArena;
+        if (read == null) {
+            return -1;
+        } else if (read == write) {
+            return read.getBorrowCount();
+        } else {
+            return read.getBorrowCount() + write.getBorrowCount();
+        }
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
     /**
@@ -204,21 +287,42 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     @Override
     public void bind() throws Exception {
 
+        if (pollerThreadCount <= 0) {
+            //minimum one poller thread
+            pollerThreadCount = 1;
+        }
+
         serverSock = ServerSocketChannel.open();
-        socketProperties.setProperties(serverSock.socket());
+        boolean useReusePort = false;
+        if (getReusePort()) {
+            if (JreCompat.getInstance().isReusePortSupported(serverSock)) {
+                useReusePort = true;
+            } else {
+                log.warn(sm.getString("endpoint.nio.reusePortUnsupported", getName()));
+            }
+        }
         InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-        serverSock.socket().bind(addr,getAcceptCount());
-        serverSock.configureBlocking(true); //mimic APR behavior
+        bindServerSocket(serverSock, addr, useReusePort);
+
+        if (useReusePort) {
+            // Bind the additional server sockets to the actual local address so
+            // an ephemeral port (port="0") is shared by all of them
+            addr = (InetSocketAddress) serverSock.getLocalAddress();
+            reusePortServerSocks = new ServerSocketChannel[pollerThreadCount];
+            reusePortServerSocks[0] = serverSock;
+            for (int i = 1; i < reusePortServerSocks.length; i++) {
+                reusePortServerSocks[i] = ServerSocketChannel.open();
+                bindServerSocket(reusePortServerSocks[i], addr, true);
+            }
+            // One acceptor per server socket
+            acceptorThreadCount = reusePortServerSocks.length;
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
             // FIXME: Doesn't seem to work that well with multiple accept threads
             acceptorThreadCount = 1;
         }
-        if (pollerThreadCount <= 0) {
-            //minimum one poller thread
-            pollerThreadCount = 1;
-        }
         setStopLatch(new CountDownLatch(pollerThreadCount));
 
         // Initialize SSL if needed
@@ -227,6 +331,17 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         selectorPool.open();
     }
 
+    private void bindServerSocket(ServerSocketChannel socket, InetSocketAddress addr,
+            boolean reusePort) throws IOException {
+        socketProperties.setProperties(socket.socket());
+        if (reusePort) {
+            JreCompat.getInstance().setReusePort(socket, true);
+        }
+        socket.socket().bind(addr,getAcceptCount());
+        socket.configureBlocking(true); //mimic APR behavior
+    }
+
+
     /**
      * Start the NIO endpoint, creating acceptor, poller threads.
      */
@@ -237,12 +352,20 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+            processorCache = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getProcessorCache());
-            eventCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+            eventCache = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE,
                             socketProperties.getEventCache());
-            nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+            nioChannels = new StripedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getBufferPool());
+            if (socketProperties.getBufferArena()) {
+                readBufferArena = new SocketBufferArena(socketProperties.getAppReadBufSize());
+                if (socketProperties.getAppWriteBufSize() == socketProperties.getAppReadBufSize()) {
+                    writeBufferArena = readBufferArena;
+                } else {
+                    writeBufferArena = new SocketBufferArena(socketProperties.getAppWriteBufSize());
+                }
+            }
 
             // Create worker collection
             if ( getExecutor() == null ) {
@@ -261,6 +384,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 pollerThread.start();
             }
 
+            nextAcceptorIndex = 0;
             startAcceptorThreads();
         }
     }
@@ -309,7 +433,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         if (running) {
             stop();
         }
-        // Close server socket
+        // Close server socket(s)
+        if (reusePortServerSocks != null) {
+            // The first element is serverSock which is closed below
+            for (int i = 1; i < reusePortServerSocks.length; i++) {
+                reusePortServerSocks[i].socket().close();
+                reusePortServerSocks[i].close();
+            }
+            reusePortServerSocks = null;
+        }
         serverSock.socket().close();
         serverSock.close();
         serverSock = null;
@@ -343,7 +475,80 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
-        return new Acceptor();
+        if (reusePortServerSocks == null) {
+            return new Acceptor();
+        }
+        int index = nextAcceptorIndex++;
+        return new Acceptor(reusePortServerSocks[index], pollers[index]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When SO_REUSEPORT is in use each acceptor has its own server socket and
+     * the operating system picks the server socket for each unlock connection
+     * so it is not possible to connect to a particular acceptor. Connections
+     * are made, one for each acceptor that is still running, until every
+     * acceptor has been unlocked or the overall timeout expires.
+     */
+    @Override
+    protected void unlockAccept() {
+        if (reusePortServerSocks == null) {
+            super.unlockAccept();
+            return;
+        }
+        if (getRunningAcceptorCount() == 0) {
+            return;
+        }
+
+        InetSocketAddress localAddress = null;
+        try {
+            localAddress = getLocalAddress();
+        } catch (IOException ioe) {
+            log.debug(sm.getString("endpoint.debug.unlock.localFail", getName()), ioe);
+        }
+        if (localAddress == null) {
+            log.warn(sm.getString("endpoint.debug.unlock.localNone", getName()));
+            return;
+        }
+
+        // Wait for up to 1000ms in total for the acceptor threads to unlock
+        long deadline = System.currentTimeMillis() + 1000;
+        try {
+            InetSocketAddress unlockAddress = getUnlockAddress(localAddress);
+            int running;
+            while ((running = getRunningAcceptorCount()) > 0 &&
+                    System.currentTimeMillis() < deadline) {
+                for (int i = 0; i < running; i++) {
+                    connectToUnlock(unlockAddress);
+                }
+                // Give the acceptors that received a connection a short time
+                // to stop before connecting again for the others
+                long retry = Math.min(deadline, System.currentTimeMillis() + 100);
+                while (getRunningAcceptorCount() == running &&
+                        System.currentTimeMillis() < retry) {
+                    Thread.sleep(10);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("endpoint.debug.unlock.fail", "" + getPort()), e);
+            }
+        }
+    }
+
+
+    private int getRunningAcceptorCount() {
+        int result = 0;
+        for (AbstractEndpoint.Acceptor acceptor : acceptors) {
+            if (acceptor.getState() == AbstractEndpoint.Acceptor.AcceptorState.RUNNING) {
+                result++;
+            }
+        }
+        return result;
     }
 
 
@@ -365,6 +570,20 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      *  close immediately
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, null);
+    }
+
+
+    /**
+     * Process the specified connection.
+     * @param socket The socket channel
+     * @param poller The Poller to register the connection with or
+     *  <code>null</code> to use the next Poller in round robin order
+     * @return <code>true</code> if the socket was correctly configured
+     *  and processing may continue, <code>false</code> if the socket needs to be
+     *  close immediately
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -374,10 +593,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
             NioChannel channel = nioChannels.pop();
             if (channel == null) {
-                SocketBufferHandler bufhandler = new SocketBufferHandler(
-                        socketProperties.getAppReadBufSize(),
-                        socketProperties.getAppWriteBufSize(),
-                        socketProperties.getDirectBuffer());
+                SocketBufferHandler bufhandler;
+                if (readBufferArena == null) {
+                    bufhandler = new SocketBufferHandler(
+                            socketProperties.getAppReadBufSize(),
+                            socketProperties.getAppWriteBufSize(),
+                            socketProperties.getDirectBuffer());
+                } else {
+                    bufhandler = new SocketBufferHandler(readBufferArena, writeBufferArena);
+                }
                 if (isSSLEnabled()) {
                     channel = new SecureNioChannel(socket, bufhandler, selectorPool, this);
                 } else {
@@ -387,7 +611,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 channel.setIOChannel(socket);
                 channel.reset();
             }
-            getPoller0().register(channel);
+            if (poller == null) {
+                poller = getPoller0();
+            }
+            poller.register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -421,9 +648,33 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final ServerSocketChannel serverSock;
+        private final Poller poller;
+
+        public Acceptor() {
+            this(null, null);
+        }
+
+        /**
+         * @param serverSock The server socket to accept connections from or
+         *                   <code>null</code> for the endpoint's server socket
+         * @param poller     The Poller to register accepted connections with or
+         *                   <code>null</code> to distribute them between all
+         *                   the Pollers
+         */
+        public Acceptor(ServerSocketChannel serverSock, Poller poller) {
+            this.serverSock = serverSock;
+            this.poller = poller;
+        }
+
         @Override
         public void run() {
 
+            ServerSocketChannel serverSock = this.serverSock;
+            if (serverSock == null) {
+                serverSock = NioEndpoint.this.serverSock;
+            }
+
             int errorDelay = 0;
 
             // Loop until we receive a shutdown command
@@ -472,7 +723,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     if (running && !paused) {
                         // setSocketOptions() will hand the socket off to
                         // an appropriate processor if successful
-                        if (!setSocketOptions(socket)) {
+                        if (!setSocketOptions(socket, poller)) {
                             closeSocket(socket);
                         }
                     } else {
@@ -524,6 +775,8 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 // We do NOT want to do this more than once - see BZ
                 // 57340 / 57943.
                 if (running && !paused) {
+                    // Don't hold on to borrowed buffers while in the cache
+                    socket.getBufHandler().reset();
                     if (!nioChannels.push(socket)) {
                         socket.free();
                     }
@@ -905,21 +1158,28 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         socketWrapper.updateLastWrite();
                     }
                 } else {
-                    long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
-                    if (written > 0) {
-                        sd.pos += written;
-                        sd.length -= written;
-                        socketWrapper.updateLastWrite();
-                    } else {
-                        // Unusual not to be able to transfer any bytes
-                        // Check the length was set correctly
-                        if (sd.fchannel.size() <= sd.pos) {
-                            throw new IOException("Sendfile configured to " +
-                                    "send more data than was available");
+                    if (sd.header != null && sd.header.hasRemaining()) {
+                        if (wc.write(sd.header) > 0) {
+                            socketWrapper.updateLastWrite();
+                        }
+                    }
+                    if (sd.length > 0 && (sd.header == null || !sd.header.hasRemaining())) {
+                        long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
+                        if (written > 0) {
+                            sd.pos += written;
+                            sd.length -= written;
+                            socketWrapper.updateLastWrite();
+                        } else {
+                            // Unusual not to be able to transfer any bytes
+                            // Check the length was set correctly
+                            if (sd.fchannel.size() <= sd.pos) {
+                                throw new IOException("Sendfile configured to " +
+                                        "send more data than was available");
+                            }
                         }
                     }
                 }
-                if (sd.length <= 0 && sc.getOutboundRemaining()<=0) {
+                if (!sd.hasRemaining() && sc.getOutboundRemaining()<=0) {
                     if (log.isDebugEnabled()) {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
@@ -1286,6 +1546,31 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
 
 
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] srcs) throws IOException {
+            if (getSocket() instanceof SecureNioChannel) {
+                // Each buffer has to be encrypted separately anyway
+                super.doWrite(block, srcs);
+                return;
+            }
+            // The socket is usually writable so a single gathering write will
+            // normally write everything
+            if (getSocket().write(srcs) > 0) {
+                updateLastWrite();
+            }
+            // Write anything that remains, blocking if required, as for a
+            // single buffer
+            for (ByteBuffer src : srcs) {
+                if (src.hasRemaining()) {
+                    doWrite(block, src);
+                    if (src.hasRemaining()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+
         @Override
         public void registerReadInterest() {
             getPoller().add(getSocket(), SelectionKey.OP_READ);
@@ -1460,6 +1745,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     }
                     if (state == SocketState.CLOSED) {
                         close(socket, key);
+                    } else if (state == SocketState.OPEN && readBufferArena != null) {
+                        // Idle between requests. Return the buffers until the
+                        // next request arrives.
+                        socket.getBufHandler().releaseIdleBuffers();
                     }
                 } else if (handshake == -1 ) {
                     close(socket, key);
@@ -684,6 +684,30 @@ public class SecureNioChannel extends NioChannel  {
         }
     }
 
+    /**
+     * Writes a sequence of bytes to this channel from a subsequence of the
+     * given buffers. Each buffer is encrypted in turn so there is no benefit
+     * over writing the buffers individually.
+     *
+     * @param srcs The buffers from which bytes are to be retrieved
+     * @param offset The offset within the buffer array of the first buffer
+     * @param length The maximum number of buffers to be accessed
+     * @return The number of bytes written, possibly zero
+     * @throws IOException If some other I/O error occurs
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+            if (srcs[i].hasRemaining()) {
+                break;
+            }
+        }
+        return written;
+    }
+
     @Override
     public int getOutboundRemaining() {
         return netOutBuffer.remaining();
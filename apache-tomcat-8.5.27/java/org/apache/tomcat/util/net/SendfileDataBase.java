@@ -16,6 +16,10 @@
  */
 package org.apache.tomcat.util.net;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
 public abstract class SendfileDataBase {
 
     /**
@@ -46,9 +50,73 @@ public abstract class SendfileDataBase {
      */
     public long length;
 
+    /**
+     * Data, if any, to be written to the socket before the current range of
+     * the file. This is updated as the data is written. Used for the part
+     * headers of multipart responses.
+     */
+    public ByteBuffer header;
+
+    /**
+     * Further ranges of the file, with the data to write before each one, to
+     * be written once the current range has been written.
+     */
+    private Queue<Segment> segments;
+
     public SendfileDataBase(String filename, long pos, long length) {
         this.fileName = filename;
         this.pos = pos;
         this.length = length;
     }
+
+
+    /**
+     * Add a range of the file to be written after the ranges already added.
+     *
+     * @param header Data to write before the range. May be <code>null</code>
+     * @param pos    The position of the first byte of the range
+     * @param length The length of the range. May be zero to write just the
+     *               header
+     */
+    public void addSegment(byte[] header, long pos, long length) {
+        if (segments == null) {
+            segments = new ArrayDeque<>();
+        }
+        segments.add(new Segment(header, pos, length));
+    }
+
+
+    /**
+     * Determine if there is more data to write. If the current range and its
+     * header have been written, the next segment, if any, becomes the current
+     * one.
+     *
+     * @return <code>true</code> if there is more data to write, otherwise
+     *         <code>false</code>
+     */
+    public boolean hasRemaining() {
+        while (length <= 0 && (header == null || !header.hasRemaining())) {
+            Segment segment = segments == null ? null : segments.poll();
+            if (segment == null) {
+                return false;
+            }
+            header = segment.header == null ? null : ByteBuffer.wrap(segment.header);
+            pos = segment.pos;
+            length = segment.length;
+        }
+        return true;
+    }
+
+
+    private static class Segment {
+        private final byte[] header;
+        private final long pos;
+        private final long length;
+
+        private Segment(byte[] header, long pos, long length) {
+            this.header = header;
+            this.pos = pos;
+            this.length = length;
+        }
+    }
 }
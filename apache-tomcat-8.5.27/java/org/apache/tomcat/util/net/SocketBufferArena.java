@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.collections.StripedStack;
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * A shared pool of direct buffers of a single size that are lent to
+ * {@link SocketBufferHandler}s while a connection has data in flight.
+ * <p>
+ * Buffers are sliced from larger direct allocations (slabs) to avoid the cost
+ * of allocating many small direct buffers. Slabs are never freed while the
+ * arena is in use since a slab can only be released once none of its buffers
+ * are referenced. The size of the arena is therefore determined by the largest
+ * number of buffers that have been in use at the same time.
+ */
+public class SocketBufferArena {
+
+    /**
+     * The number of buffers allocated together as a single slab.
+     */
+    public static final int BUFFERS_PER_SLAB = 32;
+
+    private final int bufferSize;
+
+    private final SynchronizedStack<ByteBuffer> freeBuffers =
+            new StripedStack<>(SynchronizedStack.DEFAULT_SIZE, -1);
+
+    private final AtomicInteger slabCount = new AtomicInteger(0);
+    private final AtomicInteger buffersInUse = new AtomicInteger(0);
+    private final AtomicLong borrowCount = new AtomicLong(0);
+
+
+    public SocketBufferArena(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+
+    /**
+     * Borrow a buffer from the arena, allocating a new slab if no buffers are
+     * free.
+     *
+     * @return A cleared buffer with a capacity of {@link #getBufferSize()}
+     */
+    public ByteBuffer allocate() {
+        ByteBuffer buffer = freeBuffers.pop();
+        if (buffer == null) {
+            buffer = allocateSlab();
+        }
+        buffersInUse.incrementAndGet();
+        borrowCount.incrementAndGet();
+        return buffer;
+    }
+
+
+    /**
+     * Return a buffer to the arena. The caller must not use the buffer
+     * afterwards.
+     *
+     * @param buffer The buffer, previously obtained from {@link #allocate()}
+     */
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        buffersInUse.decrementAndGet();
+        freeBuffers.push(buffer);
+    }
+
+
+    /**
+     * Does the buffer have the size of the buffers lent by this arena?
+     * Buffers of other sizes must not be passed to {@link #release(ByteBuffer)}.
+     *
+     * @param buffer The buffer to test
+     *
+     * @return <code>true</code> if the buffer is the size of an arena buffer
+     */
+    public boolean isArenaSize(ByteBuffer buffer) {
+        return buffer.capacity() == bufferSize;
+    }
+
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+
+    /**
+     * @return The number of slabs that have been allocated
+     */
+    public int getSlabCount() {
+        return slabCount.get();
+    }
+
+
+    /**
+     * @return The total size, in bytes, of the slabs that have been allocated
+     */
+    public long getCapacity() {
+        return (long) slabCount.get() * BUFFERS_PER_SLAB * bufferSize;
+    }
+
+
+    /**
+     * @return The number of buffers currently lent to connections
+     */
+    public int getBuffersInUse() {
+        return buffersInUse.get();
+    }
+
+
+    /**
+     * @return The number of buffers that have been borrowed since the arena
+     *         was created
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+
+    private ByteBuffer allocateSlab() {
+        ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * BUFFERS_PER_SLAB);
+        slabCount.incrementAndGet();
+        ByteBuffer first = null;
+        for (int i = 0; i < BUFFERS_PER_SLAB; i++) {
+            slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+            ByteBuffer buffer = slab.slice();
+            if (first == null) {
+                first = buffer;
+            } else {
+                freeBuffers.push(buffer);
+            }
+        }
+        return first;
+    }
+}
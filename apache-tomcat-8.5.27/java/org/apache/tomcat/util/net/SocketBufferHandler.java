@@ -30,9 +30,14 @@ public class SocketBufferHandler {
 
     private final boolean direct;
 
+    private final SocketBufferArena readArena;
+    private final SocketBufferArena writeArena;
+
     public SocketBufferHandler(int readBufferSize, int writeBufferSize,
             boolean direct) {
         this.direct = direct;
+        this.readArena = null;
+        this.writeArena = null;
         if (direct) {
             readBuffer = ByteBuffer.allocateDirect(readBufferSize);
             writeBuffer = ByteBuffer.allocateDirect(writeBufferSize);
@@ -43,6 +48,21 @@ public class SocketBufferHandler {
     }
 
 
+    /**
+     * Create a handler that borrows its buffers from the given arenas when
+     * they are first required and returns them from
+     * {@link #releaseIdleBuffers()} once they are empty.
+     *
+     * @param readArena  The arena that provides the read buffer
+     * @param writeArena The arena that provides the write buffer
+     */
+    public SocketBufferHandler(SocketBufferArena readArena, SocketBufferArena writeArena) {
+        this.direct = true;
+        this.readArena = readArena;
+        this.writeArena = writeArena;
+    }
+
+
     public void configureReadBufferForWrite() {
         setReadBufferConfiguredForWrite(true);
     }
@@ -56,7 +76,9 @@ public class SocketBufferHandler {
     private void setReadBufferConfiguredForWrite(boolean readBufferConFiguredForWrite) {
         // NO-OP if buffer is already in correct state
         if (this.readBufferConfiguredForWrite != readBufferConFiguredForWrite) {
-            if (readBufferConFiguredForWrite) {
+            if (readBuffer == null) {
+                // An empty buffer will be borrowed in the required state
+            } else if (readBufferConFiguredForWrite) {
                 // Switching to write
                 int remaining = readBuffer.remaining();
                 if (remaining == 0) {
@@ -74,12 +96,19 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getReadBuffer() {
-        return readBuffer;
+        ByteBuffer buffer = readBuffer;
+        if (buffer == null) {
+            buffer = borrow(readArena, readBufferConfiguredForWrite);
+            readBuffer = buffer;
+        }
+        return buffer;
     }
 
 
     public boolean isReadBufferEmpty() {
-        if (readBufferConfiguredForWrite) {
+        if (readBuffer == null) {
+            return true;
+        } else if (readBufferConfiguredForWrite) {
             return readBuffer.position() == 0;
         } else {
             return readBuffer.remaining() == 0;
@@ -100,7 +129,9 @@ public class SocketBufferHandler {
     private void setWriteBufferConfiguredForWrite(boolean writeBufferConfiguredForWrite) {
         // NO-OP if buffer is already in correct state
         if (this.writeBufferConfiguredForWrite != writeBufferConfiguredForWrite) {
-            if (writeBufferConfiguredForWrite) {
+            if (writeBuffer == null) {
+                // An empty buffer will be borrowed in the required state
+            } else if (writeBufferConfiguredForWrite) {
                 // Switching to write
                 int remaining = writeBuffer.remaining();
                 if (remaining == 0) {
@@ -120,7 +151,9 @@ public class SocketBufferHandler {
 
 
     public boolean isWriteBufferWritable() {
-        if (writeBufferConfiguredForWrite) {
+        if (writeBuffer == null) {
+            return true;
+        } else if (writeBufferConfiguredForWrite) {
             return writeBuffer.hasRemaining();
         } else {
             return writeBuffer.remaining() == 0;
@@ -129,12 +162,19 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getWriteBuffer() {
-        return writeBuffer;
+        ByteBuffer buffer = writeBuffer;
+        if (buffer == null) {
+            buffer = borrow(writeArena, writeBufferConfiguredForWrite);
+            writeBuffer = buffer;
+        }
+        return buffer;
     }
 
 
     public boolean isWriteBufferEmpty() {
-        if (writeBufferConfiguredForWrite) {
+        if (writeBuffer == null) {
+            return true;
+        } else if (writeBufferConfiguredForWrite) {
             return writeBuffer.position() == 0;
         } else {
             return writeBuffer.remaining() == 0;
@@ -143,25 +183,104 @@ public class SocketBufferHandler {
 
 
     public void reset() {
-        readBuffer.clear();
+        if (readBuffer != null) {
+            readBuffer.clear();
+        }
         readBufferConfiguredForWrite = true;
-        writeBuffer.clear();
+        if (writeBuffer != null) {
+            writeBuffer.clear();
+        }
         writeBufferConfiguredForWrite = true;
+        releaseIdleBuffers();
+    }
+
+
+    /**
+     * Return the read and write buffers to their arenas if they are empty.
+     * They will be borrowed again when next required. This is a NO-OP for
+     * buffers that were not borrowed from an arena.
+     */
+    public void releaseIdleBuffers() {
+        if (readArena != null && isReadBufferEmpty()) {
+            ByteBuffer buffer = readBuffer;
+            if (buffer != null && readArena.isArenaSize(buffer)) {
+                readBuffer = null;
+                readBufferConfiguredForWrite = true;
+                readArena.release(buffer);
+            }
+        }
+        if (writeArena != null && isWriteBufferEmpty()) {
+            ByteBuffer buffer = writeBuffer;
+            if (buffer != null && writeArena.isArenaSize(buffer)) {
+                writeBuffer = null;
+                writeBufferConfiguredForWrite = true;
+                writeArena.release(buffer);
+            }
+        }
     }
 
 
     public void expand(int newSize) {
         configureReadBufferForWrite();
-        readBuffer = ByteBufferUtils.expand(readBuffer, newSize);
+        readBuffer = expand(readBuffer, readArena, newSize);
         configureWriteBufferForWrite();
-        writeBuffer = ByteBufferUtils.expand(writeBuffer, newSize);
+        writeBuffer = expand(writeBuffer, writeArena, newSize);
     }
 
     public void free() {
+        readBuffer = free(readBuffer, readArena);
+        writeBuffer = free(writeBuffer, writeArena);
+    }
+
+
+    private ByteBuffer free(ByteBuffer buffer, SocketBufferArena arena) {
+        if (buffer == null) {
+            return null;
+        }
+        if (arena != null && arena.isArenaSize(buffer)) {
+            arena.release(buffer);
+            return null;
+        }
         if (direct) {
-            ByteBufferUtils.cleanDirectBuffer(readBuffer);
-            ByteBufferUtils.cleanDirectBuffer(writeBuffer);
+            ByteBufferUtils.cleanDirectBuffer(buffer);
         }
+        return buffer;
     }
 
+
+    private static ByteBuffer borrow(SocketBufferArena arena, boolean configuredForWrite) {
+        ByteBuffer buffer = arena.allocate();
+        if (!configuredForWrite) {
+            // Empty when configured for read
+            buffer.limit(0);
+        }
+        return buffer;
+    }
+
+
+    /*
+     * Buffers borrowed from an arena are slices of a larger buffer so they
+     * must never be cleaned. They are returned to the arena instead and any
+     * data they contain is copied to a new buffer that is owned by this
+     * handler.
+     */
+    private static ByteBuffer expand(ByteBuffer buffer, SocketBufferArena arena, int newSize) {
+        if (buffer == null) {
+            if (newSize <= arena.getBufferSize()) {
+                return null;
+            }
+            return ByteBuffer.allocateDirect(newSize);
+        }
+        if (arena != null && arena.isArenaSize(buffer)) {
+            if (buffer.capacity() >= newSize) {
+                return buffer;
+            }
+            ByteBuffer out = ByteBuffer.allocateDirect(newSize);
+            buffer.flip();
+            out.put(buffer);
+            arena.release(buffer);
+            return out;
+        }
+        return ByteBufferUtils.expand(buffer, newSize);
+    }
 }
@@ -22,6 +22,9 @@ public abstract class SocketProcessorBase<S> implements Runnable {
 
     protected SocketWrapperBase<S> socketWrapper;
     protected SocketEvent event;
+    // Time in ns this processor was submitted to the executor, or -1 if it was
+    // not dispatched to a separate thread
+    private long queuedTime = -1;
 
     public SocketProcessorBase(SocketWrapperBase<S> socketWrapper, SocketEvent event) {
         reset(socketWrapper, event);
@@ -32,11 +35,22 @@ public abstract class SocketProcessorBase<S> implements Runnable {
         Objects.requireNonNull(event);
         this.socketWrapper = socketWrapper;
         this.event = event;
+        this.queuedTime = -1;
+    }
+
+
+    /**
+     * Record that this processor is about to be submitted to an executor so
+     * the time spent waiting in the executor queue can be measured.
+     */
+    public void setQueued() {
+        queuedTime = System.nanoTime();
     }
 
 
     @Override
     public final void run() {
+        long queueWaitTime = queuedTime < 0 ? -1 : System.nanoTime() - queuedTime;
         synchronized (socketWrapper) {
             // It is possible that processing may be triggered for read and
             // write at the same time. The sync above makes sure that processing
@@ -46,6 +60,7 @@ public abstract class SocketProcessorBase<S> implements Runnable {
             if (socketWrapper.isClosed()) {
                 return;
             }
+            socketWrapper.setQueueWaitTime(queueWaitTime);
             doRun();
         }
     }
@@ -62,6 +62,14 @@ public class SocketProperties {
      */
     protected boolean directSslBuffer = false;
 
+    /**
+     * Enable/disable borrowing the network buffers from a shared pool of
+     * direct buffers only while a connection has data to read or write. Only
+     * used by the NIO connector.
+     * Default value is disabled
+     */
+    protected boolean bufferArena = false;
+
     /**
      * Socket receive buffer size in bytes (SO_RCVBUF).
      * JVM default used if not set.
@@ -244,6 +252,10 @@ public class SocketProperties {
         return directSslBuffer;
     }
 
+    public boolean getBufferArena() {
+        return bufferArena;
+    }
+
     public boolean getOoBInline() {
         return ooBInline.booleanValue();
     }
@@ -377,6 +389,10 @@ public class SocketProperties {
         this.directSslBuffer = directSslBuffer;
     }
 
+    public void setBufferArena(boolean bufferArena) {
+        this.bufferArena = bufferArena;
+    }
+
     public void setSoLingerOn(boolean soLingerOn) {
         this.soLingerOn = Boolean.valueOf(soLingerOn);
     }
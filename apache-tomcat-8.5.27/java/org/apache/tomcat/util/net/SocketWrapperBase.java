@@ -49,6 +49,12 @@ public abstract class SocketWrapperBase<E> {
     private volatile boolean upgraded = false;
     private boolean secure = false;
     private String negotiatedProtocol = null;
+    /*
+     * Time in ns the most recent processing of this socket waited in the
+     * executor queue or -1 if not known. Only accessed by the thread processing
+     * the socket.
+     */
+    private long queueWaitTime = -1;
     /*
      * Following cached for speed / reduced GC
      */
@@ -90,6 +96,13 @@ public abstract class SocketWrapperBase<E> {
      */
     protected int bufferedWriteSize = 64 * 1024; // 64k default write buffer
 
+    /**
+     * Used to pass the socket write buffer and the data being written to
+     * {@link #doWrite(boolean, ByteBuffer[])}. Blocking writes are only made
+     * by one thread at a time.
+     */
+    private final ByteBuffer[] gatheringWriteBuffers = new ByteBuffer[2];
+
     public SocketWrapperBase(E socket, AbstractEndpoint<E> endpoint) {
         this.socket = socket;
         this.endpoint = endpoint;
@@ -125,6 +138,8 @@ public abstract class SocketWrapperBase<E> {
     public void setUpgraded(boolean upgraded) { this.upgraded = upgraded; }
     public boolean isSecure() { return secure; }
     public void setSecure(boolean secure) { this.secure = secure; }
+    public long getQueueWaitTime() { return queueWaitTime; }
+    public void setQueueWaitTime(long queueWaitTime) { this.queueWaitTime = queueWaitTime; }
     public String getNegotiatedProtocol() { return negotiatedProtocol; }
     public void setNegotiatedProtocol(String negotiatedProtocol) {
         this.negotiatedProtocol = negotiatedProtocol;
@@ -409,6 +424,12 @@ public abstract class SocketWrapperBase<E> {
         //       non-blocking writes were flushed at the time the switch
         //       occurred.
 
+        if (len >= socketBufferHandler.getWriteBuffer().capacity()) {
+            // Don't copy large arrays into the socket write buffer
+            writeBlocking(ByteBuffer.wrap(buf, off, len));
+            return;
+        }
+
         // Keep writing until all the data has been transferred to the socket
         // write buffer and space remains in that buffer
         socketBufferHandler.configureWriteBufferForWrite();
@@ -445,7 +466,25 @@ public abstract class SocketWrapperBase<E> {
             writeByteBufferBlocking(from);
         } else {
             socketBufferHandler.configureWriteBufferForWrite();
-            transfer(from, socketBufferHandler.getWriteBuffer());
+            ByteBuffer writeBuffer = socketBufferHandler.getWriteBuffer();
+            if (from.remaining() > writeBuffer.remaining()) {
+                // The data doesn't fit so the socket write buffer (typically
+                // holding the response headers) would have to be written
+                // anyway. Write both with a single gathering write rather than
+                // copying some of the data into the socket write buffer
+                // first.
+                socketBufferHandler.configureWriteBufferForRead();
+                gatheringWriteBuffers[0] = writeBuffer;
+                gatheringWriteBuffers[1] = from;
+                try {
+                    doWrite(true, gatheringWriteBuffers);
+                } finally {
+                    gatheringWriteBuffers[0] = null;
+                    gatheringWriteBuffers[1] = null;
+                }
+                return;
+            }
+            transfer(from, writeBuffer);
             if (!socketBufferHandler.isWriteBufferWritable()) {
                 doWrite(true);
                 writeByteBufferBlocking(from);
@@ -685,6 +724,33 @@ public abstract class SocketWrapperBase<E> {
     protected abstract void doWrite(boolean block, ByteBuffer from) throws IOException;
 
 
+    /**
+     * Write the contents of the ByteBuffers, in order, to the socket. For
+     * blocking writes either the entire contents of the buffers will be written
+     * or an IOException will be thrown. Partial blocking writes will not occur.
+     * A non-blocking write stops at the first buffer that could not be written
+     * completely.
+     * <p>
+     * This implementation writes each buffer in turn. Implementations that
+     * support gathering writes should override it to write all the buffers
+     * with as few system calls as possible.
+     *
+     * @param block Should the write be blocking or not?
+     * @param srcs the ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an I/O error such as a timeout occurs during the
+     *                     write
+     */
+    protected void doWrite(boolean block, ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            doWrite(block, src);
+            if (src.hasRemaining()) {
+                return;
+            }
+        }
+    }
+
+
     protected void addToBuffers(byte[] buf, int offset, int length) {
         ByteBufferHolder holder = getByteBufferHolder(length);
         holder.getBuf().put(buf, offset, length);
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes a {@link ThreadPoolExecutor} so that the time tasks spend waiting in
+ * the queue stays close to a target.
+ * <p>
+ * Nothing is recorded per task. Instead, at most once per sample interval, the
+ * arrival rate, the number of queued tasks and the number of tasks in service
+ * are sampled and smoothed. Little's law then provides the average queue delay
+ * (queued / arrival rate) and the average service time (in service / arrival
+ * rate). The core pool size of the executor is used as the target number of
+ * threads:
+ * <ul>
+ * <li>{@link TaskQueue} only creates threads beyond the target once more tasks
+ *     are queued than can be started within the target delay at the current
+ *     arrival rate.</li>
+ * <li>While the queue delay is within the target, the target is reduced
+ *     towards the number of threads in service plus some headroom and threads
+ *     above the target are released as soon as they finish their current
+ *     task rather than after the keep alive time.</li>
+ * </ul>
+ */
+class AdaptivePoolSizer {
+
+    /*
+     * Interval between samples. Short enough to follow bursts, long enough for
+     * the locking in ThreadPoolExecutor.getPoolSize() not to matter.
+     */
+    static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /*
+     * Interval at which idle core threads wake up to take a sample so that the
+     * pool shrinks when no tasks are arriving.
+     */
+    static final long IDLE_SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // Weight given to the newest sample
+    private static final double ALPHA = 0.5;
+
+    // Spare threads kept above the number in service
+    private static final double HEADROOM = 0.25;
+
+    private final ThreadPoolExecutor executor;
+    private final long targetQueueDelayNanos;
+
+    private final AtomicLong arrivals = new AtomicLong(0);
+    private final AtomicLong nextSampleTime;
+    private final AtomicInteger releasePermits = new AtomicInteger(0);
+
+    // Only accessed by the thread that won the race to take the sample
+    private long lastSampleTime;
+    private long lastArrivals = 0;
+
+    // Smoothed values. Arrival rate is in tasks per nanosecond.
+    private volatile double arrivalRate = 0;
+    private volatile double queued = 0;
+    private volatile double inService = 0;
+
+    private volatile int minimumPoolSize;
+
+
+    AdaptivePoolSizer(ThreadPoolExecutor executor, long targetQueueDelay,
+            TimeUnit unit, int minimumPoolSize) {
+        this.executor = executor;
+        this.targetQueueDelayNanos = unit.toNanos(targetQueueDelay);
+        this.minimumPoolSize = minimumPoolSize;
+        lastSampleTime = System.nanoTime();
+        nextSampleTime = new AtomicLong(lastSampleTime + SAMPLE_INTERVAL_NANOS);
+    }
+
+
+    long getTargetQueueDelay(TimeUnit unit) {
+        return unit.convert(targetQueueDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+
+    int getMinimumPoolSize() {
+        return minimumPoolSize;
+    }
+
+
+    void setMinimumPoolSize(int minimumPoolSize) {
+        this.minimumPoolSize = minimumPoolSize;
+    }
+
+
+    void taskSubmitted() {
+        arrivals.incrementAndGet();
+        sampleIfDue();
+    }
+
+
+    void sampleIfDue() {
+        long now = System.nanoTime();
+        long next = nextSampleTime.get();
+        if (now - next >= 0 &&
+                nextSampleTime.compareAndSet(next, now + SAMPLE_INTERVAL_NANOS)) {
+            sample(now);
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if the queue may grow to the given size without
+     *         the expected queue delay exceeding the target
+     */
+    boolean isQueueDelayAcceptable(int queueSize) {
+        return queueSize < arrivalRate * targetQueueDelayNanos;
+    }
+
+
+    /**
+     * Called by threads that are above the core pool size when they look for
+     * their next task.
+     *
+     * @return <code>true</code> if the calling thread should stop
+     */
+    boolean releaseThread() {
+        int permits = releasePermits.get();
+        while (permits > 0) {
+            if (releasePermits.compareAndSet(permits, permits - 1)) {
+                return true;
+            }
+            permits = releasePermits.get();
+        }
+        return false;
+    }
+
+
+    /**
+     * @return The smoothed number of tasks arriving per second
+     */
+    double getArrivalRate() {
+        return arrivalRate * TimeUnit.SECONDS.toNanos(1);
+    }
+
+
+    /**
+     * @return The average time, in milliseconds, that tasks wait in the queue
+     */
+    double getQueueDelay() {
+        double rate = arrivalRate;
+        if (rate <= 0) {
+            return 0;
+        }
+        return queued / rate / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+
+    /**
+     * @return The average time, in milliseconds, taken to execute a task
+     */
+    double getServiceTime() {
+        double rate = arrivalRate;
+        if (rate <= 0) {
+            return 0;
+        }
+        return inService / rate / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+
+    private void sample(long now) {
+        long elapsed = now - lastSampleTime;
+        if (elapsed <= 0) {
+            return;
+        }
+        long currentArrivals = arrivals.get();
+        long newArrivals = currentArrivals - lastArrivals;
+        lastArrivals = currentArrivals;
+        lastSampleTime = now;
+
+        int queueSize = executor.getQueue().size();
+        int inServiceNow = Math.max(0, executor.getSubmittedCount() - queueSize);
+
+        arrivalRate = smooth(arrivalRate, (double) newArrivals / elapsed);
+        queued = smooth(queued, queueSize);
+        inService = smooth(inService, inServiceNow);
+
+        resize();
+    }
+
+
+    private void resize() {
+        int min = minimumPoolSize;
+        int max = executor.getMaximumPoolSize();
+        int current = executor.getPoolSize();
+
+        int target = (int) Math.ceil(inService * (1 + HEADROOM));
+        if (getQueueDelay() * TimeUnit.MILLISECONDS.toNanos(1) > targetQueueDelayNanos) {
+            // Never shrink while tasks are waiting too long. Growth is handled
+            // by TaskQueue as tasks arrive.
+            target = Math.max(target, current);
+        } else if (target < current) {
+            // Release at most half of the surplus threads per sample to avoid
+            // oscillating when the load fluctuates
+            target = current - (current - target + 1) / 2;
+        }
+        target = Math.max(min, Math.min(max, target));
+
+        // Set the permits first as reducing the core pool size wakes idle
+        // threads that will then try to obtain one
+        releasePermits.set(Math.max(0, current - target));
+        executor.setTargetPoolSize(target);
+    }
+
+
+    private static double smooth(double average, double sample) {
+        return average + ALPHA * (sample - average);
+    }
+}
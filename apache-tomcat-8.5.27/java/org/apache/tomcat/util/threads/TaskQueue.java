@@ -72,6 +72,11 @@ public class TaskQueue extends LinkedBlockingQueue<Runnable> {
         if (parent.getPoolSize() == parent.getMaximumPoolSize()) return super.offer(o);
         //we have idle threads, just add it to the queue
         if (parent.getSubmittedCount()<(parent.getPoolSize())) return super.offer(o);
+        //the adaptive pool size has been reached and the queue is short enough
+        //for the expected queue delay to be within the target
+        AdaptivePoolSizer adaptivePoolSizer = parent.getAdaptivePoolSizer();
+        if (adaptivePoolSizer != null &&
+                adaptivePoolSizer.isQueueDelayAcceptable(size())) return super.offer(o);
         //if we have less threads than maximum force creation of a new thread
         if (parent.getPoolSize()<parent.getMaximumPoolSize()) return false;
         //if we reached here, we need to add it to the queue
@@ -82,7 +87,32 @@ public class TaskQueue extends LinkedBlockingQueue<Runnable> {
     @Override
     public Runnable poll(long timeout, TimeUnit unit)
             throws InterruptedException {
-        Runnable runnable = super.poll(timeout, unit);
+        ThreadPoolExecutor parent = this.parent;
+        AdaptivePoolSizer adaptivePoolSizer =
+                parent == null ? null : parent.getAdaptivePoolSizer();
+        long remaining = unit.toNanos(timeout);
+        if (adaptivePoolSizer != null) {
+            // Only threads above the core pool size poll. Stop them as soon as
+            // the adaptive pool size no longer requires them and wake up
+            // periodically while idle so the pool size is re-evaluated when no
+            // tasks are arriving.
+            while (remaining > AdaptivePoolSizer.IDLE_SAMPLE_INTERVAL_NANOS) {
+                if (adaptivePoolSizer.releaseThread()) {
+                    return null;
+                }
+                Runnable runnable = super.poll(
+                        AdaptivePoolSizer.IDLE_SAMPLE_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+                if (runnable != null) {
+                    return runnable;
+                }
+                remaining -= AdaptivePoolSizer.IDLE_SAMPLE_INTERVAL_NANOS;
+                adaptivePoolSizer.sampleIfDue();
+            }
+            if (adaptivePoolSizer.releaseThread()) {
+                return null;
+            }
+        }
+        Runnable runnable = super.poll(remaining, TimeUnit.NANOSECONDS);
         if (runnable == null && parent != null) {
             // the poll timed out, it gives an opportunity to stop the current
             // thread if needed to avoid memory leaks.
@@ -100,6 +130,19 @@ public class TaskQueue extends LinkedBlockingQueue<Runnable> {
             // does not occur with take()
             // but the ThreadPoolExecutor implementation allows this
         }
+        if (parent != null) {
+            AdaptivePoolSizer adaptivePoolSizer = parent.getAdaptivePoolSizer();
+            if (adaptivePoolSizer != null &&
+                    parent.getCorePoolSize() > adaptivePoolSizer.getMinimumPoolSize()) {
+                // Wake up periodically so the pool can shrink when idle
+                Runnable runnable = super.poll(
+                        AdaptivePoolSizer.IDLE_SAMPLE_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+                if (runnable == null) {
+                    adaptivePoolSizer.sampleIfDue();
+                }
+                return runnable;
+            }
+        }
         return super.take();
     }
 
@@ -61,6 +61,12 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      */
     private long threadRenewalDelay = Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Sizes the pool based on the measured queue delay. If <code>null</code>
+     * the pool is sized in the traditional manner.
+     */
+    private volatile AdaptivePoolSizer adaptivePoolSizer = null;
+
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
         prestartAllCoreThreads();
@@ -90,6 +96,122 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.threadRenewalDelay = threadRenewalDelay;
     }
 
+    /**
+     * Configure the target for the time tasks spend waiting in the queue.
+     * When set, the core pool size becomes the minimum size of the pool and
+     * the pool grows and shrinks between that size and the maximum pool size
+     * so that the average queue delay remains close to the target.
+     *
+     * @param targetQueueDelay The target queue delay. Zero or less disables
+     *                         adaptive sizing.
+     * @param unit             The unit of the target queue delay
+     */
+    public void setTargetQueueDelay(long targetQueueDelay, TimeUnit unit) {
+        AdaptivePoolSizer current = adaptivePoolSizer;
+        int minimumPoolSize = current == null ?
+                getCorePoolSize() : current.getMinimumPoolSize();
+        if (targetQueueDelay > 0) {
+            adaptivePoolSizer = new AdaptivePoolSizer(
+                    this, targetQueueDelay, unit, minimumPoolSize);
+        } else {
+            adaptivePoolSizer = null;
+            super.setCorePoolSize(minimumPoolSize);
+        }
+    }
+
+    /**
+     * @param unit The unit in which to return the target
+     *
+     * @return The target queue delay or -1 if adaptive sizing is disabled
+     */
+    public long getTargetQueueDelay(TimeUnit unit) {
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer == null) {
+            return -1;
+        }
+        return adaptivePoolSizer.getTargetQueueDelay(unit);
+    }
+
+    public boolean isAdaptive() {
+        return adaptivePoolSizer != null;
+    }
+
+    /**
+     * @return The average time, in milliseconds, that tasks wait in the queue
+     *         or -1 if adaptive sizing is disabled
+     */
+    public double getQueueDelay() {
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer == null) {
+            return -1;
+        }
+        return adaptivePoolSizer.getQueueDelay();
+    }
+
+    /**
+     * @return The average time, in milliseconds, taken to execute a task or -1
+     *         if adaptive sizing is disabled
+     */
+    public double getServiceTime() {
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer == null) {
+            return -1;
+        }
+        return adaptivePoolSizer.getServiceTime();
+    }
+
+    /**
+     * @return The average number of tasks submitted per second or -1 if
+     *         adaptive sizing is disabled
+     */
+    public double getArrivalRate() {
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer == null) {
+            return -1;
+        }
+        return adaptivePoolSizer.getArrivalRate();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When adaptive sizing is enabled this sets the minimum size of the pool.
+     */
+    @Override
+    public void setCorePoolSize(int corePoolSize) {
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer == null) {
+            super.setCorePoolSize(corePoolSize);
+        } else {
+            adaptivePoolSizer.setMinimumPoolSize(corePoolSize);
+            if (getCorePoolSize() < corePoolSize) {
+                super.setCorePoolSize(corePoolSize);
+            }
+        }
+    }
+
+    /**
+     * @return The minimum size of the pool. This is the core pool size unless
+     *         adaptive sizing is enabled.
+     */
+    public int getMinimumPoolSize() {
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer == null) {
+            return getCorePoolSize();
+        }
+        return adaptivePoolSizer.getMinimumPoolSize();
+    }
+
+    void setTargetPoolSize(int targetPoolSize) {
+        if (targetPoolSize != getCorePoolSize()) {
+            super.setCorePoolSize(targetPoolSize);
+        }
+    }
+
+    AdaptivePoolSizer getAdaptivePoolSizer() {
+        return adaptivePoolSizer;
+    }
+
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
         submittedCount.decrementAndGet();
@@ -163,6 +285,10 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      */
     public void execute(Runnable command, long timeout, TimeUnit unit) {
         submittedCount.incrementAndGet();
+        AdaptivePoolSizer adaptivePoolSizer = this.adaptivePoolSizer;
+        if (adaptivePoolSizer != null) {
+            adaptivePoolSizer.taskSubmitted();
+        }
         try {
             super.execute(command);
         } catch (RejectedExecutionException rx) {
@@ -200,8 +326,9 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
             taskQueue.setForcedRemainingCapacity(Integer.valueOf(0));
         }
 
-        // setCorePoolSize(0) wakes idle threads
-        this.setCorePoolSize(0);
+        // setCorePoolSize(0) wakes idle threads. The super class method is
+        // used so the minimum size of an adaptive pool is not changed.
+        super.setCorePoolSize(0);
 
         // TaskQueue.take() takes care of timing out, so that we are sure that
         // all threads of the pool are renewed in a limited time, something like
@@ -211,7 +338,7 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
             // ok, restore the state of the queue and pool
             taskQueue.setForcedRemainingCapacity(null);
         }
-        this.setCorePoolSize(savedCorePoolSize);
+        super.setCorePoolSize(savedCorePoolSize);
     }
 
     private static class RejectHandler implements RejectedExecutionHandler {
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that runs every task on a new virtual thread. Virtual threads
+ * are not pooled so the executor has no core or maximum size and tasks are
+ * never queued. The statistics provided mirror those of
+ * {@link ThreadPoolExecutor} so that the executor can be monitored in the same
+ * way.
+ * <p>
+ * Virtual threads require Java 21 or later. Use {@link #isSupported()} to
+ * check whether the current JRE supports them before creating an instance.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService
+        implements ResizableExecutor {
+
+    private static final StringManager sm =
+            StringManager.getManager("org.apache.tomcat.util.threads.res");
+
+    private final ThreadFactory threadFactory;
+
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicInteger largestActiveCount = new AtomicInteger(0);
+    private final AtomicLong submittedTaskCount = new AtomicLong(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile boolean shutdown = false;
+
+
+    public static boolean isSupported() {
+        return JreCompat.isJre21Available();
+    }
+
+
+    /**
+     * @param namePrefix The prefix used to name the virtual threads created by
+     *                   this executor
+     *
+     * @throws UnsupportedOperationException if the JRE does not support
+     *                                       virtual threads
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        threadFactory = JreCompat.getInstance().createVirtualThreadFactory(namePrefix);
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (shutdown) {
+            throw new RejectedExecutionException(
+                    sm.getString("virtualThreadExecutor.taskRejected", command.toString()));
+        }
+        submittedTaskCount.incrementAndGet();
+        threadFactory.newThread(new TrackedTask(command)).start();
+    }
+
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        checkTerminated();
+    }
+
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        // Running tasks are not interrupted since there is no queue of tasks
+        // that have not been started.
+        shutdown();
+        return Collections.emptyList();
+    }
+
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+
+
+    /**
+     * For a virtual thread executor the pool size is the number of virtual
+     * threads currently executing a task.
+     */
+    @Override
+    public int getPoolSize() {
+        return activeCount.get();
+    }
+
+
+    /**
+     * Virtual threads are not limited.
+     *
+     * @return Always {@link Integer#MAX_VALUE}
+     */
+    @Override
+    public int getMaxThreads() {
+        return Integer.MAX_VALUE;
+    }
+
+
+    @Override
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+
+    public int getLargestPoolSize() {
+        return largestActiveCount.get();
+    }
+
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+
+    public long getTaskCount() {
+        return submittedTaskCount.get();
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        // There is no pool
+        return false;
+    }
+
+
+    @Override
+    public boolean resizeQueue(int capacity) {
+        // There is no queue
+        return false;
+    }
+
+
+    private void checkTerminated() {
+        if (shutdown && activeCount.get() == 0 &&
+                submittedTaskCount.get() == completedTaskCount.get()) {
+            terminated.countDown();
+        }
+    }
+
+
+    private class TrackedTask implements Runnable {
+
+        private final Runnable task;
+
+        TrackedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            int active = activeCount.incrementAndGet();
+            int largest = largestActiveCount.get();
+            while (active > largest && !largestActiveCount.compareAndSet(largest, active)) {
+                largest = largestActiveCount.get();
+            }
+            try {
+                task.run();
+            } finally {
+                activeCount.decrementAndGet();
+                completedTaskCount.incrementAndGet();
+                if (shutdown) {
+                    checkTerminated();
+                }
+            }
+        }
+    }
+}
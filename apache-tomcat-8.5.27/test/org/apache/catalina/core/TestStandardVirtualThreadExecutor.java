@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestStandardVirtualThreadExecutor extends TomcatBaseTest {
+
+    @Test
+    public void testExecute() throws Exception {
+        StandardVirtualThreadExecutor executor = new StandardVirtualThreadExecutor();
+        executor.setName("test");
+        executor.start();
+
+        // Falls back to a thread pool if virtual threads are not available
+        Assert.assertEquals(Boolean.valueOf(JreCompat.isJre21Available()),
+                Boolean.valueOf(executor.isVirtual()));
+
+        int taskCount = 50;
+        final CountDownLatch started = new CountDownLatch(taskCount);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < taskCount; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+            });
+        }
+
+        if (executor.isVirtual()) {
+            // All the tasks must be able to run concurrently
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(taskCount, executor.getActiveCount());
+        }
+        release.countDown();
+
+        int count = 0;
+        while (executor.getCompletedTaskCount() < taskCount && count < 100) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(taskCount, executor.getCompletedTaskCount());
+        Assert.assertEquals(0, executor.getActiveCount());
+
+        executor.stop();
+        executor.destroy();
+    }
+
+
+    @Test
+    public void testConnectorExecutor() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        StandardVirtualThreadExecutor executor = new StandardVirtualThreadExecutor();
+        executor.setName("virtual");
+        tomcat.getService().addExecutor(executor);
+
+        Connector connector = tomcat.getConnector();
+        ((AbstractProtocol<?>) connector.getProtocolHandler()).setExecutor(executor);
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        // The requests must have been processed by the executor. Requests
+        // on a keep-alive connection may be processed by a single task.
+        Assert.assertTrue(executor.getCompletedTaskCount() > 0);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.WebResource;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestClassArchive extends TomcatBaseTest {
+
+    // Classes in Tomcat's own packages are always loaded by the parent
+    private static final String LOADED_CLASS = "util.b.Foo";
+    private static final String UNUSED_CLASS = "util.a.Foo";
+    private static final long ENTRY_TIME = 1500000000000L;
+
+    @Test
+    public void testPreload() throws Exception {
+        File docBase = createWebapp();
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("/archive", docBase.getAbsolutePath());
+        WebappLoader loader = new WebappLoader();
+        loader.setClassArchive(true);
+        ctx.setLoader(loader);
+        tomcat.start();
+
+        ClassLoader cl = ctx.getLoader().getClassLoader();
+        Assert.assertSame(cl, cl.loadClass(LOADED_CLASS).getClassLoader());
+
+        File archiveFile = new File(((StandardContext) ctx).getWorkPath(),
+                WebappLoader.CLASS_ARCHIVE_FILE_NAME);
+        Assert.assertFalse(archiveFile.exists());
+
+        ctx.reload();
+
+        ClassArchive archive = ClassArchive.open(archiveFile);
+        Assert.assertNotNull(archive);
+        Assert.assertTrue(archive.getClassNames().contains(LOADED_CLASS));
+        Assert.assertFalse(archive.getClassNames().contains(UNUSED_CLASS));
+
+        // The class is loaded in the background without being requested
+        WebappClassLoaderBase wcl = (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+        Assert.assertNotSame(cl, wcl);
+        int count = 0;
+        while (wcl.findLoadedClass0(LOADED_CLASS) == null && count < 100) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertNotNull(wcl.findLoadedClass0(LOADED_CLASS));
+        Assert.assertNull(wcl.findLoadedClass0(UNUSED_CLASS));
+
+        Class<?> clazz = wcl.loadClass(LOADED_CLASS);
+        Assert.assertSame(wcl, clazz.getClassLoader());
+        Assert.assertNotNull(clazz.getConstructor().newInstance());
+
+        // The archive is not held open so it can be replaced. Classes that
+        // were preloaded and then requested are recorded again.
+        Assert.assertTrue(archiveFile.delete());
+        ctx.reload();
+        archive = ClassArchive.open(archiveFile);
+        Assert.assertNotNull(archive);
+        Assert.assertTrue(archive.getClassNames().contains(LOADED_CLASS));
+    }
+
+
+    @Test
+    public void testPreloadedNotRecorded() throws Exception {
+        File docBase = createWebapp();
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("/archive", docBase.getAbsolutePath());
+        WebappLoader loader = new WebappLoader();
+        loader.setClassArchive(true);
+        ctx.setLoader(loader);
+        tomcat.start();
+
+        ctx.getLoader().getClassLoader().loadClass(LOADED_CLASS);
+        ctx.reload();
+
+        // Wait for the class to be preloaded but do not request it
+        WebappClassLoaderBase wcl = (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+        int count = 0;
+        while (wcl.findLoadedClass0(LOADED_CLASS) == null && count < 100) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertNotNull(wcl.findLoadedClass0(LOADED_CLASS));
+        ctx.reload();
+
+        File archiveFile = new File(((StandardContext) ctx).getWorkPath(),
+                WebappLoader.CLASS_ARCHIVE_FILE_NAME);
+        ClassArchive archive = ClassArchive.open(archiveFile);
+        Assert.assertNotNull(archive);
+        Assert.assertFalse(archive.getClassNames().contains(LOADED_CLASS));
+    }
+
+
+    @Test
+    public void testNoPreloadWithTransformer() throws Exception {
+        File docBase = createWebapp();
+
+        Tomcat tomcat = getTomcatInstance();
+        final Context ctx = tomcat.addContext("/archive", docBase.getAbsolutePath());
+        WebappLoader loader = new WebappLoader();
+        loader.setClassArchive(true);
+        ctx.setLoader(loader);
+        // Transformers are usually added while the web application starts
+        ctx.addLifecycleListener(new LifecycleListener() {
+            @Override
+            public void lifecycleEvent(LifecycleEvent event) {
+                if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+                    ((WebappClassLoaderBase) ctx.getLoader().getClassLoader()).addTransformer(
+                            new ClassFileTransformer() {
+                                @Override
+                                public byte[] transform(ClassLoader loader, String className,
+                                        Class<?> classBeingRedefined,
+                                        ProtectionDomain protectionDomain,
+                                        byte[] classfileBuffer) {
+                                    return null;
+                                }
+                            });
+                }
+            }
+        });
+        tomcat.start();
+
+        ctx.getLoader().getClassLoader().loadClass(LOADED_CLASS);
+        ctx.reload();
+
+        File archiveFile = new File(((StandardContext) ctx).getWorkPath(),
+                WebappLoader.CLASS_ARCHIVE_FILE_NAME);
+        Assert.assertTrue(archiveFile.isFile());
+
+        // Classes are not loaded ahead of the application
+        WebappClassLoaderBase wcl = (WebappClassLoaderBase) ctx.getLoader().getClassLoader();
+        Thread.sleep(500);
+        Assert.assertNull(wcl.findLoadedClass0(LOADED_CLASS));
+    }
+
+
+    @Test
+    public void testChangedJar() throws Exception {
+        File docBase = createWebapp();
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("/archive", docBase.getAbsolutePath());
+        tomcat.start();
+
+        File archiveFile = new File(getTemporaryDirectory(), "classes.archive");
+        ClassArchive.write(archiveFile, Arrays.asList(LOADED_CLASS), ctx.getResources());
+
+        String path = "/" + LOADED_CLASS.replace('.', '/') + ".class";
+        WebResource resource = ctx.getResources().getClassLoaderResource(path);
+        byte[] content = ClassArchive.open(archiveFile).getContent(LOADED_CLASS, resource);
+        Assert.assertArrayEquals(resource.getContent(), content);
+
+        // A rebuilt JAR with entries of the same length and time
+        writeJar(new File(docBase, "WEB-INF/lib/classes.jar"), true);
+        Assert.assertNull(ClassArchive.open(archiveFile).getContent(LOADED_CLASS, resource));
+    }
+
+
+    private File createWebapp() throws Exception {
+        File docBase = new File(getTemporaryDirectory(), "archive");
+        File lib = new File(docBase, "WEB-INF/lib");
+        Assert.assertTrue(lib.mkdirs());
+        writeJar(new File(lib, "classes.jar"), false);
+        return docBase;
+    }
+
+
+    private void writeJar(File jar, boolean modified) throws Exception {
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String className : new String[] { LOADED_CLASS, UNUSED_CLASS }) {
+                String name = className.replace('.', '/') + ".class";
+                JarEntry entry = new JarEntry(name);
+                entry.setTime(ENTRY_TIME);
+                jos.putNextEntry(entry);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                try (InputStream is = getClass().getClassLoader().getResourceAsStream(name)) {
+                    byte[] buf = new byte[4096];
+                    int n;
+                    while ((n = is.read(buf)) > 0) {
+                        baos.write(buf, 0, n);
+                    }
+                }
+                byte[] content = baos.toByteArray();
+                if (modified) {
+                    // Change the last byte of the class file
+                    content[content.length - 1]++;
+                }
+                jos.write(content);
+                jos.closeEntry();
+            }
+        }
+    }
+}
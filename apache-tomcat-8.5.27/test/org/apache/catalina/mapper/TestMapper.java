@@ -30,6 +30,7 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.servlet4preview.http.MappingMatch;
 import org.apache.catalina.startup.LoggingBaseTest;
 import org.apache.tomcat.util.buf.MessageBytes;
 
@@ -412,6 +413,74 @@ public class TestMapper extends LoggingBaseTest {
         Assert.assertEquals("newContext-defaultWrapper2", mappingData.wrapper.getName());
     }
 
+    @Test
+    public void testMapCache() throws Exception {
+        mapper.setCacheSize(16);
+
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("iowejoiejfoiew");
+        MessageBytes uri = MessageBytes.newInstance();
+        uri.setString("/foo/bar/blah/bobou/foo");
+
+        // The second time the hosts are hidden from the mapper so the result
+        // can only come from the cache
+        Mapper.MappedHost[] hosts = mapper.hosts;
+        for (int i = 0; i < 2; i++) {
+            mappingData.recycle();
+            mapper.map(host, uri, null, mappingData);
+            Assert.assertEquals("blah7", mappingData.host.getName());
+            Assert.assertEquals("context2", mappingData.context.getName());
+            Assert.assertEquals("wrapper5", mappingData.wrapper.getName());
+            Assert.assertEquals("/foo/bar", mappingData.contextPath.toString());
+            Assert.assertEquals("/blah/bobou", mappingData.wrapperPath.toString());
+            Assert.assertEquals("/foo", mappingData.pathInfo.toString());
+            Assert.assertEquals(MappingMatch.PATH, mappingData.matchType);
+            Assert.assertEquals(1, mapper.cache.size());
+            mapper.hosts = new Mapper.MappedHost[0];
+        }
+        mapper.hosts = hosts;
+
+        // Changing the mappings discards the cached results
+        Host blah7 = createHost("blah7");
+        Context context2 = mapper.hosts[4].contextList.contexts[2].versions[0].object;
+        mapper.addWrapper("iowejoiejfoiew", "/foo/bar", "0", "/blah/bobou/foo",
+                createWrapper("wrapper8"), false, false);
+        Assert.assertEquals(0, mapper.cache.size());
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        Assert.assertEquals("wrapper8", mappingData.wrapper.getName());
+        Assert.assertEquals("/blah/bobou/foo", mappingData.wrapperPath.toString());
+        Assert.assertTrue(mappingData.pathInfo.isNull());
+        Assert.assertEquals(MappingMatch.EXACT, mappingData.matchType);
+
+        mapper.removeWrapper("iowejoiejfoiew", "/foo/bar", "0", "/blah/bobou/foo");
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        Assert.assertEquals("wrapper5", mappingData.wrapper.getName());
+
+        // Results for a context with several versions are not cached
+        Context newContext = createContext("newContext");
+        mapper.addContextVersion("iowejoiejfoiew", blah7, "/foo/bar", "1", newContext,
+                null, null, Arrays.asList(new WrapperMappingInfo[] {
+                        new WrapperMappingInfo("/", createWrapper("newContext-default"),
+                                false, false) }));
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        Assert.assertEquals("newContext", mappingData.context.getName());
+        Assert.assertNotNull(mappingData.contexts);
+        mappingData.recycle();
+        mapper.map(host, uri, "0", mappingData);
+        Assert.assertSame(context2, mappingData.context);
+        Assert.assertEquals(2, mappingData.contexts.length);
+
+        mapper.removeContextVersion(newContext, "iowejoiejfoiew", "/foo/bar", "1");
+        mappingData.recycle();
+        mapper.map(host, uri, null, mappingData);
+        Assert.assertSame(context2, mappingData.context);
+        Assert.assertNull(mappingData.contexts);
+    }
+
     @Test
     public void testReloadContextVersion() throws Exception {
         final String hostName = "iowejoiejfoiew";
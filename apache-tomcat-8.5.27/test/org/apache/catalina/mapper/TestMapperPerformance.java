@@ -16,9 +16,18 @@
  */
 package org.apache.catalina.mapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardWrapper;
 import org.apache.tomcat.util.buf.MessageBytes;
 
 public class TestMapperPerformance extends TestMapper {
@@ -58,11 +67,16 @@ public class TestMapperPerformance extends TestMapper {
     }
 
     private long testPerformanceImpl(String requestedHostName) throws Exception {
+        return testPerformanceImpl(requestedHostName, "/foo/bar/blah/bobou/foo");
+    }
+
+    private long testPerformanceImpl(String requestedHostName, String requestedUri)
+            throws Exception {
         MappingData mappingData = new MappingData();
         MessageBytes host = MessageBytes.newInstance();
         host.setString(requestedHostName);
         MessageBytes uri = MessageBytes.newInstance();
-        uri.setString("/foo/bar/blah/bobou/foo");
+        uri.setString(requestedUri);
         uri.toChars();
         uri.getCharChunk().setLimit(-1);
 
@@ -75,4 +89,82 @@ public class TestMapperPerformance extends TestMapper {
         return time;
     }
 
+
+    /*
+     * A host with a few hundred contexts and a couple of thousand servlet
+     * mappings.
+     */
+    @Test
+    public void testPerformanceLargeMappingTable() throws Exception {
+        final int contextCount = 300;
+        final int mappingsPerType = 3;
+
+        Host host = new StandardHost();
+        host.setName("large");
+        mapper.addHost("large.example.com", new String[0], host);
+        for (int i = 0; i < contextCount; i++) {
+            String path = "/app" + i;
+            if (i % 3 == 0) {
+                path = path + "/v2";
+            }
+            Context context = new StandardContext();
+            context.setName(path);
+            mapper.addContextVersion("large.example.com", host, path, "0", context,
+                    new String[0], null, null);
+            List<WrapperMappingInfo> wrappers = new ArrayList<>();
+            for (int j = 0; j < mappingsPerType; j++) {
+                wrappers.add(new WrapperMappingInfo("/api/resource" + j,
+                        createWrapper(path + "-exact" + j), false, false));
+                wrappers.add(new WrapperMappingInfo("/rest/v" + j + "/*",
+                        createWrapper(path + "-prefix" + j), false, false));
+            }
+            wrappers.add(new WrapperMappingInfo("*.do", createWrapper(path + "-do"),
+                    false, false));
+            wrappers.add(new WrapperMappingInfo("/", createWrapper(path + "-default"),
+                    false, false));
+            mapper.addWrappers("large.example.com", path, "0", wrappers);
+        }
+
+        String[][] expected = new String[][] {
+                { "/app151/api/resource2", "/app151", "/app151-exact2" },
+                { "/app150/v2/rest/v1/items/42", "/app150/v2", "/app150/v2-prefix1" },
+                { "/app299/a/b/c/index.do", "/app299", "/app299-do" },
+                { "/app150/other", "/app150/v2", null },
+                { "/app2/static/style.css", "/app2", "/app2-default" } };
+        for (String[] mapping : expected) {
+            MappingData mappingData = new MappingData();
+            MessageBytes hostName = MessageBytes.newInstance();
+            hostName.setString("large.example.com");
+            MessageBytes uri = MessageBytes.newInstance();
+            uri.setString(mapping[0]);
+            uri.toChars();
+            uri.getCharChunk().setLimit(-1);
+            mapper.map(hostName, uri, null, mappingData);
+            if (mapping[2] == null) {
+                Assert.assertNull(mapping[0], mappingData.context);
+            } else {
+                Assert.assertEquals(mapping[0], mapping[1], mappingData.context.getName());
+                Assert.assertEquals(mapping[0], mapping[2], mappingData.wrapper.getName());
+            }
+        }
+
+        final long maxTime = 5000;
+        long time = testPerformanceImpl("large.example.com", expected[1][0]);
+        log.info("Large mapping table, Time [" + time + "]ms");
+        if (time >= maxTime) {
+            // Rerun to reject occasional failures, e.g. because of gc
+            log.warn("testPerformanceLargeMappingTable() test completed in " + time + " ms");
+            time = testPerformanceImpl("large.example.com", expected[1][0]);
+            log.warn("testPerformanceLargeMappingTable() test rerun completed in " +
+                    time + " ms");
+        }
+        Assert.assertTrue(String.valueOf(time), time < maxTime);
+    }
+
+
+    private static Wrapper createWrapper(String name) {
+        Wrapper wrapper = new StandardWrapper();
+        wrapper.setName(name);
+        return wrapper;
+    }
 }
@@ -21,14 +21,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 
+import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletResponse;
 
 import org.junit.Assert;
@@ -37,10 +45,14 @@ import org.junit.Test;
 import static org.apache.catalina.startup.SimpleHttpClient.CRLF;
 import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardHost;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.webresources.StandardRoot;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.security.ConcurrentMessageDigest;
 import org.apache.tomcat.websocket.server.WsContextListener;
 
 public class TestDefaultServlet extends TomcatBaseTest {
@@ -143,6 +155,170 @@ public class TestDefaultServlet extends TomcatBaseTest {
         Assert.assertTrue(responseHeaders.contains("Vary: accept-encoding"));
     }
 
+    /*
+     * Verify serving of resources cached outside of the heap.
+     */
+    @Test
+    public void testOffHeapCache() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp");
+        byte[] expected = Files.readAllBytes(new File(appDir, "index.html").toPath());
+
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        StandardRoot root = new StandardRoot(ctxt);
+        root.setCacheOffHeap(true);
+        ctxt.setResources(root);
+        Tomcat.addServlet(ctxt, "default", "org.apache.catalina.servlets.DefaultServlet");
+        ctxt.addServletMappingDecoded("/", "default");
+
+        tomcat.start();
+
+        Map<String,List<String>> resHeaders= new HashMap<>();
+        ByteChunk out = new ByteChunk();
+        // The second request is served from the cache
+        for (int i = 0; i < 2; i++) {
+            int rc = getUrl("http://localhost:" + getPort() + "/index.html", out, resHeaders);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertArrayEquals(expected, Arrays.copyOfRange(
+                    out.getBuffer(), out.getStart(), out.getEnd()));
+            Assert.assertEquals(Integer.toString(expected.length),
+                    resHeaders.get("Content-Length").get(0));
+        }
+    }
+
+    /*
+     * Resources in a packed WAR are sent with sendfile, either directly from
+     * the WAR or from an extracted copy.
+     */
+    @Test
+    public void testSendfileFromWar() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+
+        byte[] content = new byte[100 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        File war = new File(getTemporaryDirectory(), "sendfile.war");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(war))) {
+            jos.putNextEntry(new JarEntry("deflated.txt"));
+            jos.write(content);
+            jos.closeEntry();
+
+            JarEntry stored = new JarEntry("stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCompressedSize(content.length);
+            stored.setCrc(crc.getValue());
+            jos.putNextEntry(stored);
+            jos.write(content);
+            jos.closeEntry();
+        }
+        addDeleteOnTearDown(war);
+
+        ((StandardHost) tomcat.getHost()).setUnpackWARs(false);
+        Context ctxt = tomcat.addWebapp("", war.getAbsolutePath());
+
+        tomcat.start();
+
+        // A copy of a previous version of the deflated resource is deleted
+        // when the current version is extracted
+        File extractedDir = new File((File) ctxt.getServletContext().getAttribute(
+                ServletContext.TEMPDIR), "sendfile");
+        Assert.assertTrue(extractedDir.mkdirs());
+        String pathKey = HexUtils.toHexString(ConcurrentMessageDigest.digestMD5(
+                "/deflated.txt".getBytes(StandardCharsets.UTF_8))) + '-';
+        File superseded = new File(extractedDir, pathKey + "0-" + content.length);
+        Assert.assertTrue(superseded.createNewFile());
+
+        for (String name : new String[] { "stored.txt", "deflated.txt" }) {
+            // The second request for the deflated resource uses the copy
+            // extracted by the first
+            for (int i = 0; i < 2; i++) {
+                ByteChunk out = new ByteChunk();
+                int rc = getUrl("http://localhost:" + getPort() + "/" + name, out, null);
+                Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+                Assert.assertArrayEquals(content, Arrays.copyOfRange(
+                        out.getBuffer(), out.getStart(), out.getEnd()));
+            }
+
+            Map<String,List<String>> reqHeaders = new HashMap<>();
+            reqHeaders.put("Range", Arrays.asList("bytes=1000-60999"));
+            ByteChunk out = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/" + name, out, reqHeaders, null);
+            Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+            Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 61000),
+                    Arrays.copyOfRange(out.getBuffer(), out.getStart(), out.getEnd()));
+        }
+
+        Assert.assertFalse(superseded.exists());
+        String[] extracted = extractedDir.list();
+        Assert.assertEquals(1, extracted.length);
+        Assert.assertTrue(extracted[0].startsWith(pathKey));
+
+        // The extracted copies are removed when the web application stops
+        ctxt.stop();
+        Assert.assertFalse(extractedDir.exists());
+    }
+
+    /*
+     * A multipart/byteranges response sent with sendfile is the same as one
+     * written by the servlet.
+     */
+    @Test
+    public void testSendfileMultipleRanges() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "ranges");
+        Assert.assertTrue(appDir.mkdirs());
+        addDeleteOnTearDown(appDir);
+        try (FileOutputStream fos = new FileOutputStream(new File(appDir, "data.txt"))) {
+            byte[] content = new byte[200 * 1024];
+            for (int i = 0; i < content.length; i++) {
+                content[i] = (byte) ('a' + (i % 26));
+            }
+            fos.write(content);
+        }
+
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Tomcat.addServlet(ctxt, "default", "org.apache.catalina.servlets.DefaultServlet");
+        ctxt.addServletMappingDecoded("/", "default");
+        ctxt.addMimeMapping("txt", "text/plain");
+
+        Context copyCtxt = tomcat.addContext("/copy", appDir.getAbsolutePath());
+        Wrapper copy = Tomcat.addServlet(copyCtxt, "default",
+                "org.apache.catalina.servlets.DefaultServlet");
+        copy.addInitParameter("sendfileSize", "-1");
+        copyCtxt.addServletMappingDecoded("/", "default");
+        copyCtxt.addMimeMapping("txt", "text/plain");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Range", Arrays.asList("bytes=0-9,1000-60999,-100"));
+
+        ByteChunk expected = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/copy/data.txt", expected,
+                reqHeaders, null);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        rc = getUrl("http://localhost:" + getPort() + "/data.txt", out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        Assert.assertEquals(Integer.toString(out.getLength()),
+                resHeaders.get("Content-Length").get(0));
+        Assert.assertArrayEquals(
+                Arrays.copyOfRange(expected.getBuffer(), expected.getStart(), expected.getEnd()),
+                Arrays.copyOfRange(out.getBuffer(), out.getStart(), out.getEnd()));
+    }
+
     /*
      * Verify serving of brotli compressed resources from context root.
      */
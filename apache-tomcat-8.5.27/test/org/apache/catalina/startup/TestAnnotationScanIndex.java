@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAnnotationScanIndex extends LoggingBaseTest {
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = getTemporaryDirectory();
+        File indexFile = new File(dir, AnnotationScanIndex.FILE_NAME);
+        File jar = new File(dir, "a.jar");
+        write(jar, "content");
+
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.get(jar));
+        index.put(jar, createClasses());
+        index.save();
+        Assert.assertTrue(indexFile.isFile());
+
+        index = new AnnotationScanIndex(indexFile);
+        List<AnnotationScanIndex.ClassInfo> classes = index.get(jar);
+        Assert.assertNotNull(classes);
+        Assert.assertEquals(2, classes.size());
+        AnnotationScanIndex.ClassInfo classInfo = classes.get(1);
+        Assert.assertEquals("org/example/Foo.class", classInfo.getEntryName());
+        Assert.assertEquals("org.example.Foo", classInfo.getClassName());
+        Assert.assertEquals(1, classInfo.getAccessFlags());
+        Assert.assertEquals("org.example.Bar", classInfo.getSuperclassName());
+        Assert.assertArrayEquals(new String[] { "java.io.Serializable", "java.lang.Runnable" },
+                classInfo.getInterfaceNames());
+        Assert.assertArrayEquals(new String[] { "Ljavax/servlet/annotation/WebServlet;" },
+                classInfo.getAnnotationTypes());
+    }
+
+
+    @Test
+    public void testChangedJar() throws Exception {
+        File dir = getTemporaryDirectory();
+        File indexFile = new File(dir, AnnotationScanIndex.FILE_NAME);
+        File jar = new File(dir, "a.jar");
+        write(jar, "content");
+
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        index.get(jar);
+        index.put(jar, createClasses());
+        index.save();
+
+        // Same content, different last modified time
+        Assert.assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertNotNull(index.get(jar));
+
+        // Same content, different location
+        File copy = new File(dir, "b.jar");
+        write(copy, "content");
+        Assert.assertNotNull(index.get(copy));
+        index.save();
+
+        // Different content
+        write(jar, "CONTENT");
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.get(jar));
+        Assert.assertNotNull(index.get(copy));
+    }
+
+
+    @Test
+    public void testChangedJarSameSizeAndTime() throws Exception {
+        File dir = getTemporaryDirectory();
+        File indexFile = new File(dir, AnnotationScanIndex.FILE_NAME);
+        File jar = new File(dir, "a.jar");
+        write(jar, "content");
+        long lastModified = jar.lastModified();
+
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        index.get(jar);
+        index.put(jar, createClasses());
+        index.save();
+
+        // Different content, same path, size and last modified time
+        write(jar, "CONTENT");
+        Assert.assertTrue(jar.setLastModified(lastModified));
+        index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.get(jar));
+    }
+
+
+    @Test
+    public void testInvalidIndex() throws Exception {
+        File dir = getTemporaryDirectory();
+        File indexFile = new File(dir, AnnotationScanIndex.FILE_NAME);
+        write(indexFile, "not an index");
+        File jar = new File(dir, "a.jar");
+        write(jar, "content");
+
+        AnnotationScanIndex index = new AnnotationScanIndex(indexFile);
+        Assert.assertNull(index.get(jar));
+    }
+
+
+    private static List<AnnotationScanIndex.ClassInfo> createClasses() {
+        List<AnnotationScanIndex.ClassInfo> classes = new ArrayList<>();
+        classes.add(new AnnotationScanIndex.ClassInfo("org/example/Bar.class",
+                "org.example.Bar", 1, "java.lang.Object", new String[0], new String[0]));
+        classes.add(new AnnotationScanIndex.ClassInfo("org/example/Foo.class",
+                "org.example.Foo", 1, "org.example.Bar",
+                new String[] { "java.io.Serializable", "java.lang.Runnable" },
+                new String[] { "Ljavax/servlet/annotation/WebServlet;" }));
+        return classes;
+    }
+
+
+    private static void write(File file, String content) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(content.getBytes("UTF-8"));
+        }
+    }
+}
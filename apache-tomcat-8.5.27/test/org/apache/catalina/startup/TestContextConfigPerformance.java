@@ -0,0 +1,203 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.startup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.mapper.Mapper;
+import org.apache.catalina.webresources.StandardRoot;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.descriptor.web.WebXml;
+
+/**
+ * Compares the start time of a web application with many JARs with and without
+ * parallel annotation scanning and the annotation scan index.
+ */
+public class TestContextConfigPerformance extends TomcatBaseTest {
+
+    // Enough JARs for the difference to be visible without making the default
+    // test run slow. Increase it for more reliable timings.
+    private static final int JAR_COUNT = 50;
+
+    // Classes copied in to each JAR to give the scanner something to parse
+    private static final Class<?>[] CLASSES = new Class<?>[] {
+            ContextConfig.class, Tomcat.class, HostConfig.class, Catalina.class,
+            StandardContext.class, StandardHost.class, StandardWrapper.class,
+            Request.class, Response.class, Mapper.class, StandardRoot.class,
+            WebXml.class, ByteChunk.class };
+
+
+    @Test
+    public void testParallelAnnotationScanning() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "many-jars");
+        createWebapp(appDir);
+
+        // The first context is a warm-up
+        StartTimer[] timers = new StartTimer[3];
+        String[] paths = new String[] { "/warmup", "/sequential", "/parallel" };
+        for (int i = 0; i < paths.length; i++) {
+            Context ctx = tomcat.addWebapp(null, paths[i], appDir.getAbsolutePath());
+            ctx.setParallelAnnotationScanning(i == 2);
+            timers[i] = new StartTimer();
+            ctx.addLifecycleListener(timers[i]);
+        }
+
+        tomcat.start();
+
+        for (String path : paths) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + path +
+                    "/annotation/overwrite");
+            Assert.assertEquals("<p>Hello World!</p>", res.toString());
+        }
+
+        log.info("Start time with " + JAR_COUNT + " JARs: sequential [" +
+                timers[1].getDuration() + "] ms, parallel [" +
+                timers[2].getDuration() + "] ms");
+    }
+
+
+    @Test
+    public void testAnnotationScanIndex() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File(getTemporaryDirectory(), "many-jars");
+        createWebapp(appDir);
+
+        // The first context is a warm-up
+        Context[] contexts = new Context[3];
+        StartTimer[] timers = new StartTimer[3];
+        String[] paths = new String[] { "/warmup", "/scan", "/index" };
+        for (int i = 0; i < paths.length; i++) {
+            contexts[i] = tomcat.addWebapp(null, paths[i], appDir.getAbsolutePath());
+            contexts[i].setUseAnnotationScanIndex(i == 2);
+            timers[i] = new StartTimer();
+            contexts[i].addLifecycleListener(timers[i]);
+        }
+
+        tomcat.start();
+
+        File index = new File(((StandardContext) contexts[2]).getWorkPath(),
+                AnnotationScanIndex.FILE_NAME);
+        Assert.assertTrue(index.isFile());
+        ContextConfig indexConfig = getContextConfig(contexts[2]);
+        Assert.assertEquals(0, indexConfig.getIndexedJarCount());
+
+        for (int i = 0; i < paths.length; i++) {
+            contexts[i].reload();
+            ByteChunk res = getUrl("http://localhost:" + getPort() + paths[i] +
+                    "/annotation/overwrite");
+            Assert.assertEquals("<p>Hello World!</p>", res.toString());
+        }
+
+        // Every JAR of the web application (and any JARs on the class path
+        // that are scanned) was processed from the index rather than parsed
+        // again
+        Assert.assertTrue(indexConfig.getIndexedJarCount() >= JAR_COUNT);
+        Assert.assertEquals(0, getContextConfig(contexts[1]).getIndexedJarCount());
+
+        log.info("Restart time with " + JAR_COUNT + " JARs: scan [" +
+                timers[1].getDuration() + "] ms, index [" +
+                timers[2].getDuration() + "] ms");
+    }
+
+
+    private static ContextConfig getContextConfig(Context context) {
+        for (LifecycleListener listener : context.findLifecycleListeners()) {
+            if (listener instanceof ContextConfig) {
+                return (ContextConfig) listener;
+            }
+        }
+        Assert.fail();
+        return null;
+    }
+
+
+    private static void createWebapp(File appDir) throws IOException {
+        File lib = new File(appDir, "WEB-INF/lib");
+        Assert.assertTrue(lib.mkdirs());
+        for (int i = 0; i < JAR_COUNT; i++) {
+            File jar = new File(lib, "lib-" + i + ".jar");
+            try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar))) {
+                for (Class<?> clazz : CLASSES) {
+                    addClass(jos, clazz);
+                }
+                if (i == JAR_COUNT / 2) {
+                    addClass(jos, ParamServlet.class);
+                }
+            }
+        }
+    }
+
+
+    private static void addClass(JarOutputStream jos, Class<?> clazz) throws IOException {
+        String name = clazz.getName().replace('.', '/') + ".class";
+        jos.putNextEntry(new JarEntry(name));
+        try (InputStream is = clazz.getClassLoader().getResourceAsStream(name)) {
+            copy(is, jos);
+        }
+        jos.closeEntry();
+    }
+
+
+    private static void copy(InputStream is, OutputStream os) throws IOException {
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            os.write(buf, 0, n);
+        }
+    }
+
+
+    private static class StartTimer implements LifecycleListener {
+
+        private long start;
+        private long end;
+
+        @Override
+        public void lifecycleEvent(LifecycleEvent event) {
+            if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+                start = System.nanoTime();
+            } else if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+                end = System.nanoTime();
+            }
+        }
+
+        public long getDuration() {
+            return (end - start) / 1000000;
+        }
+    }
+}
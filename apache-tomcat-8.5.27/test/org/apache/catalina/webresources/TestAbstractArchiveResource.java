@@ -17,6 +17,12 @@
 package org.apache.catalina.webresources;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -74,4 +80,53 @@ public class TestAbstractArchiveResource extends TomcatBaseTest {
         Assert.assertEquals(expectedURL.toString(), webResource.getURL().toString());
     }
 
+
+    @Test
+    public void testStoredContentOffset() throws Exception {
+        byte[] content = new byte[1000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        File jar = new File(getTemporaryDirectory(), "stored.jar");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar))) {
+            JarEntry deflated = new JarEntry("deflated.txt");
+            jos.putNextEntry(deflated);
+            jos.write(content);
+            jos.closeEntry();
+
+            JarEntry stored = new JarEntry("stored.txt");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(content.length);
+            stored.setCompressedSize(content.length);
+            stored.setCrc(crc.getValue());
+            jos.putNextEntry(stored);
+            jos.write(content);
+            jos.closeEntry();
+        }
+
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        JarResourceSet resourceSet =
+                new JarResourceSet(root, "/", jar.getAbsolutePath(), "/");
+        root.setMainResources(resourceSet);
+
+        AbstractArchiveResource stored =
+                (AbstractArchiveResource) resourceSet.getResource("/stored.txt");
+        long offset = stored.getContentOffset();
+        Assert.assertTrue(offset > 0);
+        Assert.assertEquals(jar.getAbsolutePath(), stored.getArchivePath());
+        byte[] read = new byte[content.length];
+        try (RandomAccessFile raf = new RandomAccessFile(jar, "r")) {
+            raf.seek(offset);
+            raf.readFully(read);
+        }
+        Assert.assertArrayEquals(content, read);
+
+        AbstractArchiveResource deflated =
+                (AbstractArchiveResource) resourceSet.getResource("/deflated.txt");
+        Assert.assertEquals(-1, deflated.getContentOffset());
+        Assert.assertNull(deflated.getArchivePath());
+    }
 }
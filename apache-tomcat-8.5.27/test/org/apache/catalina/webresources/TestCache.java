@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.WebResourceSet;
+import org.apache.catalina.startup.ExpandWar;
+
+public class TestCache {
+
+    private static final int FILE_SIZE = 600;
+
+    private static Path tempDir;
+
+    @BeforeClass
+    public static void before() throws IOException {
+        tempDir = Files.createTempDirectory("test", new FileAttribute[0]);
+        for (String name : new String[] { "a.txt", "b.txt" }) {
+            try (OutputStream os = new FileOutputStream(new File(tempDir.toFile(), name))) {
+                for (int i = 0; i < FILE_SIZE; i++) {
+                    os.write('0' + (i % 10));
+                }
+            }
+        }
+    }
+
+    @AfterClass
+    public static void after() {
+        ExpandWar.delete(tempDir.toFile());
+    }
+
+
+    @Test
+    public void testOffHeap() throws Exception {
+        Cache cache = new Cache(getWebResourceRoot());
+        cache.setOffHeap(true);
+
+        WebResource resource = cache.getResource("/a.txt", false);
+        Assert.assertTrue(resource instanceof CachedResource);
+        CachedResource cachedResource = (CachedResource) resource;
+
+        ByteBuffer buffer = cachedResource.acquireContentBuffer();
+        Assert.assertNotNull(buffer);
+        Assert.assertTrue(buffer.isDirect());
+        Assert.assertTrue(buffer.isReadOnly());
+        Assert.assertEquals(FILE_SIZE, buffer.remaining());
+        Assert.assertEquals('5', buffer.get(5));
+        // Reading the content does not change the cached content
+        buffer.position(FILE_SIZE);
+        cachedResource.releaseContentBuffer();
+
+        // The content is not copied to the heap
+        Assert.assertNull(resource.getContent());
+
+        try (InputStream is = resource.getInputStream()) {
+            byte[] read = new byte[FILE_SIZE + 1];
+            int len = 0;
+            int n;
+            while ((n = is.read(read, len, read.length - len)) > 0) {
+                len += n;
+            }
+            Assert.assertEquals(FILE_SIZE, len);
+        }
+
+        Assert.assertEquals(FILE_SIZE, cachedResource.acquireContentBuffer().remaining());
+        cachedResource.releaseContentBuffer();
+        Assert.assertSame(resource, cache.getResource("/a.txt", false));
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testOffHeapEviction() throws Exception {
+        Cache cache = new Cache(getWebResourceRoot());
+        cache.setOffHeap(true);
+        OffHeapPool pool = cache.getOffHeapPool();
+
+        CachedResource a = (CachedResource) cache.getResource("/a.txt", false);
+        ByteBuffer bufferA = a.acquireContentBuffer();
+        long allocated = pool.getAllocatedSize();
+        Assert.assertTrue(allocated > 0);
+
+        // The buffer is not reused while it is being written
+        cache.removeCacheEntry("/a.txt");
+        Assert.assertNull(a.acquireContentBuffer());
+        CachedResource b = (CachedResource) cache.getResource("/b.txt", false);
+        ByteBuffer bufferB = b.acquireContentBuffer();
+        Assert.assertEquals('5', bufferA.get(5));
+        a.releaseContentBuffer();
+        b.releaseContentBuffer();
+
+        // Once released, the buffer of an evicted resource is reused
+        cache.removeCacheEntry("/b.txt");
+        a = (CachedResource) cache.getResource("/a.txt", false);
+        Assert.assertEquals(bufferB, a.acquireContentBuffer());
+        a.releaseContentBuffer();
+        Assert.assertEquals(allocated, pool.getAllocatedSize());
+    }
+
+
+    @Test
+    public void testOffHeapLimit() throws Exception {
+        Cache cache = new Cache(getWebResourceRoot());
+        // Too small for a single slab
+        cache.setMaxSize(32);
+        cache.setOffHeap(true);
+
+        CachedResource resource = (CachedResource) cache.getResource("/a.txt", false);
+        Assert.assertNull(resource.acquireContentBuffer());
+        Assert.assertEquals(0, cache.getOffHeapPool().getAllocatedSize());
+        // The content is still available from the resource
+        try (InputStream is = resource.getInputStream()) {
+            Assert.assertEquals('0', is.read());
+        }
+    }
+
+
+    @Test
+    public void testOnHeap() throws Exception {
+        Cache cache = new Cache(getWebResourceRoot());
+
+        WebResource resource = cache.getResource("/a.txt", false);
+        Assert.assertNull(((CachedResource) resource).acquireContentBuffer());
+        Assert.assertSame(resource.getContent(), resource.getContent());
+    }
+
+
+    @Test
+    public void testAdmission() throws Exception {
+        Cache cache = new Cache(getWebResourceRoot());
+        // Room for one resource (content plus metadata) but not two
+        cache.setMaxSize(2);
+        cache.setTtl(0);
+
+        for (int i = 0; i < 3; i++) {
+            cache.getResource("/a.txt", false);
+        }
+        Assert.assertEquals(2, cache.getHitCount());
+
+        // Used less often than a.txt so not cached
+        cache.getResource("/b.txt", false);
+        cache.getResource("/b.txt", false);
+        Assert.assertEquals(2, cache.getHitCount());
+        cache.getResource("/a.txt", false);
+        Assert.assertEquals(3, cache.getHitCount());
+
+        // Once b.txt is used more often than a.txt, it replaces it
+        for (int i = 0; i < 3; i++) {
+            cache.getResource("/b.txt", false);
+        }
+        long hits = cache.getHitCount();
+        cache.getResource("/b.txt", false);
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+        cache.getResource("/a.txt", false);
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testFrequencySketch() {
+        FrequencySketch sketch = new FrequencySketch(64);
+        Assert.assertEquals(0, sketch.frequency("/a"));
+        sketch.increment("/a");
+        sketch.increment("/a");
+        Assert.assertEquals(2, sketch.frequency("/a"));
+        for (int i = 0; i < 20; i++) {
+            sketch.increment("/b");
+        }
+        Assert.assertEquals(FrequencySketch.MAX_FREQUENCY, sketch.frequency("/b"));
+
+        // Ageing halves the counts
+        for (int i = 0; i < 10 * 64; i++) {
+            sketch.increment("/c" + i);
+        }
+        Assert.assertTrue(sketch.frequency("/b") <= FrequencySketch.MAX_FREQUENCY / 2 + 1);
+    }
+
+
+    private StandardRoot getWebResourceRoot() {
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        WebResourceSet webResourceSet =
+                new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/");
+        root.setMainResources(webResourceSet);
+        return root;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestLatencyHistogram extends TomcatBaseTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+
+    @Test
+    public void testBuckets() {
+        long previousUpperBound = -1;
+        for (long value = 0; value < (1L << 32); value = value * 2 + 1) {
+            int index = LatencyHistogram.bucketIndex(value);
+            long upperBound = LatencyHistogram.bucketUpperBound(index);
+            Assert.assertTrue(upperBound >= value);
+            // Within 1/16th of the value
+            Assert.assertTrue(upperBound - value <= value / 16);
+            Assert.assertTrue(upperBound > previousUpperBound);
+            previousUpperBound = upperBound;
+            if (index > 0) {
+                Assert.assertEquals(index - 1,
+                        LatencyHistogram.bucketIndex(LatencyHistogram.bucketUpperBound(index - 1)));
+                Assert.assertEquals(index, LatencyHistogram.bucketIndex(
+                        LatencyHistogram.bucketUpperBound(index - 1) + 1));
+            }
+        }
+    }
+
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMaxValue());
+        assertApproximately(500, histogram.getValueAtPercentile(50));
+        assertApproximately(990, histogram.getValueAtPercentile(99));
+        assertApproximately(999, histogram.getValueAtPercentile(99.9));
+        Assert.assertEquals(1000, histogram.getValueAtPercentile(100));
+    }
+
+
+    @Test
+    public void testLargeAndNegativeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        Assert.assertEquals(0, histogram.getCount());
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertTrue(histogram.getValueAtPercentile(50) >= (1L << 31));
+    }
+
+
+    @Test
+    public void testAddAndReset() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            a.record(10);
+        }
+        b.record(100000);
+        a.add(b);
+        Assert.assertEquals(100, a.getCount());
+        Assert.assertEquals(10, a.getValueAtPercentile(99));
+        assertApproximately(100000, a.getValueAtPercentile(99.9));
+
+        a.reset();
+        Assert.assertEquals(0, a.getCount());
+        Assert.assertEquals(0, a.getMaxValue());
+    }
+
+
+    @Test
+    public void testPhaseHistogramsRecorded() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        Connector connector = tomcat.getConnector();
+        RequestGroupInfo global = (RequestGroupInfo)
+                ((AbstractProtocol<?>) connector.getProtocolHandler()).getHandler().getGlobal();
+
+        // The statistics are updated after the response has been sent
+        int count = 0;
+        while (global.getRequestCount() < 10 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(10, global.getRequestCount());
+        Assert.assertTrue(global.getPhaseHistogram(Constants.PHASE_QUEUE_WAIT).getCount() > 0);
+        Assert.assertEquals(10, global.getPhaseHistogram(Constants.PHASE_HEADER_PARSE).getCount());
+        Assert.assertEquals(10, global.getPhaseHistogram(Constants.PHASE_SERVICE).getCount());
+        Assert.assertEquals(10, global.getPhaseHistogram(Constants.PHASE_WRITE).getCount());
+        Assert.assertTrue(global.getServiceTimeP99() >= global.getServiceTimeP50());
+
+        global.resetCounters();
+        Assert.assertEquals(0, global.getPhaseHistogram(Constants.PHASE_SERVICE).getCount());
+    }
+
+
+    private static void assertApproximately(long expected, long actual) {
+        Assert.assertTrue("Expected [" + expected + "] but was [" + actual + "]",
+                actual >= expected && actual <= expected + expected / 16);
+    }
+}
@@ -19,6 +19,8 @@ package org.apache.coyote.http11;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Enumeration;
 
 import javax.servlet.ServletException;
@@ -35,6 +37,8 @@ import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.TesterServlet;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.Request;
+import org.apache.tomcat.util.http.MimeHeaders;
 
 public class TestHttp11InputBuffer extends TomcatBaseTest {
 
@@ -640,4 +644,61 @@ public class TestHttp11InputBuffer extends TomcatBaseTest {
             return true;
         }
     }
+
+
+    @Test
+    public void testHeaderValueScan() throws Exception {
+        // Values of every length up to several times the width of the
+        // scanner's word so that the end of line is found at every offset
+        StringBuilder request = new StringBuilder("GET /test HTTP/1.1\r\n");
+        request.append("Host: localhost\r\n");
+        request.append("X-Padded: \t  padded value  \t\r\n");
+        request.append("X-Empty:   \r\n");
+        request.append("X-Folded: first\r\n");
+        request.append("  second\r\n");
+        request.append("X-Lf: lf only \n");
+        for (int i = 1; i <= 32; i++) {
+            request.append("X-Length-").append(i).append(": ");
+            request.append(getValue(i)).append(" \t\r\n");
+        }
+        request.append("\r\n");
+        byte[] bytes = request.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        Request req = new Request();
+        Http11InputBuffer inputBuffer = new Http11InputBuffer(req, 8192, false);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        buffer.put(bytes);
+        buffer.flip();
+        inputBuffer.setByteBuffer(buffer);
+
+        Assert.assertTrue(inputBuffer.parseRequestLine(false));
+        Assert.assertTrue(inputBuffer.parseHeaders());
+
+        MimeHeaders headers = req.getMimeHeaders();
+        Assert.assertEquals("localhost", headers.getHeader("host"));
+        Assert.assertEquals("padded value", headers.getHeader("x-padded"));
+        Assert.assertEquals("", headers.getHeader("x-empty"));
+        Assert.assertEquals("first second", headers.getHeader("x-folded"));
+        Assert.assertEquals("lf only", headers.getHeader("x-lf"));
+        for (int i = 1; i <= 32; i++) {
+            Assert.assertEquals(getValue(i), headers.getHeader("x-length-" + i));
+        }
+    }
+
+
+    private static String getValue(int length) {
+        StringBuilder value = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // Include white space within the value and bytes with the high
+            // bit set
+            if (i % 5 == 2 && i < length - 1) {
+                value.append('\t');
+            } else if (i % 7 == 3) {
+                value.append('\u00e9');
+            } else {
+                value.append((char) ('a' + i % 26));
+            }
+        }
+        return value.toString();
+    }
 }
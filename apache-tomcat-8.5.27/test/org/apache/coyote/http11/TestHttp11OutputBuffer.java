@@ -16,6 +16,14 @@
  */
 package org.apache.coyote.http11;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -23,6 +31,7 @@ import org.apache.catalina.Context;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestHttp11OutputBuffer extends TomcatBaseTest {
 
@@ -56,6 +65,85 @@ public class TestHttp11OutputBuffer extends TomcatBaseTest {
         Assert.assertTrue(client.isResponseBodyOK());
     }
 
+    @Test
+    public void testLargeWriteWithContentLength() throws Exception {
+        doTestLargeWrite(true);
+    }
+
+
+    @Test
+    public void testLargeWriteChunked() throws Exception {
+        doTestLargeWrite(false);
+    }
+
+
+    /*
+     * Writes that are larger than the socket write buffer are written together
+     * with the response headers (and chunk headers) already in that buffer.
+     */
+    private void doTestLargeWrite(boolean setContentLength) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "large", new LargeWriteServlet(setContentLength));
+        ctx.addServletMappingDecoded("/large", "large");
+
+        tomcat.start();
+
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/large", bc, null);
+
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        byte[] expected = LargeWriteServlet.getBody();
+        Assert.assertEquals(expected.length * LargeWriteServlet.WRITES, bc.getLength());
+        for (int i = 0; i < bc.getLength(); i++) {
+            Assert.assertEquals(expected[i % expected.length], bc.getBuffer()[bc.getStart() + i]);
+        }
+    }
+
+
+    private static class LargeWriteServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int WRITES = 4;
+
+        private final boolean setContentLength;
+
+        LargeWriteServlet(boolean setContentLength) {
+            this.setContentLength = setContentLength;
+        }
+
+        private static byte[] getBody() {
+            byte[] body = new byte[256 * 1024 + 7];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) (i % 251);
+            }
+            return body;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            byte[] body = getBody();
+            if (setContentLength) {
+                resp.setContentLength(body.length * WRITES);
+            }
+            resp.setContentType("application/octet-stream");
+            OutputStream os = resp.getOutputStream();
+            // The small write is buffered and written to the socket write
+            // buffer, after the headers, when the first large write is made
+            os.write(body, 0, 10);
+            os.write(body, 10, body.length - 10);
+            for (int i = 1; i < WRITES; i++) {
+                os.write(body);
+            }
+        }
+    }
+
+
     private static class ExpectationClient extends SimpleHttpClient {
 
         private static final String BODY = "foo=bar";
@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import org.junit.Assume;
+import org.junit.Before;
+
+import org.apache.catalina.core.AprLifecycleListener;
+
+/**
+ * Runs the output buffer tests with the APR/native connector regardless of
+ * the connector selected for the test run. APR can only write from direct
+ * buffers so this covers the paths that hand heap buffers to the socket.
+ */
+public class TestHttp11OutputBufferApr extends TestHttp11OutputBuffer {
+
+    @Override
+    protected String getProtocol() {
+        return Http11AprProtocol.class.getName();
+    }
+
+
+    @Before
+    public void checkAprAvailable() {
+        Assume.assumeTrue("APR/native is not available",
+                AprLifecycleListener.isAprAvailable());
+    }
+}
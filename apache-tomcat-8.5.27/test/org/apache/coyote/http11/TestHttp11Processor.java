@@ -17,6 +17,8 @@
 package org.apache.coyote.http11;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -28,10 +30,12 @@ import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -55,11 +59,25 @@ import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.TesterServlet;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.ActionCode;
+import org.apache.coyote.Adapter;
+import org.apache.coyote.Request;
+import org.apache.coyote.Response;
+import org.apache.coyote.UpgradeProtocol;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.descriptor.web.SecurityCollection;
 import org.apache.tomcat.util.descriptor.web.SecurityConstraint;
+import org.apache.tomcat.util.net.ApplicationBufferHandler;
+import org.apache.tomcat.util.net.NioChannel;
+import org.apache.tomcat.util.net.NioEndpoint;
+import org.apache.tomcat.util.net.SSLSupport;
+import org.apache.tomcat.util.net.SendfileDataBase;
+import org.apache.tomcat.util.net.SendfileState;
+import org.apache.tomcat.util.net.SocketBufferHandler;
+import org.apache.tomcat.util.net.SocketEvent;
+import org.apache.tomcat.util.net.SocketWrapperBase;
 
 public class TestHttp11Processor extends TomcatBaseTest {
 
@@ -382,6 +400,367 @@ public class TestHttp11Processor extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testPipeliningCoalesced() throws Exception {
+        // All the responses are written to the network together
+        Assert.assertEquals(1, doTestPipeliningWrites(true));
+    }
+
+
+    @Test
+    public void testPipeliningNotCoalesced() throws Exception {
+        // Each response is written to the network when it completes
+        Assert.assertEquals(16, doTestPipeliningWrites(false));
+    }
+
+
+    /*
+     * Processes pipelined requests that have all been received and returns
+     * the number of writes to the network.
+     */
+    private int doTestPipeliningWrites(boolean coalesce) throws Exception {
+        int count = 16;
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            requests.append("GET /foo HTTP/1.1\r\n");
+            requests.append("Host: any\r\n");
+            requests.append("\r\n");
+        }
+
+        Http11Processor processor = new Http11Processor(8192, false, true, new NioEndpoint(),
+                8192, new HashSet<String>(), 8192, 2 * 1024 * 1024,
+                new HashMap<String,UpgradeProtocol>(), false);
+        processor.setCoalescePipelinedResponses(coalesce);
+        processor.setAdapter(new OkAdapter());
+        TesterSocketWrapper socketWrapper = new TesterSocketWrapper(
+                requests.toString().getBytes(StandardCharsets.ISO_8859_1));
+
+        processor.service(socketWrapper);
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(socketWrapper.getOutput()), StandardCharsets.ISO_8859_1));
+        for (int i = 0; i < count; i++) {
+            Assert.assertEquals("OK", readResponseBody(reader));
+        }
+        Assert.assertNull(reader.readLine());
+
+        return socketWrapper.getWriteCount();
+    }
+
+
+    /*
+     * The responses held back while pipelined requests are processed must be
+     * written when a request enters async mode since the async response may
+     * take a long time.
+     */
+    @Test
+    public void testPipeliningAsync() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "TesterServlet", new TesterServlet());
+        ctx.addServletMappingDecoded("/foo", "TesterServlet");
+        LatchedAsyncServlet asyncServlet = new LatchedAsyncServlet();
+        Wrapper w = Tomcat.addServlet(ctx, "LatchedAsyncServlet", asyncServlet);
+        w.setAsyncSupported(true);
+        ctx.addServletMappingDecoded("/async", "LatchedAsyncServlet");
+
+        tomcat.start();
+
+        Socket socket = new Socket("localhost", getPort());
+        try {
+            socket.setSoTimeout(10000);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+
+            writer.write("GET /foo HTTP/1.1\r\n");
+            writer.write("Host: any\r\n");
+            writer.write("\r\n");
+            writer.write("GET /async HTTP/1.1\r\n");
+            writer.write("Host: any\r\n");
+            writer.write("\r\n");
+            writer.flush();
+
+            // The async response can't complete until the first response has
+            // been read
+            Assert.assertEquals("OK", readResponseBody(reader));
+            asyncServlet.latch.countDown();
+            Assert.assertEquals("OK", readResponseBody(reader));
+        } finally {
+            asyncServlet.latch.countDown();
+            socket.close();
+        }
+    }
+
+
+    private static class LatchedAsyncServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        @Override
+        protected void doGet(HttpServletRequest req, final HttpServletResponse resp)
+                throws ServletException, IOException {
+            final AsyncContext ac = req.startAsync();
+            ac.start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                        resp.setContentType("text/plain");
+                        resp.setContentLength(2);
+                        resp.getWriter().print("OK");
+                    } catch (InterruptedException | IOException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        ac.complete();
+                    }
+                }
+            });
+        }
+    }
+
+
+    private static class OkAdapter implements Adapter {
+
+        @Override
+        public void service(Request req, Response res) throws Exception {
+            res.setContentType("text/plain");
+            res.setContentLength(2);
+            res.doWrite(ByteBuffer.wrap("OK".getBytes(StandardCharsets.ISO_8859_1)));
+            res.action(ActionCode.CLOSE, null);
+        }
+
+        @Override
+        public boolean prepare(Request req, Response res) {
+            return true;
+        }
+
+        @Override
+        public boolean asyncDispatch(Request req, Response res, SocketEvent status) {
+            return false;
+        }
+
+        @Override
+        public void log(Request req, Response res, long time) {
+            // NO-OP
+        }
+
+        @Override
+        public void checkRecycled(Request req, Response res) {
+            // NO-OP
+        }
+
+        @Override
+        public String getDomain() {
+            return null;
+        }
+    }
+
+
+    /*
+     * Reads the given input, never blocking for more, and records what is
+     * written and how many times it is written to the network.
+     */
+    private static class TesterSocketWrapper extends SocketWrapperBase<NioChannel> {
+
+        private final ByteBuffer input;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private int writeCount = 0;
+
+        TesterSocketWrapper(byte[] input) {
+            super(null, new NioEndpoint());
+            this.input = ByteBuffer.wrap(input);
+            socketBufferHandler = new SocketBufferHandler(8192, 8192, false);
+        }
+
+        byte[] getOutput() {
+            return output.toByteArray();
+        }
+
+        int getWriteCount() {
+            return writeCount;
+        }
+
+        @Override
+        public int read(boolean block, byte[] b, int off, int len) {
+            int n = Math.min(len, input.remaining());
+            input.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int read(boolean block, ByteBuffer to) {
+            int n = Math.min(to.remaining(), input.remaining());
+            for (int i = 0; i < n; i++) {
+                to.put(input.get());
+            }
+            return n;
+        }
+
+        @Override
+        protected void doWrite(boolean block, ByteBuffer from) {
+            if (from.hasRemaining()) {
+                writeCount++;
+                while (from.hasRemaining()) {
+                    output.write(from.get());
+                }
+            }
+        }
+
+        @Override
+        public boolean isReadyForRead() {
+            return input.hasRemaining();
+        }
+
+        @Override
+        public void setAppReadBufHandler(ApplicationBufferHandler handler) {
+            // NO-OP
+        }
+
+        @Override
+        public void close() {
+            // NO-OP
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void registerReadInterest() {
+            // NO-OP
+        }
+
+        @Override
+        public void registerWriteInterest() {
+            // NO-OP
+        }
+
+        @Override
+        public SendfileDataBase createSendfileData(String filename, long pos, long length) {
+            return null;
+        }
+
+        @Override
+        public SendfileState processSendfile(SendfileDataBase sendfileData) {
+            return SendfileState.ERROR;
+        }
+
+        @Override
+        public void doClientAuth(SSLSupport sslSupport) {
+            // NO-OP
+        }
+
+        @Override
+        public SSLSupport getSslSupport(String clientCertProvider) {
+            return null;
+        }
+
+        @Override
+        protected void populateRemoteHost() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemoteAddr() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateRemotePort() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalName() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalAddr() {
+            // NO-OP
+        }
+
+        @Override
+        protected void populateLocalPort() {
+            // NO-OP
+        }
+    }
+
+
+    /*
+     * The response to the first request must not be held back while the body
+     * of the pipelined second request is read.
+     */
+    @Test
+    public void testPipeliningPartialBody() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "EchoBody", new EchoBodyServlet());
+        ctx.addServletMappingDecoded("/echo", "EchoBody");
+
+        tomcat.start();
+
+        Socket socket = new Socket("localhost", getPort());
+        try {
+            socket.setSoTimeout(30000);
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+
+            writer.write("GET /echo HTTP/1.1\r\n");
+            writer.write("Host: any\r\n");
+            writer.write("\r\n");
+            writer.write("POST /echo HTTP/1.1\r\n");
+            writer.write("Host: any\r\n");
+            writer.write("Content-Length: 4\r\n");
+            writer.write("\r\n");
+            writer.write("AB");
+            writer.flush();
+
+            Assert.assertEquals("", readResponseBody(reader));
+
+            writer.write("CD");
+            writer.flush();
+
+            Assert.assertEquals("ABCD", readResponseBody(reader));
+        } finally {
+            socket.close();
+        }
+    }
+
+
+    private static String readResponseBody(BufferedReader reader) throws IOException {
+        Assert.assertEquals("HTTP/1.1 200 ", reader.readLine());
+        int contentLength = -1;
+        String line = reader.readLine();
+        while (line.length() > 0) {
+            if (line.toLowerCase(Locale.ENGLISH).startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            line = reader.readLine();
+        }
+        Assert.assertTrue(contentLength >= 0);
+        char[] body = new char[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int n = reader.read(body, read, contentLength - read);
+            Assert.assertTrue(n > 0);
+            read += n;
+        }
+        return new String(body);
+    }
+
+
     @Test
     public void testChunking11NoContentLength() throws Exception {
         Tomcat tomcat = getTomcatInstance();
@@ -1318,4 +1697,90 @@ public class TestHttp11Processor extends TomcatBaseTest {
         // Expected response is a 200 response.
         Assert.assertTrue(client.isResponse200());
     }
+
+
+    @Test
+    public void testCompressionChangedAfterStart() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        // Ensure the second request uses the same processor
+        tomcat.getConnector().setProperty("processorCache", "1");
+        tomcat.getConnector().setProperty("maxThreads", "1");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "TesterServlet", new TesterServlet());
+        ctx.addServletMappingDecoded("/foo", "TesterServlet");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        List<String> acceptEncoding = new ArrayList<>();
+        acceptEncoding.add("gzip");
+        reqHeaders.put("Accept-Encoding", acceptEncoding);
+
+        ByteChunk responseBody = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/foo", responseBody,
+                reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertNull(resHeaders.get("Content-Encoding"));
+
+        tomcat.getConnector().setProperty("compression", "force");
+
+        responseBody.recycle();
+        resHeaders.clear();
+        rc = getUrl("http://localhost:" + getPort() + "/foo", responseBody,
+                reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+    }
+
+
+    @Test
+    public void testCompressionEncoder() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "force");
+        tomcat.getConnector().setProperty("compressionEncoders",
+                TesterContentEncoder.class.getName());
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "TesterServlet", new TesterServlet());
+        ctx.addServletMappingDecoded("/foo", "TesterServlet");
+
+        tomcat.start();
+
+        doTestCompressionEncoder("gzip, " + TesterContentEncoder.ENCODING,
+                TesterContentEncoder.ENCODING, "OK");
+        doTestCompressionEncoder(TesterContentEncoder.ENCODING + ";q=0, gzip",
+                "gzip", null);
+        doTestCompressionEncoder("identity", null, "OK");
+    }
+
+
+    private void doTestCompressionEncoder(String acceptEncoding,
+            String expectedEncoding, String expectedBody) throws Exception {
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        values.add(acceptEncoding);
+        reqHeaders.put("Accept-Encoding", values);
+
+        ByteChunk responseBody = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/foo", responseBody,
+                reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        List<String> contentEncoding = resHeaders.get("Content-Encoding");
+        if (expectedEncoding == null) {
+            Assert.assertNull(contentEncoding);
+        } else {
+            Assert.assertEquals(expectedEncoding, contentEncoding.get(0));
+        }
+        if (expectedBody != null) {
+            Assert.assertEquals(expectedBody, responseBody.toString());
+        }
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import org.apache.coyote.ContentEncoder;
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Content encoder for the <code>x-upper</code> coding used by the tests. It
+ * converts ASCII response bodies to upper case so it is easy to see that it
+ * was used.
+ */
+public class TesterContentEncoder implements ContentEncoder {
+
+    public static final String ENCODING = "x-upper";
+
+
+    @Override
+    public String getEncoding() {
+        return ENCODING;
+    }
+
+
+    @Override
+    public OutputFilter createOutputFilter() {
+        return new UpperCaseOutputFilter();
+    }
+
+
+    private static class UpperCaseOutputFilter implements OutputFilter {
+
+        private HttpOutputBuffer buffer;
+        private long bytesWritten = 0;
+
+        @Deprecated
+        @Override
+        public int doWrite(ByteChunk chunk) throws IOException {
+            return doWrite(ByteBuffer.wrap(chunk.getBuffer(), chunk.getStart(), chunk.getLength()));
+        }
+
+        @Override
+        public int doWrite(ByteBuffer chunk) throws IOException {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            String upper = new String(bytes, "ISO-8859-1").toUpperCase(Locale.ENGLISH);
+            bytesWritten += bytes.length;
+            return buffer.doWrite(ByteBuffer.wrap(upper.getBytes("ISO-8859-1")));
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public void setResponse(Response response) {
+            // NO-OP
+        }
+
+        @Override
+        public void setBuffer(HttpOutputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void recycle() {
+            buffer = null;
+            bytesWritten = 0;
+        }
+
+        @Override
+        public void end() throws IOException {
+            buffer.end();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            buffer.flush();
+        }
+    }
+}
@@ -17,14 +17,20 @@
 
 package org.apache.coyote.http11.filters;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.coyote.CompressionCache;
 import org.apache.coyote.Response;
+import org.apache.tomcat.util.collections.SynchronizedStack;
 
 /**
  * Test case to demonstrate the interaction between gzip and flushing in the
@@ -83,4 +89,179 @@ public class TestGzipOutputFilter {
         // most of the data should have been flushed out
         Assert.assertTrue(dataFound.length >= (dataExpected.length - 20));
     }
+
+
+    @Test
+    public void testLevels() throws Exception {
+        byte[] d = createBody();
+        SynchronizedStack<Deflater> deflaterPool = new SynchronizedStack<>(1, 1);
+        for (int level : new int[] { 0, 1, 9, -1 }) {
+            // Use the filter more than once to reuse the pooled Deflater
+            for (int i = 0; i < 2; i++) {
+                byte[] compressed = compress(d, level, null, false, deflaterPool);
+                Assert.assertArrayEquals(d, decompress(compressed));
+                if (level == 0) {
+                    // Stored
+                    Assert.assertTrue(compressed.length > d.length);
+                } else {
+                    // 10 byte header and 8 byte trailer
+                    Assert.assertEquals(deflatedLength(d, level) + 18, compressed.length);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testDeflaterPoolLimit() throws Exception {
+        SynchronizedStack<Deflater> deflaterPool = new SynchronizedStack<>(1, 1);
+        byte[] d = createBody();
+
+        // Two responses compressed at the same time need two Deflaters
+        TesterOutputBuffer[] tobs = new TesterOutputBuffer[2];
+        for (int i = 0; i < tobs.length; i++) {
+            Response res = new Response();
+            tobs[i] = new TesterOutputBuffer(res, 8 * 1024);
+            res.setOutputBuffer(tobs[i]);
+            GzipOutputFilter gf = new GzipOutputFilter();
+            gf.setDeflaterPool(deflaterPool);
+            tobs[i].addFilter(gf);
+            tobs[i].addActiveFilter(gf);
+            tobs[i].doWrite(ByteBuffer.wrap(d));
+        }
+        for (TesterOutputBuffer tob : tobs) {
+            tob.end();
+            Assert.assertArrayEquals(d, decompress(tob.toByteArray()));
+        }
+
+        // Only one is kept. The other was ended.
+        Assert.assertNotNull(deflaterPool.pop());
+        Assert.assertNull(deflaterPool.pop());
+    }
+
+
+    @Test
+    public void testCache() throws Exception {
+        byte[] d = createBody();
+        CompressionCache cache = new CompressionCache(1024 * 1024, 64 * 1024);
+
+        // No ETag so not cached
+        byte[] compressed = compress(d, -1, cache, false);
+        Assert.assertArrayEquals(d, decompress(compressed));
+        Assert.assertEquals(0, cache.getLookupCount());
+
+        byte[] first = compress(d, -1, cache, true);
+        Assert.assertArrayEquals(d, decompress(first));
+        Assert.assertEquals(1, cache.getLookupCount());
+        Assert.assertEquals(0, cache.getHitCount());
+        Assert.assertEquals(first.length, cache.getSize());
+
+        byte[] second = compress(d, -1, cache, true);
+        Assert.assertArrayEquals(first, second);
+        Assert.assertEquals(2, cache.getLookupCount());
+        Assert.assertEquals(1, cache.getHitCount());
+
+        // A different level requires a different entry
+        byte[] third = compress(d, 1, cache, true);
+        Assert.assertArrayEquals(d, decompress(third));
+        Assert.assertEquals(3, cache.getLookupCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testCacheObjectMaxSize() throws Exception {
+        byte[] d = createBody();
+        CompressionCache cache = new CompressionCache(1024 * 1024, d.length - 1);
+
+        byte[] compressed = compress(d, -1, cache, true);
+        Assert.assertArrayEquals(d, decompress(compressed));
+        Assert.assertEquals(0, cache.getLookupCount());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+
+    @Test
+    public void testCacheEviction() throws Exception {
+        CompressionCache cache = new CompressionCache(10, 1024);
+        cache.put("a", new byte[6]);
+        cache.put("b", new byte[6]);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("b"));
+        Assert.assertEquals(6, cache.getSize());
+        // Larger than the cache
+        cache.put("c", new byte[11]);
+        Assert.assertNull(cache.get("c"));
+    }
+
+
+    private static byte[] createBody() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("{\"id\":");
+            sb.append(i);
+            sb.append(",\"name\":\"Apache Tomcat\"},");
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+
+    private static byte[] compress(byte[] d, int level, CompressionCache cache, boolean etag)
+            throws Exception {
+        return compress(d, level, cache, etag, null);
+    }
+
+
+    private static byte[] compress(byte[] d, int level, CompressionCache cache, boolean etag,
+            SynchronizedStack<Deflater> deflaterPool) throws Exception {
+        Response res = new Response();
+        if (etag) {
+            res.setHeader("ETag", "W/\"1\"");
+        }
+        TesterOutputBuffer tob = new TesterOutputBuffer(res, 8 * 1024);
+        res.setOutputBuffer(tob);
+
+        GzipOutputFilter gf = new GzipOutputFilter();
+        gf.setLevel(level);
+        gf.setCache(cache);
+        gf.setDeflaterPool(deflaterPool);
+        tob.addFilter(gf);
+        tob.addActiveFilter(gf);
+
+        // Write in several parts
+        int half = d.length / 2;
+        tob.doWrite(ByteBuffer.wrap(d, 0, half));
+        tob.doWrite(ByteBuffer.wrap(d, half, d.length - half));
+        tob.end();
+        byte[] result = tob.toByteArray();
+        gf.recycle();
+        return result;
+    }
+
+
+    private static int deflatedLength(byte[] d, int level) {
+        Deflater deflater = new Deflater(level, true);
+        deflater.setInput(d);
+        deflater.finish();
+        byte[] buf = new byte[1024];
+        int result = 0;
+        while (!deflater.finished()) {
+            result += deflater.deflate(buf);
+        }
+        deflater.end();
+        return result;
+    }
+
+
+    private static byte[] decompress(byte[] compressed) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GZIPInputStream gis = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = gis.read(buf)) > 0) {
+                baos.write(buf, 0, n);
+            }
+        }
+        return baos.toByteArray();
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.codec.binary.Base64;
+
+public class TestCacheDigest {
+
+    private static final String[] CACHED = new String[] {
+            "https://localhost/style.css",
+            "https://localhost/script.js",
+            "https://localhost/logo.png" };
+
+
+    @Test
+    public void testContains() throws Exception {
+        CacheDigest digest = CacheDigest.parse(encode(CACHED, null, 7));
+        Assert.assertNotNull(digest);
+        for (String url : CACHED) {
+            Assert.assertTrue(url, digest.contains(url, null));
+        }
+        Assert.assertFalse(digest.contains("https://localhost/other.css", null));
+        Assert.assertFalse(digest.contains("http://localhost/style.css", null));
+    }
+
+
+    @Test
+    public void testValidators() throws Exception {
+        String[] etags = new String[] { "\"1\"", "\"2\"", "\"3\"" };
+        CacheDigest digest = CacheDigest.parse(encode(CACHED, etags, 7) + "; validators");
+        Assert.assertNotNull(digest);
+        Assert.assertTrue(digest.contains(CACHED[0], etags[0]));
+        // ETag is required
+        Assert.assertFalse(digest.contains(CACHED[0], null));
+        // Modified resource
+        Assert.assertFalse(digest.contains(CACHED[0], "\"4\""));
+    }
+
+
+    @Test
+    public void testStaleIgnored() throws Exception {
+        Assert.assertNull(CacheDigest.parse(encode(CACHED, null, 7) + "; stale"));
+
+        CacheDigest digest = CacheDigest.parse(encode(CACHED, null, 7) + "; stale, " +
+                encode(new String[] { "https://localhost/fresh.js" }, null, 7) + "; complete");
+        Assert.assertNotNull(digest);
+        Assert.assertFalse(digest.contains(CACHED[0], null));
+        Assert.assertTrue(digest.contains("https://localhost/fresh.js", null));
+    }
+
+
+    @Test
+    public void testInvalid() {
+        Assert.assertNull(CacheDigest.parse(null));
+        Assert.assertNull(CacheDigest.parse(""));
+        // Too short for the header
+        Assert.assertNull(CacheDigest.parse("AA"));
+    }
+
+
+    /*
+     * Encodes a digest as described by section 2.1.1 of
+     * draft-ietf-httpbis-cache-digest-01.
+     */
+    private static String encode(String[] urls, String[] etags, int log2P) throws Exception {
+        int log2N = 0;
+        while ((1 << log2N) < urls.length) {
+            log2N++;
+        }
+        int bits = log2N + log2P;
+        long[] values = new long[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(urls[i].getBytes(StandardCharsets.UTF_8));
+            if (etags != null) {
+                md.update(etags[i].getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] hash = md.digest();
+            long value = 0;
+            for (int j = 0; j < 8; j++) {
+                value = (value << 8) | (hash[j] & 0xFF);
+            }
+            values[i] = value >>> (64 - bits);
+        }
+        Arrays.sort(values);
+
+        BitWriter writer = new BitWriter();
+        writer.write(log2N, 5);
+        writer.write(log2P, 5);
+        long c = -1;
+        for (long v : values) {
+            if (v == c) {
+                continue;
+            }
+            long d = v - c - 1;
+            long q = d >> log2P;
+            for (long i = 0; i < q; i++) {
+                writer.write(0, 1);
+            }
+            writer.write(1, 1);
+            writer.write(d & ((1 << log2P) - 1), log2P);
+            c = v;
+        }
+        return Base64.encodeBase64URLSafeString(writer.toByteArray());
+    }
+
+
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current = 0;
+        private int count = 0;
+
+        void write(long value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                current = (current << 1) | (int) ((value >> i) & 1);
+                count++;
+                if (count == 8) {
+                    out.write(current);
+                    current = 0;
+                    count = 0;
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            if (count > 0) {
+                out.write(current << (8 - count));
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -70,6 +70,91 @@ public class TestHpack {
         Assert.assertEquals("value2", headers2.getHeader("header2"));
     }
 
+    @Test
+    public void testDynamicTableEviction() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders decoded = new MimeHeaders();
+        ByteBuffer output = ByteBuffer.allocate(1024);
+
+        // Enough distinct values to wrap the ring buffer several times
+        for (int i = 0; i < 500; i++) {
+            MimeHeaders headers = new MimeHeaders();
+            headers.setValue(":status").setString("200");
+            headers.setValue("x-request-id").setString("request-" + i);
+            headers.setValue("x-shared").setString("value-" + (i % 7));
+            headers.setValue("Content-Type").setString("text/plain");
+
+            output.clear();
+            Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(headers, output));
+            output.flip();
+            decoded.recycle();
+            decoder.setHeaderEmitter(new HeadersListener(decoded));
+            decoder.decode(output);
+            Assert.assertFalse(output.hasRemaining());
+
+            Assert.assertEquals("200", decoded.getHeader(":status"));
+            Assert.assertEquals("request-" + i, decoded.getHeader("x-request-id"));
+            Assert.assertEquals("value-" + (i % 7), decoded.getHeader("x-shared"));
+            Assert.assertEquals("text/plain", decoded.getHeader("content-type"));
+            Assert.assertTrue(decoder.getCurrentMemorySize() <= Hpack.DEFAULT_TABLE_SIZE);
+        }
+    }
+
+
+    @Test
+    public void testTableSizeChange() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders decoded = new MimeHeaders();
+        decoder.setHeaderEmitter(new HeadersListener(decoded));
+        ByteBuffer output = ByteBuffer.allocate(1024);
+
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("header1").setString("value1");
+        headers.setValue("header2").setString("value2");
+        encoder.encode(headers, output);
+        output.flip();
+        decoder.decode(output);
+        Assert.assertEquals(2, decoder.getFilledTableSlots());
+
+        // Empty the table
+        encoder.setMaxTableSize(0);
+        output.clear();
+        encoder.encode(headers, output);
+        output.flip();
+        decoded.recycle();
+        decoder.setHeaderEmitter(new HeadersListener(decoded));
+        decoder.decode(output);
+        Assert.assertEquals(0, decoder.getFilledTableSlots());
+        Assert.assertEquals("value2", decoded.getHeader("header2"));
+
+        // Allow the table to be used again
+        encoder.setMaxTableSize(Hpack.DEFAULT_TABLE_SIZE);
+        output.clear();
+        encoder.encode(headers, output);
+        output.flip();
+        decoded.recycle();
+        decoder.setHeaderEmitter(new HeadersListener(decoded));
+        decoder.decode(output);
+        Assert.assertEquals(2, decoder.getFilledTableSlots());
+        Assert.assertEquals("value1", decoded.getHeader("header1"));
+    }
+
+
+    @Test
+    public void testCommonHeaderNames() {
+        Assert.assertSame(Hpack.STATIC_TABLE[31].name,
+                Hpack.getCommonHeaderName(new StringBuilder("content-type"), false));
+        Assert.assertSame(Hpack.STATIC_TABLE[31].name,
+                Hpack.getCommonHeaderName("Content-Type", true));
+        Assert.assertNull(Hpack.getCommonHeaderName("Content-Type", false));
+        Assert.assertEquals("x-forwarded-for", Hpack.getCommonHeaderName("X-Forwarded-For", true));
+        Assert.assertNull(Hpack.getCommonHeaderName("x-custom", true));
+        Assert.assertNull(Hpack.getCommonHeaderName("", true));
+    }
+
+
     private static class HeadersListener implements HpackDecoder.HeaderEmitter {
         private final MimeHeaders headers;
         public HeadersListener(MimeHeaders headers) {
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for Section 3.4 of
+ * <a href="https://tools.ietf.org/html/rfc7540">RFC 7540</a>.
+ * <br>
+ * The order of tests in this class is aligned with the order of the
+ * requirements in the RFC.
+ */
+public class TestHttp2Section_3_4 extends Http2TestBase {
+
+    @Test
+    public void testConnectionPrefaceWithPriorKnowledge() throws Exception {
+        enableHttp2();
+        configureAndStartWebApplication();
+        openClientConnection();
+
+        sendClientPreface();
+        validatePriorKnowledgeResponse();
+    }
+
+
+    @Test
+    public void testConnectionPrefaceSplitWithPriorKnowledge() throws Exception {
+        enableHttp2();
+        configureAndStartWebApplication();
+        openClientConnection();
+
+        // Send the preface in several parts so the server has to read more
+        // than once to recognise it
+        byte[] preface = Http2Parser.CLIENT_PREFACE_START;
+        os.write(preface, 0, 3);
+        os.flush();
+        Thread.sleep(200);
+        os.write(preface, 3, 10);
+        os.flush();
+        Thread.sleep(200);
+        os.write(preface, 13, preface.length - 13);
+        os.flush();
+        sendSettings(0, false);
+
+        validatePriorKnowledgeResponse();
+    }
+
+
+    private void validatePriorKnowledgeResponse() throws Exception {
+        // - settings (server settings - must be first)
+        // - settings ack (for the settings frame in the client preface)
+        // - ping
+        parser.readFrame(true);
+        parser.readFrame(true);
+        parser.readFrame(true);
+
+        Assert.assertEquals("0-Settings-[3]-[200]\n" +
+                "0-Settings-End\n" +
+                "0-Settings-Ack\n" +
+                "0-Ping-[0,0,0,0,0,0,0,1]\n", output.getTrace());
+        output.clearTrace();
+
+        sendSimpleGetRequest(1);
+        readSimpleGetResponse();
+        Assert.assertEquals(getSimpleResponseTrace(1), output.getTrace());
+    }
+}
@@ -17,12 +17,17 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.modeler.Registry;
 
 public class TestHttp2UpgradeHandler extends Http2TestBase {
 
@@ -68,4 +73,58 @@ public class TestHttp2UpgradeHandler extends Http2TestBase {
                 "3-EndOfStream\n", output.getTrace());
     }
 
+
+    @Test
+    public void testStatistics() throws Exception {
+        http2Connect();
+
+        sendSimplePostRequest(3, null);
+        readSimplePostResponse(false);
+        sendSimpleGetRequest(5);
+        readSimpleGetResponse();
+
+        Http2Protocol http2Protocol =
+                (Http2Protocol) getTomcatInstance().getConnector().findUpgradeProtocols()[0];
+        Assert.assertEquals(1, http2Protocol.getConnectionCount());
+        Assert.assertEquals(1, http2Protocol.getTotalConnectionCount());
+        // Streams 1 (the upgrade request), 3 and 5
+        Assert.assertEquals(3, http2Protocol.getStreamCount());
+        Assert.assertEquals(1, http2Protocol.getPeakConcurrentStreams());
+        Assert.assertEquals(128, http2Protocol.getBytesReceived());
+        Assert.assertTrue(http2Protocol.getBytesSent() >= 128);
+
+        // The statistics are available via JMX
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("*:type=UpgradeProtocol,upgradeProtocol=h2c,*"), null);
+        Assert.assertEquals(1, names.size());
+        Assert.assertEquals(Long.valueOf(3), mbeanServer.getAttribute(
+                names.iterator().next(), "streamCount"));
+    }
+
+
+    @Test
+    public void testPushDeduplication() {
+        Http2Protocol protocol = new Http2Protocol();
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(protocol, null, null);
+
+        String css = "http://localhost/style.css";
+        String js = "http://localhost/script.js";
+        Assert.assertTrue(handler.isPushRequired("GET " + css, css));
+        // Not recorded until the PUSH_PROMISE has been written
+        Assert.assertTrue(handler.isPushRequired("GET " + css, css));
+        handler.registerPush("GET " + css);
+        Assert.assertTrue(handler.isPushRequired("GET " + js, js));
+        handler.registerPush("GET " + js);
+        // Already pushed on this connection
+        Assert.assertFalse(handler.isPushRequired("GET " + css, css));
+        // A push with a different method is a different push
+        Assert.assertTrue(handler.isPushRequired("HEAD " + css, css));
+
+        // Pushes are only skipped within a connection
+        Http2UpgradeHandler other = new Http2UpgradeHandler(protocol, null, null);
+        Assert.assertTrue(other.isPushRequired("GET " + css, css));
+
+        Assert.assertEquals(1, protocol.getPushSkippedCount());
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+
+public class TestHttp2WriteBatching extends Http2TestBase {
+
+    @Test
+    public void testWindowUpdateThreshold() throws Exception {
+        enableHttp2();
+        configureAndStartWebApplication();
+
+        Http2Protocol http2Protocol =
+                (Http2Protocol) getTomcatInstance().getConnector().findUpgradeProtocols()[0];
+        http2Protocol.setWindowUpdateThreshold(256);
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        // 128 bytes is below the threshold. The client has sent the end of
+        // stream so no stream WINDOW_UPDATE is required.
+        sendSimplePostRequest(3, null);
+        // Headers
+        parser.readFrame(true);
+        // Body
+        parser.readFrame(true);
+
+        Assert.assertEquals("3-HeadersStart\n" +
+                "3-Header-[:status]-[200]\n" +
+                "3-Header-[date]-[Wed, 11 Nov 2015 19:18:42 GMT]\n" +
+                "3-HeadersEnd\n" +
+                "3-Body-128\n" +
+                "3-EndOfStream\n", output.getTrace());
+        output.clearTrace();
+
+        // Another 128 bytes reaches the threshold for the connection
+        sendSimplePostRequest(5, null);
+        // Connection window update
+        parser.readFrame(true);
+        // Headers
+        parser.readFrame(true);
+        // Body
+        parser.readFrame(true);
+
+        Assert.assertEquals("0-WindowSize-[256]\n" +
+                "5-HeadersStart\n" +
+                "5-Header-[:status]-[200]\n" +
+                "5-Header-[date]-[Wed, 11 Nov 2015 19:18:42 GMT]\n" +
+                "5-HeadersEnd\n" +
+                "5-Body-128\n" +
+                "5-EndOfStream\n", output.getTrace());
+    }
+
+
+    @Test
+    public void testCoalesceFramesDisabled() throws Exception {
+        enableHttp2();
+        configureAndStartWebApplication();
+
+        Http2Protocol http2Protocol =
+                (Http2Protocol) getTomcatInstance().getConnector().findUpgradeProtocols()[0];
+        http2Protocol.setCoalesceFrames(false);
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        sendPing();
+        parser.readFrame(true);
+        Assert.assertEquals("0-Ping-Ack-[0,0,0,0,0,0,0,0]\n", output.getTrace());
+        output.clearTrace();
+
+        sendSimplePostRequest(3, null);
+        readSimplePostResponse(false);
+
+        Assert.assertEquals("0-WindowSize-[128]\n" +
+                "3-WindowSize-[128]\n" +
+                "3-HeadersStart\n" +
+                "3-Header-[:status]-[200]\n" +
+                "3-Header-[date]-[Wed, 11 Nov 2015 19:18:42 GMT]\n" +
+                "3-HeadersEnd\n" +
+                "3-Body-128\n" +
+                "3-EndOfStream\n", output.getTrace());
+    }
+
+
+    /*
+     * The first write of the body fits in the stream's buffer so no DATA frame
+     * is written with the HEADERS frame. The HEADERS frame must still be sent
+     * while the servlet pauses.
+     */
+    @Test
+    public void testHeadersNotHeldBySmallWrite() throws Exception {
+        enableHttp2();
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", null);
+        Tomcat.addServlet(ctxt, "simple", new SimpleServlet());
+        ctxt.addServletMappingDecoded("/simple", "simple");
+        PauseServlet servlet = new PauseServlet();
+        Tomcat.addServlet(ctxt, "pause", servlet);
+        ctxt.addServletMappingDecoded("/pause", "pause");
+        tomcat.start();
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        byte[] frameHeader = new byte[9];
+        ByteBuffer headersPayload = ByteBuffer.allocate(128);
+        buildGetRequest(frameHeader, headersPayload, null, 3, "/pause");
+        writeFrame(frameHeader, headersPayload);
+
+        // Headers
+        parser.readFrame(true);
+        Assert.assertFalse("HEADERS frame was held until the servlet resumed",
+                servlet.resumed);
+        Assert.assertTrue(output.getTrace(), output.getTrace().startsWith("3-HeadersStart\n"));
+        servlet.latch.countDown();
+
+        while (!output.getTrace().contains("3-EndOfStream")) {
+            parser.readFrame(true);
+        }
+    }
+
+
+    private static class PauseServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile boolean resumed = false;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("application/octet-stream");
+            OutputStream os = resp.getOutputStream();
+            // Larger than the response buffer so the first 8k is passed to
+            // the stream, where it fits in the stream's buffer
+            os.write(new byte[10 * 1024]);
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resumed = true;
+        }
+    }
+}
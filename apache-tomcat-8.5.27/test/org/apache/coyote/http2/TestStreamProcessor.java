@@ -19,9 +19,12 @@ package org.apache.coyote.http2;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -111,6 +114,80 @@ public class TestStreamProcessor extends Http2TestBase {
     }
 
 
+    @Test
+    public void testNonBlockingWriteConnectionWindow() throws Exception {
+        enableHttp2();
+
+        Tomcat tomcat = getTomcatInstance();
+
+        Context ctxt = tomcat.addContext("", null);
+        Tomcat.addServlet(ctxt, "simple", new SimpleServlet());
+        ctxt.addServletMappingDecoded("/simple", "simple");
+        NonBlockingWrite servlet = new NonBlockingWrite();
+        Wrapper w = Tomcat.addServlet(ctxt, "nonblocking", servlet);
+        w.setAsyncSupported(true);
+        ctxt.addServletMappingDecoded("/nonblocking", "nonblocking");
+
+        tomcat.start();
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+        // Restore the connection window used by the response to the upgrade
+        sendWindowUpdate(0, 8192);
+
+        byte[] frameHeader = new byte[9];
+        ByteBuffer headersPayload = ByteBuffer.allocate(128);
+        buildGetRequest(frameHeader, headersPayload, null, 3, "/nonblocking");
+        writeFrame(frameHeader, headersPayload);
+        // Only the connection flow control window limits the response
+        sendWindowUpdate(3, NonBlockingWrite.RESPONSE_SIZE);
+
+        // Headers
+        parser.readFrame(true);
+        output.clearTrace();
+
+        // Read until the connection window has been used
+        int bodyRead = 0;
+        while (bodyRead < ConnectionSettingsBase.DEFAULT_INITIAL_WINDOW_SIZE) {
+            bodyRead += readBodyFrame();
+        }
+        Assert.assertEquals(ConnectionSettingsBase.DEFAULT_INITIAL_WINDOW_SIZE, bodyRead);
+
+        // The write listener should not be waiting for the client
+        int count = 0;
+        while (servlet.activeWriters.get() > 0 && count < 50) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(0, servlet.activeWriters.get());
+
+        // Opening the connection window should dispatch the stream to write
+        // the remainder of the response
+        sendWindowUpdate(0, NonBlockingWrite.RESPONSE_SIZE);
+        while (bodyRead < NonBlockingWrite.RESPONSE_SIZE) {
+            bodyRead += readBodyFrame();
+        }
+        Assert.assertEquals(NonBlockingWrite.RESPONSE_SIZE, bodyRead);
+        // The end of stream may be sent on an empty DATA frame
+        if (!output.getTrace().contains("3-EndOfStream")) {
+            parser.readFrame(true);
+        }
+        Assert.assertTrue(output.getTrace(), output.getTrace().endsWith("3-EndOfStream\n"));
+    }
+
+
+    private int readBodyFrame() throws Exception {
+        output.clearTrace();
+        parser.readFrame(true);
+        String trace = output.getTrace();
+        Assert.assertTrue(trace, trace.startsWith("3-Body-"));
+        int end = trace.indexOf('\n');
+        return Integer.parseInt(trace.substring("3-Body-".length(), end));
+    }
+
+
     private static final class AsyncComplete extends HttpServlet {
 
         private static final long serialVersionUID = 1L;
@@ -167,4 +244,52 @@ public class TestStreamProcessor extends Http2TestBase {
             });
         }
     }
+
+
+    private static final class NonBlockingWrite extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int BLOCK_SIZE = 1024;
+        private static final int BLOCK_COUNT = 128;
+        private static final int RESPONSE_SIZE = BLOCK_SIZE * BLOCK_COUNT;
+
+        private final AtomicInteger activeWriters = new AtomicInteger(0);
+
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response)
+                throws ServletException, IOException {
+
+            final AsyncContext asyncContext = request.startAsync();
+            final ServletOutputStream os = response.getOutputStream();
+            final byte[] block = new byte[BLOCK_SIZE];
+
+            os.setWriteListener(new WriteListener() {
+
+                private int blocksWritten = 0;
+
+                @Override
+                public void onWritePossible() throws IOException {
+                    activeWriters.incrementAndGet();
+                    try {
+                        while (os.isReady()) {
+                            if (blocksWritten == BLOCK_COUNT) {
+                                asyncContext.complete();
+                                return;
+                            }
+                            os.write(block);
+                            blocksWritten++;
+                        }
+                    } finally {
+                        activeWriters.decrementAndGet();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
 }
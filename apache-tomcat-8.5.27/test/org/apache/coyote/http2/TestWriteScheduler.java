@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestWriteScheduler {
+
+    private Http2UpgradeHandler connection;
+    private WriteScheduler scheduler;
+    private Stream parent;
+    private Stream light;
+    private Stream heavy;
+
+    @Before
+    public void setup() {
+        connection = new Http2UpgradeHandler(null, null);
+        scheduler = new WriteScheduler(connection);
+        // parent(16) -> light(4), heavy(12)
+        parent = new Stream(Integer.valueOf(3), connection);
+        light = new Stream(Integer.valueOf(5), connection);
+        light.rePrioritise(parent, 4);
+        heavy = new Stream(Integer.valueOf(7), connection);
+        heavy.rePrioritise(parent, 12);
+    }
+
+
+    @Test
+    public void testProportionalAllocation() {
+        Assert.assertEquals(0, scheduler.claim(light, 10000));
+        Assert.assertEquals(0, scheduler.claim(heavy, 10000));
+        Assert.assertEquals(20000, scheduler.getBacklogSize());
+
+        List<AbstractStream> notify = scheduler.release(1024);
+        Assert.assertTrue(notify.contains(light));
+        Assert.assertTrue(notify.contains(heavy));
+        Assert.assertEquals(256, scheduler.claim(light, 10000));
+        Assert.assertEquals(768, scheduler.claim(heavy, 10000));
+        Assert.assertEquals(20000 - 1024, scheduler.getBacklogSize());
+    }
+
+
+    @Test
+    public void testSmallAllocations() {
+        scheduler.claim(light, 10000);
+        scheduler.claim(heavy, 10000);
+
+        // Too small to share so the weights are applied over time
+        int lightTotal = 0;
+        int heavyTotal = 0;
+        for (int i = 0; i < 64; i++) {
+            scheduler.release(1);
+            lightTotal += scheduler.claim(light, 10000);
+            heavyTotal += scheduler.claim(heavy, 10000);
+        }
+        Assert.assertEquals(64, lightTotal + heavyTotal);
+        Assert.assertEquals(16, lightTotal);
+        Assert.assertEquals(48, heavyTotal);
+    }
+
+
+    @Test
+    public void testParentFirst() {
+        scheduler.claim(parent, 100);
+        scheduler.claim(light, 10000);
+        scheduler.claim(heavy, 10000);
+
+        scheduler.release(1124);
+        // The parent's reservation is met before the children share the rest
+        Assert.assertEquals(100, scheduler.claim(parent, 100));
+        Assert.assertEquals(256, scheduler.claim(light, 10000));
+        Assert.assertEquals(768, scheduler.claim(heavy, 10000));
+    }
+
+
+    @Test
+    public void testReservationLimitsAllocation() {
+        scheduler.claim(light, 100);
+        scheduler.claim(heavy, 10000);
+
+        scheduler.release(1024);
+        // Allocation the light stream can not use goes to the heavy stream
+        Assert.assertEquals(100, scheduler.claim(light, 100));
+        Assert.assertEquals(924, scheduler.claim(heavy, 10000));
+
+        // The light stream has left the backlog and joins it again
+        Assert.assertEquals(0, scheduler.claim(light, 100));
+    }
+
+
+    @Test
+    public void testCancel() {
+        scheduler.claim(light, 10000);
+        scheduler.claim(heavy, 10000);
+        scheduler.cancel(light);
+        Assert.assertEquals(10000, scheduler.getBacklogSize());
+
+        scheduler.release(1024);
+        Assert.assertEquals(1024, scheduler.claim(heavy, 10000));
+    }
+
+
+    @Test
+    public void testReleaseAll() {
+        scheduler.claim(light, 100);
+        scheduler.claim(heavy, 100);
+
+        List<AbstractStream> notify = scheduler.release(1024);
+        Assert.assertTrue(notify.contains(light));
+        Assert.assertTrue(notify.contains(heavy));
+        // The streams are no longer in the backlog and will allocate directly
+        // from the connection window
+        Assert.assertEquals(0, scheduler.getBacklogSize());
+    }
+}
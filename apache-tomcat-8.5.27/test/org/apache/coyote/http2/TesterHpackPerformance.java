@@ -0,0 +1,167 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Reports the time taken and the memory allocated to encode and decode a
+ * typical set of HTTP/2 request and response header blocks on a single
+ * connection.
+ */
+public class TesterHpackPerformance {
+
+    private static final int BLOCKS = 1000000;
+
+
+    @Test
+    public void testEncode() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue(":status").setString("200");
+        headers.setValue("Content-Type").setString("application/json");
+        headers.setValue("Cache-Control").setString("no-cache");
+        headers.setValue("Vary").setString("Accept-Encoding");
+        headers.setValue("X-Content-Type-Options").setString("nosniff");
+        headers.setValue("Server").setString("Apache-Coyote/1.1");
+
+        HpackEncoder encoder = new HpackEncoder();
+        ByteBuffer output = ByteBuffer.allocate(1024);
+
+        // Warm up
+        for (int i = 0; i < BLOCKS; i++) {
+            output.clear();
+            encoder.encode(headers, output);
+        }
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCKS; i++) {
+            output.clear();
+            encoder.encode(headers, output);
+        }
+        long duration = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+
+        report("Encode", duration, allocated);
+    }
+
+
+    @Test
+    public void testDecode() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue(":method").setString("GET");
+        headers.setValue(":scheme").setString("https");
+        headers.setValue(":path").setString("/api/v1/items");
+        headers.setValue(":authority").setString("www.example.org");
+        headers.setValue("accept").setString("application/json");
+        headers.setValue("accept-encoding").setString("gzip, deflate, br");
+        headers.setValue("user-agent").setString("Mozilla/5.0 (X11; Linux x86_64)");
+        headers.setValue("x-requested-with").setString("XMLHttpRequest");
+
+        // The first block populates the decoder's dynamic table and the
+        // following blocks only contain references to it
+        HpackEncoder encoder = new HpackEncoder();
+        ByteBuffer first = ByteBuffer.allocate(1024);
+        encoder.encode(headers, first);
+        first.flip();
+        ByteBuffer indexed = ByteBuffer.allocate(1024);
+        encoder.encode(headers, indexed);
+        indexed.flip();
+
+        HpackDecoder decoder = new HpackDecoder();
+        HpackDecoder.HeaderEmitter emitter = new NoOpEmitter();
+        decoder.setHeaderEmitter(emitter);
+        decoder.decode(first);
+
+        // Warm up
+        for (int i = 0; i < BLOCKS; i++) {
+            indexed.rewind();
+            // Resets the header count and size limits
+            decoder.setHeaderEmitter(emitter);
+            decoder.decode(indexed);
+        }
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < BLOCKS; i++) {
+            indexed.rewind();
+            // Resets the header count and size limits
+            decoder.setHeaderEmitter(emitter);
+            decoder.decode(indexed);
+        }
+        long duration = System.nanoTime() - start;
+        allocated = getAllocatedBytes() - allocated;
+
+        report("Decode", duration, allocated);
+    }
+
+
+    private static void report(String operation, long duration, long allocated) {
+        StringBuilder msg = new StringBuilder(operation);
+        msg.append(": ");
+        msg.append(duration / BLOCKS);
+        msg.append("ns per header block");
+        if (allocated >= 0) {
+            msg.append(", ");
+            msg.append(allocated / BLOCKS);
+            msg.append(" bytes allocated per header block");
+        }
+        System.out.println(msg);
+    }
+
+
+    /*
+     * Uses the extended ThreadMXBean provided by HotSpot based JVMs if it is
+     * available. Returns -1 if the allocated bytes cannot be measured.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        try {
+            Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod(
+                    "getThreadAllocatedBytes", long.class);
+            return ((Long) m.invoke(bean, Long.valueOf(Thread.currentThread().getId()))).longValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+
+    private static class NoOpEmitter implements HpackDecoder.HeaderEmitter {
+
+        @Override
+        public void emitHeader(String name, String value) {
+            // NO-OP
+        }
+
+        @Override
+        public void setHeaderException(StreamException streamException) {
+            // NO-OP
+        }
+
+        @Override
+        public void validateHeaders() throws StreamException {
+            // NO-OP
+        }
+    }
+}
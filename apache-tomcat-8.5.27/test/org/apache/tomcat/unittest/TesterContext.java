@@ -1277,4 +1277,14 @@ public class TesterContext implements Context {
     public void setResponseCharacterEncoding(String encoding) { /* NO-OP */ }
     @Override
     public String getResponseCharacterEncoding() { return null; }
+
+    @Override
+    public void setParallelAnnotationScanning(boolean parallelAnnotationScanning) { /* NO-OP */ }
+    @Override
+    public boolean getParallelAnnotationScanning() { return false; }
+
+    @Override
+    public void setUseAnnotationScanIndex(boolean useAnnotationScanIndex) { /* NO-OP */ }
+    @Override
+    public boolean getUseAnnotationScanIndex() { return false; }
 }
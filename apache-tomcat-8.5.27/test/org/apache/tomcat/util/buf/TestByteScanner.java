@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestByteScanner {
+
+    @Test
+    public void testNoMatch() {
+        ByteBuffer buffer = ByteBuffer.wrap("abcdefghijklmnopqrstuvwxyz".getBytes());
+        doTest(buffer, 0, buffer.limit());
+    }
+
+
+    @Test
+    public void testEmpty() {
+        ByteBuffer buffer = ByteBuffer.allocate(0);
+        Assert.assertEquals(-1, ByteScanner.indexOfCrOrLf(buffer, 0, 0));
+    }
+
+
+    @Test
+    public void testEveryPosition() {
+        for (int length = 1; length < 40; length++) {
+            for (int match = 0; match < length; match++) {
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = 'a';
+                }
+                bytes[match] = (match % 2 == 0) ? (byte) '\r' : (byte) '\n';
+                for (int start = 0; start < length; start++) {
+                    doTest(ByteBuffer.wrap(bytes), start, length);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testBytesNearCrAndLf() {
+        // Bytes that differ from CR or LF in a single bit and bytes with the
+        // high bit set must not be reported
+        byte[] bytes = new byte[] { 0x0C, 0x0E, 0x0B, 0x08, 0x1D, 0x2A, (byte) 0x8D,
+                (byte) 0x8A, (byte) 0xFF, 0x00, 0x7F, 0x05, 0x0D, 0x0A };
+        doTest(ByteBuffer.wrap(bytes), 0, bytes.length);
+        Assert.assertEquals(12, ByteScanner.indexOfCrOrLf(ByteBuffer.wrap(bytes), 0, bytes.length));
+    }
+
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            byte[] bytes = new byte[random.nextInt(64) + 1];
+            random.nextBytes(bytes);
+            int start = random.nextInt(bytes.length);
+            int end = start + random.nextInt(bytes.length - start + 1);
+            doTest(ByteBuffer.wrap(bytes), start, end);
+        }
+    }
+
+
+    private static void doTest(ByteBuffer buffer, int start, int end) {
+        int expected = -1;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\r' || buffer.get(i) == '\n') {
+                expected = i;
+                break;
+            }
+        }
+        Assert.assertEquals(expected, ByteScanner.indexOfCrOrLf(buffer, start, end, false));
+        Assert.assertEquals(expected, ByteScanner.indexOfCrOrLf(buffer, start, end, true));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(expected, ByteScanner.indexOfCrOrLf(buffer, start, end, true));
+        buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStripedStack {
+
+    @Test
+    public void testPopEmpty() {
+        StripedStack<Object> stack = new StripedStack<>();
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testStripeCount() {
+        Assert.assertEquals(1, new StripedStack<>(8, -1, 1).getStripeCount());
+        Assert.assertEquals(4, new StripedStack<>(8, -1, 3).getStripeCount());
+        Assert.assertEquals(8, new StripedStack<>(8, -1, 8).getStripeCount());
+    }
+
+    @Test
+    public void testPushPopSingleThread() {
+        StripedStack<Object> stack = new StripedStack<>();
+
+        Set<Object> pushed = Collections.newSetFromMap(new IdentityHashMap<Object,Boolean>());
+        for (int i = 0; i < 300; i++) {
+            Object o = new Object();
+            pushed.add(o);
+            Assert.assertTrue(stack.push(o));
+        }
+
+        for (int i = 0; i < 300; i++) {
+            Object o = stack.pop();
+            Assert.assertNotNull(o);
+            Assert.assertTrue(pushed.remove(o));
+        }
+
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testLimit() {
+        StripedStack<Object> stack = new StripedStack<>(2, 10, 2);
+
+        int accepted = 0;
+        for (int i = 0; i < 20; i++) {
+            if (stack.push(new Object())) {
+                accepted++;
+            }
+        }
+        // A single thread can only use its own stripe and the overflow pool
+        Assert.assertTrue(accepted > 0);
+        Assert.assertTrue(accepted <= 10);
+
+        for (int i = 0; i < accepted; i++) {
+            Assert.assertNotNull(stack.pop());
+        }
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testLimitZero() {
+        StripedStack<Object> stack = new StripedStack<>(128, 0, 4);
+        Assert.assertFalse(stack.push(new Object()));
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testClear() {
+        StripedStack<Object> stack = new StripedStack<>();
+        for (int i = 0; i < 100; i++) {
+            stack.push(new Object());
+        }
+        stack.clear();
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testPopFromOtherThreadStripe() throws InterruptedException {
+        final StripedStack<Object> stack = new StripedStack<>(128, -1, 16);
+        final Object o = new Object();
+
+        // Push from a different thread so the object ends up in that thread's
+        // stripe
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                stack.push(o);
+            }
+        };
+        t.start();
+        t.join();
+
+        Assert.assertSame(o, stack.pop());
+        Assert.assertNull(stack.pop());
+    }
+
+    @Test
+    public void testConcurrentNoDuplicates() throws InterruptedException {
+        final StripedStack<AtomicInteger> stack = new StripedStack<>();
+        final int threadCount = 8;
+        final int iterations = 100000;
+        final AtomicInteger failures = new AtomicInteger(0);
+
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < iterations; j++) {
+                        AtomicInteger inUse = stack.pop();
+                        if (inUse == null) {
+                            inUse = new AtomicInteger(0);
+                        }
+                        // An object must never be handed to two threads at once
+                        if (!inUse.compareAndSet(0, 1)) {
+                            failures.incrementAndGet();
+                        }
+                        inUse.set(0);
+                        stack.push(inUse);
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertEquals(0, failures.get());
+    }
+}
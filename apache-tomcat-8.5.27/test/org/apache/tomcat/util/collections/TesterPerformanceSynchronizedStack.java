@@ -21,14 +21,23 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 
 import org.junit.Test;
 
+/*
+ * Compares the object pools used on the request processing hot path. Since the
+ * objects are usually borrowed and returned by different threads, run with a
+ * thread count at least equal to the number of cores on the test system.
+ */
 public class TesterPerformanceSynchronizedStack {
 
-    private static final int THREAD_COUNT = 4;
+    private static final int THREAD_COUNT =
+            Math.max(4, Runtime.getRuntime().availableProcessors());
     private static final int ITERATIONS = 1000000;
 
     private static final SynchronizedStack<Object> STACK =
             new SynchronizedStack<>();
 
+    private static final SynchronizedStack<Object> STRIPED_STACK =
+            new StripedStack<>();
+
     private static final Queue<Object> QUEUE = new ConcurrentLinkedQueue<>();
 
     @Test
@@ -68,6 +77,43 @@ public class TesterPerformanceSynchronizedStack {
         }
     }
 
+    @Test
+    public void testStripedStack() throws InterruptedException {
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new StripedStackThread();
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].start();
+        }
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].join();
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("StripedStack: " + (end - start) + "ms");
+    }
+
+    public static class StripedStackThread extends Thread {
+
+        @Override
+        public void run() {
+            for(int i = 0; i < ITERATIONS; i++) {
+                Object obj = STRIPED_STACK.pop();
+                if (obj == null) {
+                    obj = new Object();
+                }
+                STRIPED_STACK.push(obj);
+            }
+            super.run();
+        }
+    }
+
     @Test
     public void testConcurrentQueue() throws InterruptedException {
         Thread[] threads = new Thread[THREAD_COUNT];
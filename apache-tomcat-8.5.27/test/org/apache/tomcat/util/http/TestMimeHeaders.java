@@ -16,6 +16,9 @@
  */
 package org.apache.tomcat.util.http;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -61,4 +64,75 @@ public class TestMimeHeaders {
         Assert.assertEquals(HEADER_NAME_MIXED_STRING, mh.getValue(HEADER_NAME_MIXED_STRING).toString());
     }
 
+    @Test
+    public void testIndexedLookup() {
+        doTestLookup(MimeHeaders.INDEX_THRESHOLD + 10);
+    }
+
+    @Test
+    public void testLinearLookup() {
+        doTestLookup(MimeHeaders.INDEX_THRESHOLD - 4);
+    }
+
+    private void doTestLookup(int headerCount) {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < headerCount; i++) {
+            byte[] name = ("X-Header-" + i).getBytes(StandardCharsets.ISO_8859_1);
+            mh.addValue(name, 0, name.length).setString("value-" + i);
+        }
+        for (int i = 0; i < headerCount; i++) {
+            Assert.assertEquals("value-" + i, mh.getHeader("x-header-" + i));
+            Assert.assertEquals(i, mh.findHeader("X-HEADER-" + i, 0));
+            Assert.assertEquals(-1, mh.findHeader("X-HEADER-" + i, i + 1));
+        }
+        Assert.assertNull(mh.getValue("x-header-missing"));
+
+        // Added after the first lookup
+        mh.addValue("Dup").setString("a");
+        mh.addValue("Other").setString("b");
+        mh.addValue("dup").setString("c");
+        Assert.assertEquals("b", mh.getHeader("OTHER"));
+        Assert.assertEquals("a", mh.getHeader("DUP"));
+        Assert.assertEquals(headerCount, mh.findHeader("dup", 0));
+        Assert.assertEquals(headerCount + 2, mh.findHeader("dup", headerCount + 1));
+        Enumeration<String> values = mh.values("dUp");
+        Assert.assertEquals("a", values.nextElement());
+        Assert.assertEquals("c", values.nextElement());
+        Assert.assertFalse(values.hasMoreElements());
+        try {
+            mh.getUniqueValue("dup");
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+
+        // Removal swaps the last header into the removed position
+        mh.removeHeader("x-header-1");
+        Assert.assertNull(mh.getValue("X-Header-1"));
+        Assert.assertEquals("c", mh.getHeader("dup"));
+        mh.setValue("Dup").setString("d");
+        Assert.assertEquals("d", mh.getUniqueValue("dup").toString());
+        for (int i = 0; i < headerCount; i++) {
+            if (i != 1) {
+                Assert.assertEquals("value-" + i, mh.getHeader("x-header-" + i));
+            }
+        }
+
+        mh.recycle();
+        Assert.assertNull(mh.getValue("dup"));
+        Assert.assertNull(mh.getValue("x-header-0"));
+    }
+
+    @Test
+    public void testNonAsciiName() {
+        MimeHeaders mh = new MimeHeaders();
+        for (int i = 0; i < MimeHeaders.INDEX_THRESHOLD; i++) {
+            mh.addValue("X-Header-" + i).setString("value-" + i);
+        }
+        // Kelvin sign is equal to 'k' ignoring case
+        mh.addValue("\u212a").setString("kelvin");
+        Assert.assertEquals("kelvin", mh.getHeader("k"));
+        Assert.assertEquals("value-3", mh.getHeader("x-header-3"));
+        Assert.assertEquals("kelvin", mh.getHeader("\u212a"));
+    }
 }
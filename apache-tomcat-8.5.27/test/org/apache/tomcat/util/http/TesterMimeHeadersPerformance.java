@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/*
+ * Compares indexed and linear header lookups for a range of header counts.
+ * Each iteration parses the header names into a recycled MimeHeaders instance
+ * and then looks up a mix of present and absent headers, as a request with
+ * many headers typically would.
+ */
+public class TesterMimeHeadersPerformance {
+
+    private static final int ITERATIONS = 200000;
+
+    private static final String[] LOOKUPS = new String[] {
+            "host", "content-length", "transfer-encoding", "connection",
+            "expect", "user-agent", "content-type", "x-header-7",
+            "accept-encoding", "x-missing" };
+
+    @Test
+    public void testLookup() {
+        for (int headerCount : new int[] { 8, 16, 32, 64, 100 }) {
+            doTestLookup(headerCount);
+        }
+    }
+
+
+    private void doTestLookup(int headerCount) {
+        byte[][] names = new byte[headerCount][];
+        String[] fixed = new String[] { "Host", "User-Agent", "Accept",
+                "Accept-Encoding", "Connection", "Content-Type" };
+        for (int i = 0; i < headerCount; i++) {
+            String name = i < fixed.length ? fixed[i] : "X-Header-" + i;
+            names[i] = name.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        MimeHeaders mh = new MimeHeaders();
+
+        // Warm up
+        run(mh, names, true);
+        run(mh, names, false);
+
+        long indexed = run(mh, names, true);
+        long linear = run(mh, names, false);
+
+        System.out.println(headerCount + " headers: indexed " + indexed / 1000000 +
+                "ms, linear " + linear / 1000000 + "ms");
+    }
+
+
+    private long run(MimeHeaders mh, byte[][] names, boolean useIndex) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (byte[] name : names) {
+                mh.addValue(name, 0, name.length);
+            }
+            for (String lookup : LOOKUPS) {
+                int pos = useIndex ? mh.findHeader(lookup, 0) : mh.findHeaderLinear(lookup, 0);
+                if (pos >= 0) {
+                    found++;
+                }
+            }
+            mh.recycle();
+        }
+        long duration = System.nanoTime() - start;
+        if (found == 0) {
+            System.out.println("No headers found");
+        }
+        return duration;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.channels.ServerSocketChannel;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.modeler.Registry;
+
+public class TestNioEndpoint extends TomcatBaseTest {
+
+    @Test
+    public void testReusePort() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+
+        Assume.assumeTrue("This test is only relevant for NIO",
+                Http11NioProtocol.class.getName().equals(
+                        connector.getProtocolHandlerClassName()));
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            Assume.assumeTrue("SO_REUSEPORT is not supported",
+                    JreCompat.getInstance().isReusePortSupported(channel));
+        }
+
+        connector.setAttribute("reusePort", "true");
+        connector.setAttribute("pollerThreadCount", "4");
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        // One acceptor per poller
+        Assert.assertEquals(Integer.valueOf(4), connector.getProperty("acceptorThreadCount"));
+
+        for (int i = 0; i < 32; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        // Check the endpoint can be paused and resumed with multiple server
+        // sockets. All the acceptors share one unlock timeout.
+        long start = System.nanoTime();
+        connector.pause();
+        long pauseMillis = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("Pause took " + pauseMillis + "ms", pauseMillis < 2000);
+        connector.resume();
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+        Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+    }
+
+
+    @Test
+    public void testBufferArena() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+
+        Assume.assumeTrue("This test is only relevant for NIO",
+                Http11NioProtocol.class.getName().equals(
+                        connector.getProtocolHandlerClassName()));
+
+        Assert.assertTrue(connector.setProperty("socket.bufferArena", "true"));
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName(connector.getDomain() + ":type=ThreadPool,*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName threadPool = names.iterator().next();
+
+        for (int i = 0; i < 32; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        long borrowCount = ((Long) mbeanServer.getAttribute(
+                threadPool, "bufferArenaBorrowCount")).longValue();
+        Assert.assertTrue(borrowCount > 0);
+        long capacity = ((Long) mbeanServer.getAttribute(
+                threadPool, "bufferArenaCapacity")).longValue();
+        Assert.assertTrue(capacity > 0);
+
+        // The buffers are returned once the keep-alive connections are idle
+        int count = 0;
+        int inUse = -1;
+        while (count < 50) {
+            inUse = ((Integer) mbeanServer.getAttribute(
+                    threadPool, "bufferArenaBuffersInUse")).intValue();
+            if (inUse == 0) {
+                break;
+            }
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(0, inUse);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSocketBufferArena {
+
+    private static final int SIZE = 1024;
+
+
+    @Test
+    public void testAllocateRelease() {
+        SocketBufferArena arena = new SocketBufferArena(SIZE);
+
+        ByteBuffer[] buffers = new ByteBuffer[SocketBufferArena.BUFFERS_PER_SLAB + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = arena.allocate();
+            Assert.assertTrue(buffers[i].isDirect());
+            Assert.assertEquals(SIZE, buffers[i].capacity());
+            Assert.assertEquals(0, buffers[i].position());
+            Assert.assertEquals(SIZE, buffers[i].limit());
+        }
+        Assert.assertEquals(2, arena.getSlabCount());
+        Assert.assertEquals(2L * SocketBufferArena.BUFFERS_PER_SLAB * SIZE, arena.getCapacity());
+        Assert.assertEquals(buffers.length, arena.getBuffersInUse());
+
+        // Buffers sliced from the same slab must not overlap
+        buffers[0].put(0, (byte) 1);
+        Assert.assertEquals(0, buffers[1].get(0));
+
+        for (ByteBuffer buffer : buffers) {
+            buffer.put((byte) 'x');
+            arena.release(buffer);
+        }
+        Assert.assertEquals(0, arena.getBuffersInUse());
+
+        // Released buffers are reused and are cleared
+        ByteBuffer buffer = arena.allocate();
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(2, arena.getSlabCount());
+        Assert.assertEquals(buffers.length + 1, arena.getBorrowCount());
+    }
+
+
+    @Test
+    public void testHandlerBorrowsOnDemand() {
+        SocketBufferArena arena = new SocketBufferArena(SIZE);
+        SocketBufferHandler handler = new SocketBufferHandler(arena, arena);
+
+        Assert.assertTrue(handler.isReadBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferWritable());
+        Assert.assertEquals(0, arena.getBuffersInUse());
+
+        handler.configureReadBufferForRead();
+        Assert.assertEquals(0, handler.getReadBuffer().remaining());
+        Assert.assertEquals(1, arena.getBuffersInUse());
+
+        handler.configureReadBufferForWrite();
+        handler.getReadBuffer().put((byte) 'a');
+        handler.configureWriteBufferForWrite();
+        handler.getWriteBuffer().put((byte) 'b');
+        Assert.assertEquals(2, arena.getBuffersInUse());
+
+        // Buffers holding data are retained
+        handler.releaseIdleBuffers();
+        Assert.assertEquals(2, arena.getBuffersInUse());
+
+        handler.configureReadBufferForRead();
+        Assert.assertEquals('a', handler.getReadBuffer().get());
+        handler.releaseIdleBuffers();
+        Assert.assertEquals(1, arena.getBuffersInUse());
+
+        handler.configureWriteBufferForRead();
+        Assert.assertEquals('b', handler.getWriteBuffer().get());
+        handler.releaseIdleBuffers();
+        Assert.assertEquals(0, arena.getBuffersInUse());
+    }
+
+
+    @Test
+    public void testHandlerExpand() {
+        SocketBufferArena arena = new SocketBufferArena(SIZE);
+        SocketBufferHandler handler = new SocketBufferHandler(arena, arena);
+
+        handler.configureReadBufferForWrite();
+        handler.getReadBuffer().put((byte) 'a');
+        Assert.assertEquals(1, arena.getBuffersInUse());
+
+        handler.expand(SIZE * 2);
+        // Borrowed buffer returned, data retained in the new buffer
+        Assert.assertEquals(0, arena.getBuffersInUse());
+        Assert.assertEquals(SIZE * 2, handler.getReadBuffer().capacity());
+        Assert.assertEquals(SIZE * 2, handler.getWriteBuffer().capacity());
+        handler.configureReadBufferForRead();
+        Assert.assertEquals('a', handler.getReadBuffer().get());
+
+        // Expanded buffers are never returned to the arena
+        handler.releaseIdleBuffers();
+        Assert.assertEquals(SIZE * 2, handler.getReadBuffer().capacity());
+        Assert.assertEquals(0, arena.getBuffersInUse());
+
+        handler.free();
+        Assert.assertEquals(0, arena.getBuffersInUse());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestThreadPoolExecutor {
+
+    private static final int MIN_THREADS = 2;
+    private static final int MAX_THREADS = 50;
+
+
+    @Test
+    public void testAdaptiveDisabledByDefault() {
+        ThreadPoolExecutor executor = createExecutor();
+        try {
+            Assert.assertFalse(executor.isAdaptive());
+            Assert.assertEquals(-1, executor.getTargetQueueDelay(TimeUnit.MILLISECONDS));
+            Assert.assertEquals(-1, executor.getQueueDelay(), 0);
+
+            executor.setTargetQueueDelay(100, TimeUnit.MILLISECONDS);
+            Assert.assertTrue(executor.isAdaptive());
+            Assert.assertEquals(100, executor.getTargetQueueDelay(TimeUnit.MILLISECONDS));
+
+            executor.setTargetQueueDelay(-1, TimeUnit.MILLISECONDS);
+            Assert.assertFalse(executor.isAdaptive());
+            Assert.assertEquals(MIN_THREADS, executor.getCorePoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testMinimumPoolSize() {
+        ThreadPoolExecutor executor = createExecutor();
+        try {
+            executor.setTargetQueueDelay(100, TimeUnit.MILLISECONDS);
+            executor.setCorePoolSize(5);
+            Assert.assertEquals(5, executor.getMinimumPoolSize());
+            Assert.assertEquals(5, executor.getCorePoolSize());
+
+            executor.setTargetQueueDelay(-1, TimeUnit.MILLISECONDS);
+            Assert.assertEquals(5, executor.getCorePoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testBurstWithoutAdaptiveSizing() throws Exception {
+        ThreadPoolExecutor executor = createExecutor();
+        try {
+            runBurst(executor);
+            // Every task that found no idle thread created a new one
+            Assert.assertEquals(MAX_THREADS, executor.getLargestPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testBurstWithAdaptiveSizing() throws Exception {
+        ThreadPoolExecutor executor = createExecutor();
+        try {
+            // Generous target so the burst can be absorbed by the queue
+            executor.setTargetQueueDelay(2000, TimeUnit.MILLISECONDS);
+
+            // Establish the arrival rate
+            long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+            while (System.nanoTime() < end) {
+                executor.execute(new SleepTask(1, null));
+                Thread.sleep(2);
+            }
+            Assert.assertTrue(executor.getArrivalRate() > 0);
+            int poolSizeBeforeBurst = executor.getPoolSize();
+
+            runBurst(executor);
+
+            Assert.assertTrue(executor.getLargestPoolSize() < MAX_THREADS);
+            Assert.assertTrue(executor.getPoolSize() <= poolSizeBeforeBurst + 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testShrinkWhenIdle() throws Exception {
+        ThreadPoolExecutor executor = createExecutor();
+        try {
+            executor.setTargetQueueDelay(10, TimeUnit.MILLISECONDS);
+
+            // No arrival rate has been measured so every task that finds no
+            // idle thread creates a new one
+            runBurst(executor);
+            Assert.assertTrue(executor.getPoolSize() > MIN_THREADS);
+
+            // Idle threads are released well before the keep alive time
+            int count = 0;
+            while (executor.getPoolSize() > MIN_THREADS && count < 200) {
+                Thread.sleep(50);
+                count++;
+            }
+            Assert.assertEquals(MIN_THREADS, executor.getPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static ThreadPoolExecutor createExecutor() {
+        TaskQueue taskqueue = new TaskQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MIN_THREADS, MAX_THREADS,
+                60, TimeUnit.SECONDS, taskqueue, new TaskThreadFactory("test-exec-", true,
+                        Thread.NORM_PRIORITY));
+        taskqueue.setParent(executor);
+        return executor;
+    }
+
+
+    private static void runBurst(ThreadPoolExecutor executor) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(MAX_THREADS);
+        for (int i = 0; i < MAX_THREADS; i++) {
+            executor.execute(new SleepTask(20, latch));
+        }
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+
+    private static class SleepTask implements Runnable {
+
+        private final long sleep;
+        private final CountDownLatch latch;
+
+        SleepTask(long sleep, CountDownLatch latch) {
+            this.sleep = sleep;
+            this.latch = latch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            if (latch != null) {
+                latch.countDown();
+            }
+        }
+    }
+}
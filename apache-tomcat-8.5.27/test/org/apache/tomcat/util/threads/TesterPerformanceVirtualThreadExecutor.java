@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/*
+ * Compares a platform thread pool sized as a typical blocking connector
+ * (maxThreads="400") with the virtual thread executor for tasks that spend
+ * most of their time blocked, as servlets performing blocking I/O or JDBC calls
+ * do.
+ */
+public class TesterPerformanceVirtualThreadExecutor {
+
+    private static final int TASK_COUNT = 10000;
+    private static final int BLOCK_MILLIS = 100;
+    private static final int PLATFORM_MAX_THREADS = 400;
+
+
+    @Test
+    public void testPlatformThreadPool() throws Exception {
+        TaskQueue taskqueue = new TaskQueue();
+        TaskThreadFactory tf = new TaskThreadFactory("platform-", true, Thread.NORM_PRIORITY);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(25, PLATFORM_MAX_THREADS,
+                60, TimeUnit.SECONDS, taskqueue, tf);
+        taskqueue.setParent(executor);
+
+        doTest("Platform thread pool", executor);
+    }
+
+
+    @Test
+    public void testVirtualThreadExecutor() throws Exception {
+        Assume.assumeTrue("Virtual threads are not supported",
+                VirtualThreadExecutor.isSupported());
+
+        doTest("Virtual threads", new VirtualThreadExecutor("virtual-"));
+    }
+
+
+    private void doTest(String name, ExecutorService executor) throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        threadMXBean.resetPeakThreadCount();
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+
+        final CountDownLatch done = new CountDownLatch(TASK_COUNT);
+        long start = System.nanoTime();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(BLOCK_MILLIS);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        long heapPeak = runtime.totalMemory() - runtime.freeMemory();
+        done.await();
+        long duration = System.nanoTime() - start;
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        System.out.println(name + ": " + TASK_COUNT + " tasks in " +
+                TimeUnit.NANOSECONDS.toMillis(duration) + "ms, " +
+                (TASK_COUNT * 1000000000L / duration) + " tasks/s, peak platform threads " +
+                threadMXBean.getPeakThreadCount() + ", heap growth while submitting " +
+                ((heapPeak - heapBefore) / 1024) + "kB");
+    }
+}